@@ -1,5 +1,6 @@
 import com.github.benmanes.gradle.versions.updates.DependencyUpdatesTask
 import com.google.protobuf.gradle.GenerateProtoTask
+import org.jetbrains.kotlin.gradle.dsl.KotlinJvmProjectExtension
 import org.jetbrains.kotlin.gradle.tasks.KotlinCompilationTask
 
 plugins {
@@ -16,6 +17,11 @@ tasks.named<Wrapper>("wrapper") {
   distributionType = Wrapper.DistributionType.ALL
 }
 
+/**
+ * The light is calculated with the Vector API when its incubator module is added to the JVM, see LightMapKernels
+ */
+val vectorModuleJvmArgs = listOf("--add-modules", "jdk.incubator.vector")
+
 fun getGitVersion(): String {
   val file = File(project.projectDir, "./core/src/main/resources/version")
   if (!file.exists() || !file.canRead()) {
@@ -70,6 +76,7 @@ allprojects {
 
   tasks.withType<JavaExec> {
     isIgnoreExitValue = true
+    jvmArgs(vectorModuleJvmArgs)
   }
 }
 
@@ -123,7 +130,7 @@ subprojects {
     useJUnitPlatform {
       includeEngines("junit-jupiter", "junit-vintage")
     }
-    jvmArgs = listOf(
+    jvmArgs = vectorModuleJvmArgs + listOf(
       "--add-opens", "java.base/jdk.internal.loader=ALL-UNNAMED",
       "--add-opens", "java.xml/jdk.xml.internal=ALL-UNNAMED",
       "--add-opens", "java.base/java.lang=ALL-UNNAMED",
@@ -193,6 +200,19 @@ subprojects {
     testRuntimeOnly(rootProject.libs.gdx.platform)
   }
 
+  // The module cannot be added by the manifest of an executable jar, so the dist jars come with scripts starting them with it
+  tasks.withType<Jar>().matching { it.name == "dist" }.configureEach {
+    val jarFile = archiveFile
+    val jvmArgs = vectorModuleJvmArgs.joinToString(" ")
+    doLast {
+      val jar = jarFile.get().asFile
+      val script = jar.resolveSibling(jar.nameWithoutExtension)
+      script.writeText("#!/bin/sh\nexec java $jvmArgs -jar \"$(dirname \"$0\")/${jar.name}\" \"$@\"\n")
+      script.setExecutable(true)
+      jar.resolveSibling("${jar.nameWithoutExtension}.bat").writeText("@echo off\r\njava $jvmArgs -jar \"%~dp0${jar.name}\" %*\r\n")
+    }
+  }
+
   fun isNonStable(version: String): Boolean {
     val stableKeyword = listOf("RELEASE", "FINAL", "GA").any { version.contains(it, ignoreCase = true) }
     val regex = "^[0-9,.v-]+(-r)?$".toRegex()
@@ -231,10 +251,40 @@ project(":server") {
 project(":core") {
   plugins.apply("com.google.protobuf")
 
+  tasks.withType<KotlinCompilationTask<*>> {
+    compilerOptions {
+      // Used by VectorLightMapKernels, which is only loaded when the JVM is started with '--add-modules jdk.incubator.vector'
+      freeCompilerArgs.add("-Xadd-modules=jdk.incubator.vector")
+    }
+  }
+
   tasks.named("clean") {
     finalizedBy(tasks.named("generateProto"))
   }
 
+  // Benchmarks comparing the implementations used by the game against what they replaced, run with './gradlew :core:benchmark --args="<names>"'
+  val benchmark = sourceSets.create("benchmark") {
+    compileClasspath += sourceSets["main"].output
+    runtimeClasspath += sourceSets["main"].output
+  }
+  configurations[benchmark.implementationConfigurationName].extendsFrom(configurations["implementation"])
+  configurations[benchmark.runtimeOnlyConfigurationName].extendsFrom(configurations["runtimeOnly"])
+  extensions.getByType<KotlinJvmProjectExtension>().target.compilations.let { compilations ->
+    // Let the benchmarks use internal classes
+    compilations.getByName(benchmark.name).associateWith(compilations.getByName("main"))
+  }
+
+  dependencies {
+    "benchmarkImplementation"(rootProject.libs.mockk)
+    "benchmarkRuntimeOnly"(rootProject.libs.gdx.platform)
+  }
+
+  tasks.register<JavaExec>("benchmark") {
+    description = "Runs the benchmarks given with --args, or all of them"
+    classpath = benchmark.runtimeClasspath
+    mainClass = "no.elg.infiniteBootleg.benchmark.BenchmarksKt"
+  }
+
   protobuf {
     protoc {
       artifact = rootProject.libs.protobuf.protoc.get().toString()
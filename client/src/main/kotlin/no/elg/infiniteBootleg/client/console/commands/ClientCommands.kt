@@ -41,6 +41,7 @@ import no.elg.infiniteBootleg.core.util.launchOnMainSuspendable
 import no.elg.infiniteBootleg.core.util.stringifyCompactLoc
 import no.elg.infiniteBootleg.core.util.stringifyCompactLocWithChunk
 import no.elg.infiniteBootleg.core.util.toAbled
+import no.elg.infiniteBootleg.core.util.toTitleCase
 import no.elg.infiniteBootleg.core.util.worldToChunk
 import no.elg.infiniteBootleg.core.world.ContainerElement
 import no.elg.infiniteBootleg.core.world.Material
@@ -228,6 +229,14 @@ class ClientCommands : CommonCommands() {
     }
   }
 
+  @ConsoleDoc(description = "Cycle between the ray cast, flood fill and additive light engines")
+  fun lightEngine() {
+    val entries = Settings.LightEngine.entries
+    Settings.lightEngine = entries[(Settings.lightEngine.ordinal + 1) % entries.size]
+    clientWorld?.recalculateLights()
+    logger.info { "Light engine is now ${Settings.lightEngine.name.toTitleCase()}" }
+  }
+
   @ConsoleDoc(description = "Toggle flight for player")
   @CallOnThreadyType(ExecutionThread.PHYSICS)
   fun fly() {
@@ -4,7 +4,12 @@ import no.elg.infiniteBootleg.client.main.ClientMain
 import no.elg.infiniteBootleg.core.net.PacketSender
 import no.elg.infiniteBootleg.core.net.ServerClient
 import no.elg.infiniteBootleg.core.net.ServerClient.Companion.sendServerBoundPacket
+import no.elg.infiniteBootleg.core.net.serverBoundBlockUpdate
 import no.elg.infiniteBootleg.core.util.ChunkCompactLoc
+import no.elg.infiniteBootleg.core.util.LocalCoord
+import no.elg.infiniteBootleg.core.util.chunkToWorld
+import no.elg.infiniteBootleg.core.world.blocks.Block
+import no.elg.infiniteBootleg.core.world.chunks.Chunk
 import no.elg.infiniteBootleg.protobuf.Packets
 
 object ClientPacketSender : PacketSender {
@@ -24,4 +29,10 @@ object ClientPacketSender : PacketSender {
   override fun sendDuplexPacketInView(ifIsServer: () -> Pair<Packets.Packet?, ChunkCompactLoc>, ifIsClient: ServerClient.() -> Packets.Packet?) {
     ClientMain.inst().serverClient.sendServerBoundPacket(ifIsClient)
   }
+
+  override fun sendBlockUpdate(chunk: Chunk, localX: LocalCoord, localY: LocalCoord, block: Block?) {
+    val worldX = chunk.chunkX.chunkToWorld(localX)
+    val worldY = chunk.chunkY.chunkToWorld(localY)
+    ClientMain.inst().serverClient.sendServerBoundPacket { serverBoundBlockUpdate(worldX, worldY, block) }
+  }
 }
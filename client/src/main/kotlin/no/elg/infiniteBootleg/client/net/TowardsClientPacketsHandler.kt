@@ -16,6 +16,7 @@ import no.elg.infiniteBootleg.core.events.WorldLoadedEvent
 import no.elg.infiniteBootleg.core.events.api.EventManager.dispatchEvent
 import no.elg.infiniteBootleg.core.inventory.container.OwnedContainer.Companion.fromProto
 import no.elg.infiniteBootleg.core.main.Main
+import no.elg.infiniteBootleg.core.net.BlockUpdateBatch
 import no.elg.infiniteBootleg.core.net.ServerClient
 import no.elg.infiniteBootleg.core.net.SharedInformation
 import no.elg.infiniteBootleg.core.net.SharedInformation.Companion.HEARTBEAT_PERIOD_MS
@@ -33,6 +34,7 @@ import no.elg.infiniteBootleg.core.util.worldToChunk
 import no.elg.infiniteBootleg.core.util.worldXYtoChunkCompactLoc
 import no.elg.infiniteBootleg.core.world.ContainerElement.Companion.fromProto
 import no.elg.infiniteBootleg.core.world.Direction
+import no.elg.infiniteBootleg.core.world.blocks.Block
 import no.elg.infiniteBootleg.core.world.blocks.BlockImpl
 import no.elg.infiniteBootleg.core.world.ecs.components.Box2DBodyComponent.Companion.box2d
 import no.elg.infiniteBootleg.core.world.ecs.components.LookDirectionComponent.Companion.lookDirectionComponentOrNull
@@ -54,6 +56,7 @@ import no.elg.infiniteBootleg.protobuf.Packets.Packet.Type.CB_INITIAL_CHUNKS_SEN
 import no.elg.infiniteBootleg.protobuf.Packets.Packet.Type.CB_LOGIN_STATUS
 import no.elg.infiniteBootleg.protobuf.Packets.Packet.Type.CB_SPAWN_ENTITY
 import no.elg.infiniteBootleg.protobuf.Packets.Packet.Type.CB_START_GAME
+import no.elg.infiniteBootleg.protobuf.Packets.Packet.Type.CB_UPDATE_BLOCKS
 import no.elg.infiniteBootleg.protobuf.Packets.Packet.Type.CB_UPDATE_CHUNK
 import no.elg.infiniteBootleg.protobuf.Packets.Packet.Type.DX_BLOCK_UPDATE
 import no.elg.infiniteBootleg.protobuf.Packets.Packet.Type.DX_BREAKING_BLOCK
@@ -69,6 +72,7 @@ import no.elg.infiniteBootleg.protobuf.Packets.SecretExchange
 import no.elg.infiniteBootleg.protobuf.Packets.ServerLoginStatus
 import no.elg.infiniteBootleg.protobuf.Packets.StartGame
 import no.elg.infiniteBootleg.protobuf.Packets.UpdateBlock
+import no.elg.infiniteBootleg.protobuf.Packets.UpdateBlocks
 import no.elg.infiniteBootleg.protobuf.Packets.UpdateChunk
 import no.elg.infiniteBootleg.protobuf.Packets.WorldSettings
 import no.elg.infiniteBootleg.protobuf.ProtoWorld.Entity.EntityType.FALLING_BLOCK
@@ -108,6 +112,7 @@ fun ServerClient.handleClientBoundPackets(packet: Packets.Packet) {
     DX_MOVE_ENTITY -> packet.moveEntityOrNull?.let { worldOrNull?.postBox2dRunnable { physicsHandleMoveEntity(it) } }
 
     DX_BLOCK_UPDATE -> packet.updateBlockOrNull?.let { launchOnAsyncSuspendable { asyncHandleBlockUpdate(it) } }
+    CB_UPDATE_BLOCKS -> packet.updateBlocksOrNull?.let { launchOnAsyncSuspendable { asyncHandleBlocksUpdate(it) } }
 
     CB_SPAWN_ENTITY -> packet.spawnEntityOrNull?.let { launchOnAsyncSuspendable { asyncHandleSpawnEntity(it) } }
 
@@ -290,6 +295,22 @@ private fun ServerClient.asyncHandleBlockUpdate(blockUpdate: UpdateBlock) {
   }
 }
 
+private fun ServerClient.asyncHandleBlocksUpdate(blocksUpdate: UpdateBlocks) {
+  if (!chunksLoaded) {
+    return
+  }
+  val chunk = world.getChunk(blocksUpdate.chunk.toCompact(), load = false)
+  if (chunk != null) {
+    BlockUpdateBatch.forEachBlock(blocksUpdate) { localX, localY, protoBlock ->
+      val block = Block.fromProto(world, chunk, localX, localY, protoBlock)
+      chunk.setBlock(localX, localY, block, sendUpdatePacket = false)
+    }
+  } else {
+    logger.warn { "Sever sent block updates to unloaded client chunk" }
+    sendServerBoundPacket(serverBoundChunkRequestPacket(blocksUpdate.chunk))
+  }
+}
+
 private fun ServerClient.asyncHandleSpawnEntity(spawnEntity: Packets.SpawnEntity) {
   if (chunksLoaded) {
     logger.debug { "Server sent spawn entity packet" }
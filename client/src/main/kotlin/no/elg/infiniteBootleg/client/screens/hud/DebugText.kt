@@ -56,23 +56,19 @@ object DebugText {
 
     val isLit = blockLight?.isLit ?: "maybe"
     val skylight = blockLight?.isSkylight ?: "maybe"
-    val usingSkyArr = blockLight?.lightMap === SKYLIGHT_LIGHT_MAP
-    val usingNoLigArr = blockLight?.lightMap === NO_LIGHTS_LIGHT_MAP
     val avg = blockLight?.averageBrightness ?: Float.NaN
-    blockLight?.lightMap?.apply {
+    blockLight?.apply {
       val lightMapIndex = lightMapIndex(rawX, rawY)
-      cellColor.r = r[lightMapIndex]
-      cellColor.g = g[lightMapIndex]
-      cellColor.b = b[lightMapIndex]
+      cellColor.r = red(lightMapIndex)
+      cellColor.g = green(lightMapIndex)
+      cellColor.b = blue(lightMapIndex)
     }
-    val format = "lit? %-5s (darkness arr? %-5s) sky? %-5s (sky arr? %-5s) avg brt %1.3f sub-cell[%1d, %1d] c %s tm %s im %s cec %-5s outline %s @%.2f"
+    val format = "lit? %-5s sky? %-5s avg brt %1.3f sub-cell[%1d, %1d] c %s tm %s im %s cec %-5s outline %s @%.2f"
     sb.append(
       String.format(
         format,
         isLit,
-        usingNoLigArr,
         skylight,
-        usingSkyArr,
         avg,
         rawX,
         rawY,
@@ -210,8 +206,8 @@ object DebugText {
       .append(EventManager.activeListeners.get()).append(", added/removed ").append(EventManager.registeredListeners.get()).append(" / ")
       .append(EventManager.unregisteredListeners.get()).append(", active 1sh: ").append(EventManager.activeOneTimeRefListeners.get()).append(" | Dispatched events: ")
       .append(EventManager.dispatchedEvents.get()).append(" listened to: ").append(EventManager.listenerListenedToEvent.get()).appendLine().append(" > Chunk Rdr Q: ")
-      .append(QueuedChunkRenderer.chunksInRenderQueue).append(" | Chunk size avg: ")
-      .append((World.CHUNK_ADDED_THREAD_LOCAL.get() - World.CHUNK_REMOVED_THREAD_LOCAL.get()) / World.CHUNK_THREAD_LOCAL.get())
+      .append(QueuedChunkRenderer.chunksInRenderQueue).append(" | Loaded chunks: ")
+      .append(world.readChunks { readableChunks -> readableChunks.size })
   }
 
   fun ents(sb: StringBuilder, world: ClientWorld, mouseWorldX: WorldCoord, mouseWorldY: WorldCoord) {
@@ -7,7 +7,7 @@ import ktx.collections.component1
 import ktx.collections.component2
 import no.elg.infiniteBootleg.client.world.chunks.TexturedChunkImpl
 import no.elg.infiniteBootleg.core.api.Renderer
-import no.elg.infiniteBootleg.core.util.launchOnBox2d
+import no.elg.infiniteBootleg.core.util.compactInt
 import no.elg.infiniteBootleg.core.world.chunks.Chunk
 import no.elg.infiniteBootleg.core.world.chunks.Chunk.Companion.CHUNK_TEXTURE_SIZE
 import no.elg.infiniteBootleg.core.world.chunks.Chunk.Companion.CHUNK_TEXTURE_SIZE_F
@@ -44,7 +44,7 @@ class CachedChunkRenderer(private val worldRender: ClientWorldRender) : Renderer
         val world = worldRender.world
         val maybeLoadedChunk = world.getChunk(chunkX, chunkY, false)
         if (maybeLoadedChunk == null) {
-          world.launchOnBox2d { world.loadChunk(chunkX, chunkY) }
+          world.getChunkAsync(compactInt(chunkX, chunkY))
           continue
         }
         val chunk = maybeLoadedChunk as? TexturedChunkImpl ?: error("Chunk is not a TexturedChunkImpl: $maybeLoadedChunk")
@@ -15,19 +15,18 @@ import no.elg.infiniteBootleg.core.Settings.outlineFunc
 import no.elg.infiniteBootleg.core.util.LocalCoord
 import no.elg.infiniteBootleg.core.util.chunkToWorld
 import no.elg.infiniteBootleg.core.util.getNoisePositive
+import no.elg.infiniteBootleg.core.util.isInsideChunk
 import no.elg.infiniteBootleg.core.util.isMarkerBlock
 import no.elg.infiniteBootleg.core.util.safeUse
 import no.elg.infiniteBootleg.core.util.withColor
 import no.elg.infiniteBootleg.core.world.Direction
 import no.elg.infiniteBootleg.core.world.Material
 import no.elg.infiniteBootleg.core.world.blocks.Block
-import no.elg.infiniteBootleg.core.world.blocks.Block.Companion.getRawRelative
-import no.elg.infiniteBootleg.core.world.blocks.Block.Companion.materialOrAir
 import no.elg.infiniteBootleg.core.world.blocks.BlockLight
-import no.elg.infiniteBootleg.core.world.blocks.LightMap
 import no.elg.infiniteBootleg.core.world.blocks.LightMap.Companion.Brightness
 import no.elg.infiniteBootleg.core.world.chunks.Chunk
 import no.elg.infiniteBootleg.core.world.chunks.ChunkColumn
+import no.elg.infiniteBootleg.core.world.chunks.ChunkLightBuffer
 import no.elg.infiniteBootleg.core.world.chunks.TexturedChunk
 import no.elg.infiniteBootleg.core.world.generator.noise.FastNoiseLite
 import no.elg.infiniteBootleg.core.world.render.texture.RotatableTextureRegion
@@ -66,14 +65,16 @@ class ChunkRenderer(world: World) : Disposable {
       Gdx.gl.glClear(GL20.GL_COLOR_BUFFER_BIT)
       batch.setBlendFunction(GL20.GL_SRC_ALPHA, GL20.GL_ONE_MINUS_SRC_ALPHA)
       batch.safeUse { _ ->
+        // Read the light straight from the buffer, a block light view for every block each render is too expensive
+        val lightBuffer = chunk.lightBuffer
         for (localX in 0 until Chunk.CHUNK_SIZE) {
           val topLightBlockHeight = chunkColumn.topBlockHeight(localX, ChunkColumn.Companion.FeatureFlag.BLOCKS_LIGHT_FLAG)
           for (localY in 0 until Chunk.CHUNK_SIZE) {
             if (batch.packedColor != Color.WHITE_FLOAT_BITS) {
               batch.color = Color.WHITE
             }
-            val block = chunk.getRawBlock(localX, localY)
-            val material = block.materialOrAir()
+            // Read the material directly, creating a block instance for every block each render is too expensive
+            val material = chunk.getRawMaterial(localX, localY)
             val texture: RotatableTextureRegion
             val secondaryTexture: RotatableTextureRegion?
 
@@ -81,13 +82,12 @@ class ChunkRenderer(world: World) : Disposable {
             val dx = localX * Block.BLOCK_TEXTURE_SIZE_F
             val dy = localY * Block.BLOCK_TEXTURE_SIZE_F
 
-            val isMarker = block.isMarkerBlock()
+            val isMarker = chunk.getBlockInstance(localX, localY).isMarkerBlock()
             if (material.invisibleBlock || isMarker) {
               if (isMarker && topLightBlockHeight == worldY) {
-                val blockLight = chunk.getBlockLight(localX, localY)
                 // Draw half the texture as sky and lower half as cave.
                 // This will remove visual artifact when a marker block is falling and updating the top light block height
-                drawHalfwayTexture(assets.caveTexture, assets.skyTexture, blockLight.lightMap, dx, dy)
+                drawHalfwayTexture(assets.caveTexture, assets.skyTexture, lightBuffer, localX, localY, dx, dy)
                 continue
               } else if (topLightBlockHeight < worldY) {
                 // Fast path for air above top light. It should always be lit 100%
@@ -98,7 +98,7 @@ class ChunkRenderer(world: World) : Disposable {
               }
               secondaryTexture = null
             } else {
-              texture = block?.texture ?: continue
+              texture = textureOf(chunk, localX, localY, material) ?: continue
               secondaryTexture = if (material.hasTransparentTexture) {
                 if (topLightBlockHeight > worldY) assets.caveTexture else assets.skyTexture
               } else {
@@ -107,15 +107,15 @@ class ChunkRenderer(world: World) : Disposable {
             }
 
             if (Settings.renderLight) {
-              val blockLight = chunk.getBlockLight(localX, localY)
-              if (blockLight.isLit && (!blockLight.isSkylight || texture.rotationAllowed)) {
+              val isLit = lightBuffer.isLit(localX, localY)
+              if (isLit && (!lightBuffer.isSkylight(localX, localY) || texture.rotationAllowed)) {
                 val rotation = calculateRotation(chunk, localX, localY)
                 if (secondaryTexture != null) {
-                  drawShadedBlock(secondaryTexture, blockLight.lightMap, dx, dy, rotation)
+                  drawShadedBlock(secondaryTexture, lightBuffer, localX, localY, dx, dy, rotation)
                 }
-                drawShadedBlock(texture, blockLight.lightMap, dx, dy, rotation)
+                drawShadedBlock(texture, lightBuffer, localX, localY, dx, dy, rotation)
               } else {
-                if (blockLight.isLit) {
+                if (isLit) {
                   val rotation = calculateRotation(chunk, localX, localY)
                   if (secondaryTexture != null) {
                     drawRotatedTexture(secondaryTexture, dx, dy, rotation)
@@ -147,20 +147,21 @@ class ChunkRenderer(world: World) : Disposable {
           batch.withColor(highlightPercent, highlightPercent, highlightPercent, 0f, tmpColor) {
             for (localX in 0 until Chunk.CHUNK_SIZE) {
               for (localY in 0 until Chunk.CHUNK_SIZE) {
-                val block = chunk.getRawBlock(localX, localY) ?: continue
-                if (block.isCollidable()) continue
+                val material = chunk.getRawMaterial(localX, localY)
+                val instance = chunk.getBlockInstance(localX, localY)
+                if (instance == null && material === Material.Air) continue
+                if (isCollidable(instance, material)) continue
 
-                if (Settings.renderLight) {
-                  val blockLight = chunk.getBlockLight(localX, localY)
-                  if (!blockLight.isLit) continue
-                }
+                if (Settings.renderLight && !lightBuffer.isLit(localX, localY)) continue
 
                 val dx = localX * Block.BLOCK_TEXTURE_SIZE_F
                 val dy = localY * Block.BLOCK_TEXTURE_SIZE_F
 
                 for (direction in Direction.CARDINAL) {
-                  val neighbor = block.getRawRelative(direction, false)
-                  if (neighbor.isCollidable()) {
+                  val neighborIsCollidable = atRelative(chunk, localX, localY, direction) { neighborChunk, neighborLocalX, neighborLocalY ->
+                    neighborChunk == null || isCollidable(neighborChunk.getBlockInstance(neighborLocalX, neighborLocalY), neighborChunk.getRawMaterial(neighborLocalX, neighborLocalY))
+                  }
+                  if (neighborIsCollidable) {
                     val size = 1f
                     when (direction) {
                       Direction.NORTH -> batch.draw(whiteRegion, dx, dy + Block.BLOCK_TEXTURE_SIZE_F - size, Block.BLOCK_TEXTURE_SIZE_F, size)
@@ -182,7 +183,25 @@ class ChunkRenderer(world: World) : Disposable {
     }
   }
 
-  inline fun Block?.isCollidable() = isMarkerBlock() || !materialOrAir().isCollidable
+  /**
+   * @param instance The block instance kept by the chunk, if any
+   */
+  private fun isCollidable(instance: Block?, material: Material): Boolean = instance.isMarkerBlock() || !material.isCollidable
+
+  /**
+   * Call [action] with the chunk (if loaded) and local coordinates of the neighbor of a block in the given direction
+   */
+  private inline fun <R> atRelative(chunk: Chunk, localX: LocalCoord, localY: LocalCoord, direction: Direction, action: (Chunk?, LocalCoord, LocalCoord) -> R): R {
+    val relativeLocalX = localX + direction.dx
+    val relativeLocalY = localY + direction.dy
+    return if (isInsideChunk(relativeLocalX, relativeLocalY)) {
+      action(chunk, relativeLocalX, relativeLocalY)
+    } else {
+      chunk.world.actionOnBlock(chunk.chunkX.chunkToWorld(relativeLocalX), chunk.chunkY.chunkToWorld(relativeLocalY), loadChunk = false) { neighborLocalX, neighborLocalY, neighborChunk ->
+        action(neighborChunk, neighborLocalX, neighborLocalY)
+      }
+    }
+  }
 
   private fun calculateRotation(chunk: Chunk, localX: LocalCoord, localY: LocalCoord): Int {
     val noise = rotationNoise.getNoisePositive(chunk.chunkX.chunkToWorld(localX), chunk.chunkY.chunkToWorld(localY))
@@ -194,12 +213,14 @@ class ChunkRenderer(world: World) : Disposable {
   private fun drawHalfwayTexture(
     caveTexture: RotatableTextureRegion,
     skyTexture: RotatableTextureRegion,
-    lights: LightMap,
+    lightBuffer: ChunkLightBuffer,
+    localX: LocalCoord,
+    localY: LocalCoord,
     dx: Float,
     dy: Float
   ) {
     // Lower half is shaded as it would normally be, otherwise it's a bit too bright
-    drawShadedBlock(caveTexture, lights, dx, dy, NO_ROTATION)
+    drawShadedBlock(caveTexture, lightBuffer, localX, localY, dx, dy, NO_ROTATION)
     // Overdraw the top half as it should always be lit 100%
     batch.draw(
       skyTexture.textureRegion,
@@ -231,7 +252,9 @@ class ChunkRenderer(world: World) : Disposable {
 
   private fun drawShadedBlock(
     textureRegion: RotatableTextureRegion,
-    lights: LightMap,
+    lightBuffer: ChunkLightBuffer,
+    localX: LocalCoord,
+    localY: LocalCoord,
     dx: Float,
     dy: Float,
     rotation: Int
@@ -249,9 +272,9 @@ class ChunkRenderer(world: World) : Disposable {
       while (rx < regionsLength) {
         val region = regions[rx]
         val lightMapIndex = BlockLight.lightMapIndex(rx, ry)
-        val brightnessR: Brightness = lights.r[lightMapIndex]
-        val brightnessG: Brightness = lights.g[lightMapIndex]
-        val brightnessB: Brightness = lights.b[lightMapIndex]
+        val brightnessR: Brightness = lightBuffer.red(localX, localY, lightMapIndex)
+        val brightnessG: Brightness = lightBuffer.green(localX, localY, lightMapIndex)
+        val brightnessB: Brightness = lightBuffer.blue(localX, localY, lightMapIndex)
         batch.withColor(brightnessR, brightnessG, brightnessB, 1f, tmpColor) {
           if (rotation == NO_ROTATION || !textureRegion.rotationAllowed) {
             batch.draw(
@@ -282,15 +305,15 @@ class ChunkRenderer(world: World) : Disposable {
     }
   }
 
-  val Block.texture: RotatableTextureRegion?
-    get() {
-      val map = EnumMap<Direction, Material>(Direction::class.java)
-      for (direction in Direction.CARDINAL) {
-        val relMat = this.getRawRelative(direction, false).materialOrAir()
-        map[direction] = relMat
+  private fun textureOf(chunk: Chunk, localX: LocalCoord, localY: LocalCoord, material: Material): RotatableTextureRegion? {
+    val map = EnumMap<Direction, Material>(Direction::class.java)
+    for (direction in Direction.CARDINAL) {
+      map[direction] = atRelative(chunk, localX, localY, direction) { neighborChunk, neighborLocalX, neighborLocalY ->
+        neighborChunk?.getRawMaterial(neighborLocalX, neighborLocalY) ?: Material.Air
       }
-      return TextureNeighbor.getTexture(material, map)
     }
+    return TextureNeighbor.getTexture(material, map)
+  }
 
   override fun dispose() {
     batch.dispose()
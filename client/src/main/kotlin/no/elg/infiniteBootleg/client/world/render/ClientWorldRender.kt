@@ -46,6 +46,8 @@ import no.elg.infiniteBootleg.core.util.safeUse
 import no.elg.infiniteBootleg.core.world.BOX2D_LOCK
 import no.elg.infiniteBootleg.core.world.blocks.Block
 import no.elg.infiniteBootleg.core.world.chunks.Chunk
+import no.elg.infiniteBootleg.core.world.chunks.tickets.ChunkTicket
+import no.elg.infiniteBootleg.core.world.chunks.tickets.ChunkTicketType
 import no.elg.infiniteBootleg.core.world.render.ChunksInView.Companion.chunkColumnsInView
 import no.elg.infiniteBootleg.core.world.render.ChunksInView.Companion.sequence
 import no.elg.infiniteBootleg.core.world.render.WorldRender
@@ -91,6 +93,11 @@ class ClientWorldRender(override val world: ClientWorld) : WorldRender {
     }
 
   val chunksInView: ClientChunksInView = ClientChunksInView()
+
+  /**
+   * Keeps the chunks in view loaded
+   */
+  private var viewTicket: ChunkTicket? = null
   val batch: SpriteBatch = SpriteBatch().also {
     it.enableBlending()
   }
@@ -180,6 +187,7 @@ class ClientWorldRender(override val world: ClientWorld) : WorldRender {
     chunksInView.verticalStart = MathUtils.floor(viewBound.y / Chunk.CHUNK_TEXTURE_SIZE) - WorldRender.CHUNKS_IN_VIEW_PADDING_RENDER
     chunksInView.verticalEnd =
       (MathUtils.floor((viewBound.y + viewBound.height + Chunk.CHUNK_TEXTURE_SIZE) / Chunk.CHUNK_TEXTURE_SIZE) + WorldRender.CHUNKS_IN_VIEW_PADDING_RENDER)
+    viewTicket = world.chunkTickets.update(viewTicket, ChunkTicketType.PLAYER, chunksInView)
     if (abs(lastZoom - camera.zoom) > WorldRender.SKYLIGHT_ZOOM_THRESHOLD) {
       lastZoom = camera.zoom
     }
@@ -193,6 +201,7 @@ class ClientWorldRender(override val world: ClientWorld) : WorldRender {
   }
 
   override fun dispose() {
+    viewTicket?.let(world.chunkTickets::release)
     batch.dispose(Exception::printStackTrace)
     chunkRenderer.dispose(Exception::printStackTrace)
     box2DDebugRenderer.dispose(Exception::printStackTrace)
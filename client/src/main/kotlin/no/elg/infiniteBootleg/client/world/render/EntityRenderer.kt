@@ -112,11 +112,10 @@ class EntityRenderer(private val worldRender: ClientWorldRender) : Renderer {
           if (blockLight.isSkylight) {
             batch.color = Color.WHITE
           } else if (blockLight.isLit) {
-            val v = blockLight.lightMap
             entityLightDebugXSubCell = calcLightSubCell(centerPos.x)
             entityLightDebugYSubCell = calcLightSubCell(centerPos.y)
             val lightIndex = lightMapIndex(entityLightDebugXSubCell, entityLightDebugYSubCell)
-            batch.setColor(v.r[lightIndex], v.g[lightIndex], v.b[lightIndex], 1f)
+            batch.setColor(blockLight.red(lightIndex), blockLight.green(lightIndex), blockLight.blue(lightIndex), 1f)
           } else {
             batch.color = Color.BLACK
           }
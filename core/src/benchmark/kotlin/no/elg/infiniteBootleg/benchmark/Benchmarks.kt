@@ -0,0 +1,106 @@
+package no.elg.infiniteBootleg.benchmark
+
+import io.github.oshai.kotlinlogging.KotlinLogging
+import io.mockk.mockk
+import no.elg.infiniteBootleg.core.util.chunkToWorld
+import no.elg.infiniteBootleg.core.util.worldToChunk
+import no.elg.infiniteBootleg.core.world.Material
+import no.elg.infiniteBootleg.core.world.chunks.Chunk
+import no.elg.infiniteBootleg.core.world.chunks.storage.ChunkBlockStorage
+import no.elg.infiniteBootleg.core.world.chunks.storage.PackedBlocksCodec
+import no.elg.infiniteBootleg.core.world.chunks.storage.PalettedBlockStorage
+import no.elg.infiniteBootleg.core.world.generator.chunk.PerlinChunkGenerator
+import no.elg.infiniteBootleg.protobuf.ProtoWorld
+import kotlin.system.measureNanoTime
+
+private val logger = KotlinLogging.logger {}
+
+/**
+ * The benchmarks comparing the implementations used by the game against what they replaced, by name
+ */
+private val benchmarks: Map<String, () -> Unit> = linkedMapOf(
+  "chunkUnload" to ::chunkUnloadBenchmark,
+  "chunkMap" to ::chunkMapBenchmark,
+  "chunkStorage" to ::chunkStorageBenchmark,
+  "chunkStorageMemory" to ::chunkStorageMemoryBenchmark,
+  "chunkEncoding" to ::chunkEncodingBenchmark,
+  "chunkDelta" to ::chunkDeltaBenchmark,
+  "broadcast" to ::broadcastBenchmark,
+  "blockUpdate" to ::blockUpdateBenchmark,
+  "broadcastEncoding" to ::broadcastEncodingBenchmark,
+  "tickFlush" to ::tickFlushBenchmark,
+  "lightBuffer" to ::lightBufferBenchmark,
+  "lightMap" to ::lightMapBenchmark,
+  "lightEngine" to ::lightEngineBenchmark,
+  "lightOcclusion" to ::lightOcclusionBenchmark
+)
+
+/**
+ * Run the benchmarks given as arguments, or all of them when there are no arguments. Run with `./gradlew :core:benchmark --args="<names>"`
+ */
+fun main(args: Array<String>) {
+  val names = args.toList().ifEmpty { benchmarks.keys.toList() }
+  val unknown = names - benchmarks.keys
+  if (unknown.isNotEmpty()) {
+    logger.error { "Unknown benchmarks $unknown, the benchmarks are ${benchmarks.keys}" }
+    return
+  }
+  for (name in names) {
+    logger.info { "== $name" }
+    val nanos = measureNanoTime(benchmarks.getValue(name))
+    logger.info { "== $name done in ${nanos / 1_000_000} ms" }
+  }
+}
+
+/**
+ * A generated chunk, as the benchmarks measure the chunks of a world without loading one
+ */
+internal class GeneratedChunk(val chunkX: Int, val chunkY: Int, val materials: Array<Material>) {
+
+  val isAllAir: Boolean get() = materials.all { it == Material.Air }
+
+  fun material(localX: Int, localY: Int): Material = materials[ChunkBlockStorage.cellIndex(localX, localY)]
+
+  /**
+   * The chunk as it is saved
+   */
+  fun save(): ProtoWorld.Chunk {
+    val storage = PalettedBlockStorage(mockk<Chunk>(relaxed = true))
+    for (localX in 0 until Chunk.CHUNK_SIZE) {
+      for (localY in 0 until Chunk.CHUNK_SIZE) {
+        storage.setMaterial(localX, localY, material(localX, localY))
+      }
+    }
+    return ProtoWorld.Chunk.newBuilder()
+      .setPosition(ProtoWorld.Vector2i.newBuilder().setX(chunkX).setY(chunkY))
+      .setPackedBlocks(PackedBlocksCodec.encode(storage))
+      .build()
+  }
+}
+
+internal val generator = PerlinChunkGenerator(BENCHMARK_SEED)
+
+/**
+ * The chunks at and below the surface around the spawn, about as many as a player has loaded
+ */
+internal val generatedChunks: List<GeneratedChunk> by lazy {
+  (-GENERATED_CHUNKS_RADIUS until GENERATED_CHUNKS_RADIUS).flatMap { chunkX ->
+    val surfaceChunkY = generator.heightAt(chunkX.chunkToWorld(0)).worldToChunk()
+    (surfaceChunkY - GENERATED_CHUNKS_RADIUS..surfaceChunkY + 1).map { chunkY -> GeneratedChunk(chunkX, chunkY, generator.generateMaterials(chunkX, chunkY)) }
+  }
+}
+
+/**
+ * @return Whether the top block of any column of the chunk is in the chunk
+ */
+internal fun isSurface(chunk: GeneratedChunk): Boolean = (0 until Chunk.CHUNK_SIZE).any { chunk.chunkY == generator.heightAt(chunk.chunkX.chunkToWorld(it)).worldToChunk() }
+
+internal fun usedHeap(): Long {
+  System.gc()
+  System.gc()
+  val runtime = Runtime.getRuntime()
+  return runtime.totalMemory() - runtime.freeMemory()
+}
+
+private const val BENCHMARK_SEED = 0L
+private const val GENERATED_CHUNKS_RADIUS = 12
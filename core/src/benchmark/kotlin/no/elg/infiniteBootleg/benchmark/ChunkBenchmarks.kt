@@ -0,0 +1,373 @@
+package no.elg.infiniteBootleg.benchmark
+
+import com.badlogic.gdx.utils.LongMap
+import io.github.oshai.kotlinlogging.KotlinLogging
+import io.mockk.mockk
+import no.elg.infiniteBootleg.core.util.ChunkCoord
+import no.elg.infiniteBootleg.core.util.ConcurrentLongMap
+import no.elg.infiniteBootleg.core.util.compactInt
+import no.elg.infiniteBootleg.core.world.Material
+import no.elg.infiniteBootleg.core.world.Material.Companion.fromProtoOrNull
+import no.elg.infiniteBootleg.core.world.chunks.Chunk
+import no.elg.infiniteBootleg.core.world.chunks.storage.ArrayBlockStorage
+import no.elg.infiniteBootleg.core.world.chunks.storage.ChunkBlockStorage
+import no.elg.infiniteBootleg.core.world.chunks.storage.PackedBlocksCodec
+import no.elg.infiniteBootleg.core.world.chunks.storage.PalettedBlockStorage
+import no.elg.infiniteBootleg.core.world.chunks.tickets.ChunkTicketType
+import no.elg.infiniteBootleg.core.world.chunks.tickets.ChunkTickets
+import no.elg.infiniteBootleg.core.world.loader.chunk.ChunkLoader
+import no.elg.infiniteBootleg.core.world.loader.chunk.FullChunkLoader
+import no.elg.infiniteBootleg.core.world.loader.region.RegionStorage
+import no.elg.infiniteBootleg.core.world.ticker.TickerImpl
+import no.elg.infiniteBootleg.protobuf.ProtoWorld
+import java.io.File
+import java.lang.ref.Reference
+import java.nio.file.Files
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.StampedLock
+import kotlin.math.ceil
+import kotlin.math.sqrt
+import kotlin.random.Random
+import kotlin.system.measureNanoTime
+
+private val logger = KotlinLogging.logger {}
+
+private const val CHUNK_STORAGE_BENCHMARK_ITERATIONS = 10
+private const val CHUNK_ENCODING_BENCHMARK_ITERATIONS = 20
+private const val CHUNK_DELTA_BENCHMARK_CHANGED_BLOCKS = 8
+private const val CHUNK_MAP_BENCHMARK_MILLIS = 1000L
+private val CHUNK_MAP_BENCHMARK_READERS = intArrayOf(1, 2, 4, 8, 16)
+private const val CHUNK_UNLOAD_BENCHMARK_TICKS = 200
+private val CHUNK_UNLOAD_BENCHMARK_CHUNKS = intArrayOf(1_000, 10_000, 50_000)
+
+/**
+ * Compare the time per tick to find chunks to unload by scanning every loaded chunk against the chunk tickets
+ */
+fun chunkUnloadBenchmark() {
+  val tps = TickerImpl.DEFAULT_TICKS_PER_SECOND
+  val unloadDelayTicks = ChunkTickets.UNLOAD_DELAY_SECONDS * tps
+  logger.info { "Finding chunks to unload while all chunks are in view, average of $CHUNK_UNLOAD_BENCHMARK_TICKS ticks" }
+  for (loadedChunks in CHUNK_UNLOAD_BENCHMARK_CHUNKS) {
+    val side = ceil(sqrt(loadedChunks.toDouble())).toInt()
+    val chunkLocs = LongArray(loadedChunks) { compactInt(it % side, it / side) }
+
+    // What the world ticker did before chunk tickets: look at when every loaded chunk was last seen
+    val lastSeen = ConcurrentLongMap<Long>(loadedChunks)
+    chunkLocs.forEach { lastSeen.put(it, 0L) }
+    var scanned = 0
+    val scanNanos = measureNanoTime {
+      for (tick in 1L..CHUNK_UNLOAD_BENCHMARK_TICKS) {
+        lastSeen.forEach { seen -> if (tick - seen > unloadDelayTicks) scanned++ }
+      }
+    }
+
+    val chunkTickets = ChunkTickets { tps }
+    chunkTickets.add(ChunkTicketType.PLAYER, 0, 0, side, side)
+    chunkLocs.forEach(chunkTickets::onChunkLoaded)
+    var polled = 0
+    val ticketNanos = measureNanoTime {
+      for (tick in 1L..CHUNK_UNLOAD_BENCHMARK_TICKS) {
+        chunkTickets.tick(tick)
+        polled += chunkTickets.pollUnloadable(Int.MAX_VALUE).size
+      }
+    }
+    logger.info {
+      "  %,6d chunks: scan %,8d ns/tick, tickets %,8d ns/tick (unloaded by scan %d, by tickets %d)".format(
+        loadedChunks,
+        scanNanos / CHUNK_UNLOAD_BENCHMARK_TICKS,
+        ticketNanos / CHUNK_UNLOAD_BENCHMARK_TICKS,
+        scanned,
+        polled
+      )
+    }
+  }
+}
+
+/**
+ * Compare reading chunks from the lock-free chunk map against the [LongMap] behind a [StampedLock] it replaced, while chunks are loaded and unloaded
+ */
+fun chunkMapBenchmark() {
+  val chunkLocs = generatedChunks.map { compactInt(it.chunkX, it.chunkY) }.toLongArray()
+  val lockFree = ConcurrentLongMap<Any>()
+  val locked = LongMap<Any>()
+  val lock = StampedLock()
+  for (chunkLoc in chunkLocs) {
+    lockFree.put(chunkLoc, chunkLoc)
+    locked.put(chunkLoc, chunkLoc)
+  }
+  logger.info { "Chunk map reads of ${chunkLocs.size} chunks while one thread loads and unloads chunks, $CHUNK_MAP_BENCHMARK_MILLIS ms per run" }
+  for (readers in CHUNK_MAP_BENCHMARK_READERS) {
+    val lockedReads = measureChunkMapReads(
+      readers,
+      chunkLocs,
+      get = { chunkLoc ->
+        val stamp = lock.readLock()
+        try {
+          locked[chunkLoc]
+        } finally {
+          lock.unlockRead(stamp)
+        }
+      },
+      put = { chunkLoc ->
+        val stamp = lock.writeLock()
+        try {
+          locked.put(chunkLoc, chunkLoc)
+        } finally {
+          lock.unlockWrite(stamp)
+        }
+      },
+      remove = { chunkLoc ->
+        val stamp = lock.writeLock()
+        try {
+          locked.remove(chunkLoc)
+        } finally {
+          lock.unlockWrite(stamp)
+        }
+      }
+    )
+    val lockFreeReads = measureChunkMapReads(
+      readers,
+      chunkLocs,
+      get = { chunkLoc -> lockFree[chunkLoc] },
+      put = { chunkLoc -> synchronized(lockFree) { lockFree.put(chunkLoc, chunkLoc) } },
+      remove = { chunkLoc -> synchronized(lockFree) { lockFree.remove(chunkLoc) } }
+    )
+    logger.info {
+      "  %2d readers: locked %,12d reads/s, lock-free %,12d reads/s (%.1fx)".format(
+        readers,
+        lockedReads,
+        lockFreeReads,
+        lockFreeReads.toDouble() / lockedReads.coerceAtLeast(1)
+      )
+    }
+  }
+}
+
+/**
+ * @return The number of reads per second of all [readers] together
+ */
+private fun measureChunkMapReads(readers: Int, chunkLocs: LongArray, get: (chunkLoc: Long) -> Any?, put: (chunkLoc: Long) -> Unit, remove: (chunkLoc: Long) -> Unit): Long {
+  val running = AtomicBoolean(true)
+  val reads = AtomicLong()
+  val start = CountDownLatch(1)
+  val threads = List(readers) { reader ->
+    Thread.ofPlatform().name("chunk-map-reader-$reader").start {
+      start.await()
+      var index = reader
+      var count = 0L
+      while (running.get()) {
+        index = (index + 7919) % chunkLocs.size
+        get(chunkLocs[index])
+        count++
+      }
+      reads.addAndGet(count)
+    }
+  } + Thread.ofPlatform().name("chunk-map-loader").start {
+    start.await()
+    var index = 0
+    while (running.get()) {
+      remove(chunkLocs[index])
+      put(chunkLocs[index])
+      index = (index + 1) % chunkLocs.size
+    }
+  }
+  start.countDown()
+  Thread.sleep(CHUNK_MAP_BENCHMARK_MILLIS)
+  running.set(false)
+  threads.forEach(Thread::join)
+  return reads.get() * 1000 / CHUNK_MAP_BENCHMARK_MILLIS
+}
+
+/**
+ * Compare the time to read the generated chunks from one file per chunk against reading them from region files
+ */
+fun chunkStorageBenchmark() {
+  val protoChunks = generatedChunks.map { Triple(it.chunkX, it.chunkY, it.save().toByteArray()) }
+  val totalBytes = protoChunks.sumOf { it.third.size.toLong() }
+  val folder = Files.createTempDirectory("chunk-storage-benchmark").toFile()
+  try {
+    val legacyFolder = File(folder, ChunkLoader.CHUNK_FOLDER)
+    for ((chunkX, chunkY, bytes) in protoChunks) {
+      File(legacyFolder, "$chunkX${File.separator}$chunkY").also { it.parentFile.mkdirs() }.writeBytes(bytes)
+    }
+    val regions = RegionStorage(File(folder, FullChunkLoader.REGION_FOLDER))
+    for ((chunkX, chunkY, bytes) in protoChunks) {
+      regions.write(chunkX, chunkY, bytes)
+    }
+    regions.flush()
+
+    var checksum = 0L
+    fun measure(read: (ChunkCoord, ChunkCoord) -> ByteArray?): Long {
+      var nanos = 0L
+      repeat(CHUNK_STORAGE_BENCHMARK_ITERATIONS) {
+        nanos += measureNanoTime {
+          for ((chunkX, chunkY) in protoChunks) {
+            checksum += read(chunkX, chunkY)?.size ?: 0
+          }
+        }
+      }
+      return nanos / CHUNK_STORAGE_BENCHMARK_ITERATIONS
+    }
+
+    val readLegacy = { chunkX: ChunkCoord, chunkY: ChunkCoord -> File(legacyFolder, "$chunkX${File.separator}$chunkY").readBytes() }
+    val readRegion = { chunkX: ChunkCoord, chunkY: ChunkCoord -> regions.read(chunkX, chunkY) }
+    // Warm up both layouts before measuring
+    measure(readLegacy)
+    measure(readRegion)
+    val legacyNanos = measure(readLegacy)
+    val regionNanos = measure(readRegion)
+    regions.dispose()
+
+    fun throughput(nanos: Long): String {
+      val seconds = nanos.coerceAtLeast(1) / 1_000_000_000.0
+      return "%.0f chunks/s, %.1f MiB/s".format(protoChunks.size / seconds, totalBytes / seconds / (1024 * 1024))
+    }
+    logger.info { "Read ${protoChunks.size} chunks ($totalBytes bytes), average of $CHUNK_STORAGE_BENCHMARK_ITERATIONS runs (checksum $checksum)" }
+    logger.info { "  file per chunk: ${legacyNanos / 1000} us (${throughput(legacyNanos)})" }
+    logger.info { "  region files:   ${regionNanos / 1000} us (${throughput(regionNanos)})" }
+  } finally {
+    folder.deleteRecursively()
+  }
+}
+
+/**
+ * Compare the heap usage of the array and palette block storages holding the generated chunks, before and after every block has been read
+ */
+fun chunkStorageMemoryBenchmark() {
+  val chunks = generatedChunks
+
+  /**
+   * @return The bytes used after the materials are set, and after every block has been read as the chunk body, the renderer, and any other `getRawBlock` caller does
+   */
+  fun measure(create: (Chunk) -> ChunkBlockStorage): Pair<Long, Long> {
+    val before = usedHeap()
+    val storages = chunks.map { chunk ->
+      create(mockk(relaxed = true)).also { storage ->
+        for (localX in 0 until Chunk.CHUNK_SIZE) {
+          for (localY in 0 until Chunk.CHUNK_SIZE) {
+            storage.setMaterial(localX, localY, chunk.material(localX, localY))
+          }
+        }
+      }
+    }
+    val afterSet = usedHeap() - before
+    for (storage in storages) {
+      for (localX in 0 until Chunk.CHUNK_SIZE) {
+        for (localY in 0 until Chunk.CHUNK_SIZE) {
+          storage.getInstance(localX, localY)
+          storage.getMaterial(localX, localY)
+          storage[localX, localY]
+        }
+      }
+    }
+    val afterRead = usedHeap() - before
+    Reference.reachabilityFence(storages)
+    return afterSet to afterRead
+  }
+
+  val (arraySet, arrayRead) = measure(::ArrayBlockStorage)
+  val (paletteSet, paletteRead) = measure(::PalettedBlockStorage)
+  logger.info { "Block storage of ${chunks.size} chunks, after setting the materials / after reading every block" }
+  logger.info { "  array:   ${arraySet / 1024} KiB / ${arrayRead / 1024} KiB (${arrayRead / chunks.size} bytes per chunk)" }
+  logger.info { "  palette: ${paletteSet / 1024} KiB / ${paletteRead / 1024} KiB (${paletteRead / chunks.size} bytes per chunk)" }
+}
+
+/**
+ * Compare the size and decode time of the generated chunks stored as a list of blocks against the packed encoding
+ */
+fun chunkEncodingBenchmark() {
+  val (surface, cave) = generatedChunks.filterNot { it.isAllAir }.partition(::isSurface)
+
+  fun measure(name: String, chunks: List<GeneratedChunk>) {
+    if (chunks.isEmpty()) {
+      logger.info { "  $name: no generated chunks" }
+      return
+    }
+    val packed = chunks.map { it.save() }
+    val legacy = packed.map { protoChunk ->
+      val builder = protoChunk.toBuilder().clearPackedBlocks()
+      PackedBlocksCodec.decode(protoChunk.packedBlocks) { _, material ->
+        builder.addBlocks(ChunkBlockStorage.protoOf(material ?: Material.Air))
+      }
+      builder.build()
+    }
+    val packedBytes = packed.map { it.toByteArray() }
+    val legacyBytes = legacy.map { it.toByteArray() }
+
+    var checksum = 0
+    fun decodeLegacy() {
+      for (bytes in legacyBytes) {
+        for (protoBlock in ProtoWorld.Chunk.parseFrom(bytes).blocksList) {
+          checksum += protoBlock.material.fromProtoOrNull()?.hashCode() ?: 0
+        }
+      }
+    }
+
+    fun decodePacked() {
+      for (bytes in packedBytes) {
+        PackedBlocksCodec.decode(ProtoWorld.Chunk.parseFrom(bytes).packedBlocks) { _, material -> checksum += material?.hashCode() ?: 0 }
+      }
+    }
+    // Warm up both encodings before measuring
+    decodeLegacy()
+    decodePacked()
+    val legacyNanos = (0 until CHUNK_ENCODING_BENCHMARK_ITERATIONS).sumOf { measureNanoTime(::decodeLegacy) } / CHUNK_ENCODING_BENCHMARK_ITERATIONS
+    val packedNanos = (0 until CHUNK_ENCODING_BENCHMARK_ITERATIONS).sumOf { measureNanoTime(::decodePacked) } / CHUNK_ENCODING_BENCHMARK_ITERATIONS
+
+    val legacySize = legacyBytes.sumOf { it.size } / chunks.size
+    val packedSize = packedBytes.sumOf { it.size } / chunks.size
+    logger.info { "  $name (${chunks.size} chunks, checksum $checksum):" }
+    logger.info { "    blocks list: $legacySize bytes/chunk, decoded in ${legacyNanos / 1000} us" }
+    logger.info {
+      "    packed:      $packedSize bytes/chunk, decoded in ${packedNanos / 1000} us " +
+        "(${"%.1f".format(legacySize.toDouble() / packedSize.coerceAtLeast(1))}x smaller, " +
+        "${"%.1f".format(legacyNanos.toDouble() / packedNanos.coerceAtLeast(1))}x faster)"
+    }
+  }
+
+  logger.info { "Chunk encoding, average of $CHUNK_ENCODING_BENCHMARK_ITERATIONS runs" }
+  measure("surface", surface)
+  measure("cave", cave)
+}
+
+/**
+ * Compare the size and load time of chunks saved in full against saved relative to the generated chunk, when a player has mined a few blocks in every chunk
+ */
+fun chunkDeltaBenchmark() {
+  val random = Random(0)
+  val chunks = generatedChunks.filterNot { it.isAllAir }.map { chunk ->
+    val materials = chunk.materials.copyOf()
+    repeat(CHUNK_DELTA_BENCHMARK_CHANGED_BLOCKS) { materials[random.nextInt(materials.size)] = Material.Air }
+    GeneratedChunk(chunk.chunkX, chunk.chunkY, materials)
+  }
+  val full = chunks.map { it.save() }
+  val relative = full.map { it.toBuilder().setPackedBlocks(PackedBlocksCodec.relativize(it.packedBlocks, generator.generateMaterials(it.position.x, it.position.y))).build() }
+  val fullBytes = full.map { it.toByteArray() }
+  val relativeBytes = relative.map { it.toByteArray() }
+
+  var checksum = 0
+  fun load(protoChunks: List<ByteArray>) {
+    for (bytes in protoChunks) {
+      val protoChunk = ProtoWorld.Chunk.parseFrom(bytes)
+      val packed = protoChunk.packedBlocks
+      val generated = if (packed.relative) generator.generateMaterials(protoChunk.position.x, protoChunk.position.y) else null
+      PackedBlocksCodec.decode(packed, generated) { _, material -> checksum += material?.hashCode() ?: 0 }
+    }
+  }
+  // Warm up both encodings before measuring
+  load(fullBytes)
+  load(relativeBytes)
+  val fullNanos = (0 until CHUNK_ENCODING_BENCHMARK_ITERATIONS).sumOf { measureNanoTime { load(fullBytes) } } / CHUNK_ENCODING_BENCHMARK_ITERATIONS
+  val relativeNanos = (0 until CHUNK_ENCODING_BENCHMARK_ITERATIONS).sumOf { measureNanoTime { load(relativeBytes) } } / CHUNK_ENCODING_BENCHMARK_ITERATIONS
+
+  val fullSize = fullBytes.sumOf { it.size.toLong() }
+  val relativeSize = relativeBytes.sumOf { it.size.toLong() }
+  logger.info { "Saving ${chunks.size} chunks with $CHUNK_DELTA_BENCHMARK_CHANGED_BLOCKS mined blocks each, average of $CHUNK_ENCODING_BENCHMARK_ITERATIONS runs (checksum $checksum)" }
+  logger.info { "  full:     $fullSize bytes, loaded in ${fullNanos / 1000} us (${fullNanos / chunks.size / 1000} us/chunk)" }
+  logger.info {
+    "  relative: $relativeSize bytes (${"%.1f".format(fullSize.toDouble() / relativeSize.coerceAtLeast(1))}x smaller), " +
+      "loaded in ${relativeNanos / 1000} us (${relativeNanos / chunks.size / 1000} us/chunk)"
+  }
+}
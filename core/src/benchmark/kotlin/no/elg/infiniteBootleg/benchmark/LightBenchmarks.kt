@@ -0,0 +1,406 @@
+package no.elg.infiniteBootleg.benchmark
+
+import com.badlogic.gdx.graphics.Color
+import com.badlogic.gdx.math.MathUtils
+import io.github.oshai.kotlinlogging.KotlinLogging
+import io.mockk.every
+import io.mockk.mockk
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import ktx.collections.GdxArray
+import no.elg.infiniteBootleg.core.util.ChunkColumnFeatureFlag
+import no.elg.infiniteBootleg.core.util.ChunkCoord
+import no.elg.infiniteBootleg.core.util.LocalCoord
+import no.elg.infiniteBootleg.core.util.WorldCompactLocArray
+import no.elg.infiniteBootleg.core.util.WorldCoord
+import no.elg.infiniteBootleg.core.util.WorldCoordFloat
+import no.elg.infiniteBootleg.core.util.chunkOffset
+import no.elg.infiniteBootleg.core.util.chunkToWorld
+import no.elg.infiniteBootleg.core.util.compactInt
+import no.elg.infiniteBootleg.core.util.decompactLocX
+import no.elg.infiniteBootleg.core.util.decompactLocY
+import no.elg.infiniteBootleg.core.util.dst2
+import no.elg.infiniteBootleg.core.util.worldToChunk
+import no.elg.infiniteBootleg.core.world.Material
+import no.elg.infiniteBootleg.core.world.blocks.Block
+import no.elg.infiniteBootleg.core.world.blocks.Block.Companion.worldX
+import no.elg.infiniteBootleg.core.world.blocks.Block.Companion.worldY
+import no.elg.infiniteBootleg.core.world.blocks.BlockImpl
+import no.elg.infiniteBootleg.core.world.blocks.BlockLight
+import no.elg.infiniteBootleg.core.world.blocks.FloodFillLightEngine
+import no.elg.infiniteBootleg.core.world.blocks.LightMap
+import no.elg.infiniteBootleg.core.world.blocks.LightMapKernels
+import no.elg.infiniteBootleg.core.world.blocks.RayOcclusionTable
+import no.elg.infiniteBootleg.core.world.blocks.ScalarLightMapKernels
+import no.elg.infiniteBootleg.core.world.chunks.Chunk
+import no.elg.infiniteBootleg.core.world.chunks.ChunkColumn
+import no.elg.infiniteBootleg.core.world.chunks.ChunkLightBuffer
+import no.elg.infiniteBootleg.core.world.chunks.storage.ChunkBlockStorage
+import no.elg.infiniteBootleg.core.world.world.World
+import java.lang.ref.Reference
+import kotlin.random.Random
+import kotlin.system.measureNanoTime
+
+private val logger = KotlinLogging.logger {}
+
+private const val LIGHT_BUFFER_BENCHMARK_CHUNKS = 100
+private const val LIGHT_MAP_BENCHMARK_SOURCES = 8
+private const val LIGHT_MAP_BENCHMARK_ITERATIONS = 100
+
+/**
+ * Compare the heap usage and throughput of one light map per block against the per-chunk light buffer
+ */
+fun lightBufferBenchmark() {
+  val chunks = LIGHT_BUFFER_BENCHMARK_CHUNKS
+  val source = LightMap()
+  for (lightMapIndex in 0 until BlockLight.LIGHT_RESOLUTION_SQUARE) {
+    source.updateColor(lightMapIndex, 0.25f * (lightMapIndex + 1), Color.ORANGE)
+  }
+  val averageBrightness = source.averageBrightness()
+
+  var before = usedHeap()
+  val lightMaps = Array(chunks) { Array(Chunk.CHUNK_SIZE * Chunk.CHUNK_SIZE) { LightMap(source.r.copyOf(), source.g.copyOf(), source.b.copyOf(), source.i.copyOf()) } }
+  val lightMapBytes = usedHeap() - before
+
+  before = usedHeap()
+  val buffers = Array(chunks) {
+    ChunkLightBuffer().also { buffer ->
+      for (localX in 0 until Chunk.CHUNK_SIZE) {
+        for (localY in 0 until Chunk.CHUNK_SIZE) {
+          buffer.setLight(localX, localY, source, averageBrightness)
+        }
+      }
+    }
+  }
+  val bufferBytes = usedHeap() - before
+
+  var checksum = 0f
+  val lightMapNanos = measureNanoTime {
+    for (chunkMaps in lightMaps) {
+      for (lightMap in chunkMaps) {
+        for (lightMapIndex in 0 until BlockLight.LIGHT_RESOLUTION_SQUARE) {
+          checksum += lightMap.r[lightMapIndex] + lightMap.g[lightMapIndex] + lightMap.b[lightMapIndex]
+        }
+      }
+    }
+  }
+  val bufferNanos = measureNanoTime {
+    for (buffer in buffers) {
+      for (localX in 0 until Chunk.CHUNK_SIZE) {
+        for (localY in 0 until Chunk.CHUNK_SIZE) {
+          for (lightMapIndex in 0 until BlockLight.LIGHT_RESOLUTION_SQUARE) {
+            checksum += buffer.red(localX, localY, lightMapIndex) + buffer.green(localX, localY, lightMapIndex) + buffer.blue(localX, localY, lightMapIndex)
+          }
+        }
+      }
+    }
+  }
+  Reference.reachabilityFence(lightMaps)
+  Reference.reachabilityFence(buffers)
+
+  logger.info { "Light of $chunks fully lit chunks (checksum $checksum)" }
+  logger.info { "  light map per block: ${lightMapBytes / 1024} KiB (${lightMapBytes / chunks} bytes per chunk), read all in ${lightMapNanos / 1000} us" }
+  logger.info { "  light buffer:        ${bufferBytes / 1024} KiB (${bufferBytes / chunks} bytes per chunk), read all in ${bufferNanos / 1000} us" }
+}
+
+/**
+ * Compare the scalar and Vector API light map math on a chunk worth of blocks
+ */
+fun lightMapBenchmark() {
+  val vector = LightMapKernels.vector
+  if (vector == null) {
+    logger.error { "The Vector API is not available, run the benchmarks with '--add-modules jdk.incubator.vector'" }
+    return
+  }
+  val sources = LIGHT_MAP_BENCHMARK_SOURCES
+  val random = Random(sources)
+  val intensities = Array(sources) { FloatArray(BlockLight.LIGHT_RESOLUTION_SQUARE) { random.nextFloat() } }
+  val tints = Array(sources) { Color(random.nextFloat(), random.nextFloat(), random.nextFloat(), 1f) }
+  val lightMaps = Array(Chunk.CHUNK_SIZE * Chunk.CHUNK_SIZE) { LightMap() }
+  var checksum = 0f
+
+  fun measure(kernels: LightMapKernels): Pair<Long, Long> {
+    var accumulateNanos = 0L
+    var toneMapNanos = 0L
+    repeat(LIGHT_MAP_BENCHMARK_ITERATIONS) {
+      lightMaps.forEach(LightMap::clear)
+      accumulateNanos += measureNanoTime {
+        for (lightMap in lightMaps) {
+          for (source in 0 until sources) {
+            kernels.accumulate(lightMap, intensities[source], tints[source])
+          }
+        }
+      }
+      toneMapNanos += measureNanoTime {
+        for (lightMap in lightMaps) {
+          kernels.reinhardJodieLuminanceByColor(lightMap)
+          checksum += kernels.averageBrightness(lightMap)
+        }
+      }
+    }
+    return accumulateNanos / LIGHT_MAP_BENCHMARK_ITERATIONS to toneMapNanos / LIGHT_MAP_BENCHMARK_ITERATIONS
+  }
+
+  // Warm up both implementations before measuring
+  measure(ScalarLightMapKernels)
+  measure(vector)
+  val (scalarAccumulate, scalarToneMap) = measure(ScalarLightMapKernels)
+  val (vectorAccumulate, vectorToneMap) = measure(vector)
+
+  fun speedup(scalar: Long, vector: Long): String = "%.2fx".format(scalar.toDouble() / vector.coerceAtLeast(1))
+  logger.info { "Light map math of ${lightMaps.size} blocks with $sources sources each, average of $LIGHT_MAP_BENCHMARK_ITERATIONS runs (checksum $checksum)" }
+  logger.info { "  accumulate: scalar ${scalarAccumulate / 1000} us, vector ${vectorAccumulate / 1000} us (${speedup(scalarAccumulate, vectorAccumulate)})" }
+  logger.info { "  tone map:   scalar ${scalarToneMap / 1000} us, vector ${vectorToneMap / 1000} us (${speedup(scalarToneMap, vectorToneMap)})" }
+  logger.info { "  in use: ${if (LightMapKernels.selected === vector) "vector" else "scalar"}" }
+}
+
+/**
+ * Compare the time the ray cast and flood fill light engines use to light all chunks (as when toggling lights)
+ * and to update after the top block of every column changes (as when running sandTest)
+ */
+fun lightEngineBenchmark() {
+  val light = GeneratedLightWorld(lightBenchmarkChunks())
+  val chunks = light.chunks
+  val allLocations = chunks.flatMap { chunk ->
+    (0 until Chunk.CHUNK_SIZE * Chunk.CHUNK_SIZE).map { i ->
+      compactInt(chunk.chunkX.chunkToWorld(i / Chunk.CHUNK_SIZE), chunk.chunkY.chunkToWorld(i % Chunk.CHUNK_SIZE))
+    }
+  }.toLongArray()
+  val topLocations = chunks.map { it.chunkX }.distinct().flatMap { chunkX ->
+    (0 until Chunk.CHUNK_SIZE).map { localX ->
+      val worldX = chunkX.chunkToWorld(localX)
+      compactInt(worldX, light.topBlockWorldY(worldX))
+    }
+  }.toLongArray()
+
+  fun rayCast(locations: WorldCompactLocArray, sources: WorldCompactLocArray?) =
+    runBlocking(Dispatchers.Default) {
+      for (location in locations) {
+        val worldX = location.decompactLocX()
+        val worldY = location.decompactLocY()
+        if (sources != null && sources.none { dst2(worldX, worldY, it.decompactLocX(), it.decompactLocY()) <= World.LIGHT_SOURCE_LOOK_BLOCKS_WITH_EXTRA_POW }) {
+          continue
+        }
+        val blockLight = light.chunkAt(worldX, worldY)?.getBlockLight(worldX.chunkOffset(), worldY.chunkOffset()) ?: continue
+        launch { blockLight.recalculateLighting() }
+      }
+    }
+
+  val floodFill = FloodFillLightEngine(light.world)
+  val rayCastFull = measureNanoTime { rayCast(allLocations, null) }
+  val rayCastTop = measureNanoTime { rayCast(allLocations, topLocations) }
+  val floodFillFull = measureNanoTime { floodFill.recalculate(allLocations) }
+  val floodFillTop = measureNanoTime { floodFill.recalculate(topLocations) }
+
+  logger.info { "Light engines on ${chunks.size} generated chunks, ${topLocations.size} changed columns" }
+  logger.info { "  ray cast:   all chunks ${rayCastFull / 1_000_000} ms, top blocks ${rayCastTop / 1_000_000} ms" }
+  logger.info { "  flood fill: all chunks ${floodFillFull / 1_000_000} ms, top blocks ${floodFillTop / 1_000_000} ms" }
+}
+
+/**
+ * Compare the time to calculate light occlusion by walking the world against the precomputed ray occlusion table.
+ *
+ * Both read the materials of the generated chunks as [World.getMaterial] does, without going through the mocked world
+ */
+fun lightOcclusionBenchmark() {
+  val light = GeneratedLightWorld(lightBenchmarkChunks())
+  // The table is built on first access
+  val tableNanos = measureNanoTime { RayOcclusionTable.attenuation(0, 0, 0, FloatArray(RayOcclusionTable.WIDTH * RayOcclusionTable.WIDTH)) }
+  val targets = light.chunks.flatMap { chunk ->
+    (0 until Chunk.CHUNK_SIZE * Chunk.CHUNK_SIZE).mapNotNull { i ->
+      val blockLight = chunk.getBlockLight(i / Chunk.CHUNK_SIZE, i % Chunk.CHUNK_SIZE)
+      val worldX = chunk.chunkX.chunkToWorld(blockLight.localX)
+      val worldY = chunk.chunkY.chunkToWorld(blockLight.localY)
+      if (worldY > light.topBlockWorldY(worldX)) return@mapNotNull null
+      val sources = blockLight.findLuminescentBlocks(worldX, worldY).toList() + blockLight.findSkylightBlocks(worldX, worldY).toList()
+      compactInt(worldX, worldY) to sources
+    }
+  }
+  var rays = 0L
+  var checksum = 0f
+  val walkNanos = measureNanoTime {
+    for ((loc, sources) in targets) {
+      val worldX = loc.decompactLocX()
+      val worldY = loc.decompactLocY()
+      for (source in sources) {
+        for (lightMapIndex in 0 until BlockLight.LIGHT_RESOLUTION_SQUARE) {
+          val dstX = worldX + BlockLight.centerOfSubcell(lightMapIndex / BlockLight.LIGHT_RESOLUTION)
+          val dstY = worldY + BlockLight.centerOfSubcell(lightMapIndex % BlockLight.LIGHT_RESOLUTION)
+          checksum += light.rayAttenuation(source.worldX + 0.5, source.worldY + 0.5, dstX, dstY)
+          rays++
+        }
+      }
+    }
+  }
+  val tabledNanos = measureNanoTime {
+    for ((loc, sources) in targets) {
+      val worldX = loc.decompactLocX()
+      val worldY = loc.decompactLocY()
+      val opacities = light.snapshotOpacity(worldX, worldY)
+      for (source in sources) {
+        for (lightMapIndex in 0 until BlockLight.LIGHT_RESOLUTION_SQUARE) {
+          checksum += RayOcclusionTable.attenuation(worldX - source.worldX, worldY - source.worldY, lightMapIndex, opacities)
+        }
+      }
+    }
+  }
+  logger.info { "Light occlusion of $rays rays to ${targets.size} generated blocks (checksum $checksum, first table access ${tableNanos / 1000} us)" }
+  logger.info { "  world walk: ${walkNanos / 1_000_000} ms" }
+  logger.info { "  table:      ${tabledNanos / 1_000_000} ms (${"%.1f".format(walkNanos.toDouble() / tabledNanos.coerceAtLeast(1))}x)" }
+}
+
+/**
+ * The chunks the light benchmarks light, the surface chunks around the spawn and a few chunks below them
+ */
+internal fun lightBenchmarkChunks(): List<GeneratedChunk> =
+  generatedChunks.filter { chunk ->
+    val surfaceChunkY = generator.heightAt(chunk.chunkX.chunkToWorld(0)).worldToChunk()
+    chunk.chunkX in -LIGHT_BENCHMARK_RADIUS until LIGHT_BENCHMARK_RADIUS && chunk.chunkY >= surfaceChunkY - LIGHT_BENCHMARK_DEPTH
+  }
+
+/**
+ * A world of generated chunks which answers what the light engines ask the world, as the benchmarks cannot load a world.
+ *
+ * Only [world] is a mock, the chunks and columns read the generated materials directly. Every call into [world] pays for the mock,
+ * so measure code which reads the world block by block against [material] instead.
+ */
+internal class GeneratedLightWorld(generated: List<GeneratedChunk>) {
+
+  val world: World = mockk(relaxed = true)
+
+  private val loaded = Long2ObjectOpenHashMap<Chunk>()
+
+  /**
+   * The world y-coordinate of the top block which blocks light of every loaded world x-coordinate, by chunk x-coordinate
+   */
+  private val topBlocks = Int2ObjectOpenHashMap<IntArray>()
+
+  val chunks: Collection<Chunk> get() = loaded.values
+
+  init {
+    for ((chunkX, column) in generated.groupBy { it.chunkX }) {
+      val bottomWorldY = column.minOf { it.chunkY }.chunkToWorld(0)
+      val tops = IntArray(Chunk.CHUNK_SIZE) { bottomWorldY - 1 }
+      for (chunk in column.sortedBy { it.chunkY }) {
+        for (localX in 0 until Chunk.CHUNK_SIZE) {
+          for (localY in 0 until Chunk.CHUNK_SIZE) {
+            if (chunk.material(localX, localY).blocksLight) {
+              tops[localX] = chunk.chunkY.chunkToWorld(localY)
+            }
+          }
+        }
+      }
+      topBlocks.put(chunkX, tops)
+      val chunkColumn = GeneratedColumn(chunkX, tops)
+      for (chunk in column) {
+        loaded.put(compactInt(chunk.chunkX, chunk.chunkY), GeneratedLightChunk(chunk, chunkColumn))
+      }
+    }
+
+    every { world.isDisposed } returns false
+    every { world.getChunk(any<Long>(), any()) } answers { loaded.get(firstArg<Long>()) }
+    every { world.getMaterial(any<Int>(), any<Int>(), any()) } answers { material(firstArg(), secondArg()) }
+    every { world.getTopBlockWorldY(any(), any()) } answers { topBlockWorldY(firstArg()) }
+    every { world.getBlocksAABB(any(), any(), any(), any(), any(), any(), any(), any(), any()) } answers {
+      blocksAABB(arg(0), arg(1), arg(2), arg(3), arg(4), arg(6), arg(8))
+    }
+    every { world.getBlocksAABBFromCenter(any(), any(), any(), any(), any(), any(), any(), any(), any()) } answers {
+      val width = arg<Float>(2)
+      val height = arg<Float>(3)
+      blocksAABB(arg<Float>(0) - width, arg<Float>(1) - height, width * 2f, height * 2f, arg(4), arg(6), arg(8))
+    }
+  }
+
+  fun chunkAt(worldX: WorldCoord, worldY: WorldCoord): Chunk? = loaded.get(compactInt(worldX.worldToChunk(), worldY.worldToChunk()))
+
+  /**
+   * Same as [World.getMaterial], blocks in chunks which are not loaded are air
+   */
+  fun material(worldX: WorldCoord, worldY: WorldCoord): Material = chunkAt(worldX, worldY)?.getRawMaterial(worldX.chunkOffset(), worldY.chunkOffset()) ?: Material.Air
+
+  /**
+   * Same as [BlockLight.computeRayAttenuation]
+   */
+  fun rayAttenuation(srcX: Double, srcY: Double, dstX: Double, dstY: Double): Float {
+    val opacityNormalizer = BlockLight.opacityNormalizer(dstX - srcX, dstY - srcY)
+    var attenuation = 1.0f
+    BlockLight.walkRay(srcX, srcY, dstX, dstY) { blockX, blockY ->
+      attenuation *= (1.0f - material(blockX, blockY).lightOpacity * opacityNormalizer)
+      attenuation > 0f
+    }
+    return attenuation.coerceAtLeast(0f)
+  }
+
+  /**
+   * Same as [RayOcclusionTable.snapshotOpacity]
+   */
+  fun snapshotOpacity(worldX: WorldCoord, worldY: WorldCoord): FloatArray =
+    FloatArray(RayOcclusionTable.WIDTH * RayOcclusionTable.WIDTH) { i ->
+      material(worldX + i / RayOcclusionTable.WIDTH - RayOcclusionTable.RADIUS, worldY + i % RayOcclusionTable.WIDTH - RayOcclusionTable.RADIUS).lightOpacity
+    }
+
+  fun topBlockWorldY(worldX: WorldCoord): WorldCoord = topBlocks.get(worldX.worldToChunk())?.get(worldX.chunkOffset()) ?: Int.MIN_VALUE
+
+  private fun blocksAABB(
+    worldX: WorldCoordFloat,
+    worldY: WorldCoordFloat,
+    offsetX: Float,
+    offsetY: Float,
+    raw: Boolean,
+    includeAir: Boolean,
+    filter: (Block) -> Boolean
+  ): GdxArray<Block> {
+    val blocks = GdxArray<Block>(false, 1)
+    for (x in MathUtils.floor(worldX)..MathUtils.floor(worldX + offsetX)) {
+      for (y in MathUtils.floor(worldY)..MathUtils.floor(worldY + offsetY)) {
+        val chunk = chunkAt(x, y) ?: continue
+        val block = if (raw) chunk.getRawBlock(x.chunkOffset(), y.chunkOffset()) else chunk.getBlock(x.chunkOffset(), y.chunkOffset())
+        if (block != null && (includeAir || block.material != Material.Air) && filter(block)) {
+          blocks.add(block)
+        }
+      }
+    }
+    return blocks
+  }
+
+  private class GeneratedColumn(override val chunkX: ChunkCoord, private val tops: IntArray) : ChunkColumn by mockk<ChunkColumn>(relaxed = true) {
+
+    override fun topBlockHeight(localX: LocalCoord, features: ChunkColumnFeatureFlag): WorldCoord = tops[localX]
+
+    override fun isBlockAboveTopBlock(localX: LocalCoord, worldY: WorldCoord, features: ChunkColumnFeatureFlag): Boolean = worldY > tops[localX]
+  }
+
+  private inner class GeneratedLightChunk(private val generated: GeneratedChunk, override val chunkColumn: ChunkColumn) : Chunk by mockk<Chunk>(relaxed = true) {
+
+    override val world: World get() = this@GeneratedLightWorld.world
+    override val chunkX: ChunkCoord get() = generated.chunkX
+    override val chunkY: ChunkCoord get() = generated.chunkY
+    override val isNotDisposed: Boolean get() = true
+    override val isValid: Boolean get() = true
+    override val isInvalid: Boolean get() = false
+    override val lightBuffer: ChunkLightBuffer = ChunkLightBuffer()
+
+    private val blockLights = arrayOfNulls<BlockLight>(ChunkBlockStorage.CELLS)
+
+    override fun getBlockLight(localX: LocalCoord, localY: LocalCoord): BlockLight {
+      val index = ChunkBlockStorage.cellIndex(localX, localY)
+      return blockLights[index] ?: BlockLight(this, localX, localY).also { blockLights[index] = it }
+    }
+
+    override fun getRawMaterial(localX: LocalCoord, localY: LocalCoord): Material = generated.material(localX, localY)
+
+    override fun getRawBlock(localX: LocalCoord, localY: LocalCoord): Block? =
+      generated.material(localX, localY).takeUnless { it == Material.Air }?.let { BlockImpl(this, localX, localY, it) }
+
+    override fun getBlock(localX: LocalCoord, localY: LocalCoord): Block = BlockImpl(this, localX, localY, generated.material(localX, localY))
+
+    override fun getBlock(worldX: WorldCoord, worldY: WorldCoord, loadChunk: Boolean): Block? =
+      chunkAt(worldX, worldY)?.getBlock(worldX.chunkOffset(), worldY.chunkOffset())
+  }
+}
+
+private const val LIGHT_BENCHMARK_RADIUS = 4
+private const val LIGHT_BENCHMARK_DEPTH = 3
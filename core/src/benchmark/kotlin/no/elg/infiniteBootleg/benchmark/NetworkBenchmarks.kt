@@ -0,0 +1,308 @@
+package no.elg.infiniteBootleg.benchmark
+
+import com.google.protobuf.CodedOutputStream
+import io.github.oshai.kotlinlogging.KotlinLogging
+import io.netty.bootstrap.Bootstrap
+import io.netty.bootstrap.ServerBootstrap
+import io.netty.channel.Channel
+import io.netty.channel.ChannelHandlerContext
+import io.netty.channel.ChannelInitializer
+import io.netty.channel.ChannelOption
+import io.netty.channel.ChannelOutboundHandlerAdapter
+import io.netty.channel.EventLoopGroup
+import io.netty.channel.MultiThreadIoEventLoopGroup
+import io.netty.channel.SimpleChannelInboundHandler
+import io.netty.channel.embedded.EmbeddedChannel
+import io.netty.channel.nio.NioIoHandler
+import io.netty.channel.socket.SocketChannel
+import io.netty.channel.socket.nio.NioServerSocketChannel
+import io.netty.channel.socket.nio.NioSocketChannel
+import io.netty.handler.codec.protobuf.ProtobufDecoder
+import io.netty.handler.codec.protobuf.ProtobufEncoder
+import io.netty.handler.codec.protobuf.ProtobufVarint32FrameDecoder
+import io.netty.handler.codec.protobuf.ProtobufVarint32LengthFieldPrepender
+import it.unimi.dsi.fastutil.longs.LongArrayList
+import no.elg.infiniteBootleg.core.Settings
+import no.elg.infiniteBootleg.core.net.BlockUpdateBatch
+import no.elg.infiniteBootleg.core.net.ChunkInterest
+import no.elg.infiniteBootleg.core.net.ChunkSubscriptions
+import no.elg.infiniteBootleg.core.net.EncodedPacket
+import no.elg.infiniteBootleg.core.net.EncodedPacketHandler
+import no.elg.infiniteBootleg.core.net.TickFlushHandler
+import no.elg.infiniteBootleg.core.net.clientBoundBlockUpdate
+import no.elg.infiniteBootleg.core.net.clientBoundBlocksUpdate
+import no.elg.infiniteBootleg.core.net.clientBoundPacketBuilder
+import no.elg.infiniteBootleg.core.util.chunkOffset
+import no.elg.infiniteBootleg.core.util.compactInt
+import no.elg.infiniteBootleg.core.util.decompactLocX
+import no.elg.infiniteBootleg.core.util.decompactLocY
+import no.elg.infiniteBootleg.core.util.worldToChunk
+import no.elg.infiniteBootleg.core.world.Material
+import no.elg.infiniteBootleg.core.world.chunks.Chunk
+import no.elg.infiniteBootleg.core.world.chunks.ChunkImpl
+import no.elg.infiniteBootleg.core.world.chunks.storage.ChunkBlockStorage
+import no.elg.infiniteBootleg.core.world.chunks.storage.PackedBlocksCodec
+import no.elg.infiniteBootleg.core.world.ecs.components.ExplosiveComponent
+import no.elg.infiniteBootleg.core.world.render.ServerClientChunksInView
+import no.elg.infiniteBootleg.protobuf.Packets
+import java.lang.management.ManagementFactory
+import java.net.InetAddress
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.random.Random
+import kotlin.system.measureNanoTime
+
+private val logger = KotlinLogging.logger {}
+
+private const val BROADCAST_BENCHMARK_CLIENTS = 200
+private const val BROADCAST_BENCHMARK_SPREAD = 200
+private const val BROADCAST_BENCHMARK_CHANGES = 100_000
+private const val BLOCK_UPDATE_BENCHMARK_AIR_TEST_CHUNKS = 10
+private const val BROADCAST_ENCODING_BENCHMARK_CLIENTS = 100
+private const val BROADCAST_ENCODING_BENCHMARK_BROADCASTS = 2_000
+private const val TICK_FLUSH_BENCHMARK_CLIENTS = 20
+private const val TICK_FLUSH_BENCHMARK_PACKETS_PER_TICK = 10
+private const val TICK_FLUSH_BENCHMARK_TICKS = 150
+
+/**
+ * Compare the time to find the players a chunk change is broadcast to by checking the view of every player against the chunk subscriptions
+ */
+fun broadcastBenchmark() {
+  val random = Random(0)
+  val views = List(BROADCAST_BENCHMARK_CLIENTS) {
+    ServerClientChunksInView(random.nextInt(-BROADCAST_BENCHMARK_SPREAD, BROADCAST_BENCHMARK_SPREAD), random.nextInt(-BROADCAST_BENCHMARK_SPREAD, BROADCAST_BENCHMARK_SPREAD))
+  }
+  val subscriptions = ChunkSubscriptions<Int>()
+  views.forEachIndexed { client, view -> ChunkInterest(client, subscriptions).moveView(view, 0, 0) }
+  // Chunks change where the players are
+  val changedChunks = LongArray(BROADCAST_BENCHMARK_CHANGES) {
+    val view = views[random.nextInt(views.size)]
+    compactInt(random.nextInt(view.horizontalStart, view.horizontalEnd), random.nextInt(view.verticalStart, view.verticalEnd))
+  }
+  logger.info {
+    "Broadcasting $BROADCAST_BENCHMARK_CHANGES chunk changes to $BROADCAST_BENCHMARK_CLIENTS clients within ${BROADCAST_BENCHMARK_SPREAD * 2}x${BROADCAST_BENCHMARK_SPREAD * 2} chunks " +
+      "(view distance ${Settings.viewDistance})"
+  }
+
+  // What broadcasting did before the subscriptions: ask every channel whether the chunk is in the view of its player
+  var matched = 0
+  val matcherNanos = measureNanoTime {
+    for (chunkLoc in changedChunks) {
+      val chunkX = chunkLoc.decompactLocX()
+      val chunkY = chunkLoc.decompactLocY()
+      for (view in views) {
+        if (view.isInView(chunkX, chunkY)) {
+          matched++
+        }
+      }
+    }
+  }
+  var subscribed = 0
+  val subscriptionNanos = measureNanoTime {
+    for (chunkLoc in changedChunks) {
+      subscribed += subscriptions.subscribers(chunkLoc).size
+    }
+  }
+  logger.info { "  every client:  %,6d ns/broadcast (%d clients reached)".format(matcherNanos / BROADCAST_BENCHMARK_CHANGES, matched) }
+  logger.info { "  subscriptions: %,6d ns/broadcast (%d clients reached)".format(subscriptionNanos / BROADCAST_BENCHMARK_CHANGES, subscribed) }
+}
+
+/**
+ * Compare the packets and bytes sent for the blocks removed by an explosion and by airTest in a single tick, with one packet per block and one packet per chunk
+ */
+fun blockUpdateBenchmark() {
+  val radius = ExplosiveComponent.EXPLOSION_STRENGTH
+  val explosion = ArrayList<Long>()
+  for (worldX in -radius..radius) {
+    for (worldY in -radius..radius) {
+      if (worldX * worldX + worldY * worldY < radius * radius) {
+        explosion += compactInt(worldX, worldY)
+      }
+    }
+  }
+  val airTest = List(BLOCK_UPDATE_BENCHMARK_AIR_TEST_CHUNKS * Chunk.CHUNK_SIZE) { worldX -> compactInt(worldX, 0) }
+  logBlockUpdateSizes("explosion", explosion)
+  logBlockUpdateSizes("airTest", airTest)
+}
+
+private fun logBlockUpdateSizes(workload: String, removed: List<Long>) {
+  // Size of the packet with the varint length prefix added by the frame encoder
+  fun sizeOnWire(packet: Packets.Packet): Long = packet.serializedSize.let { CodedOutputStream.computeUInt32SizeNoTag(it) + it }.toLong()
+
+  var perBlockBytes = 0L
+  val batches = LinkedHashMap<Long, BlockUpdateBatch>()
+  for (worldLoc in removed) {
+    val worldX = worldLoc.decompactLocX()
+    val worldY = worldLoc.decompactLocY()
+    perBlockBytes += sizeOnWire(clientBoundBlockUpdate(worldX, worldY, null))
+    val chunkLoc = compactInt(worldX.worldToChunk(), worldY.worldToChunk())
+    batches.getOrPut(chunkLoc) { BlockUpdateBatch(chunkLoc) }.add(worldX.chunkOffset(), worldY.chunkOffset(), ChunkImpl.AIR_BLOCK_PROTO)
+  }
+  val perChunkBytes = batches.values.sumOf { sizeOnWire(clientBoundBlocksUpdate(it)) }
+  logger.info { "$workload: ${removed.size} blocks removed in ${batches.size} chunks" }
+  logger.info { "  packet per block: %,6d packets %,8d bytes".format(removed.size, perBlockBytes) }
+  logger.info { "  packet per chunk: %,6d packets %,8d bytes".format(batches.size, perChunkBytes) }
+}
+
+/**
+ * Compare the CPU time of broadcasting a packet by serializing it for every client and by serializing it once
+ */
+fun broadcastEncodingBenchmark() {
+  // The block updates of a chunk in an explosion
+  val batch = BlockUpdateBatch(compactInt(0, 0))
+  for (index in 0 until ChunkBlockStorage.CELLS) {
+    val material = if (index % 3 == 0) Material.Stone else Material.Air
+    batch.add(PackedBlocksCodec.localX(index), PackedBlocksCodec.localY(index), ChunkBlockStorage.protoOf(material))
+  }
+  val packet = clientBoundBlocksUpdate(batch)
+  // Same outbound pipeline as the server
+  val channels = List(BROADCAST_ENCODING_BENCHMARK_CLIENTS) {
+    EmbeddedChannel(EncodedPacketHandler, ProtobufVarint32LengthFieldPrepender(), ProtobufEncoder())
+  }
+  val threadMXBean = ManagementFactory.getThreadMXBean()
+
+  fun measure(broadcast: () -> Unit): Long {
+    // Warm up
+    repeat(BROADCAST_ENCODING_BENCHMARK_BROADCASTS / 10) {
+      broadcast()
+      channels.forEach { it.releaseOutbound() }
+    }
+    var cpuNanos = 0L
+    repeat(BROADCAST_ENCODING_BENCHMARK_BROADCASTS) {
+      val start = threadMXBean.currentThreadCpuTime
+      broadcast()
+      cpuNanos += threadMXBean.currentThreadCpuTime - start
+      channels.forEach { it.releaseOutbound() }
+    }
+    return cpuNanos / BROADCAST_ENCODING_BENCHMARK_BROADCASTS
+  }
+
+  val perChannelNanos = measure {
+    for (channel in channels) {
+      channel.writeAndFlush(packet)
+    }
+  }
+  val sharedNanos = measure {
+    val encoded = EncodedPacket.encode(packet)
+    for (channel in channels) {
+      channel.writeAndFlush(encoded.retainedDuplicate())
+    }
+    encoded.release()
+  }
+  channels.forEach { it.finishAndReleaseAll() }
+  logger.info { "Broadcasting a ${packet.serializedSize} byte packet to $BROADCAST_ENCODING_BENCHMARK_CLIENTS clients" }
+  logger.info { "  serialized per client: %,9d ns cpu/broadcast".format(perChannelNanos) }
+  logger.info { "  serialized once:       %,9d ns cpu/broadcast".format(sharedNanos) }
+}
+
+/**
+ * Load test sending packets to local bot clients, comparing a flush per packet with a flush per tick
+ */
+fun tickFlushBenchmark() {
+  val group = MultiThreadIoEventLoopGroup(NioIoHandler.newFactory())
+  try {
+    logger.info {
+      "Sending $TICK_FLUSH_BENCHMARK_PACKETS_PER_TICK packets per tick and one packet between ticks to $TICK_FLUSH_BENCHMARK_CLIENTS clients " +
+        "for $TICK_FLUSH_BENCHMARK_TICKS ticks at ${Settings.tps} tps"
+    }
+    runTickFlushLoad(group, flushPerTick = false)
+    runTickFlushLoad(group, flushPerTick = true)
+  } finally {
+    group.shutdownGracefully()
+  }
+}
+
+private fun runTickFlushLoad(group: EventLoopGroup, flushPerTick: Boolean) {
+  val tickNanos = TimeUnit.SECONDS.toNanos(1) / Settings.tps
+  // Every flush reaching the socket with something to write is at least one syscall
+  val flushes = AtomicLong()
+  val latencies = LongArrayList()
+  val serverChannels = CopyOnWriteArrayList<Channel>()
+
+  fun timestamped(): Packets.Packet =
+    clientBoundPacketBuilder(Packets.Packet.Type.DX_HEARTBEAT)
+      .setHeartbeat(Packets.Heartbeat.newBuilder().setKeepAliveId(System.nanoTime().toString()))
+      .build()
+
+  val server = ServerBootstrap()
+    .group(group)
+    .channel(NioServerSocketChannel::class.java)
+    .childOption(ChannelOption.TCP_NODELAY, true)
+    .childHandler(
+      object : ChannelInitializer<SocketChannel>() {
+        override fun initChannel(ch: SocketChannel) {
+          ch.pipeline().addLast(object : ChannelOutboundHandlerAdapter() {
+            override fun flush(ctx: ChannelHandlerContext) {
+              flushes.incrementAndGet()
+              ctx.flush()
+            }
+          })
+          if (flushPerTick) {
+            ch.pipeline().addLast(TickFlushHandler.NAME, TickFlushHandler(tickNanos))
+          }
+          ch.pipeline().addLast(ProtobufVarint32LengthFieldPrepender(), ProtobufEncoder())
+          serverChannels += ch
+        }
+      }
+    )
+    .bind(InetAddress.getLoopbackAddress(), 0).sync().channel()
+  val clientBootstrap = Bootstrap()
+    .group(group)
+    .channel(NioSocketChannel::class.java)
+    .option(ChannelOption.TCP_NODELAY, true)
+    .handler(
+      object : ChannelInitializer<SocketChannel>() {
+        override fun initChannel(ch: SocketChannel) {
+          ch.pipeline().addLast(ProtobufVarint32FrameDecoder(), ProtobufDecoder(Packets.Packet.getDefaultInstance()))
+          ch.pipeline().addLast(object : SimpleChannelInboundHandler<Packets.Packet>() {
+            override fun channelRead0(ctx: ChannelHandlerContext, packet: Packets.Packet) {
+              val latency = System.nanoTime() - packet.heartbeat.keepAliveId.toLong()
+              synchronized(latencies) {
+                latencies.add(latency)
+              }
+            }
+          })
+        }
+      }
+    )
+  val clients = List(TICK_FLUSH_BENCHMARK_CLIENTS) { clientBootstrap.connect(server.localAddress()).sync().channel() }
+  while (serverChannels.size < TICK_FLUSH_BENCHMARK_CLIENTS) {
+    Thread.sleep(1)
+  }
+
+  val random = Random(0)
+  val start = System.nanoTime()
+  repeat(TICK_FLUSH_BENCHMARK_TICKS) {
+    val tickStart = System.nanoTime()
+    for (channel in serverChannels) {
+      repeat(TICK_FLUSH_BENCHMARK_PACKETS_PER_TICK) {
+        channel.writeAndFlush(timestamped())
+      }
+      // A packet sent outside the tick, i.e., the response to a request from the client
+      channel.eventLoop().schedule({ channel.writeAndFlush(timestamped()) }, random.nextLong(tickNanos), TimeUnit.NANOSECONDS)
+    }
+    for (channel in serverChannels) {
+      TickFlushHandler.tickEnded(channel)
+    }
+    Thread.sleep(TimeUnit.NANOSECONDS.toMillis(tickNanos - (System.nanoTime() - tickStart)).coerceAtLeast(0))
+  }
+  val seconds = (System.nanoTime() - start) / 1e9
+  // Let the last packets arrive
+  Thread.sleep(TimeUnit.NANOSECONDS.toMillis(tickNanos * 2))
+  clients.forEach { it.close().sync() }
+  server.close().sync()
+
+  val sorted = synchronized(latencies) { latencies.toLongArray() }
+  sorted.sort()
+  fun percentileMillis(percentile: Double): Double = if (sorted.isEmpty()) 0.0 else sorted[((sorted.size - 1) * percentile).toInt()] / 1_000_000.0
+  logger.info {
+    "  %s: %,8.0f flushes/s, latency p50 %6.2f ms p99 %6.2f ms (%d packets received)".format(
+      if (flushPerTick) "flush per tick  " else "flush per packet",
+      flushes.get() / seconds,
+      percentileMillis(0.5),
+      percentileMillis(0.99),
+      sorted.size
+    )
+  }
+}
@@ -47,7 +47,77 @@ object Settings {
 
   var dayTicking = false
 
+  /**
+   * Store the blocks of new chunks as a bit-packed material palette instead of one block instance per cell
+   *
+   * @see no.elg.infiniteBootleg.core.world.chunks.storage.PalettedBlockStorage
+   */
+  var paletteBlockStorage = true
+
+  /**
+   * Number of threads saving the chunks when a world is closed
+   *
+   * @see no.elg.infiniteBootleg.core.world.loader.chunk.ChunkShutdownSave
+   */
+  var shutdownSaveWorkers = Runtime.getRuntime().availableProcessors()
+
+  /**
+   * How long closing a world may spend saving its chunks. Block changes in chunks not saved in time are recovered from the block journal
+   */
+  var shutdownSaveTimeoutMillis = 20_000L
+
+  /**
+   * Number of threads reading and generating chunks loaded with [no.elg.infiniteBootleg.core.world.world.World.getChunkAsync]
+   */
+  var chunkLoadWorkers = (Runtime.getRuntime().availableProcessors() / 2).coerceAtLeast(2)
+
+  /**
+   * Whether the server loads the chunks players are heading towards before they come into view, and sends them to the players early
+   *
+   * @see no.elg.infiniteBootleg.core.world.loader.chunk.ChunkPrefetcher
+   */
+  var chunkPrefetch = true
+
+  /**
+   * How many seconds ahead the path of a moving player is predicted when prefetching chunks
+   */
+  var chunkPrefetchSeconds = 2f
+
+  /**
+   * Maximum number of chunks prefetched for each player at a time
+   */
+  var chunkPrefetchMaxChunks = 64
+
   var renderLight = true
+
+  /**
+   * How the light of blocks is calculated
+   */
+  var lightEngine: LightEngine = LightEngine.RAY_CAST
+
+  enum class LightEngine {
+    /**
+     * Cast a ray from every block to every light source nearby
+     *
+     * @see no.elg.infiniteBootleg.core.world.blocks.BlockLight
+     */
+    RAY_CAST,
+
+    /**
+     * Flood fill light levels from the light sources, only updating the blocks whose light changes
+     *
+     * @see no.elg.infiniteBootleg.core.world.blocks.FloodFillLightEngine
+     */
+    FLOOD_FILL,
+
+    /**
+     * Cast rays like [RAY_CAST], but cache the light of each light source so only the changed light sources are recalculated
+     *
+     * @see no.elg.infiniteBootleg.core.world.blocks.AdditiveLightEngine
+     */
+    ADDITIVE
+  }
+
   var lightToneMapping: LightToneMapping = REINHARD_JODIE_LUMINANCE_BY_COLOR
 
   enum class LightToneMapping {
@@ -82,6 +152,12 @@ object Settings {
 
   var lightOcclusion = true
 
+  /**
+   * Use the JDK Vector API for the light map math, if the `jdk.incubator.vector` module is available.
+   * Only read when the first light map is used, see [no.elg.infiniteBootleg.core.world.blocks.LightMapKernels]
+   */
+  var vectorizedLight = true
+
   var renderBox2dDebug = false
 
   var debugEntityLight = false
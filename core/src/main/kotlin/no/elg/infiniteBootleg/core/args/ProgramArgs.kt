@@ -126,6 +126,11 @@ abstract class ProgramArgs(args: Array<String>) {
       }
     }
 
+    arguments["no_vector_light"] = ProgramArgument(desc = "Do not use the JDK Vector API to calculate light, even when it is available") {
+      Settings.vectorizedLight = false
+      logger.info { "Light will be calculated without the Vector API" }
+    }
+
     arguments["help"] = ProgramArgument(desc = "Print out available arguments and exit", alt = '?') {
       logger.info { "List of program arguments:" }
       // find the maximum length of the argument methods
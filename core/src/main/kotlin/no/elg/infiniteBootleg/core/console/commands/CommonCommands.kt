@@ -16,6 +16,7 @@ import no.elg.infiniteBootleg.core.events.api.EventStatistics
 import no.elg.infiniteBootleg.core.events.api.EventsTracker
 import no.elg.infiniteBootleg.core.events.api.ThreadType
 import no.elg.infiniteBootleg.core.main.Main
+import no.elg.infiniteBootleg.core.net.OutboundScheduler
 import no.elg.infiniteBootleg.core.net.clientBoundWorldSettings
 import no.elg.infiniteBootleg.core.net.serverBoundWorldSettings
 import no.elg.infiniteBootleg.core.util.ChunkCoord
@@ -27,6 +28,9 @@ import no.elg.infiniteBootleg.core.util.toAbled
 import no.elg.infiniteBootleg.core.util.toTitleCase
 import no.elg.infiniteBootleg.core.util.worldToChunk
 import no.elg.infiniteBootleg.core.world.WorldTime
+import no.elg.infiniteBootleg.core.world.chunks.ChunkSaveTimings
+import no.elg.infiniteBootleg.core.world.chunks.LightUpdateScheduler
+import no.elg.infiniteBootleg.core.world.chunks.tickets.ChunkTicketType
 import no.elg.infiniteBootleg.core.world.ecs.api.restriction.component.AuthoritativeOnlyComponent
 import no.elg.infiniteBootleg.core.world.ecs.api.restriction.component.ClientComponent
 import no.elg.infiniteBootleg.core.world.ecs.api.restriction.component.DebuggableComponent.Companion.debugString
@@ -35,6 +39,8 @@ import no.elg.infiniteBootleg.core.world.ecs.components.NameComponent.Companion.
 import no.elg.infiniteBootleg.core.world.ecs.components.NameComponent.Companion.nameOrNull
 import no.elg.infiniteBootleg.core.world.ecs.components.required.IdComponent.Companion.id
 import no.elg.infiniteBootleg.core.world.ecs.components.required.PositionComponent.Companion.teleport
+import no.elg.infiniteBootleg.core.world.loader.chunk.ChunkSavePipeline
+import no.elg.infiniteBootleg.core.world.loader.chunk.FullChunkLoader
 import no.elg.infiniteBootleg.core.world.ticker.Ticker
 import no.elg.infiniteBootleg.core.world.world.World
 import java.util.Locale
@@ -333,6 +339,83 @@ open class CommonCommands : CommandExecutor() {
     logger.info { "Chunk pos: \n$loadedChunkPos" }
   }
 
+  @ConsoleDoc(description = "Show how many chunks are kept loaded by chunk tickets and how many are waiting to be unloaded")
+  fun chunkTickets() {
+    val world = world ?: return
+    val chunkTickets = world.chunkTickets
+    val ticketsByType = chunkTickets.tickets().groupingBy { it.type }.eachCount()
+    logger.info { "Chunk tickets: ${ChunkTicketType.entries.joinToString { "${ticketsByType[it] ?: 0} ${it.name.lowercase()}" }}" }
+    logger.info {
+      "${chunkTickets.ticketedChunks} chunks have tickets, ${world.loadedChunks.size} chunks are loaded and ${chunkTickets.unloadableChunks} chunks are waiting to be unloaded"
+    }
+  }
+
+  @CmdArgNames("chunkX", "chunkY")
+  @ConsoleDoc(description = "Show the tickets keeping a chunk loaded", paramDescriptions = ["Chunk x coordinate", "Chunk y coordinate"])
+  fun chunkTicketsAt(chunkX: ChunkCoord, chunkY: ChunkCoord) {
+    val world = world ?: return
+    val tickets = world.chunkTickets.tickets().filter { it.contains(chunkX, chunkY) }
+    logger.info { "Chunk ${stringifyCompactLoc(chunkX, chunkY)} is ${if (world.isChunkLoaded(chunkX, chunkY)) "" else "not "}loaded and has ${tickets.size} tickets" }
+    for (ticket in tickets) {
+      logger.info { "  $ticket" }
+    }
+  }
+
+  @CmdArgNames("chunkX", "chunkY", "radius")
+  @ConsoleDoc(
+    description = "Keep the chunks around a chunk loaded for a minute",
+    paramDescriptions = ["Chunk x coordinate", "Chunk y coordinate", "How many chunks around the chunk to keep loaded"]
+  )
+  fun keepChunksLoaded(chunkX: ChunkCoord, chunkY: ChunkCoord, radius: Int) {
+    val world = world ?: return
+    val ticket = world.chunkTickets.add(ChunkTicketType.COMMAND, chunkX, chunkY, radius.coerceAtLeast(0))
+    logger.info { "Added $ticket" }
+  }
+
+  @ConsoleDoc(description = "Show how many prefetched chunks came into view and how many were loaded in vain")
+  fun chunkPrefetchStats() {
+    val world = world ?: return
+    val requests = world.chunkLoadRequests
+    logger.info { "Chunk prefetching is ${if (Settings.chunkPrefetch) "enabled" else "disabled"}, ${world.chunkPrefetchStats}" }
+    logger.info {
+      "${requests.loading} chunks loading, ${requests.requested} loads started of which ${requests.prefetched} were prefetches, " +
+        "${requests.promoted} prefetches were needed before they were loaded and ${requests.cancelled} loads were cancelled"
+    }
+  }
+
+  @ConsoleDoc(description = "Show how many packets had to wait for clients which could not keep up, and how many clients were disconnected for it")
+  fun outboundStats() {
+    logger.info { OutboundScheduler.stats.toString() }
+  }
+
+  @ConsoleDoc(description = "Show how many chunks are waiting for their light to be recalculated and how long they waited last tick")
+  fun lightSchedulerStats() {
+    val scheduler = world?.lightUpdateScheduler ?: return
+    logger.info {
+      "Light backlog ${scheduler.backlog} chunks, ${scheduler.completedLastTick} chunks recalculated last tick " +
+        "(max latency ${scheduler.maxLatencyLastTickMs} ms, ${LightUpdateScheduler.WORKERS} workers)"
+    }
+  }
+
+  @ConsoleDoc(description = "Show how many chunks are waiting to be saved, how long the last batch of saved chunks took and how long saving chunks blocks the game")
+  fun chunkSaveStats() {
+    val chunkLoader = world?.chunkLoader ?: return
+    val fullChunkLoader = chunkLoader as? FullChunkLoader
+    val pipeline = fullChunkLoader?.savePipeline
+    if (pipeline == null) {
+      logger.error { "Chunks of this world are not saved" }
+      return
+    }
+    logger.info {
+      "Save backlog ${pipeline.backlog}/${ChunkSavePipeline.CAPACITY} chunks, ${pipeline.written} chunks written, ${pipeline.deduplicated} saves deduplicated, " +
+        "last batch ${pipeline.lastBatchSize} chunks in ${pipeline.lastBatchMs} ms"
+    }
+    logger.info { ChunkSaveTimings.summary() }
+    fullChunkLoader.journal?.let { journal ->
+      logger.info { "Block journal in ${journal.folder.path}, ${journal.pendingChunks} chunks with recovered changes not yet loaded" }
+    }
+  }
+
   @ConsoleDoc(description = "Toggle whether to track events")
   fun trackEvents() {
     val eventTracker = EventManager.getOrCreateEventsTracker()
@@ -0,0 +1,91 @@
+package no.elg.infiniteBootleg.core.net
+
+import no.elg.infiniteBootleg.core.util.ChunkCompactLoc
+import no.elg.infiniteBootleg.core.util.LocalCoord
+import no.elg.infiniteBootleg.core.util.toVector2i
+import no.elg.infiniteBootleg.core.world.chunks.Chunk
+import no.elg.infiniteBootleg.core.world.chunks.storage.ChunkBlockStorage.Companion.CELLS
+import no.elg.infiniteBootleg.protobuf.Packets.UpdateBlocks
+import no.elg.infiniteBootleg.protobuf.ProtoWorld
+
+/**
+ * The blocks changed in a single chunk, to be sent as one [UpdateBlocks] packet rather than one packet per block.
+ *
+ * Like [no.elg.infiniteBootleg.core.world.chunks.storage.PackedBlocksCodec] the materials are stored in a palette, so each changed block
+ * without an entity only takes a few bytes. When a block is changed multiple times only the last change is kept.
+ *
+ * Not thread safe
+ *
+ * @see UpdateBlocks
+ */
+class BlockUpdateBatch(val chunkLoc: ChunkCompactLoc) {
+
+  private val blocks = arrayOfNulls<ProtoWorld.Block>(CELLS)
+
+  /**
+   * Number of changed blocks
+   */
+  var size: Int = 0
+    private set
+
+  fun isEmpty(): Boolean = size == 0
+
+  fun add(localX: LocalCoord, localY: LocalCoord, block: ProtoWorld.Block) {
+    val index = indexOf(localX, localY)
+    if (blocks[index] == null) {
+      size++
+    }
+    blocks[index] = block
+  }
+
+  fun toProto(): UpdateBlocks {
+    val builder = UpdateBlocks.newBuilder().setChunk(chunkLoc.toVector2i())
+    val palette = ArrayList<String>()
+    for (index in 0 until CELLS) {
+      val block = blocks[index] ?: continue
+      if (block.hasEntity()) {
+        builder.addSpecialBlocks(ProtoWorld.PackedBlocks.IndexedBlock.newBuilder().setIndex(index).setBlock(block))
+        continue
+      }
+      val name = block.material.name
+      var paletteIndex = palette.indexOf(name)
+      if (paletteIndex == -1) {
+        paletteIndex = palette.size
+        palette += name
+      }
+      builder.addBlocks((paletteIndex shl INDEX_BITS) or index)
+    }
+    return builder.addAllPalette(palette).build()
+  }
+
+  companion object {
+
+    private const val INDEX_BITS = Chunk.CHUNK_SIZE_SHIFT * 2
+    private const val INDEX_MASK = (1 shl INDEX_BITS) - 1
+
+    private fun indexOf(localX: LocalCoord, localY: LocalCoord): Int = localY * Chunk.CHUNK_SIZE + localX
+
+    /**
+     * Call [action] for every changed block in the packet
+     *
+     * @throws IllegalArgumentException If a block refers to a material outside the palette
+     */
+    fun forEachBlock(update: UpdateBlocks, action: (localX: LocalCoord, localY: LocalCoord, block: ProtoWorld.Block) -> Unit) {
+      val palette = Array(update.paletteCount) { paletteIndex ->
+        ProtoWorld.Block.newBuilder().setMaterial(ProtoWorld.Material.newBuilder().setName(update.getPalette(paletteIndex))).build()
+      }
+      for (i in 0 until update.blocksCount) {
+        val value = update.getBlocks(i)
+        val paletteIndex = value ushr INDEX_BITS
+        require(paletteIndex < palette.size) { "Palette index $paletteIndex out of bounds, palette has ${palette.size} materials" }
+        val index = value and INDEX_MASK
+        action(index % Chunk.CHUNK_SIZE, index / Chunk.CHUNK_SIZE, palette[paletteIndex])
+      }
+      for (specialBlock in update.specialBlocksList) {
+        val index = specialBlock.index
+        require(index < CELLS) { "Block index $index is outside the chunk" }
+        action(index % Chunk.CHUNK_SIZE, index / Chunk.CHUNK_SIZE, specialBlock.block)
+      }
+    }
+  }
+}
@@ -0,0 +1,123 @@
+package no.elg.infiniteBootleg.core.net
+
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap
+import no.elg.infiniteBootleg.core.util.ChunkCompactLoc
+import no.elg.infiniteBootleg.core.util.ChunkCoord
+import no.elg.infiniteBootleg.core.util.compactInt
+import no.elg.infiniteBootleg.core.util.decompactLocX
+import no.elg.infiniteBootleg.core.util.decompactLocY
+import no.elg.infiniteBootleg.core.world.render.ChunksInView
+
+/**
+ * The chunks a single subscriber is interested in, kept up to date in [subscriptions].
+ *
+ * A subscriber is interested in the chunks in its view, and in the chunks it might still have loaded after they left its view or were sent to it before they came into view.
+ * As a client keeps a chunk loaded for a while after it is out of view, such chunks are retained until the client would have unloaded them.
+ *
+ * Not thread safe, all methods must be called from the same thread
+ */
+class ChunkInterest<S : Any>(val subscriber: S, private val subscriptions: ChunkSubscriptions<S>) {
+
+  private var viewStartX: ChunkCoord = 0
+  private var viewStartY: ChunkCoord = 0
+  private var viewEndX: ChunkCoord = 0
+  private var viewEndY: ChunkCoord = 0
+
+  /**
+   * Chunks out of view which the subscriber might still have loaded, and the tick until which it might have them
+   */
+  private val retained = Long2LongOpenHashMap()
+
+  /**
+   * Number of chunks out of view the subscriber is still interested in
+   */
+  val retainedChunks: Int get() = retained.size
+
+  private fun isInView(chunkX: ChunkCoord, chunkY: ChunkCoord): Boolean = chunkX in viewStartX until viewEndX && chunkY in viewStartY until viewEndY
+
+  /**
+   * Subscribe to the chunks which came into view. The chunks which left the view are retained for [retainTicks]
+   */
+  fun moveView(view: ChunksInView, tickId: Long, retainTicks: Long) {
+    val startX = view.horizontalStart
+    val startY = view.verticalStart
+    val endX = view.horizontalEnd
+    val endY = view.verticalEnd
+    if (startX == viewStartX && startY == viewStartY && endX == viewEndX && endY == viewEndY) {
+      return
+    }
+    for (chunkY in viewStartY until viewEndY) {
+      for (chunkX in viewStartX until viewEndX) {
+        if (!view.isInView(chunkX, chunkY)) {
+          retained.put(compactInt(chunkX, chunkY), tickId + retainTicks)
+        }
+      }
+    }
+    for (chunkY in startY until endY) {
+      for (chunkX in startX until endX) {
+        if (!isInView(chunkX, chunkY)) {
+          val chunkLoc = compactInt(chunkX, chunkY)
+          if (retained.containsKey(chunkLoc)) {
+            // Already subscribed
+            retained.remove(chunkLoc)
+          } else {
+            subscriptions.subscribe(chunkLoc, subscriber)
+          }
+        }
+      }
+    }
+    viewStartX = startX
+    viewStartY = startY
+    viewEndX = endX
+    viewEndY = endY
+  }
+
+  /**
+   * Be interested in a chunk out of view until the given tick, i.e., because it was sent to the subscriber early
+   */
+  fun retain(chunkLoc: ChunkCompactLoc, untilTick: Long) {
+    if (isInView(chunkLoc.decompactLocX(), chunkLoc.decompactLocY())) {
+      return
+    }
+    if (retained.containsKey(chunkLoc)) {
+      retained.put(chunkLoc, maxOf(retained.get(chunkLoc), untilTick))
+    } else {
+      retained.put(chunkLoc, untilTick)
+      subscriptions.subscribe(chunkLoc, subscriber)
+    }
+  }
+
+  /**
+   * Unsubscribe from the retained chunks the subscriber has unloaded by the given tick
+   */
+  fun expire(tickId: Long) {
+    val iterator = retained.long2LongEntrySet().fastIterator()
+    while (iterator.hasNext()) {
+      val entry = iterator.next()
+      if (entry.longValue < tickId) {
+        subscriptions.unsubscribe(entry.longKey, subscriber)
+        iterator.remove()
+      }
+    }
+  }
+
+  /**
+   * Unsubscribe from all chunks, i.e., when the subscriber leaves the world
+   */
+  fun clear() {
+    for (chunkY in viewStartY until viewEndY) {
+      for (chunkX in viewStartX until viewEndX) {
+        subscriptions.unsubscribe(compactInt(chunkX, chunkY), subscriber)
+      }
+    }
+    val iterator = retained.long2LongEntrySet().fastIterator()
+    while (iterator.hasNext()) {
+      subscriptions.unsubscribe(iterator.next().longKey, subscriber)
+    }
+    retained.clear()
+    viewStartX = 0
+    viewStartY = 0
+    viewEndX = 0
+    viewEndY = 0
+  }
+}
@@ -0,0 +1,48 @@
+package no.elg.infiniteBootleg.core.net
+
+import no.elg.infiniteBootleg.core.util.ChunkCompactLoc
+import no.elg.infiniteBootleg.core.util.ConcurrentLongMap
+
+/**
+ * Which subscribers (i.e., the channels of the players) are interested in each chunk, so a change to a chunk is only sent to the subscribers of that chunk.
+ *
+ * The subscribers of a chunk are kept in an immutable list which is replaced on every change, so finding the subscribers never blocks
+ * and a broadcast never iterates over a list being changed. Subscriptions are kept up to date by the [ChunkInterest] of each subscriber.
+ */
+class ChunkSubscriptions<S : Any> {
+
+  private val subscribers = ConcurrentLongMap<List<S>>()
+
+  /**
+   * Number of chunks with at least one subscriber
+   */
+  val subscribedChunks: Int get() = subscribers.size
+
+  /**
+   * @return The subscribers of the chunk
+   */
+  fun subscribers(chunkLoc: ChunkCompactLoc): List<S> = subscribers[chunkLoc] ?: emptyList()
+
+  fun subscribe(chunkLoc: ChunkCompactLoc, subscriber: S) {
+    synchronized(subscribers) {
+      val current = subscribers[chunkLoc]
+      if (current == null) {
+        subscribers.put(chunkLoc, listOf(subscriber))
+      } else if (subscriber !in current) {
+        subscribers.put(chunkLoc, current + subscriber)
+      }
+    }
+  }
+
+  fun unsubscribe(chunkLoc: ChunkCompactLoc, subscriber: S) {
+    synchronized(subscribers) {
+      val current = subscribers[chunkLoc] ?: return
+      val remaining = current - subscriber
+      if (remaining.isEmpty()) {
+        subscribers.remove(chunkLoc)
+      } else if (remaining.size != current.size) {
+        subscribers.put(chunkLoc, remaining)
+      }
+    }
+  }
+}
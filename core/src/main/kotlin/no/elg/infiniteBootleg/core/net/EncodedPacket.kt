@@ -0,0 +1,60 @@
+package no.elg.infiniteBootleg.core.net
+
+import com.google.protobuf.CodedOutputStream
+import io.netty.buffer.ByteBuf
+import io.netty.buffer.ByteBufAllocator
+import io.netty.buffer.ByteBufOutputStream
+import io.netty.buffer.DefaultByteBufHolder
+import io.netty.channel.ChannelHandler
+import io.netty.channel.ChannelHandlerContext
+import io.netty.handler.codec.MessageToMessageEncoder
+import no.elg.infiniteBootleg.protobuf.Packets.Packet
+
+/**
+ * A packet serialized together with its varint length prefix, exactly as the protobuf encoders of the pipeline would have written it.
+ *
+ * When the same packet is broadcast to many channels it only has to be serialized once: write a [retainedDuplicate] to each channel and [release] the packet afterwards.
+ * The channels must have the [EncodedPacketHandler] closer to the head of the pipeline than the protobuf encoders.
+ *
+ * @property type The type of the encoded packet
+ * @property orderKey The [PacketPriority.orderKeyOf] of the encoded packet
+ */
+class EncodedPacket(content: ByteBuf, val type: Packet.Type, val orderKey: Long = PacketPriority.NO_ORDER_KEY) : DefaultByteBufHolder(content) {
+
+  override fun replace(content: ByteBuf): EncodedPacket = EncodedPacket(content, type, orderKey)
+
+  override fun copy(): EncodedPacket = replace(content().copy())
+
+  override fun duplicate(): EncodedPacket = replace(content().duplicate())
+
+  override fun retainedDuplicate(): EncodedPacket = replace(content().retainedDuplicate())
+
+  companion object {
+
+    fun encode(packet: Packet, alloc: ByteBufAllocator = ByteBufAllocator.DEFAULT): EncodedPacket {
+      val size = packet.serializedSize
+      val buffer = alloc.buffer(CodedOutputStream.computeUInt32SizeNoTag(size) + size)
+      try {
+        // The same framing as ProtobufVarint32LengthFieldPrepender
+        packet.writeDelimitedTo(ByteBufOutputStream(buffer))
+      } catch (e: Exception) {
+        buffer.release()
+        throw e
+      }
+      return EncodedPacket(buffer, packet.type, PacketPriority.orderKeyOf(packet))
+    }
+  }
+}
+
+/**
+ * Passes the bytes of an [EncodedPacket] on towards the socket, past the protobuf encoders which would otherwise have to serialize the packet again
+ */
+@ChannelHandler.Sharable
+object EncodedPacketHandler : MessageToMessageEncoder<EncodedPacket>() {
+
+  const val NAME = "encodedPacket"
+
+  override fun encode(ctx: ChannelHandlerContext, msg: EncodedPacket, out: MutableList<Any>) {
+    out += msg.content().retain()
+  }
+}
@@ -0,0 +1,237 @@
+package no.elg.infiniteBootleg.core.net
+
+import io.github.oshai.kotlinlogging.KotlinLogging
+import io.netty.channel.Channel
+import io.netty.channel.ChannelDuplexHandler
+import io.netty.channel.ChannelHandlerContext
+import io.netty.channel.ChannelPromise
+import io.netty.util.ReferenceCountUtil
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap
+import no.elg.infiniteBootleg.protobuf.Packets.Packet
+import java.nio.channels.ClosedChannelException
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+
+private val logger = KotlinLogging.logger {}
+
+/**
+ * Sends the packets of a connection in order of [PacketPriority] when the client cannot keep up, instead of letting Netty buffer an unbounded amount of writes.
+ *
+ * While the channel is writable (see [io.netty.channel.WriteBufferWaterMark]) packets pass straight through in the order they are written.
+ * When the outbound buffer has reached the high water mark, packets are queued per priority, and sent highest priority first when the buffer has drained below the low water mark.
+ * A packet is queued with the lowest priority of the waiting packets with the same [PacketPriority.orderKeyOf], so it is never sent before them.
+ * A client which has not been writable for [stallTimeoutNanos], or which has more than [maxQueuedBytes] waiting, is disconnected.
+ *
+ * Must be closer to the tail of the pipeline than the protobuf encoders, so it sees the packets before they are encoded
+ */
+class OutboundScheduler(
+  private val stats: OutboundStats = OutboundScheduler.stats,
+  private val maxQueuedBytes: Long = MAX_QUEUED_BYTES,
+  private val stallTimeoutNanos: Long = STALL_TIMEOUT_NANOS
+) : ChannelDuplexHandler() {
+
+  private class Queued(val msg: Any, val promise: ChannelPromise, val bytes: Int, val orderKey: Long, val chunk: Boolean)
+
+  /**
+   * The waiting packets with the same order key
+   */
+  private class Ordering(var priority: Int, var count: Int)
+
+  // Only accessed on the event loop of the channel
+  private val queues = Array(PacketPriority.entries.size) { ArrayDeque<Queued>() }
+  private val orderings = Long2ObjectOpenHashMap<Ordering>()
+  private var queuedBytes = 0L
+  private var stallCheck: ScheduledFuture<*>? = null
+
+  /**
+   * Number of packets waiting to be sent
+   */
+  @Volatile
+  var queuedPackets: Int = 0
+    private set
+
+  /**
+   * Number of whole chunks waiting to be sent
+   */
+  @Volatile
+  var queuedChunks: Int = 0
+    private set
+
+  override fun write(ctx: ChannelHandlerContext, msg: Any, promise: ChannelPromise) {
+    val channel = ctx.channel()
+    if ((queuedPackets == 0 && channel.isWritable) || !channel.isActive) {
+      // Netty fails the write when the channel is closed
+      ctx.write(msg, promise)
+      return
+    }
+    val bytes = sizeOf(msg)
+    val type = typeOf(msg)
+    val orderKey = orderKeyOf(msg)
+    var priority = (type?.let(PacketPriority::of) ?: PacketPriority.BULK).ordinal
+    if (orderKey != PacketPriority.NO_ORDER_KEY) {
+      val ordering = orderings.get(orderKey)
+      if (ordering == null) {
+        orderings.put(orderKey, Ordering(priority, 1))
+      } else {
+        priority = maxOf(priority, ordering.priority)
+        ordering.priority = priority
+        ordering.count++
+      }
+    }
+    val chunk = type == Packet.Type.CB_UPDATE_CHUNK
+    queues[priority].addLast(Queued(msg, promise, bytes, orderKey, chunk))
+    queuedBytes += bytes
+    queuedPackets++
+    if (chunk) {
+      queuedChunks++
+    }
+    stats.onQueued(queuedPackets)
+    if (queuedBytes > maxQueuedBytes) {
+      stats.onOverflowed()
+      logger.warn { "Disconnecting ${channel.remoteAddress()}, it has $queuedBytes bytes waiting to be sent" }
+      ctx.close()
+    } else if (channel.isWritable) {
+      drain(ctx)
+    }
+  }
+
+  override fun channelWritabilityChanged(ctx: ChannelHandlerContext) {
+    if (ctx.channel().isWritable) {
+      stallCheck?.cancel(false)
+      stallCheck = null
+      drain(ctx)
+    } else if (stallCheck == null) {
+      stallCheck = ctx.executor().schedule({ disconnectIfStalled(ctx) }, stallTimeoutNanos, TimeUnit.NANOSECONDS)
+    }
+    ctx.fireChannelWritabilityChanged()
+  }
+
+  override fun channelInactive(ctx: ChannelHandlerContext) {
+    dropQueued()
+    ctx.fireChannelInactive()
+  }
+
+  override fun handlerRemoved(ctx: ChannelHandlerContext) {
+    dropQueued()
+  }
+
+  /**
+   * Send the queued packets, highest priority first, until the channel is no longer writable
+   */
+  private fun drain(ctx: ChannelHandlerContext) {
+    var wrote = false
+    while (ctx.channel().isWritable) {
+      val queued = queues.firstOrNull { it.isNotEmpty() }?.removeFirst() ?: break
+      queuedBytes -= queued.bytes
+      queuedPackets--
+      if (queued.chunk) {
+        queuedChunks--
+      }
+      if (queued.orderKey != PacketPriority.NO_ORDER_KEY) {
+        val ordering = orderings.get(queued.orderKey)
+        if (ordering != null && --ordering.count == 0) {
+          orderings.remove(queued.orderKey)
+        }
+      }
+      stats.onSent()
+      ctx.write(queued.msg, queued.promise)
+      wrote = true
+    }
+    if (wrote) {
+      ctx.flush()
+    }
+  }
+
+  private fun disconnectIfStalled(ctx: ChannelHandlerContext) {
+    stallCheck = null
+    if (!ctx.channel().isWritable && ctx.channel().isActive) {
+      stats.onStalled()
+      logger.warn { "Disconnecting ${ctx.channel().remoteAddress()}, it has not read anything in ${TimeUnit.NANOSECONDS.toSeconds(stallTimeoutNanos)} seconds" }
+      ctx.close()
+    }
+  }
+
+  private fun dropQueued() {
+    stallCheck?.cancel(false)
+    stallCheck = null
+    if (queuedPackets == 0) {
+      return
+    }
+    stats.onDropped(queuedPackets)
+    for (queue in queues) {
+      for (queued in queue) {
+        ReferenceCountUtil.release(queued.msg)
+        queued.promise.tryFailure(ClosedChannelException())
+      }
+      queue.clear()
+    }
+    orderings.clear()
+    queuedBytes = 0
+    queuedPackets = 0
+    queuedChunks = 0
+  }
+
+  companion object {
+    const val NAME = "outboundScheduler"
+
+    /**
+     * Disconnect clients with more than this many bytes waiting
+     */
+    const val MAX_QUEUED_BYTES = 16L * 1024 * 1024
+
+    /**
+     * Disconnect clients which have not been writable for this long
+     */
+    val STALL_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(SharedInformation.HEARTBEAT_PERIOD_MS * SharedInformation.MISSED_HEARTBEAT_LOST_CONNECTION / 1000)
+
+    /**
+     * The stats of all the schedulers of this process
+     */
+    val stats = OutboundStats()
+
+    /**
+     * Most chunks which may wait to be sent to a client before more chunks it requests are not sent, the client requests them again later
+     */
+    const val MAX_QUEUED_CHUNKS = 8
+
+    private fun typeOf(msg: Any): Packet.Type? =
+      when (msg) {
+        is Packet -> msg.type
+        is EncodedPacket -> msg.type
+        else -> null
+      }
+
+    private fun orderKeyOf(msg: Any): Long =
+      when (msg) {
+        is Packet -> PacketPriority.orderKeyOf(msg)
+        is EncodedPacket -> msg.orderKey
+        else -> PacketPriority.NO_ORDER_KEY
+      }
+
+    private fun sizeOf(msg: Any): Int =
+      when (msg) {
+        is Packet -> msg.serializedSize
+        is EncodedPacket -> msg.content().readableBytes()
+        else -> 0
+      }
+
+    /**
+     * @return Whether the client of the channel is not keeping up, so packets which are not needed should not be sent to it
+     */
+    fun isCongested(channel: Channel): Boolean {
+      val scheduler = channel.pipeline().get(NAME) as? OutboundScheduler
+      return !channel.isWritable || (scheduler != null && scheduler.queuedPackets > 0)
+    }
+
+    /**
+     * Chunks the client asks for are still sent while it is congested, but only as long as few chunks are already waiting to be sent to it.
+     * As the client requests missing chunks again, the chunks are streamed at the rate the client can receive them.
+     *
+     * @return Whether a chunk the client has requested should not be sent now
+     */
+    fun shouldThrottleChunks(channel: Channel): Boolean {
+      val scheduler = channel.pipeline().get(NAME) as? OutboundScheduler
+      return scheduler != null && scheduler.queuedChunks >= MAX_QUEUED_CHUNKS
+    }
+  }
+}
@@ -0,0 +1,83 @@
+package no.elg.infiniteBootleg.core.net
+
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * How often the [OutboundScheduler]s had to hold back packets because the clients could not keep up
+ */
+class OutboundStats {
+
+  private val queuedCounter = AtomicLong()
+  private val queueDepthGauge = AtomicLong()
+  private val maxQueueDepthGauge = AtomicLong()
+  private val droppedCounter = AtomicLong()
+  private val throttledChunksCounter = AtomicLong()
+  private val stalledCounter = AtomicLong()
+  private val overflowedCounter = AtomicLong()
+
+  /**
+   * Number of packets which had to wait for the client to catch up
+   */
+  val queued: Long get() = queuedCounter.get()
+
+  /**
+   * Number of packets currently waiting, summed over all clients
+   */
+  val queueDepth: Long get() = queueDepthGauge.get()
+
+  /**
+   * The most packets which have been waiting for a single client
+   */
+  val maxQueueDepth: Long get() = maxQueueDepthGauge.get()
+
+  /**
+   * Number of waiting packets which were never sent, because the client disconnected
+   */
+  val dropped: Long get() = droppedCounter.get()
+
+  /**
+   * Number of prefetched or requested chunks not sent because the client could not keep up
+   */
+  val throttledChunks: Long get() = throttledChunksCounter.get()
+
+  /**
+   * Number of clients disconnected for not reading anything for too long
+   */
+  val stalled: Long get() = stalledCounter.get()
+
+  /**
+   * Number of clients disconnected for having too many bytes waiting
+   */
+  val overflowed: Long get() = overflowedCounter.get()
+
+  internal fun onQueued(clientQueueDepth: Int) {
+    queuedCounter.incrementAndGet()
+    queueDepthGauge.incrementAndGet()
+    maxQueueDepthGauge.accumulateAndGet(clientQueueDepth.toLong(), ::maxOf)
+  }
+
+  internal fun onSent() {
+    queueDepthGauge.decrementAndGet()
+  }
+
+  internal fun onDropped(packets: Int) {
+    queueDepthGauge.addAndGet(-packets.toLong())
+    droppedCounter.addAndGet(packets.toLong())
+  }
+
+  fun onThrottledChunk() {
+    throttledChunksCounter.incrementAndGet()
+  }
+
+  internal fun onStalled() {
+    stalledCounter.incrementAndGet()
+  }
+
+  internal fun onOverflowed() {
+    overflowedCounter.incrementAndGet()
+  }
+
+  override fun toString(): String =
+    "$queueDepth packets waiting (at most $maxQueueDepth for one client), $queued packets have waited and $dropped were dropped. " +
+      "$throttledChunks chunks were not sent, $stalled stalled clients and $overflowed clients with too much waiting were disconnected"
+}
@@ -41,6 +41,7 @@ import no.elg.infiniteBootleg.protobuf.Packets.Packet.Type.CB_INTERFACE_UPDATE
 import no.elg.infiniteBootleg.protobuf.Packets.Packet.Type.CB_LOGIN_STATUS
 import no.elg.infiniteBootleg.protobuf.Packets.Packet.Type.CB_SPAWN_ENTITY
 import no.elg.infiniteBootleg.protobuf.Packets.Packet.Type.CB_START_GAME
+import no.elg.infiniteBootleg.protobuf.Packets.Packet.Type.CB_UPDATE_BLOCKS
 import no.elg.infiniteBootleg.protobuf.Packets.Packet.Type.CB_UPDATE_CHUNK
 import no.elg.infiniteBootleg.protobuf.Packets.Packet.Type.DX_BLOCK_UPDATE
 import no.elg.infiniteBootleg.protobuf.Packets.Packet.Type.DX_BREAKING_BLOCK
@@ -192,6 +193,11 @@ fun clientBoundBlockUpdate(worldX: WorldCoord, worldY: WorldCoord, block: Block?
       .setPos(Vector2i.newBuilder().setX(worldX).setY(worldY))
   ).build()
 
+fun clientBoundBlocksUpdate(batch: BlockUpdateBatch): Packet =
+  clientBoundPacketBuilder(CB_UPDATE_BLOCKS)
+    .setUpdateBlocks(batch.toProto())
+    .build()
+
 fun clientBoundMoveEntity(entity: Entity): Packet =
   clientBoundPacketBuilder(DX_MOVE_ENTITY)
     .setMoveEntity(entityMovePacket(entity))
@@ -0,0 +1,98 @@
+package no.elg.infiniteBootleg.core.net
+
+import no.elg.infiniteBootleg.core.util.compactInt
+import no.elg.infiniteBootleg.core.util.toCompact
+import no.elg.infiniteBootleg.core.util.worldToChunk
+import no.elg.infiniteBootleg.protobuf.Packets.Packet
+import no.elg.infiniteBootleg.protobuf.Packets.Packet.Type
+
+/**
+ * How urgently a packet must reach the client when its connection cannot keep up, see [OutboundScheduler].
+ *
+ * Packets of the same priority are always sent in the order they were written.
+ * A packet is also never sent before an earlier packet about the same chunk or entity (see [orderKeyOf]), i.e., a block update of a chunk waits for the chunk itself to be sent,
+ * and an entity is not moved before it is spawned.
+ */
+enum class PacketPriority {
+
+  /**
+   * Packets the player notices being late, and the packets keeping the connection alive
+   */
+  MOVEMENT,
+
+  /**
+   * Changes to the blocks of chunks the client already has
+   */
+  BLOCK_UPDATES,
+
+  /**
+   * Whole chunks, and the packets which must stay in order with them (i.e., the login sequence and spawning entities in the chunks)
+   */
+  CHUNKS,
+
+  /**
+   * Packets which can wait
+   */
+  BULK;
+
+  companion object {
+
+    /**
+     * The order key of packets which may be sent in any order relative to other packets of a different priority
+     */
+    const val NO_ORDER_KEY = Long.MIN_VALUE
+
+    // Separates the keys of entities from the keys of chunks, a collision only makes a packet wait for an unrelated packet
+    private const val ENTITY_KEY_SALT = 0x5DEECE66DL shl 32
+
+    /**
+     * @return The key of the chunk or entity the packet is about, or [NO_ORDER_KEY] if it does not need to stay in order with other packets
+     */
+    fun orderKeyOf(packet: Packet): Long =
+      when (packet.type) {
+        Type.CB_UPDATE_CHUNK -> packet.updateChunk.chunk.position.toCompact()
+        Type.CB_UPDATE_BLOCKS -> packet.updateBlocks.chunk.toCompact()
+        Type.DX_BLOCK_UPDATE -> packet.updateBlock.pos.let { compactInt(it.x.worldToChunk(), it.y.worldToChunk()) }
+        Type.DX_BREAKING_BLOCK ->
+          packet.breakingBlock.breakingProgressList.firstOrNull()?.blockLocation?.let { compactInt(it.x.worldToChunk(), it.y.worldToChunk()) } ?: NO_ORDER_KEY
+
+        Type.CB_SPAWN_ENTITY -> entityKey(packet.spawnEntity.ref.id)
+        Type.DX_MOVE_ENTITY -> entityKey(packet.moveEntity.ref.id)
+        Type.CB_DESPAWN_ENTITY -> entityKey(packet.despawnEntity.ref.id)
+        Type.CB_HOLDING_ITEM -> entityKey(packet.holdingItem.entityRef.id)
+        else -> NO_ORDER_KEY
+      }
+
+    private fun entityKey(id: String): Long = ENTITY_KEY_SALT xor id.hashCode().toLong()
+
+    fun of(type: Type): PacketPriority =
+      when (type) {
+        Type.DX_HEARTBEAT,
+        Type.DX_MOVE_ENTITY,
+        Type.DX_DISCONNECT,
+        Type.CB_HOLDING_ITEM,
+        Type.SB_LOGIN,
+        Type.SB_CLIENT_WORLD_LOADED,
+        Type.SB_CONTENT_REQUEST,
+        Type.SB_CAST_SPELL,
+        Type.SB_SELECT_SLOT -> MOVEMENT
+
+        Type.DX_BLOCK_UPDATE,
+        Type.CB_UPDATE_BLOCKS,
+        Type.DX_BREAKING_BLOCK -> BLOCK_UPDATES
+
+        Type.CB_UPDATE_CHUNK,
+        Type.CB_INITIAL_CHUNKS_SENT,
+        Type.CB_START_GAME,
+        Type.CB_LOGIN_STATUS,
+        Type.DX_SECRET_EXCHANGE,
+        Type.CB_SPAWN_ENTITY,
+        Type.CB_DESPAWN_ENTITY -> CHUNKS
+
+        Type.DX_WORLD_SETTINGS,
+        Type.DX_CONTAINER_UPDATE,
+        Type.CB_INTERFACE_UPDATE,
+        Type.UNRECOGNIZED -> BULK
+      }
+  }
+}
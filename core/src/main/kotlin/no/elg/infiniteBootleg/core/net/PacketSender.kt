@@ -1,6 +1,9 @@
 package no.elg.infiniteBootleg.core.net
 
 import no.elg.infiniteBootleg.core.util.ChunkCompactLoc
+import no.elg.infiniteBootleg.core.util.LocalCoord
+import no.elg.infiniteBootleg.core.world.blocks.Block
+import no.elg.infiniteBootleg.core.world.chunks.Chunk
 import no.elg.infiniteBootleg.protobuf.Packets.Packet
 
 /**
@@ -23,4 +26,11 @@ interface PacketSender {
    * @param ifIsClient The packet to send if we are a server client
    */
   fun sendDuplexPacket(ifIsServer: () -> Packet, ifIsClient: ServerClient.() -> Packet)
+
+  /**
+   * Send a changed block to the other side. The server batches the changes of each chunk and sends them at the end of the tick, see [BlockUpdateBatch]
+   *
+   * @param block The new block, `null` if the block was removed
+   */
+  fun sendBlockUpdate(chunk: Chunk, localX: LocalCoord, localY: LocalCoord, block: Block?)
 }
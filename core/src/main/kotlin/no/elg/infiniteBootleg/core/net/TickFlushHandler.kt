@@ -0,0 +1,101 @@
+package no.elg.infiniteBootleg.core.net
+
+import io.netty.buffer.ByteBuf
+import io.netty.buffer.ByteBufHolder
+import io.netty.channel.Channel
+import io.netty.channel.ChannelDuplexHandler
+import io.netty.channel.ChannelHandlerContext
+import io.netty.channel.ChannelPromise
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+
+/**
+ * Holds back the flushes of a channel until the end of the current tick, so the packets written during a tick are sent together
+ * in as few syscalls (and TCP segments) as possible instead of one per packet.
+ *
+ * The pending writes are flushed early when at least [maxPendingBytes] are waiting, or when they have waited [maxDelayNanos] (i.e., when a tick runs late).
+ * Closing the channel flushes the pending writes first.
+ *
+ * Must be the first handler of the pipeline, so it sees the encoded size of every write
+ */
+class TickFlushHandler(private val maxDelayNanos: Long, private val maxPendingBytes: Int = MAX_PENDING_BYTES) : ChannelDuplexHandler() {
+
+  // All fields are only accessed on the event loop of the channel
+  private var ctx: ChannelHandlerContext? = null
+  private var pendingBytes = 0L
+  private var flushRequested = false
+  private var delayedFlush: ScheduledFuture<*>? = null
+
+  override fun handlerAdded(ctx: ChannelHandlerContext) {
+    this.ctx = ctx
+  }
+
+  override fun handlerRemoved(ctx: ChannelHandlerContext) {
+    flushNow(ctx)
+    this.ctx = null
+  }
+
+  override fun write(ctx: ChannelHandlerContext, msg: Any, promise: ChannelPromise) {
+    pendingBytes += when (msg) {
+      is ByteBuf -> msg.readableBytes()
+      is ByteBufHolder -> msg.content().readableBytes()
+      else -> 0
+    }
+    ctx.write(msg, promise)
+  }
+
+  override fun flush(ctx: ChannelHandlerContext) {
+    if (pendingBytes >= maxPendingBytes) {
+      flushNow(ctx)
+    } else if (!flushRequested) {
+      flushRequested = true
+      delayedFlush = ctx.executor().schedule({ flushNow(ctx) }, maxDelayNanos, TimeUnit.NANOSECONDS)
+    }
+  }
+
+  override fun close(ctx: ChannelHandlerContext, promise: ChannelPromise) {
+    flushNow(ctx)
+    ctx.close(promise)
+  }
+
+  override fun disconnect(ctx: ChannelHandlerContext, promise: ChannelPromise) {
+    flushNow(ctx)
+    ctx.disconnect(promise)
+  }
+
+  /**
+   * Flush the writes of the tick which just ended, may be called from any thread
+   */
+  fun tickEnded() {
+    val ctx = ctx ?: return
+    ctx.executor().execute {
+      if (flushRequested) {
+        flushNow(ctx)
+      }
+    }
+  }
+
+  private fun flushNow(ctx: ChannelHandlerContext) {
+    delayedFlush?.cancel(false)
+    delayedFlush = null
+    flushRequested = false
+    pendingBytes = 0
+    ctx.flush()
+  }
+
+  companion object {
+    const val NAME = "tickFlush"
+
+    /**
+     * Flush early when this many bytes are waiting, i.e., when a chunk is sent
+     */
+    const val MAX_PENDING_BYTES = 64 * 1024
+
+    /**
+     * Flush the writes of the tick which just ended to the channel, if it has a [TickFlushHandler]
+     */
+    fun tickEnded(channel: Channel) {
+      (channel.pipeline().get(NAME) as? TickFlushHandler)?.tickEnded()
+    }
+  }
+}
@@ -0,0 +1,176 @@
+package no.elg.infiniteBootleg.core.util
+
+import com.google.errorprone.annotations.concurrent.GuardedBy
+import it.unimi.dsi.fastutil.HashCommon
+import java.util.concurrent.atomic.AtomicReferenceArray
+
+/**
+ * A map from primitive longs to objects where reading never blocks.
+ *
+ * The map is an open addressing hash table with linear probing, where each slot holds an [Entry] with an immutable key.
+ * An entry is published with a volatile write and never moved, so a reader only has to follow the probe sequence of the current table.
+ * Removing a key leaves its entry in the table with no value, the entry is reused if the key is added again and dropped when the table is rebuilt.
+ *
+ * Writes are serialized by synchronizing on the map. Synchronize on the map when doing compound changes (i.e., read-then-write).
+ * Reads, including iteration, are weakly consistent: they see the map as it was at some point during the read.
+ */
+class ConcurrentLongMap<V : Any>(initialCapacity: Int = DEFAULT_CAPACITY) {
+
+  private class Entry<V>(val key: Long, @Volatile var value: V?)
+
+  @Volatile
+  private var table: AtomicReferenceArray<Entry<V>?> = AtomicReferenceArray(tableSizeFor(initialCapacity))
+
+  /**
+   * Number of slots in use, including removed entries
+   */
+  @GuardedBy("this")
+  private var usedSlots = 0
+
+  @Volatile
+  var size: Int = 0
+    private set
+
+  fun isEmpty(): Boolean = size == 0
+
+  operator fun get(key: Long): V? {
+    val table = table
+    val mask = table.length() - 1
+    var index = HashCommon.mix(key).toInt() and mask
+    while (true) {
+      val entry = table.get(index) ?: return null
+      if (entry.key == key) {
+        return entry.value
+      }
+      index = (index + 1) and mask
+    }
+  }
+
+  fun containsKey(key: Long): Boolean = get(key) != null
+
+  /**
+   * @return The previous value of the key
+   */
+  fun put(key: Long, value: V): V? =
+    synchronized(this) {
+      val entry = findEntry(key)
+      if (entry != null) {
+        val previous = entry.value
+        entry.value = value
+        if (previous == null) {
+          size++
+        }
+        previous
+      } else {
+        if ((usedSlots + 1) * 2 > table.length()) {
+          rebuild()
+        }
+        insert(table, Entry(key, value))
+        usedSlots++
+        size++
+        null
+      }
+    }
+
+  /**
+   * @return The removed value of the key
+   */
+  fun remove(key: Long): V? =
+    synchronized(this) {
+      val entry = findEntry(key) ?: return@synchronized null
+      val previous = entry.value
+      if (previous != null) {
+        entry.value = null
+        size--
+      }
+      previous
+    }
+
+  fun clear() {
+    synchronized(this) {
+      table = AtomicReferenceArray(tableSizeFor(DEFAULT_CAPACITY))
+      usedSlots = 0
+      size = 0
+    }
+  }
+
+  /**
+   * Call [action] for every value in the map
+   */
+  fun forEach(action: (V) -> Unit) {
+    forEachEntry { _, value -> action(value) }
+  }
+
+  /**
+   * Call [action] for every key and value in the map
+   */
+  fun forEachEntry(action: (key: Long, value: V) -> Unit) {
+    val table = table
+    for (index in 0 until table.length()) {
+      val entry = table.get(index) ?: continue
+      val value = entry.value ?: continue
+      action(entry.key, value)
+    }
+  }
+
+  /**
+   * @return A copy of the values in the map
+   */
+  fun values(): List<V> {
+    val values = ArrayList<V>(size)
+    forEach { values += it }
+    return values
+  }
+
+  @GuardedBy("this")
+  private fun findEntry(key: Long): Entry<V>? {
+    val table = table
+    val mask = table.length() - 1
+    var index = HashCommon.mix(key).toInt() and mask
+    while (true) {
+      val entry = table.get(index) ?: return null
+      if (entry.key == key) {
+        return entry
+      }
+      index = (index + 1) and mask
+    }
+  }
+
+  /**
+   * Create a new table with only the entries which have a value, the new table is published once it is complete
+   */
+  @GuardedBy("this")
+  private fun rebuild() {
+    val old = table
+    val rebuilt = AtomicReferenceArray<Entry<V>?>(tableSizeFor((size + 1) * 2))
+    var used = 0
+    for (index in 0 until old.length()) {
+      val entry = old.get(index) ?: continue
+      if (entry.value != null) {
+        // The entry is shared with the old table, so readers still probing the old table see later changes to it
+        insert(rebuilt, entry)
+        used++
+      }
+    }
+    usedSlots = used
+    table = rebuilt
+  }
+
+  private fun insert(table: AtomicReferenceArray<Entry<V>?>, entry: Entry<V>) {
+    val mask = table.length() - 1
+    var index = HashCommon.mix(entry.key).toInt() and mask
+    while (table.get(index) != null) {
+      index = (index + 1) and mask
+    }
+    table.set(index, entry)
+  }
+
+  companion object {
+    private const val DEFAULT_CAPACITY = 64
+
+    /**
+     * The table is kept at most half full, so a probe always ends at an empty slot
+     */
+    private fun tableSizeFor(capacity: Int): Int = HashCommon.nextPowerOfTwo(maxOf(capacity * 2, 2))
+  }
+}
@@ -0,0 +1,598 @@
+package no.elg.infiniteBootleg.core.world.blocks
+
+import com.badlogic.gdx.graphics.Color
+import io.github.oshai.kotlinlogging.KotlinLogging
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet
+import no.elg.infiniteBootleg.core.Settings
+import no.elg.infiniteBootleg.core.events.BlockLightChangedEvent
+import no.elg.infiniteBootleg.core.events.api.EventManager
+import no.elg.infiniteBootleg.core.util.WorldCompactLoc
+import no.elg.infiniteBootleg.core.util.WorldCompactLocArray
+import no.elg.infiniteBootleg.core.util.WorldCoord
+import no.elg.infiniteBootleg.core.util.chunkOffset
+import no.elg.infiniteBootleg.core.util.chunkToWorld
+import no.elg.infiniteBootleg.core.util.compactInt
+import no.elg.infiniteBootleg.core.util.decompactLocX
+import no.elg.infiniteBootleg.core.util.decompactLocY
+import no.elg.infiniteBootleg.core.util.distCubed
+import no.elg.infiniteBootleg.core.util.dst2
+import no.elg.infiniteBootleg.core.util.launchOnAsyncSuspendable
+import no.elg.infiniteBootleg.core.util.worldToChunk
+import no.elg.infiniteBootleg.core.world.Material
+import no.elg.infiniteBootleg.core.world.Material.Companion.emitsLight
+import no.elg.infiniteBootleg.core.world.blocks.BlockLight.Companion.LIGHT_RESOLUTION
+import no.elg.infiniteBootleg.core.world.blocks.BlockLight.Companion.LIGHT_RESOLUTION_SQUARE
+import no.elg.infiniteBootleg.core.world.blocks.BlockLight.Companion.centerOfSubcell
+import no.elg.infiniteBootleg.core.world.blocks.BlockLight.Companion.lightMapIndex
+import no.elg.infiniteBootleg.core.world.blocks.RayOcclusionTable.RADIUS
+import no.elg.infiniteBootleg.core.world.blocks.RayOcclusionTable.WIDTH
+import no.elg.infiniteBootleg.core.world.chunks.Chunk
+import no.elg.infiniteBootleg.core.world.chunks.Chunk.Companion.CHUNK_SIZE
+import no.elg.infiniteBootleg.core.world.chunks.ChunkColumn
+import no.elg.infiniteBootleg.core.world.chunks.ChunkLightBuffer
+import no.elg.infiniteBootleg.core.world.chunks.TexturedChunk
+import no.elg.infiniteBootleg.core.world.world.World
+import java.util.concurrent.atomic.AtomicBoolean
+import kotlin.math.abs
+import kotlin.math.max
+import kotlin.math.min
+
+private val logger = KotlinLogging.logger {}
+
+/**
+ * Caches the light every light source contributes to the blocks around it. Placing or removing a light source then only subtracts the
+ * old contribution of that source and adds the new one, instead of recalculating every nearby block from all of its light sources.
+ *
+ * Every chunk has an [Accumulator] with the sum of the cached contributions, and the skylight of each block which is calculated as in
+ * [BlockLight]. The light of a block is the sum of the two, tone mapped the same way as [BlockLight].
+ *
+ * The contribution of a source is only recalculated when the source itself changes or when a block within its reach changes opacity.
+ * A full update of a chunk (i.e., when it or a neighbor is loaded or when a light setting changes) recalculates every source reaching it.
+ *
+ * The sources are also indexed by the chunk they are in, so finding the sources reaching a block or chunk only looks at the chunks within [RADIUS] of it.
+ *
+ * All work is done by a single job at a time, changes are queued with [invalidate] and processed in batches.
+ */
+class AdditiveLightEngine(private val world: World) {
+
+  /**
+   * The light of a single source, [intensities] holds the untinted intensity of every sub-cell within [RADIUS] of the source
+   */
+  private class Contribution(val material: Material, val tint: Color, val intensities: FloatArray)
+
+  private class Accumulator(val chunk: Chunk) {
+    /**
+     * Sum of the cached contributions of all light sources reaching this chunk, see [channelIndex] for the layout
+     */
+    val emitted = FloatArray(CELLS * LIGHT_CHANNELS * LIGHT_RESOLUTION_SQUARE)
+
+    /**
+     * The skylight of each block, with the same layout as [emitted]
+     */
+    val sky = FloatArray(CELLS * LIGHT_CHANNELS * LIGHT_RESOLUTION_SQUARE)
+
+    /**
+     * The opacity of each block when it was last seen by the engine, used to detect which changes might occlude light sources
+     */
+    val opacities = FloatArray(CELLS)
+  }
+
+  private val pendingLocations = LongOpenHashSet()
+  private val pendingChunks = LongOpenHashSet()
+  private val running = AtomicBoolean(false)
+
+  private val sources = Long2ObjectOpenHashMap<Contribution>()
+
+  /**
+   * The location of every source in [sources], grouped by the chunk the source is in
+   */
+  private val sourcesByChunk = Long2ObjectOpenHashMap<LongOpenHashSet>()
+  private val accumulators = Long2ObjectOpenHashMap<Accumulator>()
+
+  private val fullUpdates = HashSet<Accumulator>()
+  private val affectedSources = LongOpenHashSet()
+  private val skyDirty = LongOpenHashSet()
+  private val touched = LongOpenHashSet()
+  private val tmpLightMap = LightMap()
+
+  private var cachedChunk: Chunk? = null
+
+  /**
+   * Queue the given blocks to have their light recalculated
+   */
+  fun invalidate(locations: WorldCompactLocArray) {
+    if (locations.isEmpty()) return
+    synchronized(pendingLocations) {
+      for (location in locations) {
+        pendingLocations.add(location)
+      }
+    }
+    schedule()
+  }
+
+  /**
+   * Queue every block in the chunk, and every light source reaching it, to have its light recalculated
+   */
+  fun invalidate(chunk: Chunk) {
+    synchronized(pendingLocations) {
+      pendingChunks.add(chunk.compactLocation)
+    }
+    schedule()
+  }
+
+  private fun schedule() {
+    if (running.compareAndSet(false, true)) {
+      launchOnAsyncSuspendable {
+        try {
+          processPending()
+        } catch (e: Exception) {
+          logger.error(e) { "Failed to update additive light" }
+        } finally {
+          running.set(false)
+        }
+        // Something might have been queued after the last batch was taken, but before we stopped running
+        if (synchronized(pendingLocations) { !pendingLocations.isEmpty() || !pendingChunks.isEmpty() }) {
+          schedule()
+        }
+      }
+    }
+  }
+
+  /**
+   * Process all queued changes on the calling thread
+   */
+  fun processPending() {
+    while (true) {
+      val (locations, chunks) = synchronized(pendingLocations) {
+        if (pendingLocations.isEmpty() && pendingChunks.isEmpty()) return
+        val batch = pendingLocations.toLongArray() to pendingChunks.toLongArray()
+        pendingLocations.clear()
+        pendingChunks.clear()
+        batch
+      }
+      synchronized(this) {
+        process(locations, chunks)
+      }
+    }
+  }
+
+  private fun process(locations: WorldCompactLocArray, chunks: LongArray) {
+    if (!Settings.renderLight || world.isDisposed) {
+      return
+    }
+    try {
+      if (chunks.isNotEmpty()) {
+        prune()
+      }
+      for (chunkLoc in chunks) {
+        val chunk = world.getChunk(chunkLoc, load = false)?.takeIf { it.isValid } ?: continue
+        fullUpdates += track(chunk)
+      }
+      for (location in locations) {
+        updateLocation(location)
+      }
+      for (accumulator in fullUpdates) {
+        scanChunk(accumulator)
+      }
+
+      val sourceIterator = affectedSources.iterator()
+      while (sourceIterator.hasNext()) {
+        recalculateSource(sourceIterator.nextLong())
+      }
+      // Start the fully updated chunks from a clean slate, so rounding errors do not build up
+      for (accumulator in fullUpdates) {
+        rebuildEmitted(accumulator)
+      }
+
+      val skyIterator = skyDirty.iterator()
+      while (skyIterator.hasNext()) {
+        val location = skyIterator.nextLong()
+        updateSkylight(location.decompactLocX(), location.decompactLocY())
+        touched.add(location)
+      }
+      updateBrightness()
+    } finally {
+      fullUpdates.clear()
+      affectedSources.clear()
+      skyDirty.clear()
+      touched.clear()
+      cachedChunk = null
+    }
+  }
+
+  /**
+   * Find what changed at the given block since the engine last saw it
+   */
+  private fun updateLocation(location: WorldCompactLoc) {
+    val worldX = location.decompactLocX()
+    val worldY = location.decompactLocY()
+    val chunk = chunkAt(worldX, worldY) ?: return
+    val accumulator = track(chunk)
+    val localX = worldX.chunkOffset()
+    val localY = worldY.chunkOffset()
+    val material = chunk.getRawMaterial(localX, localY)
+
+    val cell = cellIndex(localX, localY)
+    val opacityChanged = accumulator.opacities[cell] != material.lightOpacity
+    if (opacityChanged) {
+      accumulator.opacities[cell] = material.lightOpacity
+      if (Settings.lightOcclusion) {
+        addSourcesReaching(worldX, worldY)
+      }
+    }
+    val sourceChanged = sources.get(location)?.material != material.takeIf { it.emitsLight }
+    if (sourceChanged) {
+      affectedSources.add(location)
+    }
+    // A light source which does not block any light and is below the top block cannot change the skylight of any block
+    if (!sourceChanged || opacityChanged || isSkylight(chunk, worldX, worldY)) {
+      markSkylightAround(worldX, worldY)
+    }
+  }
+
+  /**
+   * Queue everything in the chunk to be recalculated, as the blocks or the light settings might have changed while the chunk was not tracked
+   */
+  private fun scanChunk(accumulator: Accumulator) {
+    val chunk = accumulator.chunk
+    for (localX in 0 until CHUNK_SIZE) {
+      for (localY in 0 until CHUNK_SIZE) {
+        val material = chunk.getRawMaterial(localX, localY)
+        accumulator.opacities[cellIndex(localX, localY)] = material.lightOpacity
+        val location = compactInt(chunk.chunkX.chunkToWorld(localX), chunk.chunkY.chunkToWorld(localY))
+        if (material.emitsLight) {
+          affectedSources.add(location)
+        }
+        skyDirty.add(location)
+      }
+    }
+    forEachSourceReaching(chunk) { source ->
+      affectedSources.add(source)
+    }
+  }
+
+  private fun addSourcesReaching(worldX: WorldCoord, worldY: WorldCoord) {
+    forEachSourceWithin(worldX - RADIUS, worldY - RADIUS, worldX + RADIUS, worldY + RADIUS) { source ->
+      if (abs(source.decompactLocX() - worldX) <= RADIUS && abs(source.decompactLocY() - worldY) <= RADIUS) {
+        affectedSources.add(source)
+      }
+    }
+  }
+
+  private inline fun forEachSourceReaching(chunk: Chunk, action: (WorldCompactLoc) -> Unit) {
+    val chunkStartX = chunk.chunkX.chunkToWorld(0)
+    val chunkStartY = chunk.chunkY.chunkToWorld(0)
+    forEachSourceWithin(chunkStartX - RADIUS, chunkStartY - RADIUS, chunkStartX + CHUNK_SIZE - 1 + RADIUS, chunkStartY + CHUNK_SIZE - 1 + RADIUS) { source ->
+      if (reaches(source, chunk)) {
+        action(source)
+      }
+    }
+  }
+
+  /**
+   * Visit the sources in the chunks overlapping the given area, some of the visited sources might be outside the area
+   */
+  private inline fun forEachSourceWithin(minX: WorldCoord, minY: WorldCoord, maxX: WorldCoord, maxY: WorldCoord, action: (WorldCompactLoc) -> Unit) {
+    for (chunkX in minX.worldToChunk()..maxX.worldToChunk()) {
+      for (chunkY in minY.worldToChunk()..maxY.worldToChunk()) {
+        val chunkSources = sourcesByChunk.get(compactInt(chunkX, chunkY)) ?: continue
+        val iterator = chunkSources.iterator()
+        while (iterator.hasNext()) {
+          action(iterator.nextLong())
+        }
+      }
+    }
+  }
+
+  private fun putSource(location: WorldCompactLoc, contribution: Contribution) {
+    sources.put(location, contribution)
+    val chunkLoc = location.worldToChunk()
+    val chunkSources = sourcesByChunk.get(chunkLoc) ?: LongOpenHashSet().also { sourcesByChunk.put(chunkLoc, it) }
+    chunkSources.add(location)
+  }
+
+  private fun removeSource(location: WorldCompactLoc): Contribution? {
+    val removed = sources.remove(location) ?: return null
+    val chunkLoc = location.worldToChunk()
+    val chunkSources = sourcesByChunk.get(chunkLoc)
+    if (chunkSources != null && chunkSources.remove(location) && chunkSources.isEmpty()) {
+      sourcesByChunk.remove(chunkLoc)
+    }
+    return removed
+  }
+
+  private fun markSkylightAround(worldX: WorldCoord, worldY: WorldCoord) {
+    for (offsetX in -RADIUS..RADIUS) {
+      for (offsetY in -RADIUS..RADIUS) {
+        if (dst2(0, 0, offsetX, offsetY) <= World.LIGHT_SOURCE_LOOK_BLOCKS_WITH_EXTRA_POW) {
+          skyDirty.add(compactInt(worldX + offsetX, worldY + offsetY))
+        }
+      }
+    }
+  }
+
+  private fun recalculateSource(location: WorldCompactLoc) {
+    val old = removeSource(location)
+    if (old != null) {
+      apply(location, old, -1f)
+    }
+    val new = calculateContribution(location) ?: return
+    putSource(location, new)
+    apply(location, new, 1f)
+  }
+
+  private fun calculateContribution(location: WorldCompactLoc): Contribution? {
+    val worldX = location.decompactLocX()
+    val worldY = location.decompactLocY()
+    val chunk = chunkAt(worldX, worldY) ?: return null
+    val material = chunk.getRawMaterial(worldX.chunkOffset(), worldY.chunkOffset())
+    if (!material.emitsLight) {
+      return null
+    }
+    val tint: Color = material.lightColor ?: Color.WHITE
+    // Compensate intensity so all tint colors produce equal total light energy as white, as in BlockLight.calculateLightFrom
+    val tintSum = tint.r + tint.g + tint.b
+    val brightnessCompensation = if (Settings.lightColorEnergyCompensation && tintSum > 0f) 3f / tintSum else 1f
+    val opacities = if (Settings.lightOcclusion) RayOcclusionTable.snapshotSourceOpacity(world, worldX, worldY) else null
+
+    val intensities = FloatArray(WIDTH * WIDTH * LIGHT_RESOLUTION_SQUARE)
+    for (offsetX in -RADIUS..RADIUS) {
+      for (offsetY in -RADIUS..RADIUS) {
+        val offsetStart = offsetIndex(offsetX, offsetY)
+        for (dx in 0 until LIGHT_RESOLUTION) {
+          for (dy in 0 until LIGHT_RESOLUTION) {
+            // The source is in the center of its block, placed at origin
+            val distSq = distCubed(offsetX + centerOfSubcell(dx), offsetY + centerOfSubcell(dy), 0.5, 0.5)
+            val intensity = BlockLight.intensityAt(distSq)
+            if (intensity <= 0.0) continue
+            val lightMapIndex = lightMapIndex(dx, dy)
+            val attenuation = if (opacities != null) RayOcclusionTable.attenuationFromSource(offsetX, offsetY, lightMapIndex, opacities) else 1f
+            if (attenuation <= 0f) continue
+            intensities[offsetStart + lightMapIndex] = (intensity * Settings.lightIntensityMultiplier * brightnessCompensation * attenuation).toFloat()
+          }
+        }
+      }
+    }
+    return Contribution(material, tint, intensities)
+  }
+
+  /**
+   * Add the contribution, multiplied by [sign], to every tracked chunk the source reaches
+   */
+  private fun apply(source: WorldCompactLoc, contribution: Contribution, sign: Float) {
+    val sourceX = source.decompactLocX()
+    val sourceY = source.decompactLocY()
+    for (chunkX in (sourceX - RADIUS).worldToChunk()..(sourceX + RADIUS).worldToChunk()) {
+      for (chunkY in (sourceY - RADIUS).worldToChunk()..(sourceY + RADIUS).worldToChunk()) {
+        val accumulator = accumulators.get(compactInt(chunkX, chunkY)) ?: continue
+        if (accumulator.chunk.isValid) {
+          applyTo(accumulator, sourceX, sourceY, contribution, sign)
+        }
+      }
+    }
+  }
+
+  private fun applyTo(accumulator: Accumulator, sourceX: WorldCoord, sourceY: WorldCoord, contribution: Contribution, sign: Float) {
+    val chunkStartX = accumulator.chunk.chunkX.chunkToWorld(0)
+    val chunkStartY = accumulator.chunk.chunkY.chunkToWorld(0)
+    val tint = contribution.tint
+    val emitted = accumulator.emitted
+    for (worldX in max(sourceX - RADIUS, chunkStartX)..min(sourceX + RADIUS, chunkStartX + CHUNK_SIZE - 1)) {
+      for (worldY in max(sourceY - RADIUS, chunkStartY)..min(sourceY + RADIUS, chunkStartY + CHUNK_SIZE - 1)) {
+        val offsetStart = offsetIndex(worldX - sourceX, worldY - sourceY)
+        val cell = cellIndex(worldX - chunkStartX, worldY - chunkStartY)
+        var lit = false
+        for (lightMapIndex in 0 until LIGHT_RESOLUTION_SQUARE) {
+          val intensity = contribution.intensities[offsetStart + lightMapIndex] * sign
+          if (intensity == 0f) continue
+          lit = true
+          emitted[channelIndex(cell, ChunkLightBuffer.RED, lightMapIndex)] += intensity * tint.r
+          emitted[channelIndex(cell, ChunkLightBuffer.GREEN, lightMapIndex)] += intensity * tint.g
+          emitted[channelIndex(cell, ChunkLightBuffer.BLUE, lightMapIndex)] += intensity * tint.b
+          emitted[channelIndex(cell, INTENSITY, lightMapIndex)] += intensity
+        }
+        if (lit) {
+          touched.add(compactInt(worldX, worldY))
+        }
+      }
+    }
+  }
+
+  private fun rebuildEmitted(accumulator: Accumulator) {
+    accumulator.emitted.fill(0f)
+    forEachSourceReaching(accumulator.chunk) { source ->
+      applyTo(accumulator, source.decompactLocX(), source.decompactLocY(), sources.get(source), 1f)
+    }
+  }
+
+  private fun updateSkylight(worldX: WorldCoord, worldY: WorldCoord) {
+    val chunk = chunkAt(worldX, worldY) ?: return
+    val accumulator = tracked(chunk) ?: return
+    val localX = worldX.chunkOffset()
+    val localY = worldY.chunkOffset()
+    val start = channelIndex(cellIndex(localX, localY), 0, 0)
+    accumulator.sky.fill(0f, start, start + LIGHT_CHANNELS * LIGHT_RESOLUTION_SQUARE)
+    if (isSkylight(chunk, worldX, worldY)) {
+      // Fully lit, see updateBrightness
+      return
+    }
+    val blockLight = chunk.getBlockLight(localX, localY)
+    val skyBlocks = blockLight.findSkylightBlocks(worldX, worldY)
+    if (skyBlocks.isEmpty) {
+      return
+    }
+    val lightMap = tmpLightMap
+    lightMap.clear()
+    val opacities = if (Settings.lightOcclusion) RayOcclusionTable.snapshotOpacity(world, worldX, worldY) else null
+    for (skyBlock in skyBlocks) {
+      blockLight.calculateLightFrom(skyBlock, worldX, worldY, lightMap, opacities)
+    }
+    lightMap.r.copyInto(accumulator.sky, start + ChunkLightBuffer.RED * LIGHT_RESOLUTION_SQUARE)
+    lightMap.g.copyInto(accumulator.sky, start + ChunkLightBuffer.GREEN * LIGHT_RESOLUTION_SQUARE)
+    lightMap.b.copyInto(accumulator.sky, start + ChunkLightBuffer.BLUE * LIGHT_RESOLUTION_SQUARE)
+    lightMap.i.copyInto(accumulator.sky, start + INTENSITY * LIGHT_RESOLUTION_SQUARE)
+  }
+
+  /**
+   * Sum the emitted light and skylight of every touched block, and store the tone mapped result in the light buffer of the chunk
+   */
+  private fun updateBrightness() {
+    val updatedChunks = HashSet<Chunk>()
+    val iterator = touched.iterator()
+    while (iterator.hasNext()) {
+      val location = iterator.nextLong()
+      val worldX = location.decompactLocX()
+      val worldY = location.decompactLocY()
+      val chunk = chunkAt(worldX, worldY) ?: continue
+      val accumulator = tracked(chunk) ?: continue
+      updateBrightness(accumulator, worldX, worldY)
+      updatedChunks += chunk
+    }
+    for (chunk in updatedChunks) {
+      if (chunk is TexturedChunk) {
+        chunk.queueForRendering(prioritize = false)
+      }
+    }
+  }
+
+  private fun updateBrightness(accumulator: Accumulator, worldX: WorldCoord, worldY: WorldCoord) {
+    val chunk = accumulator.chunk
+    val localX = worldX.chunkOffset()
+    val localY = worldY.chunkOffset()
+    val buffer = chunk.lightBuffer
+    if (isSkylight(chunk, worldX, worldY)) {
+      if (!buffer.isSkylight(localX, localY)) {
+        buffer.setSkylight(localX, localY)
+        dispatchLightChangeEvent(chunk, localX, localY)
+      }
+      return
+    }
+    val lightMap = tmpLightMap
+    val start = channelIndex(cellIndex(localX, localY), 0, 0)
+    for (lightMapIndex in 0 until LIGHT_RESOLUTION_SQUARE) {
+      lightMap.r[lightMapIndex] = lightAt(accumulator, start + ChunkLightBuffer.RED * LIGHT_RESOLUTION_SQUARE + lightMapIndex)
+      lightMap.g[lightMapIndex] = lightAt(accumulator, start + ChunkLightBuffer.GREEN * LIGHT_RESOLUTION_SQUARE + lightMapIndex)
+      lightMap.b[lightMapIndex] = lightAt(accumulator, start + ChunkLightBuffer.BLUE * LIGHT_RESOLUTION_SQUARE + lightMapIndex)
+      lightMap.i[lightMapIndex] = lightAt(accumulator, start + INTENSITY * LIGHT_RESOLUTION_SQUARE + lightMapIndex)
+    }
+    lightMap.applyToneMapping(Settings.lightToneMapping)
+    val averageBrightness = lightMap.averageBrightness()
+    if (averageBrightness == BlockLight.COMPLETE_DARKNESS) {
+      if (buffer.isLit(localX, localY)) {
+        buffer.setNoLight(localX, localY)
+        dispatchLightChangeEvent(chunk, localX, localY)
+      }
+    } else {
+      buffer.setLight(localX, localY, lightMap, averageBrightness)
+      dispatchLightChangeEvent(chunk, localX, localY)
+    }
+  }
+
+  /**
+   * Removing a contribution might leave tiny negative rounding errors behind
+   */
+  private fun lightAt(accumulator: Accumulator, index: Int): Float = max(0f, accumulator.emitted[index] + accumulator.sky[index])
+
+  /**
+   * Start tracking the chunk, a newly tracked chunk gets a full update
+   */
+  private fun track(chunk: Chunk): Accumulator {
+    tracked(chunk)?.let { return it }
+    val accumulator = Accumulator(chunk)
+    accumulators.put(chunk.compactLocation, accumulator)
+    rebuildEmitted(accumulator)
+    fullUpdates += accumulator
+    return accumulator
+  }
+
+  private fun tracked(chunk: Chunk): Accumulator? = accumulators.get(chunk.compactLocation)?.takeIf { it.chunk === chunk }
+
+  /**
+   * Forget the unloaded chunks and the light sources which no longer reach any tracked chunk
+   */
+  private fun prune() {
+    val accumulatorIterator = accumulators.values.iterator()
+    while (accumulatorIterator.hasNext()) {
+      if (accumulatorIterator.next().chunk.isInvalid) {
+        accumulatorIterator.remove()
+      }
+    }
+    val chunkIterator = sourcesByChunk.values.iterator()
+    while (chunkIterator.hasNext()) {
+      val chunkSources = chunkIterator.next()
+      val sourceIterator = chunkSources.iterator()
+      while (sourceIterator.hasNext()) {
+        val source = sourceIterator.nextLong()
+        val sourceX = source.decompactLocX()
+        val sourceY = source.decompactLocY()
+        if (!isTracked(sourceX - RADIUS, sourceY - RADIUS, sourceX + RADIUS, sourceY + RADIUS)) {
+          sourceIterator.remove()
+          sources.remove(source)
+        }
+      }
+      if (chunkSources.isEmpty()) {
+        chunkIterator.remove()
+      }
+    }
+  }
+
+  private fun isTracked(minX: WorldCoord, minY: WorldCoord, maxX: WorldCoord, maxY: WorldCoord): Boolean {
+    for (chunkX in minX.worldToChunk()..maxX.worldToChunk()) {
+      for (chunkY in minY.worldToChunk()..maxY.worldToChunk()) {
+        if (accumulators.containsKey(compactInt(chunkX, chunkY))) {
+          return true
+        }
+      }
+    }
+    return false
+  }
+
+  private fun reaches(source: WorldCompactLoc, chunk: Chunk): Boolean {
+    val chunkStartX = chunk.chunkX.chunkToWorld(0)
+    val chunkStartY = chunk.chunkY.chunkToWorld(0)
+    val sourceX = source.decompactLocX()
+    val sourceY = source.decompactLocY()
+    return sourceX + RADIUS >= chunkStartX && sourceX - RADIUS < chunkStartX + CHUNK_SIZE &&
+      sourceY + RADIUS >= chunkStartY && sourceY - RADIUS < chunkStartY + CHUNK_SIZE
+  }
+
+  private fun isSkylight(chunk: Chunk, worldX: WorldCoord, worldY: WorldCoord): Boolean =
+    chunk.chunkColumn.isBlockAboveTopBlock(worldX.chunkOffset(), worldY, ChunkColumn.Companion.FeatureFlag.BLOCKS_LIGHT_FLAG)
+
+  private fun chunkAt(worldX: WorldCoord, worldY: WorldCoord): Chunk? {
+    val chunkX = worldX.worldToChunk()
+    val chunkY = worldY.worldToChunk()
+    val cached = cachedChunk
+    if (cached != null && cached.chunkX == chunkX && cached.chunkY == chunkY && cached.isNotDisposed) {
+      return cached
+    }
+    return world.getChunk(compactInt(chunkX, chunkY), load = false)?.takeIf { it.isValid }?.also { cachedChunk = it }
+  }
+
+  private fun dispatchLightChangeEvent(chunk: Chunk, localX: Int, localY: Int) {
+    // Note: Currently we only use this event for debugging
+    if (Settings.renderBlockLightUpdates) {
+      EventManager.dispatchEventAsync(BlockLightChangedEvent(chunk, localX, localY))
+    }
+  }
+
+  companion object {
+    private const val CELLS = CHUNK_SIZE * CHUNK_SIZE
+
+    /**
+     * The red, green and blue channels of [ChunkLightBuffer] and the untinted intensity used by the tone mapping
+     */
+    private const val LIGHT_CHANNELS = ChunkLightBuffer.CHANNELS + 1
+    private const val INTENSITY = ChunkLightBuffer.CHANNELS
+
+    @Suppress("NOTHING_TO_INLINE")
+    private inline fun cellIndex(localX: Int, localY: Int): Int = localX * CHUNK_SIZE + localY
+
+    @Suppress("NOTHING_TO_INLINE")
+    private inline fun channelIndex(cell: Int, channel: Int, lightMapIndex: Int): Int = (cell * LIGHT_CHANNELS + channel) * LIGHT_RESOLUTION_SQUARE + lightMapIndex
+
+    @Suppress("NOTHING_TO_INLINE")
+    private inline fun offsetIndex(offsetX: Int, offsetY: Int): Int = ((offsetX + RADIUS) * WIDTH + (offsetY + RADIUS)) * LIGHT_RESOLUTION_SQUARE
+  }
+}
@@ -17,6 +17,7 @@ import no.elg.infiniteBootleg.core.world.Material
 import no.elg.infiniteBootleg.core.world.Material.Companion.asProto
 import no.elg.infiniteBootleg.core.world.Material.Companion.fromProtoOrNull
 import no.elg.infiniteBootleg.core.world.chunks.Chunk
+import no.elg.infiniteBootleg.core.world.chunks.storage.ChunkBlockStorage
 import no.elg.infiniteBootleg.core.world.world.World
 import no.elg.infiniteBootleg.core.world.world.World.Companion.BLOCK_SIZE
 import no.elg.infiniteBootleg.protobuf.ProtoWorld
@@ -52,7 +53,7 @@ interface Block :
 
   val valid: Boolean get() = chunk.isValid && !isDisposed
 
-  override val isDisposed: Boolean get() = chunk.getRawBlock(localX, localY) !== this
+  override val isDisposed: Boolean get() = !isHeldBy(chunk)
 
   companion object {
 
@@ -76,6 +77,20 @@ interface Block :
     val Block.validChunk: Chunk? get() = chunk.takeIf(Chunk::isValid) ?: world.getChunk(chunk.compactLocation, load = false)
     val Block.validChunkOrLoad: Chunk? get() = chunk.takeIf(Chunk::isValid) ?: world.getChunk(chunk.compactLocation, load = true)
 
+    /**
+     * Whether this block is still at its location in [chunk].
+     *
+     * A block with only a material is not kept by the chunk (see [ChunkBlockStorage.isStateful]), a new instance is created every time it is
+     * asked for. Such a block is the block at its location as long as no block instance is kept there and the material is the same.
+     */
+    fun Block.isHeldBy(chunk: Chunk): Boolean {
+      val instance = chunk.getBlockInstance(localX, localY)
+      if (instance != null) {
+        return instance === this
+      }
+      return material !== Material.Air && !ChunkBlockStorage.isStateful(this) && chunk.getRawMaterial(localX, localY) === material
+    }
+
     /**
      * Find all entities in the block
      */
@@ -89,7 +104,7 @@ interface Block :
      */
     fun Block.remove(updateTexture: Boolean = true, prioritize: Boolean = false, sendUpdatePacket: Boolean = true): Chunk? {
       val validChunk = this.validChunk ?: return null
-      if (validChunk.getRawBlock(localX, localY) === this) {
+      if (isHeldBy(validChunk)) {
         validChunk.removeBlock(
           localX = localX,
           localY = localY,
@@ -22,6 +22,7 @@ import no.elg.infiniteBootleg.core.world.blocks.BlockLight.Companion.LIGHT_RESOL
 import no.elg.infiniteBootleg.core.world.blocks.LightMap.Companion.Brightness
 import no.elg.infiniteBootleg.core.world.chunks.Chunk
 import no.elg.infiniteBootleg.core.world.chunks.ChunkColumn
+import no.elg.infiniteBootleg.core.world.chunks.ChunkLightBuffer
 import no.elg.infiniteBootleg.core.world.world.World
 import kotlin.math.abs
 import kotlin.math.floor
@@ -29,52 +30,49 @@ import kotlin.math.max
 import kotlin.math.min
 import kotlin.math.sqrt
 
+/**
+ * A view of the light of a single block. The light itself is stored in the [ChunkLightBuffer] of the chunk, and each chunk hands out the same view of a block every time
+ */
 class BlockLight(val chunk: Chunk, val localX: LocalCoord, val localY: LocalCoord) {
 
+  private val buffer: ChunkLightBuffer get() = chunk.lightBuffer
+
   /**
    * Whether this block is above the top-most block of the given world y-coordinate
    *
    * It denotes that this is a fully lit block, and thus light can be skipped rendered on it.
    */
-  var isSkylight: Boolean = false
-    private set
+  val isSkylight: Boolean get() = buffer.isSkylight(localX, localY)
 
   /**
    * If this block have any light shining onto it. If not then it should be rendered as a black square
    */
-  var isLit: Boolean = false
-    private set
+  val isLit: Boolean get() = buffer.isLit(localX, localY)
 
   /**
    * The average brightness of the block
    */
-  var averageBrightness: Brightness = COMPLETE_DARKNESS
-    private set
+  val averageBrightness: Brightness get() = buffer.averageBrightness(localX, localY)
 
   /**
-   * Brightness, in the range `0f..1f`, of each sub-cells.
-   *
-   * ## Layout
-   *
-   * The array is a 2D array with the size of [LIGHT_RESOLUTION] x [LIGHT_RESOLUTION], stored in row-major order.
-   *
-   * Do not modify
+   * Brightness of the red channel, in the range `0f..1f`, of the sub-cell at [lightMapIndex]
    */
-  @field:Volatile
-  var lightMap: LightMap = NO_LIGHTS_LIGHT_MAP
-    private set
+  fun red(lightMapIndex: Int): Brightness = buffer.red(localX, localY, lightMapIndex)
 
-  private val event by lazy(LazyThreadSafetyMode.PUBLICATION) { BlockLightChangedEvent(chunk, localX, localY) }
+  /**
+   * Brightness of the green channel, in the range `0f..1f`, of the sub-cell at [lightMapIndex]
+   */
+  fun green(lightMapIndex: Int): Brightness = buffer.green(localX, localY, lightMapIndex)
 
-  init {
-    if (isAboveTopBlock()) {
-      setToSkyLight(false)
-    } else {
-      setToNoLight(false)
-    }
-  }
+  /**
+   * Brightness of the blue channel, in the range `0f..1f`, of the sub-cell at [lightMapIndex]
+   */
+  fun blue(lightMapIndex: Int): Brightness = buffer.blue(localX, localY, lightMapIndex)
 
-  fun calculateLightFrom(neighbor: Block, worldX: WorldCoord, worldY: WorldCoord, tmpLightMap: LightMap) {
+  /**
+   * @param opacities The opacity around this block, as taken by [RayOcclusionTable.snapshotOpacity]. Only required when [Settings.lightOcclusion] is enabled
+   */
+  fun calculateLightFrom(neighbor: Block, worldX: WorldCoord, worldY: WorldCoord, tmpLightMap: LightMap, opacities: FloatArray?) {
     val nx = neighbor.worldX + 0.5
     val ny = neighbor.worldY + 0.5
     // If null but we still got here, then the block is a skylight and thus should be white
@@ -82,17 +80,19 @@ class BlockLight(val chunk: Chunk, val localX: LocalCoord, val localY: LocalCoor
     // Compensate intensity so all tint colors produce equal total light energy as white
     val tintSum = tint.r + tint.g + tint.b
     val brightnessCompensation = if (Settings.lightColorEnergyCompensation && tintSum > 0f) 3f / tintSum else 1f
-    val maxDistance = World.LIGHT_SOURCE_LOOK_BLOCKS.toDouble()
-    val maxDistSq = maxDistance * maxDistance
 
+    val intensities = tmpLightMap.sourceIntensities
+    intensities.fill(COMPLETE_DARKNESS)
     for (dx in 0 until LIGHT_RESOLUTION) {
       for (dy in 0 until LIGHT_RESOLUTION) {
         val cellX = worldX + centerOfSubcell(dx)
         val cellY = worldY + centerOfSubcell(dy)
+        val lightMapIndex = lightMapIndex(dx, dy)
 
         // Compute ray attenuation per subcell, stepping at subcell resolution
-        val attenuation = if (Settings.lightOcclusion) {
-          computeRayAttenuation(nx, ny, cellX, cellY)
+        val attenuation = if (opacities != null) {
+          val tabled = RayOcclusionTable.attenuation(worldX - neighbor.worldX, worldY - neighbor.worldY, lightMapIndex, opacities)
+          if (tabled.isNaN()) computeRayAttenuation(nx, ny, cellX, cellY) else tabled
         } else {
           1.0f
         }
@@ -100,110 +100,30 @@ class BlockLight(val chunk: Chunk, val localX: LocalCoord, val localY: LocalCoor
 
         val distSq = distCubed(cellX, cellY, nx, ny)
 
-        val intensity = when (Settings.lightIntensityMapping) {
-          // Linear falloff: 1.0 at source, 0.0 at maxDistance
-          Settings.LightIntensityMapping.LINEAR -> {
-            val t = (sqrt(distSq) / maxDistance).coerceIn(0.0, 1.0)
-            1.0 - t
-          }
-
-          // Smoothstep falloff: zero derivative at both ends, same brightness profile as linear
-          Settings.LightIntensityMapping.SMOOTH_FALLOFF_LINEAR_SPACE -> {
-            val t = (sqrt(distSq) / maxDistance).coerceIn(0.0, 1.0)
-            1.0 - t * t * (3.0 - 2.0 * t)
-          }
-
-          // Smoothstep in squared-distance space: bright for longer, fast falloff near edge, no sqrt needed
-          Settings.LightIntensityMapping.SMOOTH_FALLOFF_SQUARED_SPACE -> {
-            val tSq = (distSq / maxDistSq).coerceIn(0.0, 1.0)
-            1.0 - tSq * tSq * (3.0 - 2.0 * tSq)
-          }
-        }
+        val intensity = intensityAt(distSq)
 
-        val lightMapIndex = lightMapIndex(dx, dy)
-        tmpLightMap.updateColor(lightMapIndex, (intensity * Settings.lightIntensityMultiplier * brightnessCompensation * attenuation).toFloat(), tint)
+        intensities[lightMapIndex] = (intensity * Settings.lightIntensityMultiplier * brightnessCompensation * attenuation).toFloat()
       }
     }
+    tmpLightMap.addColor(intensities, tint)
   }
 
   /**
-   * Compute light attenuation along the ray from source to destination using DDA at subcell resolution.
-   * Steps through a grid that is [LIGHT_RESOLUTION] times finer than the block grid for precise ray paths.
-   * Opacity is applied once per block entry (not per subcell) so diagonal rays aren't over-attenuated.
-   * Skips source and destination subcells.
+   * Compute light attenuation along the ray from source to destination by looking up the material of every block on the way.
+   * Only used when the source is outside the [RayOcclusionTable]
    *
    * @return attenuation in [0.0, 1.0] where 1.0 = no occlusion, 0.0 = fully blocked
    */
-  private fun computeRayAttenuation(srcX: Double, srcY: Double, dstX: Double, dstY: Double): Float {
-    // Convert to subcell grid coordinates
-    val srcCellX = floor(srcX / LIGHT_CELL_SIZE).toInt()
-    val srcCellY = floor(srcY / LIGHT_CELL_SIZE).toInt()
-    val dstCellX = floor(dstX / LIGHT_CELL_SIZE).toInt()
-    val dstCellY = floor(dstY / LIGHT_CELL_SIZE).toInt()
-
-    if (srcCellX == dstCellX && srcCellY == dstCellY) return 1.0f
-
-    val dirX = dstX - srcX
-    val dirY = dstY - srcY
-
-    // Normalize per-step opacity by L2/L1 ratio of the ray direction.
-    // Diagonal rays have more DDA steps than axis-aligned rays for the same distance,
-    // so we scale down each step's opacity to compensate, producing circular shadows.
-    val euclidean = sqrt(dirX * dirX + dirY * dirY)
-    val manhattan = abs(dirX) + abs(dirY)
-    val opacityNormalizer = if (manhattan > 0) (euclidean / manhattan).toFloat() else 1f
-
-    val stepX = if (dirX > 0) 1 else -1
-    val stepY = if (dirY > 0) 1 else -1
-
-    val tDeltaX = if (dirX != 0.0) abs(LIGHT_CELL_SIZE / dirX) else Double.MAX_VALUE
-    val tDeltaY = if (dirY != 0.0) abs(LIGHT_CELL_SIZE / dirY) else Double.MAX_VALUE
-
-    var tMaxX = if (dirX > 0) {
-      ((srcCellX + 1) * LIGHT_CELL_SIZE - srcX) / dirX
-    } else if (dirX < 0) {
-      (srcX - srcCellX * LIGHT_CELL_SIZE) / -dirX
-    } else {
-      Double.MAX_VALUE
-    }
-
-    var tMaxY = if (dirY > 0) {
-      ((srcCellY + 1) * LIGHT_CELL_SIZE - srcY) / dirY
-    } else if (dirY < 0) {
-      (srcY - srcCellY * LIGHT_CELL_SIZE) / -dirY
-    } else {
-      Double.MAX_VALUE
-    }
-
-    var cx = srcCellX
-    var cy = srcCellY
-    var attenuation = 1.0f
+  internal fun computeRayAttenuation(srcX: Double, srcY: Double, dstX: Double, dstY: Double): Float {
+    val opacityNormalizer = opacityNormalizer(dstX - srcX, dstY - srcY)
     val world = chunk.world
-
-    while (true) {
-      // Step to the next subcell
-      if (tMaxX < tMaxY) {
-        cx += stepX
-        tMaxX += tDeltaX
-      } else {
-        cy += stepY
-        tMaxY += tDeltaY
-      }
-
-      // Reached destination subcell, stop
-      if (cx == dstCellX && cy == dstCellY) break
-
-      // Convert subcell coords to block coords
-      val blockX: WorldCoord = Math.floorDiv(cx, LIGHT_RESOLUTION)
-      val blockY: WorldCoord = Math.floorDiv(cy, LIGHT_RESOLUTION)
-
-      val material = world.getMaterial(blockX, blockY, loadChunk = false)
-      val opacity = material.lightOpacity
+    var attenuation = 1.0f
+    walkRay(srcX, srcY, dstX, dstY) { blockX, blockY ->
+      val opacity = world.getMaterial(blockX, blockY, loadChunk = false).lightOpacity
       attenuation *= (1.0f - opacity * opacityNormalizer)
-      if (attenuation <= 0f) return 0f
+      attenuation > 0f
     }
-
-    return attenuation
+    return attenuation.coerceAtLeast(0f)
   }
 
   private fun isAboveTopBlock(worldY: WorldCoord = chunk.chunkY.chunkToWorld(localY)): Boolean =
@@ -213,30 +133,20 @@ class BlockLight(val chunk: Chunk, val localX: LocalCoord, val localY: LocalCoor
       ChunkColumn.Companion.FeatureFlag.BLOCKS_LIGHT_FLAG
     )
 
-  private fun setToSkyLight(publishEvent: Boolean) {
-    isLit = true
-    isSkylight = true
-    averageBrightness = FULL_BRIGHTNESS
-    lightMap = SKYLIGHT_LIGHT_MAP
-    if (publishEvent) {
-      dispatchLightChangeEvent()
-    }
+  private fun setToSkyLight() {
+    buffer.setSkylight(localX, localY)
+    dispatchLightChangeEvent()
   }
 
-  private fun setToNoLight(publishEvent: Boolean) {
-    isLit = false
-    isSkylight = false
-    averageBrightness = COMPLETE_DARKNESS
-    lightMap = NO_LIGHTS_LIGHT_MAP
-    if (publishEvent) {
-      dispatchLightChangeEvent()
-    }
+  private fun setToNoLight() {
+    buffer.setNoLight(localX, localY)
+    dispatchLightChangeEvent()
   }
 
   private fun dispatchLightChangeEvent() {
     // Note: Currently we only use this event for debugging
     if (Settings.renderBlockLightUpdates) {
-      EventManager.dispatchEventAsync(event)
+      EventManager.dispatchEventAsync(BlockLightChangedEvent(chunk, localX, localY))
     }
   }
 
@@ -255,7 +165,7 @@ class BlockLight(val chunk: Chunk, val localX: LocalCoord, val localY: LocalCoor
         return false
       }
       // This block is a skylight, its always lit fully
-      setToSkyLight(publishEvent = true)
+      setToSkyLight()
       return true
     }
     return coroutineScope {
@@ -269,7 +179,7 @@ class BlockLight(val chunk: Chunk, val localX: LocalCoord, val localY: LocalCoor
 
       val lightBlocks = if (blockLights.isEmpty && skyLights.isEmpty) {
         if (isLit) {
-          setToNoLight(publishEvent = true)
+          setToNoLight()
           return@coroutineScope true
         }
         return@coroutineScope false
@@ -288,24 +198,20 @@ class BlockLight(val chunk: Chunk, val localX: LocalCoord, val localY: LocalCoor
       }
       ensureActive()
       val tmpLightMap = LightMap()
+      val opacities = if (Settings.lightOcclusion) RayOcclusionTable.snapshotOpacity(chunk.world, worldX, worldY) else null
       for (neighbor in lightBlocks) {
-        calculateLightFrom(neighbor, worldX, worldY, tmpLightMap)
-      }
-      when (Settings.lightToneMapping) {
-        Settings.LightToneMapping.REINHARD -> tmpLightMap.calculateReinhardToneMapping()
-        Settings.LightToneMapping.REINHARD_JODIE_LUMINANCE_BY_INTENSITY -> tmpLightMap.calculateReinhardJodieToneMapping()
-        Settings.LightToneMapping.REINHARD_JODIE_LUMINANCE_BY_COLOR -> tmpLightMap.calculateReinhardJodieToneMappingLuminanceByColor()
-        Settings.LightToneMapping.CLAMP -> Unit
+        calculateLightFrom(neighbor, worldX, worldY, tmpLightMap, opacities)
       }
+      tmpLightMap.applyToneMapping(Settings.lightToneMapping)
       ensureActive()
 
-      averageBrightness = tmpLightMap.averageBrightness()
+      val averageBrightness = tmpLightMap.averageBrightness()
       if (averageBrightness == COMPLETE_DARKNESS) {
-        setToNoLight(publishEvent = isLit)
+        if (isLit) {
+          setToNoLight()
+        }
       } else {
-        isLit = true
-        isSkylight = false
-        lightMap = tmpLightMap
+        buffer.setLight(localX, localY, tmpLightMap, averageBrightness)
         dispatchLightChangeEvent()
       }
       return@coroutineScope true
@@ -460,7 +366,7 @@ class BlockLight(val chunk: Chunk, val localX: LocalCoord, val localY: LocalCoor
     const val LIGHT_RESOLUTION = 2
     const val LIGHT_RESOLUTION_SQUARE = LIGHT_RESOLUTION * LIGHT_RESOLUTION
 
-    private const val LIGHT_CELL_SIZE = 1.0 / LIGHT_RESOLUTION
+    internal const val LIGHT_CELL_SIZE = 1.0 / LIGHT_RESOLUTION
 
     val EMITS_LIGHT_FILTER = { block: Block -> block.material.emitsLight }
 
@@ -469,5 +375,106 @@ class BlockLight(val chunk: Chunk, val localX: LocalCoord, val localY: LocalCoor
     const val MIN_Y_OFFSET = 1
 
     fun centerOfSubcell(subcellCoordinate: Int): Double = ((1.0 / LIGHT_RESOLUTION) + subcellCoordinate.toDouble()) / LIGHT_RESOLUTION
+
+    private const val MAX_DISTANCE = World.LIGHT_SOURCE_LOOK_BLOCKS.toDouble()
+    private const val MAX_DISTANCE_SQ = MAX_DISTANCE * MAX_DISTANCE
+
+    /**
+     * Normalize per-step opacity by L2/L1 ratio of the ray direction.
+     * Diagonal rays have more DDA steps than axis-aligned rays for the same distance,
+     * so we scale down each step's opacity to compensate, producing circular shadows.
+     */
+    internal fun opacityNormalizer(dirX: Double, dirY: Double): Float {
+      val euclidean = sqrt(dirX * dirX + dirY * dirY)
+      val manhattan = abs(dirX) + abs(dirY)
+      return if (manhattan > 0) (euclidean / manhattan).toFloat() else 1f
+    }
+
+    /**
+     * Walk the ray from source to destination using DDA at subcell resolution.
+     * Steps through a grid that is [LIGHT_RESOLUTION] times finer than the block grid for precise ray paths.
+     * Skips source and destination subcells.
+     *
+     * @param visit Called with the block of every subcell stepped through, return `false` to stop walking
+     */
+    internal inline fun walkRay(srcX: Double, srcY: Double, dstX: Double, dstY: Double, visit: (blockX: WorldCoord, blockY: WorldCoord) -> Boolean) {
+      // Convert to subcell grid coordinates
+      val srcCellX = floor(srcX / LIGHT_CELL_SIZE).toInt()
+      val srcCellY = floor(srcY / LIGHT_CELL_SIZE).toInt()
+      val dstCellX = floor(dstX / LIGHT_CELL_SIZE).toInt()
+      val dstCellY = floor(dstY / LIGHT_CELL_SIZE).toInt()
+
+      if (srcCellX == dstCellX && srcCellY == dstCellY) return
+
+      val dirX = dstX - srcX
+      val dirY = dstY - srcY
+
+      val stepX = if (dirX > 0) 1 else -1
+      val stepY = if (dirY > 0) 1 else -1
+
+      val tDeltaX = if (dirX != 0.0) abs(LIGHT_CELL_SIZE / dirX) else Double.MAX_VALUE
+      val tDeltaY = if (dirY != 0.0) abs(LIGHT_CELL_SIZE / dirY) else Double.MAX_VALUE
+
+      var tMaxX = if (dirX > 0) {
+        ((srcCellX + 1) * LIGHT_CELL_SIZE - srcX) / dirX
+      } else if (dirX < 0) {
+        (srcX - srcCellX * LIGHT_CELL_SIZE) / -dirX
+      } else {
+        Double.MAX_VALUE
+      }
+
+      var tMaxY = if (dirY > 0) {
+        ((srcCellY + 1) * LIGHT_CELL_SIZE - srcY) / dirY
+      } else if (dirY < 0) {
+        (srcY - srcCellY * LIGHT_CELL_SIZE) / -dirY
+      } else {
+        Double.MAX_VALUE
+      }
+
+      var cx = srcCellX
+      var cy = srcCellY
+
+      while (true) {
+        // Step to the next subcell
+        if (tMaxX < tMaxY) {
+          cx += stepX
+          tMaxX += tDeltaX
+        } else {
+          cy += stepY
+          tMaxY += tDeltaY
+        }
+
+        // Reached destination subcell, stop
+        if (cx == dstCellX && cy == dstCellY) return
+
+        // Convert subcell coords to block coords
+        if (!visit(Math.floorDiv(cx, LIGHT_RESOLUTION), Math.floorDiv(cy, LIGHT_RESOLUTION))) return
+      }
+    }
+
+    /**
+     * @param distSq The squared distance, in blocks, from the light source
+     * @return The intensity of a light source at the given distance, as given by [Settings.lightIntensityMapping]
+     */
+    fun intensityAt(distSq: Double): Double =
+      when (Settings.lightIntensityMapping) {
+        // Linear falloff: 1.0 at source, 0.0 at maxDistance
+        Settings.LightIntensityMapping.LINEAR -> {
+          val t = (sqrt(distSq) / MAX_DISTANCE).coerceIn(0.0, 1.0)
+          1.0 - t
+        }
+
+        // Smoothstep falloff: zero derivative at both ends, same brightness profile as linear
+        Settings.LightIntensityMapping.SMOOTH_FALLOFF_LINEAR_SPACE -> {
+          val t = (sqrt(distSq) / MAX_DISTANCE).coerceIn(0.0, 1.0)
+          1.0 - t * t * (3.0 - 2.0 * t)
+        }
+
+        // Smoothstep in squared-distance space: bright for longer, fast falloff near edge, no sqrt needed
+        Settings.LightIntensityMapping.SMOOTH_FALLOFF_SQUARED_SPACE -> {
+          val tSq = (distSq / MAX_DISTANCE_SQ).coerceIn(0.0, 1.0)
+          1.0 - tSq * tSq * (3.0 - 2.0 * tSq)
+        }
+      }
   }
 }
@@ -0,0 +1,424 @@
+package no.elg.infiniteBootleg.core.world.blocks
+
+import io.github.oshai.kotlinlogging.KotlinLogging
+import it.unimi.dsi.fastutil.ints.IntArrayFIFOQueue
+import it.unimi.dsi.fastutil.longs.LongArrayFIFOQueue
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet
+import no.elg.infiniteBootleg.core.Settings
+import no.elg.infiniteBootleg.core.events.BlockLightChangedEvent
+import no.elg.infiniteBootleg.core.events.api.EventManager
+import no.elg.infiniteBootleg.core.util.WorldCompactLoc
+import no.elg.infiniteBootleg.core.util.WorldCompactLocArray
+import no.elg.infiniteBootleg.core.util.WorldCoord
+import no.elg.infiniteBootleg.core.util.chunkOffset
+import no.elg.infiniteBootleg.core.util.chunkToWorld
+import no.elg.infiniteBootleg.core.util.compactInt
+import no.elg.infiniteBootleg.core.util.decompactLocX
+import no.elg.infiniteBootleg.core.util.decompactLocY
+import no.elg.infiniteBootleg.core.util.launchOnAsyncSuspendable
+import no.elg.infiniteBootleg.core.util.worldToChunk
+import no.elg.infiniteBootleg.core.world.Material
+import no.elg.infiniteBootleg.core.world.blocks.BlockLight.Companion.LIGHT_RESOLUTION
+import no.elg.infiniteBootleg.core.world.blocks.BlockLight.Companion.lightMapIndex
+import no.elg.infiniteBootleg.core.world.chunks.Chunk
+import no.elg.infiniteBootleg.core.world.chunks.ChunkColumn
+import no.elg.infiniteBootleg.core.world.chunks.ChunkLightBuffer
+import no.elg.infiniteBootleg.core.world.chunks.TexturedChunk
+import no.elg.infiniteBootleg.core.world.world.World
+import java.util.concurrent.atomic.AtomicBoolean
+
+private val logger = KotlinLogging.logger {}
+
+/**
+ * Propagates light by flood filling light levels from the light sources, instead of casting rays from every block to every light source.
+ *
+ * Every color channel has its own level stored in the [ChunkLightBuffer] of the chunk. A level is the remaining distance the light can travel,
+ * in [ORTHOGONAL_COST] units per block. Light sources (and skylight blocks) emit their own level, neighbors receive the level minus the
+ * cost of the step and the [Material.lightOpacity] of the block the light leaves.
+ *
+ * When a block changes its old level is removed by a breadth first search (the remove queue), and the light of the still lit border
+ * is propagated back in (the add queue). Only blocks whose level actually changes are visited. The levels are then converted to
+ * brightness with the same [Settings.lightIntensityMapping] and [Settings.lightToneMapping] as [BlockLight].
+ *
+ * All propagation is done by a single job at a time, changes are queued with [invalidate] and processed in batches.
+ */
+class FloodFillLightEngine(private val world: World) {
+
+  private val pending = LongOpenHashSet()
+  private val running = AtomicBoolean(false)
+
+  private val addQueue = LongArrayFIFOQueue()
+  private val removeQueue = LongArrayFIFOQueue()
+  private val removeLevels = IntArrayFIFOQueue()
+
+  /**
+   * Blocks whose level changed in the current batch
+   */
+  private val changed = LongOpenHashSet()
+  private val tmpLightMap = LightMap()
+
+  private var cachedChunk: Chunk? = null
+
+  /**
+   * Queue a block to have its light recalculated
+   */
+  fun invalidate(worldX: WorldCoord, worldY: WorldCoord) {
+    synchronized(pending) {
+      pending.add(compactInt(worldX, worldY))
+    }
+    schedule()
+  }
+
+  fun invalidate(locations: WorldCompactLocArray) {
+    if (locations.isEmpty()) return
+    synchronized(pending) {
+      for (location in locations) {
+        pending.add(location)
+      }
+    }
+    schedule()
+  }
+
+  /**
+   * Queue every block in the chunk to have its light recalculated
+   */
+  fun invalidate(chunk: Chunk) {
+    synchronized(pending) {
+      for (localX in 0 until Chunk.CHUNK_SIZE) {
+        for (localY in 0 until Chunk.CHUNK_SIZE) {
+          pending.add(compactInt(chunk.chunkX.chunkToWorld(localX), chunk.chunkY.chunkToWorld(localY)))
+        }
+      }
+    }
+    schedule()
+  }
+
+  private fun schedule() {
+    if (running.compareAndSet(false, true)) {
+      launchOnAsyncSuspendable {
+        try {
+          processPending()
+        } catch (e: Exception) {
+          logger.error(e) { "Failed to propagate light" }
+        } finally {
+          running.set(false)
+        }
+        // Something might have been queued after the last batch was taken, but before we stopped running
+        if (synchronized(pending) { !pending.isEmpty() }) {
+          schedule()
+        }
+      }
+    }
+  }
+
+  /**
+   * Propagate all queued changes on the calling thread
+   */
+  fun processPending() {
+    while (true) {
+      val batch = synchronized(pending) {
+        if (pending.isEmpty()) return
+        pending.toLongArray().also { pending.clear() }
+      }
+      synchronized(this) {
+        propagate(batch)
+      }
+    }
+  }
+
+  /**
+   * Recalculate the light of the given blocks on the calling thread, bypassing the queue
+   */
+  fun recalculate(locations: WorldCompactLocArray) {
+    synchronized(this) {
+      propagate(locations)
+    }
+  }
+
+  private fun propagate(batch: WorldCompactLocArray) {
+    if (!Settings.renderLight || world.isDisposed) {
+      return
+    }
+    try {
+      for (channel in 0 until ChunkLightBuffer.CHANNELS) {
+        for (location in batch) {
+          invalidateLevel(channel, location)
+        }
+        removeLight(channel)
+        addLight(channel)
+      }
+      updateBrightness()
+    } finally {
+      changed.clear()
+      addQueue.clear()
+      removeQueue.clear()
+      removeLevels.clear()
+      cachedChunk = null
+    }
+  }
+
+  private fun invalidateLevel(channel: Int, location: WorldCompactLoc) {
+    val worldX = location.decompactLocX()
+    val worldY = location.decompactLocY()
+    val chunk = chunkAt(worldX, worldY) ?: return
+    val oldLevel = chunk.lightBuffer.level(channel, worldX.chunkOffset(), worldY.chunkOffset())
+    if (oldLevel > 0) {
+      setLevel(chunk, channel, worldX, worldY, 0)
+      removeQueue.enqueue(location)
+      removeLevels.enqueue(oldLevel)
+    }
+    seedEmission(chunk, channel, worldX, worldY)
+    // The block might be able to receive more light than before (e.g., a wall was removed or the chunk was just loaded),
+    // so let the lit neighbors flow their light back in. Neighbors which are lit by this block are removed before the light is added
+    for (neighbor in 0 until NEIGHBORS) {
+      val neighborX = worldX + NEIGHBOR_DX[neighbor]
+      val neighborY = worldY + NEIGHBOR_DY[neighbor]
+      val neighborChunk = chunkAt(neighborX, neighborY) ?: continue
+      if (neighborChunk.lightBuffer.level(channel, neighborX.chunkOffset(), neighborY.chunkOffset()) > 0) {
+        addQueue.enqueue(compactInt(neighborX, neighborY))
+      }
+    }
+  }
+
+  private fun seedEmission(chunk: Chunk, channel: Int, worldX: WorldCoord, worldY: WorldCoord) {
+    val emission = emission(chunk, channel, worldX, worldY)
+    if (emission > 0) {
+      setLevel(chunk, channel, worldX, worldY, emission)
+      addQueue.enqueue(compactInt(worldX, worldY))
+    }
+  }
+
+  /**
+   * Remove all light which might have come from the blocks in the remove queue. Neighbors which are at least as bright as the removed
+   * block are lit by something else, and are queued to flow their light back in
+   */
+  private fun removeLight(channel: Int) {
+    while (!removeQueue.isEmpty) {
+      val location = removeQueue.dequeueLong()
+      val removedLevel = removeLevels.dequeueInt()
+      val worldX = location.decompactLocX()
+      val worldY = location.decompactLocY()
+      for (neighbor in 0 until NEIGHBORS) {
+        val neighborX = worldX + NEIGHBOR_DX[neighbor]
+        val neighborY = worldY + NEIGHBOR_DY[neighbor]
+        val chunk = chunkAt(neighborX, neighborY) ?: continue
+        val neighborLevel = chunk.lightBuffer.level(channel, neighborX.chunkOffset(), neighborY.chunkOffset())
+        if (neighborLevel == 0) {
+          continue
+        }
+        val neighborLocation = compactInt(neighborX, neighborY)
+        if (neighborLevel < removedLevel) {
+          setLevel(chunk, channel, neighborX, neighborY, 0)
+          removeQueue.enqueue(neighborLocation)
+          removeLevels.enqueue(neighborLevel)
+          seedEmission(chunk, channel, neighborX, neighborY)
+        } else {
+          addQueue.enqueue(neighborLocation)
+        }
+      }
+    }
+  }
+
+  private fun addLight(channel: Int) {
+    while (!addQueue.isEmpty) {
+      val location = addQueue.dequeueLong()
+      val worldX = location.decompactLocX()
+      val worldY = location.decompactLocY()
+      val chunk = chunkAt(worldX, worldY) ?: continue
+      val localX = worldX.chunkOffset()
+      val localY = worldY.chunkOffset()
+      val level = chunk.lightBuffer.level(channel, localX, localY)
+      val outgoing = level - opacityCost(chunk.getRawMaterial(localX, localY))
+      if (outgoing <= ORTHOGONAL_COST) {
+        continue
+      }
+      for (neighbor in 0 until NEIGHBORS) {
+        val dx = NEIGHBOR_DX[neighbor]
+        val dy = NEIGHBOR_DY[neighbor]
+        val neighborLevel = outgoing - if (dx != 0 && dy != 0) DIAGONAL_COST else ORTHOGONAL_COST
+        if (neighborLevel <= 0) {
+          continue
+        }
+        val neighborX = worldX + dx
+        val neighborY = worldY + dy
+        val neighborChunk = chunkAt(neighborX, neighborY) ?: continue
+        if (neighborChunk.lightBuffer.level(channel, neighborX.chunkOffset(), neighborY.chunkOffset()) < neighborLevel) {
+          setLevel(neighborChunk, channel, neighborX, neighborY, neighborLevel)
+          addQueue.enqueue(compactInt(neighborX, neighborY))
+        }
+      }
+    }
+  }
+
+  /**
+   * Convert the levels of the changed blocks into brightness. The neighbors are also updated as each sub-cell is interpolated
+   * with the closest neighboring blocks
+   */
+  private fun updateBrightness() {
+    if (changed.isEmpty()) {
+      return
+    }
+    val toUpdate = LongOpenHashSet(changed.size * 2)
+    val iterator = changed.iterator()
+    while (iterator.hasNext()) {
+      val location = iterator.nextLong()
+      val worldX = location.decompactLocX()
+      val worldY = location.decompactLocY()
+      toUpdate.add(location)
+      for (neighbor in 0 until NEIGHBORS) {
+        toUpdate.add(compactInt(worldX + NEIGHBOR_DX[neighbor], worldY + NEIGHBOR_DY[neighbor]))
+      }
+    }
+
+    val updatedChunks = HashSet<Chunk>()
+    val updateIterator = toUpdate.iterator()
+    while (updateIterator.hasNext()) {
+      val location = updateIterator.nextLong()
+      val worldX = location.decompactLocX()
+      val worldY = location.decompactLocY()
+      val chunk = chunkAt(worldX, worldY) ?: continue
+      updateBrightness(chunk, worldX, worldY)
+      updatedChunks += chunk
+    }
+    for (chunk in updatedChunks) {
+      if (chunk is TexturedChunk) {
+        chunk.queueForRendering(prioritize = false)
+      }
+    }
+  }
+
+  private fun updateBrightness(chunk: Chunk, worldX: WorldCoord, worldY: WorldCoord) {
+    val localX = worldX.chunkOffset()
+    val localY = worldY.chunkOffset()
+    val buffer = chunk.lightBuffer
+    if (isSkylight(chunk, worldX, worldY)) {
+      if (!buffer.isSkylight(localX, localY)) {
+        buffer.setSkylight(localX, localY)
+        dispatchLightChangeEvent(chunk, worldX, worldY)
+      }
+      return
+    }
+
+    val lightMap = tmpLightMap
+    for (dx in 0 until LIGHT_RESOLUTION) {
+      for (dy in 0 until LIGHT_RESOLUTION) {
+        // Each sub-cell is closest to the neighbor in its quadrant of the block
+        val offsetX = if (dx < LIGHT_RESOLUTION / 2) -1 else 1
+        val offsetY = if (dy < LIGHT_RESOLUTION / 2) -1 else 1
+        val lightMapIndex = lightMapIndex(dx, dy)
+        val r = intensity(interpolatedLevel(ChunkLightBuffer.RED, worldX, worldY, offsetX, offsetY))
+        val g = intensity(interpolatedLevel(ChunkLightBuffer.GREEN, worldX, worldY, offsetX, offsetY))
+        val b = intensity(interpolatedLevel(ChunkLightBuffer.BLUE, worldX, worldY, offsetX, offsetY))
+        lightMap.r[lightMapIndex] = r
+        lightMap.g[lightMapIndex] = g
+        lightMap.b[lightMapIndex] = b
+        lightMap.i[lightMapIndex] = maxOf(r, g, b)
+      }
+    }
+    lightMap.applyToneMapping(Settings.lightToneMapping)
+    val averageBrightness = lightMap.averageBrightness()
+    if (averageBrightness == BlockLight.COMPLETE_DARKNESS) {
+      if (buffer.isLit(localX, localY)) {
+        buffer.setNoLight(localX, localY)
+        dispatchLightChangeEvent(chunk, worldX, worldY)
+      }
+    } else {
+      buffer.setLight(localX, localY, lightMap, averageBrightness)
+      dispatchLightChangeEvent(chunk, worldX, worldY)
+    }
+  }
+
+  /**
+   * Bilinear interpolation of the level of a sub-cell, weighted by the distance from the center of the sub-cell to the center of the
+   * block and the neighbors in the direction of the sub-cell
+   */
+  private fun interpolatedLevel(channel: Int, worldX: WorldCoord, worldY: WorldCoord, offsetX: Int, offsetY: Int): Float {
+    val self = levelAt(channel, worldX, worldY, -1)
+    val horizontal = levelAt(channel, worldX + offsetX, worldY, self)
+    val vertical = levelAt(channel, worldX, worldY + offsetY, self)
+    val diagonal = levelAt(channel, worldX + offsetX, worldY + offsetY, self)
+    return (self * NEAR_WEIGHT * NEAR_WEIGHT + (horizontal + vertical) * NEAR_WEIGHT * FAR_WEIGHT + diagonal * FAR_WEIGHT * FAR_WEIGHT)
+  }
+
+  private fun levelAt(channel: Int, worldX: WorldCoord, worldY: WorldCoord, fallback: Int): Int {
+    val chunk = chunkAt(worldX, worldY) ?: return fallback
+    return chunk.lightBuffer.level(channel, worldX.chunkOffset(), worldY.chunkOffset())
+  }
+
+  private fun intensity(level: Float): Float {
+    if (level <= 0f) {
+      return BlockLight.COMPLETE_DARKNESS
+    }
+    val distance = (MAX_LEVEL - level).toDouble() / ORTHOGONAL_COST
+    return (BlockLight.intensityAt(distance * distance) * Settings.lightIntensityMultiplier).toFloat()
+  }
+
+  private fun emission(chunk: Chunk, channel: Int, worldX: WorldCoord, worldY: WorldCoord): Int {
+    if (isSkylight(chunk, worldX, worldY)) {
+      return MAX_LEVEL
+    }
+    val color = chunk.getRawMaterial(worldX.chunkOffset(), worldY.chunkOffset()).lightColor ?: return 0
+    val tint = when (channel) {
+      ChunkLightBuffer.RED -> color.r
+      ChunkLightBuffer.GREEN -> color.g
+      else -> color.b
+    }
+    return (tint * MAX_LEVEL).toInt()
+  }
+
+  private fun opacityCost(material: Material): Int = if (Settings.lightOcclusion) (material.lightOpacity * OPACITY_COST).toInt() else 0
+
+  private fun isSkylight(chunk: Chunk, worldX: WorldCoord, worldY: WorldCoord): Boolean =
+    chunk.chunkColumn.isBlockAboveTopBlock(worldX.chunkOffset(), worldY, ChunkColumn.Companion.FeatureFlag.BLOCKS_LIGHT_FLAG)
+
+  private fun setLevel(chunk: Chunk, channel: Int, worldX: WorldCoord, worldY: WorldCoord, level: Int) {
+    chunk.lightBuffer.setLevel(channel, worldX.chunkOffset(), worldY.chunkOffset(), level)
+    changed.add(compactInt(worldX, worldY))
+  }
+
+  private fun chunkAt(worldX: WorldCoord, worldY: WorldCoord): Chunk? {
+    val chunkX = worldX.worldToChunk()
+    val chunkY = worldY.worldToChunk()
+    val cached = cachedChunk
+    if (cached != null && cached.chunkX == chunkX && cached.chunkY == chunkY && cached.isNotDisposed) {
+      return cached
+    }
+    return world.getChunk(compactInt(chunkX, chunkY), load = false)?.takeIf { it.isValid }?.also { cachedChunk = it }
+  }
+
+  private fun dispatchLightChangeEvent(chunk: Chunk, worldX: WorldCoord, worldY: WorldCoord) {
+    // Note: Currently we only use this event for debugging
+    if (Settings.renderBlockLightUpdates) {
+      EventManager.dispatchEventAsync(BlockLightChangedEvent(chunk, worldX.chunkOffset(), worldY.chunkOffset()))
+    }
+  }
+
+  companion object {
+    /**
+     * Cost of moving the light to an orthogonal neighbor
+     */
+    const val ORTHOGONAL_COST = 10
+
+    /**
+     * Cost of moving the light to a diagonal neighbor, approximately `sqrt(2)` times the orthogonal cost
+     */
+    const val DIAGONAL_COST = 14
+
+    /**
+     * Cost of leaving a fully opaque block. A block with an opacity of `0.25` costs as much as moving one extra block
+     */
+    const val OPACITY_COST = ORTHOGONAL_COST * 4
+
+    /**
+     * The level of a light source, light travels at most [World.LIGHT_SOURCE_LOOK_BLOCKS] blocks
+     */
+    const val MAX_LEVEL = World.LIGHT_SOURCE_LOOK_BLOCKS * ORTHOGONAL_COST
+
+    private const val NEAR_WEIGHT = 0.75f
+    private const val FAR_WEIGHT = 1f - NEAR_WEIGHT
+
+    private const val NEIGHBORS = 8
+    private val NEIGHBOR_DX = intArrayOf(-1, -1, -1, 0, 0, 1, 1, 1)
+    private val NEIGHBOR_DY = intArrayOf(-1, 0, 1, -1, 1, -1, 0, 1)
+  }
+}
@@ -1,10 +1,13 @@
 package no.elg.infiniteBootleg.core.world.blocks
 
 import com.badlogic.gdx.graphics.Color
+import no.elg.infiniteBootleg.core.Settings
 import no.elg.infiniteBootleg.core.world.blocks.BlockLight.Companion.COMPLETE_DARKNESS
-import no.elg.infiniteBootleg.core.world.blocks.BlockLight.Companion.FULL_BRIGHTNESS
 import no.elg.infiniteBootleg.core.world.blocks.BlockLight.Companion.LIGHT_RESOLUTION_SQUARE
 
+/**
+ * Scratch space used while calculating the light of a block, the result is stored in a [no.elg.infiniteBootleg.core.world.chunks.ChunkLightBuffer]
+ */
 data class LightMap(
   /** red channel */
   val r: BrightnessArray = fullyDark(),
@@ -16,7 +19,22 @@ data class LightMap(
   val i: BrightnessArray = fullyDark()
 ) {
 
-  fun averageBrightness() = maxOf(r.sum() / LIGHT_RESOLUTION_SQUARE, g.sum() / LIGHT_RESOLUTION_SQUARE, b.sum() / LIGHT_RESOLUTION_SQUARE).coerceIn(0f, 1f)
+  /**
+   * Scratch space for the intensity of a single light source, see [addColor]
+   */
+  internal val sourceIntensities: BrightnessArray = fullyDark()
+
+  fun averageBrightness(): Brightness = LightMapKernels.selected.averageBrightness(this)
+
+  /**
+   * Reset all channels to [COMPLETE_DARKNESS]
+   */
+  fun clear() {
+    r.fill(COMPLETE_DARKNESS)
+    g.fill(COMPLETE_DARKNESS)
+    b.fill(COMPLETE_DARKNESS)
+    i.fill(COMPLETE_DARKNESS)
+  }
 
   fun updateColor(lightMapIndex: Int, intensity: Float, tint: Color) {
     val rIntensity = intensity * tint.r
@@ -29,6 +47,15 @@ data class LightMap(
     b[lightMapIndex] += bIntensity
   }
 
+  /**
+   * Add the light of a source to every sub-cell
+   *
+   * @param intensities The untinted intensity of each sub-cell
+   */
+  fun addColor(intensities: BrightnessArray, tint: Color) {
+    LightMapKernels.selected.accumulate(this, intensities, tint)
+  }
+
   inline fun reinhard(inp: Float, lumen: Float = 1f): Float = inp / (lumen + inp)
   fun lerp(a: Float, b: Float, t: Float): Float = a + t * (b - a)
 
@@ -40,42 +67,23 @@ data class LightMap(
   fun luminance(rHDR: Float, gHDR: Float, bHDR: Float) = rHDR * 0.2126f + gHDR * 0.7152f + bHDR * 0.0722f
 
   fun calculateReinhardToneMapping() {
-    for (lightMapIndex in 0 until LIGHT_RESOLUTION_SQUARE) {
-      val rHDR = r[lightMapIndex]
-      val gHDR = g[lightMapIndex]
-      val bHDR = b[lightMapIndex]
-
-      r[lightMapIndex] = reinhard(rHDR)
-      g[lightMapIndex] = reinhard(gHDR)
-      b[lightMapIndex] = reinhard(bHDR)
-    }
+    LightMapKernels.selected.reinhard(this)
   }
 
   fun calculateReinhardJodieToneMapping() {
-    for (lightMapIndex in 0 until LIGHT_RESOLUTION_SQUARE) {
-      val rHDR = r[lightMapIndex]
-      val gHDR = g[lightMapIndex]
-      val bHDR = b[lightMapIndex]
-
-      val l = i[lightMapIndex]
-
-      r[lightMapIndex] = reinhardJodie(rHDR, l)
-      g[lightMapIndex] = reinhardJodie(gHDR, l)
-      b[lightMapIndex] = reinhardJodie(bHDR, l)
-    }
+    LightMapKernels.selected.reinhardJodie(this)
   }
 
   fun calculateReinhardJodieToneMappingLuminanceByColor() {
-    for (lightMapIndex in 0 until LIGHT_RESOLUTION_SQUARE) {
-      val rHDR = r[lightMapIndex]
-      val gHDR = g[lightMapIndex]
-      val bHDR = b[lightMapIndex]
-
-      val l = luminance(rHDR, gHDR, bHDR)
+    LightMapKernels.selected.reinhardJodieLuminanceByColor(this)
+  }
 
-      r[lightMapIndex] = reinhardJodie(rHDR, l)
-      g[lightMapIndex] = reinhardJodie(gHDR, l)
-      b[lightMapIndex] = reinhardJodie(bHDR, l)
+  fun applyToneMapping(toneMapping: Settings.LightToneMapping) {
+    when (toneMapping) {
+      Settings.LightToneMapping.REINHARD -> calculateReinhardToneMapping()
+      Settings.LightToneMapping.REINHARD_JODIE_LUMINANCE_BY_INTENSITY -> calculateReinhardJodieToneMapping()
+      Settings.LightToneMapping.REINHARD_JODIE_LUMINANCE_BY_COLOR -> calculateReinhardJodieToneMappingLuminanceByColor()
+      Settings.LightToneMapping.CLAMP -> Unit
     }
   }
 
@@ -110,9 +118,5 @@ data class LightMap(
     typealias BrightnessArray = FloatArray
 
     fun fullyDark() = BrightnessArray(LIGHT_RESOLUTION_SQUARE) { COMPLETE_DARKNESS }
-    fun fullyBright() = BrightnessArray(LIGHT_RESOLUTION_SQUARE) { FULL_BRIGHTNESS }
-
-    val SKYLIGHT_LIGHT_MAP: LightMap = LightMap(fullyBright(), fullyBright(), fullyBright(), fullyBright())
-    val NO_LIGHTS_LIGHT_MAP: LightMap = LightMap()
   }
 }
@@ -0,0 +1,125 @@
+package no.elg.infiniteBootleg.core.world.blocks
+
+import com.badlogic.gdx.graphics.Color
+import io.github.oshai.kotlinlogging.KotlinLogging
+import no.elg.infiniteBootleg.core.Settings
+import no.elg.infiniteBootleg.core.world.blocks.BlockLight.Companion.LIGHT_RESOLUTION_SQUARE
+import no.elg.infiniteBootleg.core.world.blocks.LightMap.Companion.Brightness
+import no.elg.infiniteBootleg.core.world.blocks.LightMap.Companion.BrightnessArray
+
+private val logger = KotlinLogging.logger {}
+
+/**
+ * The math done on every sub-cell of a [LightMap]. There is a scalar implementation which always works, and one using the JDK Vector API
+ * which is used when the `jdk.incubator.vector` module is available (i.e., the game is started with `--add-modules jdk.incubator.vector`)
+ */
+internal interface LightMapKernels {
+
+  /**
+   * Add the light of a source to every sub-cell
+   *
+   * @param intensities The untinted intensity of each sub-cell
+   */
+  fun accumulate(lightMap: LightMap, intensities: BrightnessArray, tint: Color)
+
+  fun averageBrightness(lightMap: LightMap): Brightness
+
+  fun reinhard(lightMap: LightMap)
+
+  /**
+   * Reinhard-Jodie tone mapping using the intensity channel as the luminance
+   */
+  fun reinhardJodie(lightMap: LightMap)
+
+  /**
+   * Reinhard-Jodie tone mapping using the luminance of the color
+   */
+  fun reinhardJodieLuminanceByColor(lightMap: LightMap)
+
+  companion object {
+
+    /**
+     * The Vector API implementation, or `null` if it is not available on this JVM
+     */
+    val vector: LightMapKernels? by lazy {
+      if (ModuleLayer.boot().findModule(VECTOR_MODULE).isEmpty) {
+        return@lazy null
+      }
+      try {
+        VectorLightMapKernels.takeIf { it.isSupported }
+      } catch (e: LinkageError) {
+        logger.warn(e) { "Failed to load the Vector API" }
+        null
+      }
+    }
+
+    /**
+     * The implementation used by [LightMap], chosen the first time it is used
+     */
+    val selected: LightMapKernels by lazy {
+      val vector = if (Settings.vectorizedLight) vector else null
+      if (vector != null) {
+        logger.info { "Using the Vector API to calculate light" }
+        vector
+      } else {
+        logger.debug { "Using scalar math to calculate light" }
+        ScalarLightMapKernels
+      }
+    }
+
+    private const val VECTOR_MODULE = "jdk.incubator.vector"
+  }
+}
+
+internal object ScalarLightMapKernels : LightMapKernels {
+
+  override fun accumulate(lightMap: LightMap, intensities: BrightnessArray, tint: Color) {
+    for (lightMapIndex in 0 until LIGHT_RESOLUTION_SQUARE) {
+      lightMap.updateColor(lightMapIndex, intensities[lightMapIndex], tint)
+    }
+  }
+
+  override fun averageBrightness(lightMap: LightMap): Brightness =
+    maxOf(
+      lightMap.r.sum() / LIGHT_RESOLUTION_SQUARE,
+      lightMap.g.sum() / LIGHT_RESOLUTION_SQUARE,
+      lightMap.b.sum() / LIGHT_RESOLUTION_SQUARE
+    ).coerceIn(0f, 1f)
+
+  override fun reinhard(lightMap: LightMap) {
+    with(lightMap) {
+      for (lightMapIndex in 0 until LIGHT_RESOLUTION_SQUARE) {
+        r[lightMapIndex] = reinhard(r[lightMapIndex])
+        g[lightMapIndex] = reinhard(g[lightMapIndex])
+        b[lightMapIndex] = reinhard(b[lightMapIndex])
+      }
+    }
+  }
+
+  override fun reinhardJodie(lightMap: LightMap) {
+    with(lightMap) {
+      for (lightMapIndex in 0 until LIGHT_RESOLUTION_SQUARE) {
+        val l = i[lightMapIndex]
+        r[lightMapIndex] = reinhardJodie(r[lightMapIndex], l)
+        g[lightMapIndex] = reinhardJodie(g[lightMapIndex], l)
+        b[lightMapIndex] = reinhardJodie(b[lightMapIndex], l)
+      }
+    }
+  }
+
+  override fun reinhardJodieLuminanceByColor(lightMap: LightMap) {
+    with(lightMap) {
+      for (lightMapIndex in 0 until LIGHT_RESOLUTION_SQUARE) {
+        val rHDR = r[lightMapIndex]
+        val gHDR = g[lightMapIndex]
+        val bHDR = b[lightMapIndex]
+
+        val l = luminance(rHDR, gHDR, bHDR)
+
+        r[lightMapIndex] = reinhardJodie(rHDR, l)
+        g[lightMapIndex] = reinhardJodie(gHDR, l)
+        b[lightMapIndex] = reinhardJodie(bHDR, l)
+      }
+    }
+  }
+}
@@ -0,0 +1,167 @@
+package no.elg.infiniteBootleg.core.world.blocks
+
+import no.elg.infiniteBootleg.core.util.WorldCoord
+import no.elg.infiniteBootleg.core.util.chunkOffset
+import no.elg.infiniteBootleg.core.util.compactInt
+import no.elg.infiniteBootleg.core.util.worldToChunk
+import no.elg.infiniteBootleg.core.world.blocks.BlockLight.Companion.LIGHT_RESOLUTION
+import no.elg.infiniteBootleg.core.world.blocks.BlockLight.Companion.LIGHT_RESOLUTION_SQUARE
+import no.elg.infiniteBootleg.core.world.blocks.BlockLight.Companion.centerOfSubcell
+import no.elg.infiniteBootleg.core.world.blocks.BlockLight.Companion.lightMapIndex
+import no.elg.infiniteBootleg.core.world.chunks.Chunk
+import no.elg.infiniteBootleg.core.world.world.World
+
+/**
+ * The blocks every light ray passes through, precomputed for every offset between a light source and a sub-cell.
+ *
+ * As the ray only depends on the offset between the source and the destination block, the walk done by [BlockLight.walkRay] is done once
+ * per offset. The blocks are stored as indices into an opacity snapshot of the blocks around the destination, see [snapshotOpacity], so
+ * calculating the attenuation of a ray does not need to look up any chunk.
+ */
+internal object RayOcclusionTable {
+
+  /**
+   * Largest offset, in blocks, between a light source and a lit block. Matches how far [BlockLight] looks for light sources
+   */
+  const val RADIUS = World.LIGHT_SOURCE_LOOK_BLOCKS_WITH_EXTRA
+
+  /**
+   * Width (and height) of an opacity snapshot
+   */
+  const val WIDTH = RADIUS * 2 + 1
+
+  /**
+   * Largest offset, in blocks, between a light source and any block a ray from it passes through
+   */
+  const val SOURCE_RADIUS = RADIUS * 2
+
+  /**
+   * Width (and height) of an opacity snapshot around a light source
+   */
+  const val SOURCE_WIDTH = SOURCE_RADIUS * 2 + 1
+
+  private const val OFFSETS = WIDTH * WIDTH * LIGHT_RESOLUTION_SQUARE
+
+  /**
+   * Where the steps of each ray starts in [steps], the ray ends where the next ray starts
+   */
+  private val rayStart = IntArray(OFFSETS + 1)
+
+  /**
+   * The snapshot index of every step of every ray
+   */
+  private val steps: ShortArray
+
+  private val opacityNormalizers = FloatArray(OFFSETS)
+
+  init {
+    var stepList = ShortArray(OFFSETS * RADIUS)
+    var size = 0
+    for (offsetX in -RADIUS..RADIUS) {
+      for (offsetY in -RADIUS..RADIUS) {
+        for (dx in 0 until LIGHT_RESOLUTION) {
+          for (dy in 0 until LIGHT_RESOLUTION) {
+            val ray = rayIndex(offsetX, offsetY, lightMapIndex(dx, dy))
+            rayStart[ray] = size
+            // The source is always in the center of its block, placed at origin
+            val dstX = offsetX + centerOfSubcell(dx)
+            val dstY = offsetY + centerOfSubcell(dy)
+            opacityNormalizers[ray] = BlockLight.opacityNormalizer(dstX - 0.5, dstY - 0.5)
+            BlockLight.walkRay(0.5, 0.5, dstX, dstY) { blockX, blockY ->
+              if (size == stepList.size) {
+                stepList = stepList.copyOf(size * 2)
+              }
+              stepList[size++] = snapshotIndex(blockX - offsetX, blockY - offsetY).toShort()
+              true
+            }
+          }
+        }
+      }
+    }
+    rayStart[OFFSETS] = size
+    steps = stepList.copyOf(size)
+  }
+
+  /**
+   * @param offsetX The x offset from the light source to the destination block
+   * @param offsetY The y offset from the light source to the destination block
+   * @param lightMapIndex The sub-cell of the destination block
+   * @param opacities Snapshot of the opacity around the destination block, as given by [snapshotOpacity]
+   * @return attenuation in [0.0, 1.0] where 1.0 = no occlusion, 0.0 = fully blocked. [Float.NaN] if the offset is outside the table
+   */
+  fun attenuation(offsetX: Int, offsetY: Int, lightMapIndex: Int, opacities: FloatArray): Float {
+    if (offsetX !in -RADIUS..RADIUS || offsetY !in -RADIUS..RADIUS) {
+      return Float.NaN
+    }
+    val ray = rayIndex(offsetX, offsetY, lightMapIndex)
+    val opacityNormalizer = opacityNormalizers[ray]
+    var attenuation = 1.0f
+    for (step in rayStart[ray] until rayStart[ray + 1]) {
+      attenuation *= (1.0f - opacities[steps[step].toInt()] * opacityNormalizer)
+      if (attenuation <= 0f) return 0f
+    }
+    return attenuation
+  }
+
+  /**
+   * Same as [attenuation], but for rays from the center of the snapshot.
+   *
+   * @param sourceOpacities Snapshot of the opacity around the light source, as given by [snapshotSourceOpacity]
+   */
+  fun attenuationFromSource(offsetX: Int, offsetY: Int, lightMapIndex: Int, sourceOpacities: FloatArray): Float {
+    if (offsetX !in -RADIUS..RADIUS || offsetY !in -RADIUS..RADIUS) {
+      return Float.NaN
+    }
+    val ray = rayIndex(offsetX, offsetY, lightMapIndex)
+    val opacityNormalizer = opacityNormalizers[ray]
+    var attenuation = 1.0f
+    for (step in rayStart[ray] until rayStart[ray + 1]) {
+      // Move the step from being relative to the destination to being relative to the source
+      val index = steps[step].toInt()
+      val relX = index / WIDTH - RADIUS + offsetX
+      val relY = index % WIDTH - RADIUS + offsetY
+      attenuation *= (1.0f - sourceOpacities[(relX + SOURCE_RADIUS) * SOURCE_WIDTH + (relY + SOURCE_RADIUS)] * opacityNormalizer)
+      if (attenuation <= 0f) return 0f
+    }
+    return attenuation
+  }
+
+  /**
+   * Copy the [no.elg.infiniteBootleg.core.world.Material.lightOpacity] of all the blocks within [RADIUS] of the given block.
+   * Blocks in chunks which are not loaded are treated as air
+   */
+  fun snapshotOpacity(world: World, worldX: WorldCoord, worldY: WorldCoord): FloatArray = snapshot(world, worldX, worldY, RADIUS)
+
+  /**
+   * Copy the [no.elg.infiniteBootleg.core.world.Material.lightOpacity] of all the blocks any ray from the given light source passes through.
+   * Blocks in chunks which are not loaded are treated as air
+   */
+  fun snapshotSourceOpacity(world: World, worldX: WorldCoord, worldY: WorldCoord): FloatArray = snapshot(world, worldX, worldY, SOURCE_RADIUS)
+
+  private fun snapshot(world: World, worldX: WorldCoord, worldY: WorldCoord, radius: Int): FloatArray {
+    val width = radius * 2 + 1
+    val opacities = FloatArray(width * width)
+    var chunk: Chunk? = null
+    var chunkLoc = Long.MIN_VALUE
+    for (relX in -radius..radius) {
+      val blockX = worldX + relX
+      for (relY in -radius..radius) {
+        val blockY = worldY + relY
+        val loc = compactInt(blockX.worldToChunk(), blockY.worldToChunk())
+        if (loc != chunkLoc) {
+          chunkLoc = loc
+          chunk = world.getChunk(loc, load = false)
+        }
+        val material = chunk?.getRawMaterial(blockX.chunkOffset(), blockY.chunkOffset()) ?: continue
+        opacities[(relX + radius) * width + (relY + radius)] = material.lightOpacity
+      }
+    }
+    return opacities
+  }
+
+  @Suppress("NOTHING_TO_INLINE")
+  private inline fun snapshotIndex(relX: Int, relY: Int): Int = (relX + RADIUS) * WIDTH + (relY + RADIUS)
+
+  @Suppress("NOTHING_TO_INLINE")
+  private inline fun rayIndex(offsetX: Int, offsetY: Int, lightMapIndex: Int): Int = snapshotIndex(offsetX, offsetY) * LIGHT_RESOLUTION_SQUARE + lightMapIndex
+}
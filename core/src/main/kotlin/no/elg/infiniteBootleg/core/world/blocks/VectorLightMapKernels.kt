@@ -0,0 +1,109 @@
+package no.elg.infiniteBootleg.core.world.blocks
+
+import com.badlogic.gdx.graphics.Color
+import jdk.incubator.vector.FloatVector
+import jdk.incubator.vector.VectorOperators
+import jdk.incubator.vector.VectorSpecies
+import no.elg.infiniteBootleg.core.world.blocks.BlockLight.Companion.LIGHT_RESOLUTION_SQUARE
+import no.elg.infiniteBootleg.core.world.blocks.LightMap.Companion.Brightness
+import no.elg.infiniteBootleg.core.world.blocks.LightMap.Companion.BrightnessArray
+
+/**
+ * [LightMapKernels] using the JDK Vector API. The sub-cells of a channel fit in a single 128-bit vector, so each kernel is a handful of
+ * vector operations per channel instead of a loop.
+ *
+ * Must only be accessed when the `jdk.incubator.vector` module is available, see [LightMapKernels.vector]
+ */
+internal object VectorLightMapKernels : LightMapKernels {
+
+  private val SPECIES: VectorSpecies<Float> = FloatVector.SPECIES_128
+  private val LANES = SPECIES.length()
+
+  /**
+   * Whether the channels can be split evenly into vectors and the hardware has vectors large enough to not fall back to (slow) Java code
+   */
+  val isSupported: Boolean = LIGHT_RESOLUTION_SQUARE % LANES == 0 && FloatVector.SPECIES_PREFERRED.vectorBitSize() >= SPECIES.vectorBitSize()
+
+  private const val R_LUMINANCE = 0.2126f
+  private const val G_LUMINANCE = 0.7152f
+  private const val B_LUMINANCE = 0.0722f
+
+  override fun accumulate(lightMap: LightMap, intensities: BrightnessArray, tint: Color) {
+    var index = 0
+    while (index < LIGHT_RESOLUTION_SQUARE) {
+      val intensity = FloatVector.fromArray(SPECIES, intensities, index)
+      intensity.add(FloatVector.fromArray(SPECIES, lightMap.i, index)).intoArray(lightMap.i, index)
+      intensity.mul(tint.r).add(FloatVector.fromArray(SPECIES, lightMap.r, index)).intoArray(lightMap.r, index)
+      intensity.mul(tint.g).add(FloatVector.fromArray(SPECIES, lightMap.g, index)).intoArray(lightMap.g, index)
+      intensity.mul(tint.b).add(FloatVector.fromArray(SPECIES, lightMap.b, index)).intoArray(lightMap.b, index)
+      index += LANES
+    }
+  }
+
+  override fun averageBrightness(lightMap: LightMap): Brightness {
+    var r = FloatVector.zero(SPECIES)
+    var g = FloatVector.zero(SPECIES)
+    var b = FloatVector.zero(SPECIES)
+    var index = 0
+    while (index < LIGHT_RESOLUTION_SQUARE) {
+      r = r.add(FloatVector.fromArray(SPECIES, lightMap.r, index))
+      g = g.add(FloatVector.fromArray(SPECIES, lightMap.g, index))
+      b = b.add(FloatVector.fromArray(SPECIES, lightMap.b, index))
+      index += LANES
+    }
+    return maxOf(
+      r.reduceLanes(VectorOperators.ADD) / LIGHT_RESOLUTION_SQUARE,
+      g.reduceLanes(VectorOperators.ADD) / LIGHT_RESOLUTION_SQUARE,
+      b.reduceLanes(VectorOperators.ADD) / LIGHT_RESOLUTION_SQUARE
+    ).coerceIn(0f, 1f)
+  }
+
+  override fun reinhard(lightMap: LightMap) {
+    var index = 0
+    while (index < LIGHT_RESOLUTION_SQUARE) {
+      reinhard(FloatVector.fromArray(SPECIES, lightMap.r, index)).intoArray(lightMap.r, index)
+      reinhard(FloatVector.fromArray(SPECIES, lightMap.g, index)).intoArray(lightMap.g, index)
+      reinhard(FloatVector.fromArray(SPECIES, lightMap.b, index)).intoArray(lightMap.b, index)
+      index += LANES
+    }
+  }
+
+  override fun reinhardJodie(lightMap: LightMap) {
+    var index = 0
+    while (index < LIGHT_RESOLUTION_SQUARE) {
+      val onePlusL = FloatVector.fromArray(SPECIES, lightMap.i, index).add(1f)
+      reinhardJodie(FloatVector.fromArray(SPECIES, lightMap.r, index), onePlusL).intoArray(lightMap.r, index)
+      reinhardJodie(FloatVector.fromArray(SPECIES, lightMap.g, index), onePlusL).intoArray(lightMap.g, index)
+      reinhardJodie(FloatVector.fromArray(SPECIES, lightMap.b, index), onePlusL).intoArray(lightMap.b, index)
+      index += LANES
+    }
+  }
+
+  override fun reinhardJodieLuminanceByColor(lightMap: LightMap) {
+    var index = 0
+    while (index < LIGHT_RESOLUTION_SQUARE) {
+      val r = FloatVector.fromArray(SPECIES, lightMap.r, index)
+      val g = FloatVector.fromArray(SPECIES, lightMap.g, index)
+      val b = FloatVector.fromArray(SPECIES, lightMap.b, index)
+      val onePlusL = r.mul(R_LUMINANCE).add(g.mul(G_LUMINANCE)).add(b.mul(B_LUMINANCE)).add(1f)
+      reinhardJodie(r, onePlusL).intoArray(lightMap.r, index)
+      reinhardJodie(g, onePlusL).intoArray(lightMap.g, index)
+      reinhardJodie(b, onePlusL).intoArray(lightMap.b, index)
+      index += LANES
+    }
+  }
+
+  /**
+   * @see LightMap.reinhard
+   */
+  private fun reinhard(v: FloatVector): FloatVector = v.div(v.add(1f))
+
+  /**
+   * @see LightMap.reinhardJodie
+   */
+  private fun reinhardJodie(v: FloatVector, onePlusL: FloatVector): FloatVector {
+    val tv = reinhard(v)
+    val scaled = v.div(onePlusL)
+    return scaled.add(tv.mul(tv.sub(scaled)))
+  }
+}
@@ -10,9 +10,11 @@ import no.elg.infiniteBootleg.core.api.Updatable
 import no.elg.infiniteBootleg.core.events.api.ThreadType
 import no.elg.infiniteBootleg.core.util.CheckableDisposable
 import no.elg.infiniteBootleg.core.util.LocalCoord
+import no.elg.infiniteBootleg.core.util.compactChunkToWorld
 import no.elg.infiniteBootleg.core.util.isLazyInitialized
 import no.elg.infiniteBootleg.core.util.isMarkerBlock
 import no.elg.infiniteBootleg.core.util.isNotAir
+import no.elg.infiniteBootleg.core.world.Material
 import no.elg.infiniteBootleg.core.world.blocks.Block
 import no.elg.infiniteBootleg.core.world.blocks.Block.Companion.compactWorldLoc
 import no.elg.infiniteBootleg.core.world.box2d.extensions.createPolygonShape
@@ -21,6 +23,7 @@ import no.elg.infiniteBootleg.core.world.box2d.extensions.makeB2Vec2
 import no.elg.infiniteBootleg.core.world.box2d.extensions.userData
 import no.elg.infiniteBootleg.core.world.chunks.Chunk
 import no.elg.infiniteBootleg.core.world.chunks.Chunk.Companion.CHUNK_SIZE_F
+import no.elg.infiniteBootleg.core.world.chunks.storage.ChunkBlockStorage
 import no.elg.infiniteBootleg.core.world.ecs.components.PhysicsEventQueueComponent.Companion.queuePhysicsEvent
 import no.elg.infiniteBootleg.core.world.ecs.components.events.PhysicsEvent
 import no.elg.infiniteBootleg.core.world.world.World
@@ -45,11 +48,11 @@ class ChunkBody(val chunk: Chunk) :
   @Suppress("NOTHING_TO_INLINE")
   private inline fun shapeIndex(localX: LocalCoord, localY: LocalCoord): Int = localX + localY * Chunk.CHUNK_SIZE
 
-  private fun updateShape(block: Block, shapeId: b2ShapeId?) {
-    val shapeIndex = shapeIndex(block.localX, block.localY)
+  private fun updateShape(localX: LocalCoord, localY: LocalCoord, shapeId: b2ShapeId?) {
+    val shapeIndex = shapeIndex(localX, localY)
     val old = chunkShapes[shapeIndex]
     if (shapeId == null) {
-      block.world.engine.queuePhysicsEvent(PhysicsEvent.BlockRemovedEvent(old, block.compactWorldLoc))
+      chunk.world.engine.queuePhysicsEvent(PhysicsEvent.BlockRemovedEvent(old, compactChunkToWorld(chunk, localX, localY)))
     } else {
       // when needed:
 //      chunk.world.engine.queuePhysicsEvent(PhysicsEvent.BlockChangedEvent(fixture, material))
@@ -135,7 +138,6 @@ class ChunkBody(val chunk: Chunk) :
    * @see WorldBody.postBox2dRunnable
    */
   private fun onBodyCreated(tmpBody: b2BodyId) {
-    val blocks = chunk.asSequence().filterNotNull().filter(Block::isNotAir)
     tmpBody.userData = this
 
     // if this got disposed while creating the new chunk fixture, this is the easiest cleanup solution
@@ -145,21 +147,48 @@ class ChunkBody(val chunk: Chunk) :
       chunk.world.worldBody.destroyBody(tmpBody)
     } else {
       box2dBody = tmpBody
-      addBlocks(blocks, tmpBody) // must be done after setting the box2dBody as setting it will clear the references
+      addAllBlocksNow(tmpBody) // must be done after setting the box2dBody as setting it will clear the references
     }
   }
 
   fun removeBlock(block: Block) {
     require(block.chunk.chunkBody === this) { "Block $block does not belong to this chunk body, $this. it belongs to chunk ${block.chunk.chunkBody}" }
     ThreadType.PHYSICS.launchOrRun(chunk.world) {
-      updateShape(block, null)
+      updateShape(block.localX, block.localY, null)
+    }
+  }
+
+  /**
+   * Add a shape for every block of the chunk. The materials are read directly, so no block instance is created for blocks which only have a material
+   */
+  private fun addAllBlocksNow(bodyId: b2BodyId) {
+    for (localX in 0 until Chunk.CHUNK_SIZE) {
+      for (localY in 0 until Chunk.CHUNK_SIZE) {
+        val block = chunk.getBlockInstance(localX, localY)
+        if (block != null) {
+          if (block.isNotAir()) {
+            addBlockNow(block, bodyId)
+          }
+        } else {
+          val material = chunk.getRawMaterial(localX, localY)
+          if (material !== Material.Air) {
+            addShapeNow(localX, localY, material, isMarker = false, compactChunkToWorld(chunk, localX, localY), bodyId)
+          }
+        }
+      }
     }
   }
 
   private fun addBlockNow(block: Block, bodyId: b2BodyId) {
+    // Blocks which are not kept by the chunk are only referenced by their location, see PhysicsEvent.blockLocA
+    val userData: Any = if (ChunkBlockStorage.isStateful(block)) block else block.compactWorldLoc
+    addShapeNow(block.localX, block.localY, block.material, block.isMarkerBlock(), userData, bodyId)
+  }
+
+  private fun addShapeNow(localX: LocalCoord, localY: LocalCoord, material: Material, isMarker: Boolean, userData: Any, bodyId: b2BodyId) {
     val filter = when {
-      block.isMarkerBlock() -> Filters.NON_INTERACTIVE__GROUND_FILTER
-      block.material.isCollidable -> Filters.GR_FB_EN_BE__GROUND_FILTER
+      isMarker -> Filters.NON_INTERACTIVE__GROUND_FILTER
+      material.isCollidable -> Filters.GR_FB_EN_BE__GROUND_FILTER
       else -> Filters.GR_FB_BE__GROUND_FILTER
     }
 
@@ -167,10 +196,10 @@ class ChunkBody(val chunk: Chunk) :
       def.filter = filter
       def.enableSensorEvents(true)
     }
-    val polygon = Box2d.b2MakeOffsetBox(0.5f, 0.5f, makeB2Vec2(block.localX, block.localY), NO_ROTATION)
-    val shapeId = bodyId.createPolygonShape(shapeDef, polygon, block)
+    val polygon = Box2d.b2MakeOffsetBox(0.5f, 0.5f, makeB2Vec2(localX, localY), NO_ROTATION)
+    val shapeId = bodyId.createPolygonShape(shapeDef, polygon, userData)
 
-    updateShape(block, shapeId)
+    updateShape(localX, localY, shapeId)
   }
 
   fun addBlocks(blocks: Sequence<Block>, box2dBody: b2BodyId? = null) =
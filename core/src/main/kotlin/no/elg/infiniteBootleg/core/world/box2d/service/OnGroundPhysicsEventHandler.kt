@@ -1,7 +1,6 @@
 package no.elg.infiniteBootleg.core.world.box2d.service
 
 import com.badlogic.ashley.core.Entity
-import no.elg.infiniteBootleg.core.world.blocks.Block.Companion.compactWorldLoc
 import no.elg.infiniteBootleg.core.world.box2d.LongContactTracker
 import no.elg.infiniteBootleg.core.world.ecs.components.GroundedComponent.Companion.groundedComponentOrNull
 import no.elg.infiniteBootleg.core.world.ecs.components.events.PhysicsEvent
@@ -12,8 +11,7 @@ object OnGroundPhysicsEventHandler : PhysicsEventSystem.PhysicsEventHandler {
 
   private fun handleTouchEvent(entity: Entity, event: PhysicsEvent, contacts: LongContactTracker, handle: LongContactTracker.(loc: Long) -> Unit) {
     if (contacts.filter(event.getThisUserDataForShape(entity))) {
-      val otherEntity = event.getOtherEventBlock(entity) ?: return
-      val loc = otherEntity.compactWorldLoc
+      val loc = event.getOtherEventBlockLoc(entity) ?: return
       contacts.handle(loc)
     }
   }
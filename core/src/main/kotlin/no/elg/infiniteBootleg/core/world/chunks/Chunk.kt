@@ -18,6 +18,7 @@ import no.elg.infiniteBootleg.core.world.world.World
 import no.elg.infiniteBootleg.protobuf.ProtoWorld
 import org.jetbrains.annotations.Contract
 import java.util.concurrent.CompletableFuture
+import java.util.concurrent.Executor
 import kotlin.contracts.contract
 import kotlin.math.ln
 
@@ -147,10 +148,34 @@ interface Chunk :
   /** Update the light of the chunk  */
   fun updateAllBlockLights()
 
+  /**
+   * The light of every block in this chunk
+   */
+  val lightBuffer: ChunkLightBuffer
+
+  /**
+   * @return A view of the light at the given location
+   */
   fun getBlockLight(localX: LocalCoord, localY: LocalCoord): BlockLight
 
   fun getRawBlock(localX: LocalCoord, localY: LocalCoord): Block?
 
+  /**
+   * Blocks without any state other than their material are not kept by the chunk, use this together with [getRawMaterial] when visiting every block
+   *
+   * @return The block instance kept by the chunk at the given location (i.e., blocks with an entity), or `null` if the location only has a material
+   */
+  fun getBlockInstance(localX: LocalCoord, localY: LocalCoord): Block?
+
+  /**
+   * Faster than `getRawBlock(localX, localY).materialOrAir()` as no block instance will be created
+   *
+   * @param localX The local x ie a value between 0 and [CHUNK_SIZE]
+   * @param localY The local y ie a value between 0 and [CHUNK_SIZE]
+   * @return The material at the given location
+   */
+  fun getRawMaterial(localX: LocalCoord, localY: LocalCoord): Material
+
   /**
    * @param localX The local x ie a value between 0 and [Chunk.CHUNK_SIZE]
    * @param localY The local y ie a value between 0 and [Chunk.CHUNK_SIZE]
@@ -195,7 +220,12 @@ interface Chunk :
 
   fun load(protoChunk: ProtoWorld.Chunk): Boolean
 
-  fun save(): CompletableFuture<ProtoWorld.Chunk>
+  /**
+   * Save the chunk, the blocks are copied on the calling thread and the entities on the physics thread
+   *
+   * @param executor Where the chunk is serialized, by default the shared background dispatcher
+   */
+  fun save(executor: Executor? = null): CompletableFuture<ProtoWorld.Chunk>
 
   fun saveBlocksOnly(): ProtoWorld.Chunk
 
@@ -3,19 +3,18 @@ package no.elg.infiniteBootleg.core.world.chunks
 import com.badlogic.ashley.core.Entity
 import com.badlogic.gdx.box2d.structs.b2BodyId
 import io.github.oshai.kotlinlogging.KotlinLogging
-import kotlinx.coroutines.Job
-import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.currentCoroutineContext
 import kotlinx.coroutines.delay
-import kotlinx.coroutines.launch
+import kotlinx.coroutines.ensureActive
 import no.elg.infiniteBootleg.core.Settings
 import no.elg.infiniteBootleg.core.events.BlockChangedEvent
 import no.elg.infiniteBootleg.core.events.api.EventManager
+import no.elg.infiniteBootleg.core.events.api.ThreadType
 import no.elg.infiniteBootleg.core.events.chunks.ChunkLightChangedEvent
 import no.elg.infiniteBootleg.core.events.chunks.ChunkUnloadedEvent
+import no.elg.infiniteBootleg.core.exceptions.CorruptChunkException
 import no.elg.infiniteBootleg.core.exceptions.checkChunkCorrupt
 import no.elg.infiniteBootleg.core.main.Main
-import no.elg.infiniteBootleg.core.net.clientBoundBlockUpdate
-import no.elg.infiniteBootleg.core.net.serverBoundBlockUpdate
 import no.elg.infiniteBootleg.core.util.ChunkCompactLoc
 import no.elg.infiniteBootleg.core.util.ChunkCoord
 import no.elg.infiniteBootleg.core.util.LocalCoord
@@ -29,6 +28,7 @@ import no.elg.infiniteBootleg.core.util.component2
 import no.elg.infiniteBootleg.core.util.dst2
 import no.elg.infiniteBootleg.core.util.isAir
 import no.elg.infiniteBootleg.core.util.isInsideChunk
+import no.elg.infiniteBootleg.core.util.isInvalid
 import no.elg.infiniteBootleg.core.util.launchOnAsyncSuspendable
 import no.elg.infiniteBootleg.core.util.launchOnMultithreadedAsyncSuspendable
 import no.elg.infiniteBootleg.core.util.singleLinePrinter
@@ -36,9 +36,13 @@ import no.elg.infiniteBootleg.core.util.stringifyChunkToWorld
 import no.elg.infiniteBootleg.core.util.stringifyCompactLoc
 import no.elg.infiniteBootleg.core.world.Material
 import no.elg.infiniteBootleg.core.world.Material.Companion.emitsLight
+import no.elg.infiniteBootleg.core.world.Material.Companion.fromProtoOrNull
 import no.elg.infiniteBootleg.core.world.blocks.Block
 import no.elg.infiniteBootleg.core.world.blocks.BlockLight
 import no.elg.infiniteBootleg.core.world.box2d.ChunkBody
+import no.elg.infiniteBootleg.core.world.chunks.storage.ChunkBlockStorage
+import no.elg.infiniteBootleg.core.world.chunks.storage.ChunkBlocksSnapshot
+import no.elg.infiniteBootleg.core.world.chunks.storage.PackedBlocksCodec
 import no.elg.infiniteBootleg.core.world.ecs.load
 import no.elg.infiniteBootleg.core.world.ecs.save
 import no.elg.infiniteBootleg.core.world.world.World
@@ -47,25 +51,32 @@ import no.elg.infiniteBootleg.protobuf.chunk
 import no.elg.infiniteBootleg.protobuf.vector2i
 import org.jetbrains.annotations.Contract
 import java.util.concurrent.CompletableFuture
-import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.Executor
+import java.util.concurrent.RejectedExecutionException
 
 private val logger = KotlinLogging.logger {}
 
 open class ChunkImpl(final override val world: World, final override val chunkX: ChunkCoord, final override val chunkY: ChunkCoord) : Chunk {
 
-  val blocks: Array<Array<Block?>> = Array(Chunk.CHUNK_SIZE) { arrayOfNulls(Chunk.CHUNK_SIZE) }
+  val blocks: ChunkBlockStorage = ChunkBlockStorage.create(this)
 
-  /**Single 1d array stored in a row major order*/
-  private val blockLights = Array(Chunk.CHUNK_SIZE * Chunk.CHUNK_SIZE) { i ->
-    BlockLight(
-      this,
-      i / Chunk.CHUNK_SIZE,
-      i % Chunk.CHUNK_SIZE
-    )
+  final override val lightBuffer: ChunkLightBuffer = ChunkLightBuffer().also { buffer ->
+    for (localX in 0 until Chunk.CHUNK_SIZE) {
+      for (localY in 0 until Chunk.CHUNK_SIZE) {
+        if (chunkColumn.isBlockAboveTopBlock(localX, chunkY.chunkToWorld(localY), ChunkColumn.Companion.FeatureFlag.BLOCKS_LIGHT_FLAG)) {
+          buffer.setSkylight(localX, localY)
+        }
+      }
+    }
   }
 
   override val chunkBody: ChunkBody = ChunkBody(this)
 
+  /**
+   * The views of [lightBuffer] handed out by [getBlockLight], created the first time each block is asked for
+   */
+  private val blockLights = arrayOfNulls<BlockLight>(ChunkBlockStorage.CELLS)
+
   /**
    * if texture/allair needs to be updated
    *
@@ -110,9 +121,6 @@ open class ChunkImpl(final override val world: World, final override val chunkX:
 
   private val chunkListeners by lazy { ChunkListeners(this) }
 
-  @Volatile
-  var recalculateLightJob: Job? = null
-
   /**
    * Force update of texture and recalculate internal variables This is usually called when the
    * dirty flag of the chunk is set and either [isAllAir] called.
@@ -136,8 +144,7 @@ open class ChunkImpl(final override val world: World, final override val chunkX:
       isAllAir = true
       outer@ for (localX in 0 until Chunk.CHUNK_SIZE) {
         for (localY in 0 until Chunk.CHUNK_SIZE) {
-          val b = blocks[localX][localY]
-          if (b != null && b.material !== Material.Air) {
+          if (blocks.getMaterial(localX, localY) !== Material.Air) {
             isAllAir = false
             break@outer
           }
@@ -218,7 +225,7 @@ open class ChunkImpl(final override val world: World, final override val chunkX:
         block?.dispose()
         return currBlock
       }
-      blocks[localX][localY] = block
+      blocks[localX, localY] = block
       currBlock
     }
     if (isRealChange) {
@@ -230,15 +237,16 @@ open class ChunkImpl(final override val world: World, final override val chunkX:
       chunkBody.replaceBlock(currBlock, block)
 
       if (initialized) {
+        world.chunkLoader.onBlockChanged(this, localX, localY, block)
         launchOnAsyncSuspendable { chunkColumn.updateTopBlock(localX, chunkY.chunkToWorld(localY)) }
 
         // Only dispatch events when there is a real change and the chunk is initialized
         EventManager.dispatchEventAsync(BlockChangedEvent(currBlock, block))
 
         if (Settings.renderLight) {
-          // Optimized to check blockLight last, ok to do it twice (it should be cached for the second lookup anyway(?))
+          // Optimized to check the light last, ok to do it twice
           fun affectedByLight(block: Block?): Boolean =
-            block != null && (block.material.emitsLight || (Settings.lightOcclusion && block.material.lightOpacity > 0f && getBlockLight(localX, localY).isLit))
+            block != null && (block.material.emitsLight || (Settings.lightOcclusion && block.material.lightOpacity > 0f && lightBuffer.isLit(localX, localY)))
 
           if (affectedByLight(block) || affectedByLight(currBlock)) {
             EventManager.dispatchEventAsync(ChunkLightChangedEvent(compactLocation, localX, localY))
@@ -246,12 +254,7 @@ open class ChunkImpl(final override val world: World, final override val chunkX:
         }
 
         if (sendUpdatePacket && Main.isMultiplayer) {
-          val worldX = chunkX.chunkToWorld(localX)
-          val worldY = chunkY.chunkToWorld(localY)
-          Main.inst().packetSender.sendDuplexPacketInView(
-            ifIsServer = { clientBoundBlockUpdate(worldX, worldY, block) to compactLocation },
-            ifIsClient = { serverBoundBlockUpdate(worldX, worldY, block) }
-          )
+          Main.inst().packetSender.sendBlockUpdate(this, localX, localY, block)
         }
       }
     }
@@ -269,18 +272,24 @@ open class ChunkImpl(final override val world: World, final override val chunkX:
     return true
   }
 
-  internal fun doUpdateLightMultipleSources(sources: WorldCompactLocArray, checkDistance: Boolean) {
+  /**
+   * Recalculate the light of the blocks close to any of the given sources, or all blocks if [checkDistance] is `false`.
+   * Called by the [LightUpdateScheduler], which makes sure a chunk is only recalculated by one worker at a time
+   */
+  internal suspend fun recalculateLight(sources: WorldCompactLocArray, checkDistance: Boolean) {
     if (Settings.renderLight && isValid && world.isLoaded) {
-      synchronized(this) {
-        // TODO synchronize on something else
-        if (!checkDistance) {
-          // Safe to cancel when doing a full update
-          // Note to self, DO NOT CANCEL when updating from sources,
-          // as it might cancel updates to blocks that will not be updated in the next update
-          recalculateLightJob?.cancel()
+      when (Settings.lightEngine) {
+        Settings.LightEngine.RAY_CAST -> doUpdateLightMultipleSources0(sources, checkDistance)
+        Settings.LightEngine.FLOOD_FILL -> if (checkDistance) {
+          world.floodFillLightEngine.invalidate(sources)
+        } else {
+          world.floodFillLightEngine.invalidate(this)
         }
-        recalculateLightJob = launchOnMultithreadedAsyncSuspendable {
-          doUpdateLightMultipleSources0(sources, checkDistance)
+
+        Settings.LightEngine.ADDITIVE -> if (checkDistance) {
+          world.additiveLightEngine.invalidate(sources)
+        } else {
+          world.additiveLightEngine.invalidate(this)
         }
       }
     }
@@ -291,36 +300,33 @@ open class ChunkImpl(final override val world: World, final override val chunkX:
    */
   protected open suspend fun doUpdateLightMultipleSources0(sources: WorldCompactLocArray, checkDistance: Boolean): Boolean {
     if (Settings.renderLight) {
-      val anyRecalculated = AtomicBoolean(false)
-      coroutineScope {
-        for (localX in 0 until Chunk.CHUNK_SIZE) {
-          for (localY in Chunk.CHUNK_SIZE - 1 downTo 0) {
-            if (checkDistance && isNoneWithinDistance(
-                sources,
-                this@ChunkImpl.chunkX.chunkToWorld(localX),
-                this@ChunkImpl.chunkY.chunkToWorld(localY)
-              )
-            ) {
-              continue
-            }
-            launch {
-              // TODO allow canceling of individual blocks
-              val recalculated = getBlockLight(localX, localY).recalculateLighting()
-              if (recalculated) {
-                anyRecalculated.compareAndSet(false, true)
-              }
-            }
+      var anyRecalculated = false
+      for (localX in 0 until Chunk.CHUNK_SIZE) {
+        // Allow a new full update to cancel this one between columns
+        currentCoroutineContext().ensureActive()
+        for (localY in Chunk.CHUNK_SIZE - 1 downTo 0) {
+          if (checkDistance && isNoneWithinDistance(sources, chunkX.chunkToWorld(localX), chunkY.chunkToWorld(localY))) {
+            continue
           }
+          anyRecalculated = getBlockLight(localX, localY).recalculateLighting() or anyRecalculated
         }
       }
-      return anyRecalculated.get()
+      return anyRecalculated
     }
     return false
   }
 
-  override fun getBlockLight(localX: LocalCoord, localY: LocalCoord): BlockLight = blockLights[blockMapIndex(localX, localY)]
+  override fun getBlockLight(localX: LocalCoord, localY: LocalCoord): BlockLight {
+    val cellIndex = ChunkBlockStorage.cellIndex(localX, localY)
+    // A view is immutable, so two threads racing to create the same view is harmless
+    return blockLights[cellIndex] ?: BlockLight(this, localX, localY).also { blockLights[cellIndex] = it }
+  }
+
+  override fun getRawBlock(localX: LocalCoord, localY: LocalCoord): Block? = blocks[localX, localY]
 
-  override fun getRawBlock(localX: LocalCoord, localY: LocalCoord): Block? = blocks[localX][localY]
+  override fun getBlockInstance(localX: LocalCoord, localY: LocalCoord): Block? = blocks.getInstance(localX, localY)
+
+  override fun getRawMaterial(localX: LocalCoord, localY: LocalCoord): Material = blocks.getMaterial(localX, localY)
 
   override val isDisposed: Boolean get() = disposed
 
@@ -403,11 +409,7 @@ open class ChunkImpl(final override val world: World, final override val chunkX:
     disposed = true
     chunkBody.dispose()
     chunkListeners.dispose()
-    for (blockArr in blocks) {
-      for (block in blockArr) {
-        block?.dispose()
-      }
-    }
+    blocks.forEachBlock(Block::dispose)
   }
 
   override fun dirty(prioritize: Boolean) {
@@ -416,7 +418,7 @@ open class ChunkImpl(final override val world: World, final override val chunkX:
   }
 
   override fun updateAllBlockLights() {
-    doUpdateLightMultipleSources(NOT_CHECKING_DISTANCE, checkDistance = false)
+    world.lightUpdateScheduler.queueAll(this)
   }
 
   /**
@@ -460,36 +462,63 @@ open class ChunkImpl(final override val world: World, final override val chunkX:
     )
   }
 
-  override fun save(): CompletableFuture<ProtoWorld.Chunk> {
+  override fun save(executor: Executor?): CompletableFuture<ProtoWorld.Chunk> {
     val future = CompletableFuture<ProtoWorld.Chunk>()
-    val protoChunkWithoutEntities = saveBlocksOnly()
-    queryAllEntities { entities ->
+    val snapshotStart = System.nanoTime()
+    // Only copy the blocks here, they are serialized on another thread so the live blocks can keep changing
+    val snapshot = takeBlocksSnapshot()
+    ChunkSaveTimings.recordStall(System.nanoTime() - snapshotStart)
+    val entities = world.chunkEntityIndex.entitiesIn(compactLocation)
+    // Entities are saved on the physics thread as that is where they are changed, but there is no need to query Box2D for them
+    ThreadType.PHYSICS.launchOrRun(world) {
+      val entitiesStart = System.nanoTime()
       val protoWorldEntities = entities.mapNotNull { entity ->
-        if (entity in world.playersEntities) {
-          // do not save players
+        if (entity.isInvalid || entity in world.playersEntities) {
+          // do not save players, nor entities removed since the save started
           null
         } else {
           entity.save(toAuthoritative = true)
         }
       }
-      val protoChunk = protoChunkWithoutEntities.toBuilder().addAllEntities(protoWorldEntities).build()
-      if (Settings.debug && Settings.logPersistence) {
-        logger.debug { singleLinePrinter.printToString(protoChunk) }
+      ChunkSaveTimings.recordStall(System.nanoTime() - entitiesStart)
+      fun encode() {
+        val encodeStart = System.nanoTime()
+        val protoChunk = saveBlocksOnly(snapshot).toBuilder().addAllEntities(protoWorldEntities).build()
+        ChunkSaveTimings.recordEncode(System.nanoTime() - encodeStart)
+        if (Settings.debug && Settings.logPersistence) {
+          logger.debug { singleLinePrinter.printToString(protoChunk) }
+        }
+        future.complete(protoChunk)
+      }
+      if (executor != null) {
+        try {
+          executor.execute(::encode)
+        } catch (e: RejectedExecutionException) {
+          future.completeExceptionally(e)
+        }
+      } else {
+        launchOnMultithreadedAsyncSuspendable { encode() }
       }
-      future.complete(protoChunk)
     }
     return future
   }
 
-  override fun saveBlocksOnly() =
+  override fun saveBlocksOnly(): ProtoWorld.Chunk = saveBlocksOnly(takeBlocksSnapshot())
+
+  /**
+   * @return A copy of the blocks, or `null` if the chunk is all air
+   */
+  private fun takeBlocksSnapshot(): ChunkBlocksSnapshot? = synchronized(blocks) { if (isAllAir) null else ChunkBlocksSnapshot.take(blocks) }
+
+  private fun saveBlocksOnly(snapshot: ChunkBlocksSnapshot?): ProtoWorld.Chunk =
     chunk {
       position = vector2i {
         x = chunkX
         y = chunkY
       }
-      if (!isAllAir) {
+      if (snapshot != null) {
         // If we're all air, we save no blocks
-        blocks += this@ChunkImpl.map { it?.save() ?: AIR_BLOCK_PROTO }
+        packedBlocks = PackedBlocksCodec.encode(snapshot)
       }
     }
 
@@ -507,7 +536,23 @@ open class ChunkImpl(final override val world: World, final override val chunkX:
       }"
     }
     // Load blocks, no blocks means all air
-    if (protoChunk.blocksCount > 0) {
+    if (protoChunk.hasPackedBlocks()) {
+      val packed = protoChunk.packedBlocks
+      val specialBlocks = packed.specialBlocksList.associateBy({ it.index }, { it.block })
+      val generated = if (packed.relative) world.chunkLoader.generator.generateMaterials(chunkX, chunkY) else null
+      checkChunkCorrupt(protoChunk, !packed.relative || generated != null) {
+        "Chunk is saved relative to the generated chunk, but ${world.chunkLoader.generator::class.simpleName} cannot regenerate it"
+      }
+      synchronized(blocks) {
+        try {
+          PackedBlocksCodec.decode(packed, generated) { index, material ->
+            loadBlock(protoChunk, PackedBlocksCodec.localX(index), PackedBlocksCodec.localY(index), material, specialBlocks[index])
+          }
+        } catch (e: IllegalArgumentException) {
+          throw CorruptChunkException("Invalid packed blocks: ${e.message}. Proto chunk: ${singleLinePrinter.printToString(protoChunk)}")
+        }
+      }
+    } else if (protoChunk.blocksCount > 0) {
       checkChunkCorrupt(protoChunk, protoChunk.blocksCount == Chunk.CHUNK_SIZE * Chunk.CHUNK_SIZE) {
         "Invalid number of blocks. Expected ${Chunk.CHUNK_SIZE * Chunk.CHUNK_SIZE}, but got ${protoChunk.blocksCount}"
       }
@@ -516,11 +561,9 @@ open class ChunkImpl(final override val world: World, final override val chunkX:
       synchronized(blocks) {
         for (localY in 0 until Chunk.CHUNK_SIZE) {
           for (localX in 0 until Chunk.CHUNK_SIZE) {
-            checkChunkCorrupt(protoChunk, blocks[localX][localY] == null) {
-              "Double assemble of ${stringifyCompactLoc(localX, localY)} in chunk ${stringifyCompactLoc(chunkPosition)}"
-            }
             val protoBlock = protoBlocks[index++]
-            blocks[localX][localY] = Block.fromProto(world, this, localX, localY, protoBlock)
+            val material = if (protoBlock.hasEntity()) null else protoBlock.material.fromProtoOrNull()
+            loadBlock(protoChunk, localX, localY, material, protoBlock)
           }
         }
       }
@@ -531,6 +574,22 @@ open class ChunkImpl(final override val world: World, final override val chunkX:
     return true
   }
 
+  /**
+   * @param material The material of the block, or `null` if it must be created from [protoBlock]
+   * @param protoBlock The full block, only required when the material alone is not enough to create the block
+   */
+  private fun loadBlock(protoChunk: ProtoWorld.Chunk, localX: LocalCoord, localY: LocalCoord, material: Material?, protoBlock: ProtoWorld.Block?) {
+    checkChunkCorrupt(protoChunk, blocks.isUnset(localX, localY)) {
+      "Double assemble of ${stringifyCompactLoc(localX, localY)} in chunk ${stringifyCompactLoc(protoChunk.position)}"
+    }
+    if (material != null && material.createNew == null && protoBlock?.hasEntity() != true) {
+      // No entity to create, no need for a block instance
+      blocks.setMaterial(localX, localY, material)
+    } else {
+      blocks[localX, localY] = Block.fromProto(world, this, localX, localY, protoBlock ?: ChunkBlockStorage.protoOf(material ?: Material.Air))
+    }
+  }
+
   override fun hashCode(): Int {
     var result = world.hashCode()
     result = 31 * result + chunkX
@@ -564,15 +623,10 @@ open class ChunkImpl(final override val world: World, final override val chunkX:
 
   companion object {
     val AIR_BLOCK_PROTO: ProtoWorld.Block = Block.save(Material.Air).build()
-    val NOT_CHECKING_DISTANCE = LongArray(0)
 
     private val EMPTY_AABB_QUERY_AFTER_ALL_CALLBACK: (Set<Entity>) -> Unit = { }
     private val EMPTY_AABB_QUERY_FOR_EACH_CALLBACK: (b2BodyId, Entity) -> Unit = { _, _ -> }
 
-    @Suppress("NOTHING_TO_INLINE")
-    @Contract(pure = true)
-    private inline fun blockMapIndex(localX: LocalCoord, localY: LocalCoord): Int = localX * Chunk.CHUNK_SIZE + localY
-
     /**
      * @return true if both blocks are air or null. Marker blocks are not considered air
      */
@@ -0,0 +1,134 @@
+package no.elg.infiniteBootleg.core.world.chunks
+
+import no.elg.infiniteBootleg.core.util.LocalCoord
+import no.elg.infiniteBootleg.core.world.blocks.BlockLight.Companion.COMPLETE_DARKNESS
+import no.elg.infiniteBootleg.core.world.blocks.BlockLight.Companion.FULL_BRIGHTNESS
+import no.elg.infiniteBootleg.core.world.blocks.BlockLight.Companion.LIGHT_RESOLUTION_SQUARE
+import no.elg.infiniteBootleg.core.world.blocks.LightMap
+import no.elg.infiniteBootleg.core.world.blocks.LightMap.Companion.Brightness
+
+/**
+ * The light of every block in a chunk, stored in a few contiguous arrays instead of one object per block.
+ *
+ * ## Layout
+ *
+ * Each brightness is quantized to an unsigned byte. The [channels] array holds one plane per color channel (red, green, then blue),
+ * each plane holds [LIGHT_RESOLUTION_SQUARE] sub-cells per block, and the blocks are in the same order as
+ * [no.elg.infiniteBootleg.core.world.chunks.storage.ChunkBlockStorage.cellIndex].
+ *
+ * Writing a block only touches the bytes of that block, so blocks can be recalculated concurrently. A reader might see a
+ * block which is half-way updated, which is fine as the block will be re-rendered once the update is done.
+ */
+class ChunkLightBuffer {
+
+  private val channels = ByteArray(CHANNELS * PLANE_SIZE)
+  private val flags = ByteArray(CELLS)
+  private val averages = ByteArray(CELLS)
+
+  /**
+   * Light level of each color channel, only used by the [no.elg.infiniteBootleg.core.world.blocks.FloodFillLightEngine].
+   * Allocated the first time a level is set as the ray cast engine never needs it
+   */
+  private var levels: ByteArray? = null
+
+  /**
+   * Whether the block is above the top-most block, and thus fully lit
+   */
+  fun isSkylight(localX: LocalCoord, localY: LocalCoord): Boolean = flags[cellIndex(localX, localY)].toInt() and SKYLIGHT_FLAG != 0
+
+  /**
+   * If the block has any light shining onto it
+   */
+  fun isLit(localX: LocalCoord, localY: LocalCoord): Boolean = flags[cellIndex(localX, localY)].toInt() and LIT_FLAG != 0
+
+  fun averageBrightness(localX: LocalCoord, localY: LocalCoord): Brightness = dequantize(averages[cellIndex(localX, localY)])
+
+  fun red(localX: LocalCoord, localY: LocalCoord, lightMapIndex: Int): Brightness = dequantize(channels[channelIndex(RED, localX, localY, lightMapIndex)])
+
+  fun green(localX: LocalCoord, localY: LocalCoord, lightMapIndex: Int): Brightness = dequantize(channels[channelIndex(GREEN, localX, localY, lightMapIndex)])
+
+  fun blue(localX: LocalCoord, localY: LocalCoord, lightMapIndex: Int): Brightness = dequantize(channels[channelIndex(BLUE, localX, localY, lightMapIndex)])
+
+  fun setSkylight(localX: LocalCoord, localY: LocalCoord) {
+    fill(localX, localY, FULL_BRIGHTNESS_BYTE)
+    averages[cellIndex(localX, localY)] = FULL_BRIGHTNESS_BYTE
+    flags[cellIndex(localX, localY)] = (LIT_FLAG or SKYLIGHT_FLAG).toByte()
+  }
+
+  fun setNoLight(localX: LocalCoord, localY: LocalCoord) {
+    fill(localX, localY, COMPLETE_DARKNESS_BYTE)
+    averages[cellIndex(localX, localY)] = COMPLETE_DARKNESS_BYTE
+    flags[cellIndex(localX, localY)] = 0
+  }
+
+  /**
+   * Store a calculated (and tone mapped) light map for a lit block
+   */
+  fun setLight(localX: LocalCoord, localY: LocalCoord, lightMap: LightMap, averageBrightness: Brightness) {
+    val cellStart = cellIndex(localX, localY) * LIGHT_RESOLUTION_SQUARE
+    for (lightMapIndex in 0 until LIGHT_RESOLUTION_SQUARE) {
+      channels[RED * PLANE_SIZE + cellStart + lightMapIndex] = quantize(lightMap.r[lightMapIndex])
+      channels[GREEN * PLANE_SIZE + cellStart + lightMapIndex] = quantize(lightMap.g[lightMapIndex])
+      channels[BLUE * PLANE_SIZE + cellStart + lightMapIndex] = quantize(lightMap.b[lightMapIndex])
+    }
+    averages[cellIndex(localX, localY)] = quantize(averageBrightness)
+    flags[cellIndex(localX, localY)] = LIT_FLAG.toByte()
+  }
+
+  /**
+   * @return The flood fill light level of the given color channel, `0` if the block is not lit by the channel
+   */
+  fun level(channel: Int, localX: LocalCoord, localY: LocalCoord): Int {
+    val levels = levels ?: return 0
+    return levels[channel * CELLS + cellIndex(localX, localY)].toInt() and MAX_QUANTIZED
+  }
+
+  fun setLevel(channel: Int, localX: LocalCoord, localY: LocalCoord, level: Int) {
+    val levels = levels ?: ByteArray(CHANNELS * CELLS).also { levels = it }
+    levels[channel * CELLS + cellIndex(localX, localY)] = level.toByte()
+  }
+
+  private fun fill(localX: LocalCoord, localY: LocalCoord, value: Byte) {
+    val cellStart = cellIndex(localX, localY) * LIGHT_RESOLUTION_SQUARE
+    for (channel in 0 until CHANNELS) {
+      val start = channel * PLANE_SIZE + cellStart
+      channels.fill(value, start, start + LIGHT_RESOLUTION_SQUARE)
+    }
+  }
+
+  companion object {
+    private const val CELLS = Chunk.CHUNK_SIZE * Chunk.CHUNK_SIZE
+    private const val PLANE_SIZE = CELLS * LIGHT_RESOLUTION_SQUARE
+
+    const val RED = 0
+    const val GREEN = 1
+    const val BLUE = 2
+    const val CHANNELS = 3
+
+    private const val LIT_FLAG = 0b01
+    private const val SKYLIGHT_FLAG = 0b10
+
+    private const val MAX_QUANTIZED = 255
+    private const val FULL_BRIGHTNESS_BYTE: Byte = MAX_QUANTIZED.toByte()
+    private const val COMPLETE_DARKNESS_BYTE: Byte = 0
+
+    /**
+     * Number of bytes used by a single chunk, excluding object headers
+     */
+    const val BYTES_PER_CHUNK = CHANNELS * PLANE_SIZE + CELLS + CELLS
+
+    @Suppress("NOTHING_TO_INLINE")
+    private inline fun cellIndex(localX: LocalCoord, localY: LocalCoord): Int = localX * Chunk.CHUNK_SIZE + localY
+
+    @Suppress("NOTHING_TO_INLINE")
+    private inline fun channelIndex(channel: Int, localX: LocalCoord, localY: LocalCoord, lightMapIndex: Int): Int =
+      channel * PLANE_SIZE + cellIndex(localX, localY) * LIGHT_RESOLUTION_SQUARE + lightMapIndex
+
+    @Suppress("NOTHING_TO_INLINE")
+    private inline fun quantize(brightness: Brightness): Byte =
+      (brightness.coerceIn(COMPLETE_DARKNESS, FULL_BRIGHTNESS) * MAX_QUANTIZED + 0.5f).toInt().toByte()
+
+    @Suppress("NOTHING_TO_INLINE")
+    private inline fun dequantize(value: Byte): Brightness = (value.toInt() and MAX_QUANTIZED) / MAX_QUANTIZED.toFloat()
+  }
+}
@@ -1,11 +1,9 @@
 package no.elg.infiniteBootleg.core.world.chunks
 
 import com.badlogic.gdx.utils.Disposable
-import it.unimi.dsi.fastutil.longs.LongOpenHashSet
 import no.elg.infiniteBootleg.core.Settings
 import no.elg.infiniteBootleg.core.events.BlockChangedEvent
 import no.elg.infiniteBootleg.core.events.ChunkColumnUpdatedEvent
-import no.elg.infiniteBootleg.core.events.WorldTickedEvent
 import no.elg.infiniteBootleg.core.events.api.Event
 import no.elg.infiniteBootleg.core.events.api.EventListener
 import no.elg.infiniteBootleg.core.events.api.EventManager
@@ -25,7 +23,6 @@ import no.elg.infiniteBootleg.core.world.chunks.ChunkColumn.Companion.FeatureFla
 class ChunkListeners(private val chunk: ChunkImpl) : Disposable {
 
   private var listeners: Array<RegisteredEventListener>? = null
-  private val lightLocs = LongOpenHashSet(0)
 
   val chunkLookRange = (chunk.chunkX - 2)..(chunk.chunkX + 2)
   val chunkCompactLocation = chunk.compactLocation
@@ -57,31 +54,11 @@ class ChunkListeners(private val chunk: ChunkImpl) : Disposable {
         onBlockChangedUpdateTexture(block)
       },
       /*
-       * Actually update the light of the chunk based on lights that have been queued by [registerLightChangeForNearbyChunks]
-       */
-      registerListenerConditionally { event: WorldTickedEvent ->
-        if (Settings.renderLight && event.world == chunk.world) {
-          val sources = lightLocs
-          if (sources.isEmpty()) return@registerListenerConditionally // Fast, unsynchronized return
-          val sourcesArray = synchronized(sources) {
-            sources.toLongArray().also {
-              sources.clear()
-            }
-          }
-          chunk.doUpdateLightMultipleSources(sourcesArray, checkDistance = true)
-        }
-      },
-
-      /*
-       * Register a location to be updated when the world ticks
+       * Register a location to be updated when the world ticks, see [LightUpdateScheduler]
        */
       registerListenerConditionally { (chunkLoc, originLocalX, originLocalY): ChunkLightChangedEvent ->
         if ((Settings.renderLight && (chunkCompactLocation == chunkLoc)) || chunk.isNeighbor(chunkLoc)) {
-          val compactLoc = compactChunkToWorld(chunkLoc, originLocalX, originLocalY)
-          val sources = lightLocs
-          synchronized(sources) {
-            sources.add(compactLoc)
-          }
+          chunk.world.lightUpdateScheduler.queue(chunk, compactChunkToWorld(chunkLoc, originLocalX, originLocalY))
         }
       },
 
@@ -91,14 +68,7 @@ class ChunkListeners(private val chunk: ChunkImpl) : Disposable {
       registerListenerConditionally { event: ChunkColumnUpdatedEvent ->
         if (Settings.renderLight && event.flag.isBlocksLightFlag() && event.chunkX in chunkLookRange) {
           val lights: WorldCompactLocArray = event.calculatedDiffColumn
-          if (lights.isEmpty()) return@registerListenerConditionally // Fast, unsynchronized return
-          val sources = lightLocs
-          synchronized(sources) {
-            sources.ensureCapacity(sources.size + lights.size)
-            for (pos in lights) {
-              sources.add(pos)
-            }
-          }
+          chunk.world.lightUpdateScheduler.queue(chunk, lights)
         }
       },
 
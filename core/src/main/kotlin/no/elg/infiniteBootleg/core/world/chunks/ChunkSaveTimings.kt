@@ -0,0 +1,53 @@
+package no.elg.infiniteBootleg.core.world.chunks
+
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.LongAdder
+
+/**
+ * How long saving chunks blocks the thread saving them, compared to the time spent serializing them in the background
+ *
+ * @see ChunkImpl.save
+ */
+object ChunkSaveTimings {
+
+  private val saves = LongAdder()
+  private val stallNanos = LongAdder()
+  private val maxStallNanos = AtomicLong()
+  private val encodeNanos = LongAdder()
+
+  /**
+   * Record the time the saving thread (or the physics thread, when saving entities) was blocked by saving a chunk
+   */
+  fun recordStall(nanos: Long) {
+    stallNanos.add(nanos)
+    maxStallNanos.accumulateAndGet(nanos, ::maxOf)
+  }
+
+  /**
+   * Record the time spent serializing a chunk which did not block the saving thread
+   */
+  fun recordEncode(nanos: Long) {
+    saves.increment()
+    encodeNanos.add(nanos)
+  }
+
+  fun reset() {
+    saves.reset()
+    stallNanos.reset()
+    maxStallNanos.set(0)
+    encodeNanos.reset()
+  }
+
+  fun summary(): String {
+    val count = saves.sum()
+    if (count == 0L) {
+      return "No chunks saved"
+    }
+    fun micros(nanos: Long) = TimeUnit.NANOSECONDS.toMicros(nanos)
+    val stall = micros(stallNanos.sum() / count)
+    val encode = micros(encodeNanos.sum() / count)
+    return "$count chunks saved, blocking the saving thread for $stall us on average (max ${micros(maxStallNanos.get())} us). " +
+      "Serializing took $encode us on average in the background, without snapshots it would have blocked for ${stall + encode} us"
+  }
+}
@@ -0,0 +1,202 @@
+package no.elg.infiniteBootleg.core.world.chunks
+
+import com.badlogic.gdx.utils.Disposable
+import com.google.errorprone.annotations.concurrent.GuardedBy
+import io.github.oshai.kotlinlogging.KotlinLogging
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.launch
+import ktx.async.KtxAsync
+import no.elg.infiniteBootleg.core.Settings
+import no.elg.infiniteBootleg.core.util.ChunkCompactLoc
+import no.elg.infiniteBootleg.core.util.WorldCompactLoc
+import no.elg.infiniteBootleg.core.util.WorldCompactLocArray
+import no.elg.infiniteBootleg.core.util.decompactLocX
+import no.elg.infiniteBootleg.core.util.decompactLocY
+import no.elg.infiniteBootleg.core.world.ecs.components.required.PositionComponent.Companion.compactChunkLoc
+import no.elg.infiniteBootleg.core.world.world.World
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.math.abs
+import kotlin.math.max
+
+private val logger = KotlinLogging.logger {}
+
+/**
+ * Collects the light updates of all chunks in a world and recalculates them on a bounded pool of workers.
+ *
+ * Requests for the same chunk are merged until the chunk is picked up by the next world tick, and a chunk is only recalculated by one
+ * worker at a time. Chunks in view of the camera are recalculated first, then the chunks closest to a player.
+ */
+class LightUpdateScheduler(private val world: World) : Disposable {
+
+  private class PendingUpdate(val chunk: ChunkImpl, val queuedAt: Long) {
+    var full = false
+    val sources = LongOpenHashSet()
+  }
+
+  @GuardedBy("pending")
+  private val pending = Long2ObjectOpenHashMap<PendingUpdate>()
+
+  @GuardedBy("pending")
+  private val inFlight = Long2ObjectOpenHashMap<Job>()
+
+  private val dispatcher = Dispatchers.Default.limitedParallelism(WORKERS)
+
+  private val completedSinceTick = AtomicInteger()
+  private val maxLatencySinceTick = AtomicLong()
+
+  /**
+   * Number of chunks recalculated during the previous tick
+   */
+  @Volatile
+  var completedLastTick: Int = 0
+    private set
+
+  /**
+   * Longest time, in milliseconds, from a chunk was queued until its light was recalculated during the previous tick
+   */
+  @Volatile
+  var maxLatencyLastTickMs: Long = 0
+    private set
+
+  /**
+   * Number of chunks waiting to be, or currently being, recalculated
+   */
+  val backlog: Int get() = synchronized(pending) { pending.size + inFlight.size }
+
+  /**
+   * Recalculate the blocks of [chunk] which are close to the given source
+   */
+  fun queue(chunk: ChunkImpl, source: WorldCompactLoc) {
+    synchronized(pending) {
+      pendingUpdate(chunk).sources.add(source)
+    }
+  }
+
+  /**
+   * Recalculate the blocks of [chunk] which are close to any of the given sources
+   */
+  fun queue(chunk: ChunkImpl, sources: WorldCompactLocArray) {
+    if (sources.isEmpty()) return
+    synchronized(pending) {
+      val update = pendingUpdate(chunk)
+      update.sources.ensureCapacity(update.sources.size + sources.size)
+      for (source in sources) {
+        update.sources.add(source)
+      }
+    }
+  }
+
+  /**
+   * Recalculate every block of [chunk]. Any ongoing recalculation of the chunk is canceled as it will be redone
+   */
+  fun queueAll(chunk: ChunkImpl) {
+    synchronized(pending) {
+      val update = pendingUpdate(chunk)
+      update.full = true
+      update.sources.clear()
+      inFlight.get(chunk.compactLocation)?.cancel()
+    }
+  }
+
+  @GuardedBy("pending")
+  private fun pendingUpdate(chunk: ChunkImpl): PendingUpdate =
+    pending.get(chunk.compactLocation) ?: PendingUpdate(chunk, System.nanoTime()).also { pending.put(chunk.compactLocation, it) }
+
+  /**
+   * Start recalculating the queued chunks, called once per world tick
+   */
+  fun tick() {
+    completedLastTick = completedSinceTick.getAndSet(0)
+    maxLatencyLastTickMs = TimeUnit.NANOSECONDS.toMillis(maxLatencySinceTick.getAndSet(0))
+    if (!Settings.renderLight) {
+      return
+    }
+    val updates = synchronized(pending) {
+      if (pending.isEmpty()) return
+      val ready = ArrayList<PendingUpdate>(pending.size)
+      val iterator = pending.values.iterator()
+      while (iterator.hasNext()) {
+        val update = iterator.next()
+        // A chunk which is being recalculated keeps collecting requests until it is done
+        if (!inFlight.containsKey(update.chunk.compactLocation)) {
+          ready += update
+          iterator.remove()
+        }
+      }
+      ready
+    }
+    if (updates.isEmpty()) return
+
+    val playerChunks = world.playersEntities.map { it.compactChunkLoc }
+    updates.sortBy { priority(it.chunk.compactLocation, playerChunks) }
+    for (update in updates) {
+      launch(update)
+    }
+  }
+
+  private fun launch(update: PendingUpdate) {
+    val chunk = update.chunk
+    val chunkLoc = chunk.compactLocation
+    synchronized(pending) {
+      val job = KtxAsync.launch(dispatcher) {
+        try {
+          chunk.recalculateLight(update.sources.toLongArray(), checkDistance = !update.full)
+          completedSinceTick.incrementAndGet()
+          maxLatencySinceTick.accumulateAndGet(System.nanoTime() - update.queuedAt) { a, b -> max(a, b) }
+        } catch (_: CancellationException) {
+          // Replaced by a new full update
+        } catch (e: Exception) {
+          logger.error(e) { "Failed to recalculate light of chunk $chunk" }
+        }
+      }
+      inFlight.put(chunkLoc, job)
+      job.invokeOnCompletion {
+        synchronized(pending) {
+          if (inFlight.get(chunkLoc) === job) {
+            inFlight.remove(chunkLoc)
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * @return A lower value for chunks which should be recalculated first
+   */
+  private fun priority(chunkLoc: ChunkCompactLoc, playerChunks: List<ChunkCompactLoc>): Int {
+    if (world.render.isInView(chunkLoc)) {
+      return 0
+    }
+    val chunkX = chunkLoc.decompactLocX()
+    val chunkY = chunkLoc.decompactLocY()
+    var closest = Int.MAX_VALUE - 1
+    for (playerChunk in playerChunks) {
+      val distance = max(abs(playerChunk.decompactLocX() - chunkX), abs(playerChunk.decompactLocY() - chunkY))
+      if (distance < closest) {
+        closest = distance
+      }
+    }
+    return closest + 1
+  }
+
+  override fun dispose() {
+    synchronized(pending) {
+      pending.clear()
+      inFlight.values.forEach(Job::cancel)
+      inFlight.clear()
+    }
+  }
+
+  companion object {
+    /**
+     * Number of chunks which can have their light recalculated at the same time
+     */
+    val WORKERS = max(1, Runtime.getRuntime().availableProcessors() / 2)
+  }
+}
@@ -0,0 +1,45 @@
+package no.elg.infiniteBootleg.core.world.chunks.storage
+
+import no.elg.infiniteBootleg.core.util.LocalCoord
+import no.elg.infiniteBootleg.core.world.Material
+import no.elg.infiniteBootleg.core.world.blocks.Block
+import no.elg.infiniteBootleg.core.world.blocks.BlockImpl
+import no.elg.infiniteBootleg.core.world.chunks.Chunk
+import no.elg.infiniteBootleg.core.world.chunks.storage.ChunkBlockStorage.Companion.protoOf
+import no.elg.infiniteBootleg.protobuf.ProtoWorld
+
+/**
+ * Stores a block instance for every non-air cell
+ */
+class ArrayBlockStorage(private val chunk: Chunk) : ChunkBlockStorage {
+
+  private val blocks: Array<Array<Block?>> = Array(Chunk.CHUNK_SIZE) { arrayOfNulls(Chunk.CHUNK_SIZE) }
+
+  override fun get(localX: LocalCoord, localY: LocalCoord): Block? = blocks[localX][localY]
+
+  override fun getInstance(localX: LocalCoord, localY: LocalCoord): Block? = blocks[localX][localY]
+
+  override fun set(localX: LocalCoord, localY: LocalCoord, block: Block?) {
+    blocks[localX][localY] = block
+  }
+
+  override fun getMaterial(localX: LocalCoord, localY: LocalCoord): Material = blocks[localX][localY]?.material ?: Material.Air
+
+  override fun setMaterial(localX: LocalCoord, localY: LocalCoord, material: Material) {
+    blocks[localX][localY] = if (material === Material.Air) null else BlockImpl(chunk, localX, localY, material)
+  }
+
+  override fun isUnset(localX: LocalCoord, localY: LocalCoord): Boolean = blocks[localX][localY] == null
+
+  override fun forEachBlock(action: (Block) -> Unit) {
+    for (blockArr in blocks) {
+      for (block in blockArr) {
+        if (block != null) {
+          action(block)
+        }
+      }
+    }
+  }
+
+  override fun save(localX: LocalCoord, localY: LocalCoord): ProtoWorld.Block = blocks[localX][localY]?.save() ?: protoOf(Material.Air)
+}
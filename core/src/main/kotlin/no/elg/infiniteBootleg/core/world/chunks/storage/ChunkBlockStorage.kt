@@ -0,0 +1,86 @@
+package no.elg.infiniteBootleg.core.world.chunks.storage
+
+import no.elg.infiniteBootleg.core.Settings
+import no.elg.infiniteBootleg.core.util.LocalCoord
+import no.elg.infiniteBootleg.core.world.Material
+import no.elg.infiniteBootleg.core.world.blocks.Block
+import no.elg.infiniteBootleg.core.world.blocks.BlockImpl
+import no.elg.infiniteBootleg.core.world.chunks.Chunk
+import no.elg.infiniteBootleg.protobuf.ProtoWorld
+
+/**
+ * How the blocks of a chunk are kept in memory
+ *
+ * Synchronize on the storage itself when doing compound changes (i.e., read-then-write)
+ *
+ * @author Elg
+ */
+interface ChunkBlockStorage {
+
+  /**
+   * @return The block instance at the given location, `null` if there is no block (i.e., air)
+   */
+  operator fun get(localX: LocalCoord, localY: LocalCoord): Block?
+
+  /**
+   * @return The block instance kept for the given location, `null` if the location only has a material. Unlike [get] no block instance is created
+   */
+  fun getInstance(localX: LocalCoord, localY: LocalCoord): Block?
+
+  operator fun set(localX: LocalCoord, localY: LocalCoord, block: Block?)
+
+  /**
+   * @return The material at the given location, without creating any block instance
+   */
+  fun getMaterial(localX: LocalCoord, localY: LocalCoord): Material
+
+  /**
+   * Store a material without an explicit block instance.
+   *
+   * No entity will be created for the material, it is up to the caller to only use this for materials without a [Material.createNew]
+   */
+  fun setMaterial(localX: LocalCoord, localY: LocalCoord, material: Material)
+
+  /**
+   * @return If nothing has been stored at the given location
+   */
+  fun isUnset(localX: LocalCoord, localY: LocalCoord): Boolean
+
+  /**
+   * Iterate over all block instances currently held by this storage. Cells with only a material are not visited.
+   */
+  fun forEachBlock(action: (Block) -> Unit)
+
+  /**
+   * @return The block at the given location as a proto block
+   */
+  fun save(localX: LocalCoord, localY: LocalCoord): ProtoWorld.Block
+
+  companion object {
+
+    const val CELLS = Chunk.CHUNK_SIZE * Chunk.CHUNK_SIZE
+
+    /**
+     * Create the storage type selected by [Settings.paletteBlockStorage]
+     */
+    fun create(chunk: Chunk): ChunkBlockStorage = if (Settings.paletteBlockStorage) PalettedBlockStorage(chunk) else ArrayBlockStorage(chunk)
+
+    /**
+     * Index of a cell, in the same layout as [no.elg.infiniteBootleg.core.world.chunks.ChunkLightBuffer]
+     */
+    @Suppress("NOTHING_TO_INLINE")
+    inline fun cellIndex(localX: LocalCoord, localY: LocalCoord): Int = localX * Chunk.CHUNK_SIZE + localY
+
+    /**
+     * @return Whether the block has more state than its material (i.e., an entity, now or once it is created), so the block instance itself must be kept
+     */
+    fun isStateful(block: Block): Boolean = block !is BlockImpl || block.entity != null || block.material.createNew != null
+
+    private val materialProtos: Map<Material, ProtoWorld.Block> = Material.materials.associateWith { Block.save(it).build() }
+
+    /**
+     * @return A cached proto block of a material without any entity
+     */
+    fun protoOf(material: Material): ProtoWorld.Block = materialProtos[material] ?: Block.save(material).build()
+  }
+}
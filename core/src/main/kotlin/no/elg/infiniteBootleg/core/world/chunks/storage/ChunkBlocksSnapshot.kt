@@ -0,0 +1,47 @@
+package no.elg.infiniteBootleg.core.world.chunks.storage
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap
+import no.elg.infiniteBootleg.core.util.LocalCoord
+import no.elg.infiniteBootleg.core.world.Material
+import no.elg.infiniteBootleg.core.world.chunks.Chunk
+import no.elg.infiniteBootleg.core.world.chunks.storage.ChunkBlockStorage.Companion.CELLS
+import no.elg.infiniteBootleg.core.world.chunks.storage.ChunkBlockStorage.Companion.cellIndex
+import no.elg.infiniteBootleg.core.world.chunks.storage.ChunkBlockStorage.Companion.protoOf
+import no.elg.infiniteBootleg.protobuf.ProtoWorld
+
+/**
+ * An immutable copy of the blocks of a chunk, so the chunk can be serialized on another thread while the live blocks keep changing.
+ *
+ * Only the materials are copied, except for blocks with an entity which are saved when the snapshot is taken as the entity belongs to the physics thread.
+ *
+ * @see take
+ */
+class ChunkBlocksSnapshot private constructor(private val materials: Array<Material>, private val specialBlocks: Int2ObjectOpenHashMap<ProtoWorld.Block>) {
+
+  fun save(localX: LocalCoord, localY: LocalCoord): ProtoWorld.Block {
+    val index = cellIndex(localX, localY)
+    return specialBlocks.get(index) ?: protoOf(materials[index])
+  }
+
+  companion object {
+
+    /**
+     * Copy the blocks of [storage], must be called while synchronized on the storage
+     */
+    fun take(storage: ChunkBlockStorage): ChunkBlocksSnapshot {
+      val materials = Array(CELLS) { Material.Air }
+      for (localX in 0 until Chunk.CHUNK_SIZE) {
+        for (localY in 0 until Chunk.CHUNK_SIZE) {
+          materials[cellIndex(localX, localY)] = storage.getMaterial(localX, localY)
+        }
+      }
+      val specialBlocks = Int2ObjectOpenHashMap<ProtoWorld.Block>()
+      storage.forEachBlock { block ->
+        if (block.entity != null) {
+          specialBlocks.put(cellIndex(block.localX, block.localY), block.save())
+        }
+      }
+      return ChunkBlocksSnapshot(materials, specialBlocks)
+    }
+  }
+}
@@ -0,0 +1,130 @@
+package no.elg.infiniteBootleg.core.world.chunks.storage
+
+import no.elg.infiniteBootleg.core.util.LocalCoord
+import no.elg.infiniteBootleg.core.world.Material
+import no.elg.infiniteBootleg.core.world.chunks.Chunk
+import no.elg.infiniteBootleg.core.world.chunks.storage.ChunkBlockStorage.Companion.CELLS
+import no.elg.infiniteBootleg.protobuf.ProtoWorld
+
+/**
+ * Converts the blocks of a chunk to and from [ProtoWorld.PackedBlocks].
+ *
+ * The blocks are visited row by row (`index = localY * CHUNK_SIZE + localX`), the same order as [ProtoWorld.Chunk.getBlocksList].
+ * Consecutive blocks of the same material are stored as a single run, so large areas of air (or stone) only take a few bytes.
+ * The blocks can also be stored relative to the generated chunk (see [relativize]), then only the blocks which have changed are stored.
+ *
+ * @see ProtoWorld.PackedBlocks
+ */
+object PackedBlocksCodec {
+
+  fun encode(storage: ChunkBlockStorage): ProtoWorld.PackedBlocks = encode(null) { index -> storage.save(localX(index), localY(index)) }
+
+  fun encode(snapshot: ChunkBlocksSnapshot): ProtoWorld.PackedBlocks = encode(null) { index -> snapshot.save(localX(index), localY(index)) }
+
+  /**
+   * Encode the blocks relative to [base], only the blocks which differ from [base] are stored
+   *
+   * @param base The materials of the generated chunk, indexed by [ChunkBlockStorage.cellIndex]
+   */
+  fun relativize(packed: ProtoWorld.PackedBlocks, base: Array<Material>): ProtoWorld.PackedBlocks {
+    require(!packed.relative) { "Blocks are already relative" }
+    val specialBlocks = packed.specialBlocksList.associateBy({ it.index }, { it.block })
+    val blocks = arrayOfNulls<ProtoWorld.Block>(CELLS)
+    decode(packed) { index, material -> blocks[index] = specialBlocks[index] ?: ChunkBlockStorage.protoOf(material ?: Material.Air) }
+    return encode(base) { index -> blocks[index]!! }
+  }
+
+  private fun encode(base: Array<Material>?, blockAt: (index: Int) -> ProtoWorld.Block): ProtoWorld.PackedBlocks {
+    val builder = ProtoWorld.PackedBlocks.newBuilder()
+    val palette = ArrayList<String>()
+    // When relative, index 0 means the block is the same as in base
+    val paletteOffset = if (base != null) 1 else 0
+    var runIndex = -1
+    var runLength = 0
+
+    fun endRun() {
+      if (runLength == 1) {
+        builder.addRuns(runIndex shl 1)
+      } else if (runLength > 1) {
+        builder.addRuns((runIndex shl 1) or 1)
+        builder.addRuns(runLength)
+      }
+    }
+
+    for (index in 0 until CELLS) {
+      val protoBlock = blockAt(index)
+      val name = protoBlock.material.name
+      val paletteIndex = if (base != null && !protoBlock.hasEntity() && name == nameOf(base[baseIndex(index)])) {
+        0
+      } else {
+        var nameIndex = palette.indexOf(name)
+        if (nameIndex == -1) {
+          nameIndex = palette.size
+          palette += name
+        }
+        nameIndex + paletteOffset
+      }
+      if (protoBlock.hasEntity()) {
+        builder.addSpecialBlocks(ProtoWorld.PackedBlocks.IndexedBlock.newBuilder().setIndex(index).setBlock(protoBlock))
+      }
+      if (paletteIndex == runIndex) {
+        runLength++
+      } else {
+        endRun()
+        runIndex = paletteIndex
+        runLength = 1
+      }
+    }
+    endRun()
+    return builder.addAllPalette(palette).setRelative(base != null).build()
+  }
+
+  /**
+   * Call [action] for every block, with the index of the block (see [localX] and [localY]) and its material.
+   * The material is `null` when the palette has an unknown material.
+   *
+   * @param base The materials of the generated chunk, indexed by [ChunkBlockStorage.cellIndex]. Required when the blocks are relative
+   * @throws IllegalArgumentException If the runs do not describe exactly [CELLS] blocks of the palette
+   */
+  inline fun decode(packed: ProtoWorld.PackedBlocks, base: Array<Material>? = null, action: (index: Int, material: Material?) -> Unit) {
+    require(!packed.relative || base != null) { "Relative blocks require the generated materials" }
+    val paletteOffset = if (packed.relative) 1 else 0
+    val palette = Array(packed.paletteCount) { Material.valueOfOrNull(packed.getPalette(it)) }
+    val runs = packed.runsCount
+    var index = 0
+    var run = 0
+    while (run < runs) {
+      val value = packed.getRuns(run++)
+      val paletteIndex = value ushr 1
+      require(paletteIndex < palette.size + paletteOffset) { "Palette index $paletteIndex out of bounds, palette has ${palette.size} materials" }
+      val length = if ((value and 1) == 1) {
+        require(run < runs) { "Missing length of the last run" }
+        packed.getRuns(run++)
+      } else {
+        1
+      }
+      require(length > 0 && index + length <= CELLS) { "Run of $length blocks at index $index does not fit in the chunk" }
+      if (paletteIndex < paletteOffset) {
+        repeat(length) {
+          action(index, base!![baseIndex(index)])
+          index++
+        }
+      } else {
+        val material = palette[paletteIndex - paletteOffset]
+        repeat(length) {
+          action(index++, material)
+        }
+      }
+    }
+    require(index == CELLS) { "Expected $CELLS blocks, but got $index" }
+  }
+
+  @PublishedApi
+  internal fun baseIndex(index: Int): Int = ChunkBlockStorage.cellIndex(localX(index), localY(index))
+
+  private fun nameOf(material: Material): String = ChunkBlockStorage.protoOf(material).material.name
+
+  fun localX(index: Int): LocalCoord = index % Chunk.CHUNK_SIZE
+
+  fun localY(index: Int): LocalCoord = index / Chunk.CHUNK_SIZE
+}
@@ -0,0 +1,163 @@
+package no.elg.infiniteBootleg.core.world.chunks.storage
+
+import no.elg.infiniteBootleg.core.util.LocalCoord
+import no.elg.infiniteBootleg.core.world.Material
+import no.elg.infiniteBootleg.core.world.blocks.Block
+import no.elg.infiniteBootleg.core.world.blocks.BlockImpl
+import no.elg.infiniteBootleg.core.world.chunks.Chunk
+import no.elg.infiniteBootleg.core.world.chunks.storage.ChunkBlockStorage.Companion.CELLS
+import no.elg.infiniteBootleg.core.world.chunks.storage.ChunkBlockStorage.Companion.cellIndex
+import no.elg.infiniteBootleg.core.world.chunks.storage.ChunkBlockStorage.Companion.protoOf
+import no.elg.infiniteBootleg.protobuf.ProtoWorld
+
+/**
+ * Stores the material of each cell as an index into a per-chunk palette. The indices are bit-packed into a [LongArray] and
+ * the number of bits per index grows with the size of the palette.
+ *
+ * Block instances are only kept for blocks with more state than their material (see [ChunkBlockStorage.isStateful]). Any other block is
+ * stored as its material, and [get] creates a new block instance every time it is called for such a cell. Such a block is still in
+ * the chunk as long as the cell has its material, see [Block.Companion.isHeldBy]. Code visiting every cell should use [getMaterial] and
+ * [getInstance] instead.
+ */
+class PalettedBlockStorage(private val chunk: Chunk) : ChunkBlockStorage {
+
+  /**
+   * Everything needed to read a material. Replaced as a whole when the palette outgrows the number of bits per index
+   */
+  private class PackedMaterials(val palette: Array<Material?>, val bitsPerEntry: Int) {
+    private val entriesPerWord = Long.SIZE_BITS / bitsPerEntry
+    private val mask = (1L shl bitsPerEntry) - 1L
+    val words = LongArray((CELLS + entriesPerWord - 1) / entriesPerWord)
+
+    operator fun get(index: Int): Int {
+      val shift = (index % entriesPerWord) * bitsPerEntry
+      return ((words[index / entriesPerWord] ushr shift) and mask).toInt()
+    }
+
+    operator fun set(index: Int, paletteIndex: Int) {
+      val wordIndex = index / entriesPerWord
+      val shift = (index % entriesPerWord) * bitsPerEntry
+      words[wordIndex] = (words[wordIndex] and (mask shl shift).inv()) or (paletteIndex.toLong() shl shift)
+    }
+  }
+
+  @Volatile
+  private var packed = PackedMaterials(arrayOfNulls<Material>(1 shl MIN_BITS_PER_ENTRY).also { it[AIR_INDEX] = Material.Air }, MIN_BITS_PER_ENTRY)
+  private var paletteSize = 1
+
+  /**
+   * Lazily created as most chunks never need a block instance
+   */
+  @Volatile
+  private var instances: Array<Block?>? = null
+
+  val bitsPerEntry: Int get() = packed.bitsPerEntry
+
+  /**
+   * Number of materials seen by this storage, materials are never removed from the palette
+   */
+  val paletteCount: Int get() = paletteSize
+
+  override fun get(localX: LocalCoord, localY: LocalCoord): Block? {
+    val index = cellIndex(localX, localY)
+    instances?.get(index)?.also { return it }
+    val packed = packed
+    val material = packed.palette[packed[index]]
+    if (material === Material.Air || material == null) {
+      return null
+    }
+    // Not kept, the block only has a material and is equal to any other block of the same material at this location
+    return BlockImpl(chunk, localX, localY, material)
+  }
+
+  override fun getInstance(localX: LocalCoord, localY: LocalCoord): Block? = instances?.get(cellIndex(localX, localY))
+
+  override fun set(localX: LocalCoord, localY: LocalCoord, block: Block?) {
+    val index = cellIndex(localX, localY)
+    synchronized(this) {
+      if (block == null) {
+        instances?.set(index, null)
+        packed[index] = AIR_INDEX
+      } else if (ChunkBlockStorage.isStateful(block)) {
+        val currentInstances = instances ?: arrayOfNulls<Block>(CELLS).also { instances = it }
+        currentInstances[index] = block
+        setPaletteIndex(index, block.material)
+      } else {
+        instances?.set(index, null)
+        setPaletteIndex(index, block.material)
+      }
+    }
+  }
+
+  override fun getMaterial(localX: LocalCoord, localY: LocalCoord): Material {
+    val index = cellIndex(localX, localY)
+    instances?.get(index)?.also { return it.material }
+    val packed = packed
+    return packed.palette[packed[index]] ?: Material.Air
+  }
+
+  override fun setMaterial(localX: LocalCoord, localY: LocalCoord, material: Material) {
+    val index = cellIndex(localX, localY)
+    synchronized(this) {
+      instances?.set(index, null)
+      setPaletteIndex(index, material)
+    }
+  }
+
+  override fun isUnset(localX: LocalCoord, localY: LocalCoord): Boolean {
+    val index = cellIndex(localX, localY)
+    return instances?.get(index) == null && packed[index] == AIR_INDEX
+  }
+
+  override fun forEachBlock(action: (Block) -> Unit) {
+    val currentInstances = instances ?: return
+    for (block in currentInstances) {
+      if (block != null) {
+        action(block)
+      }
+    }
+  }
+
+  override fun save(localX: LocalCoord, localY: LocalCoord): ProtoWorld.Block {
+    val index = cellIndex(localX, localY)
+    instances?.get(index)?.also { return it.save() }
+    return protoOf(getMaterial(localX, localY))
+  }
+
+  private fun setPaletteIndex(index: Int, material: Material) {
+    packed[index] = paletteIndexOf(material)
+  }
+
+  /**
+   * Find (or insert) the index of the given material. Must be called while synchronized on this storage
+   */
+  private fun paletteIndexOf(material: Material): Int {
+    val palette = packed.palette
+    for (i in 0 until paletteSize) {
+      if (palette[i] === material) {
+        return i
+      }
+    }
+    if (paletteSize == palette.size) {
+      grow()
+    }
+    val newIndex = paletteSize++
+    packed.palette[newIndex] = material
+    return newIndex
+  }
+
+  private fun grow() {
+    val old = packed
+    val newBits = old.bitsPerEntry + 1
+    val grown = PackedMaterials(old.palette.copyOf(1 shl newBits), newBits)
+    for (i in 0 until CELLS) {
+      grown[i] = old[i]
+    }
+    packed = grown
+  }
+
+  companion object {
+    const val AIR_INDEX = 0
+    const val MIN_BITS_PER_ENTRY = 1
+  }
+}
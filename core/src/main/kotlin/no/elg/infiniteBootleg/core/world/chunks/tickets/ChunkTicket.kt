@@ -0,0 +1,44 @@
+package no.elg.infiniteBootleg.core.world.chunks.tickets
+
+import no.elg.infiniteBootleg.core.util.ChunkCoord
+import no.elg.infiniteBootleg.core.util.stringifyCompactLoc
+
+/**
+ * Keeps the chunks from ([startX], [startY]) (inclusive) to ([endX], [endY]) (exclusive) loaded until it is released or it expires.
+ *
+ * Get a ticket from [ChunkTickets.add]
+ *
+ * @property expiresAtTick The world tick this ticket is released at, or [NEVER_EXPIRES]
+ */
+class ChunkTicket internal constructor(
+  val type: ChunkTicketType,
+  val startX: ChunkCoord,
+  val startY: ChunkCoord,
+  val endX: ChunkCoord,
+  val endY: ChunkCoord,
+  val expiresAtTick: Long
+) {
+
+  /**
+   * Whether this ticket no longer keeps its chunks loaded
+   */
+  @Volatile
+  var isReleased: Boolean = false
+    internal set
+
+  val chunks: Int get() = (endX - startX) * (endY - startY)
+
+  fun contains(chunkX: ChunkCoord, chunkY: ChunkCoord): Boolean = chunkX in startX..<endX && chunkY in startY..<endY
+
+  fun covers(startX: ChunkCoord, startY: ChunkCoord, endX: ChunkCoord, endY: ChunkCoord): Boolean =
+    this.startX == startX && this.startY == startY && this.endX == endX && this.endY == endY
+
+  override fun toString(): String {
+    val expires = if (expiresAtTick == NEVER_EXPIRES) "never expires" else "expires at tick $expiresAtTick"
+    return "$type ticket ${stringifyCompactLoc(startX, startY)} to ${stringifyCompactLoc(endX - 1, endY - 1)}, $expires${if (isReleased) " (released)" else ""}"
+  }
+
+  companion object {
+    const val NEVER_EXPIRES = Long.MAX_VALUE
+  }
+}
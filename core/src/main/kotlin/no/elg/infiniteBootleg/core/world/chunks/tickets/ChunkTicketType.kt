@@ -0,0 +1,28 @@
+package no.elg.infiniteBootleg.core.world.chunks.tickets
+
+/**
+ * Why chunks are kept loaded
+ *
+ * @property lifetimeSeconds How long a ticket of this type keeps its chunks loaded, or `null` if it lasts until it is released
+ */
+enum class ChunkTicketType(val lifetimeSeconds: Long?) {
+  /**
+   * The chunks a player sees
+   */
+  PLAYER(null),
+
+  /**
+   * The chunks around the spawn of the world
+   */
+  SPAWN(null),
+
+  /**
+   * The chunks a system is changing, such as the area of an explosion
+   */
+  SYSTEM(10),
+
+  /**
+   * Chunks kept loaded from the console or by a script
+   */
+  COMMAND(60)
+}
@@ -0,0 +1,193 @@
+package no.elg.infiniteBootleg.core.world.chunks.tickets
+
+import com.google.errorprone.annotations.concurrent.GuardedBy
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap
+import it.unimi.dsi.fastutil.longs.LongArrayList
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet
+import no.elg.infiniteBootleg.core.util.ChunkCompactLoc
+import no.elg.infiniteBootleg.core.util.ChunkCoord
+import no.elg.infiniteBootleg.core.util.compactInt
+import no.elg.infiniteBootleg.core.world.render.ChunksInView
+import java.util.PriorityQueue
+
+/**
+ * Decides which chunks are kept loaded.
+ *
+ * Players, the spawn, systems and commands take [ChunkTicket]s on the areas they need loaded, and every chunk keeps count of how many tickets cover it.
+ * A chunk which is loaded without a ticket, or whose count drops to zero, is scheduled to be unloaded [UNLOAD_DELAY_SECONDS] later.
+ * The deadlines are kept in a [ChunkUnloadWheel], so each tick only looks at the chunks due that tick and never at every loaded chunk.
+ *
+ * @param ticksPerSecond The tick rate of the world, used to convert the lifetime of a [ChunkTicketType] to ticks
+ */
+class ChunkTickets(private val ticksPerSecond: () -> Long) {
+
+  @GuardedBy("this")
+  private val counts = Long2IntOpenHashMap()
+
+  /**
+   * When the chunks without tickets are to be unloaded
+   */
+  @GuardedBy("this")
+  private val unloadWheel = ChunkUnloadWheel()
+
+  @GuardedBy("this")
+  private val tickets = ObjectOpenHashSet<ChunkTicket>()
+
+  @GuardedBy("this")
+  private val expiring = PriorityQueue<ChunkTicket>(compareBy(ChunkTicket::expiresAtTick))
+
+  @Volatile
+  private var currentTick: Long = 0
+
+  /**
+   * Number of chunks with at least one ticket
+   */
+  val ticketedChunks: Int get() = synchronized(this) { counts.size }
+
+  /**
+   * Number of chunks scheduled to be unloaded
+   */
+  val unloadableChunks: Int get() = synchronized(this) { unloadWheel.size }
+
+  /**
+   * @return A copy of the active tickets
+   */
+  fun tickets(): List<ChunkTicket> = synchronized(this) { tickets.toList() }
+
+  /**
+   * @return How many tickets keep the given chunk loaded
+   */
+  fun ticketCount(chunkLoc: ChunkCompactLoc): Int = synchronized(this) { counts.get(chunkLoc) }
+
+  /**
+   * Keep the chunks from ([startX], [startY]) (inclusive) to ([endX], [endY]) (exclusive) loaded
+   *
+   * @param lifetimeTicks How many ticks the ticket lasts, or [ChunkTicket.NEVER_EXPIRES]. Defaults to the lifetime of the [type]
+   */
+  fun add(
+    type: ChunkTicketType,
+    startX: ChunkCoord,
+    startY: ChunkCoord,
+    endX: ChunkCoord,
+    endY: ChunkCoord,
+    lifetimeTicks: Long = type.lifetimeSeconds?.let { it * ticksPerSecond() } ?: ChunkTicket.NEVER_EXPIRES
+  ): ChunkTicket {
+    require(startX <= endX && startY <= endY) { "The start of a ticket cannot be after its end" }
+    val expiresAtTick = if (lifetimeTicks == ChunkTicket.NEVER_EXPIRES) ChunkTicket.NEVER_EXPIRES else currentTick + lifetimeTicks
+    val ticket = ChunkTicket(type, startX, startY, endX, endY, expiresAtTick)
+    synchronized(this) {
+      tickets += ticket
+      if (expiresAtTick != ChunkTicket.NEVER_EXPIRES) {
+        expiring += ticket
+      }
+      forEachChunk(ticket) { chunkLoc ->
+        if (counts.addTo(chunkLoc, 1) == 0) {
+          unloadWheel.cancel(chunkLoc)
+        }
+      }
+    }
+    return ticket
+  }
+
+  /**
+   * Keep the chunks within [radius] of the given chunk loaded
+   */
+  fun add(type: ChunkTicketType, chunkX: ChunkCoord, chunkY: ChunkCoord, radius: Int = 0): ChunkTicket =
+    add(type, chunkX - radius, chunkY - radius, chunkX + radius + 1, chunkY + radius + 1)
+
+  /**
+   * Move a ticket to cover the chunks in view. The chunks covered by both the old and new ticket are never without a ticket
+   *
+   * @param ticket The ticket currently held for the view, if any
+   * @return A ticket covering the chunks in view, [ticket] if it already covers them
+   */
+  fun update(ticket: ChunkTicket?, type: ChunkTicketType, view: ChunksInView): ChunkTicket {
+    if (ticket != null && !ticket.isReleased && ticket.covers(view.horizontalStart, view.verticalStart, view.horizontalEnd, view.verticalEnd)) {
+      return ticket
+    }
+    val moved = add(type, view.horizontalStart, view.verticalStart, view.horizontalEnd, view.verticalEnd)
+    ticket?.let(::release)
+    return moved
+  }
+
+  /**
+   * Stop keeping the chunks of the ticket loaded. Releasing a ticket more than once does nothing
+   */
+  fun release(ticket: ChunkTicket) {
+    synchronized(this) {
+      if (ticket.isReleased) {
+        return
+      }
+      ticket.isReleased = true
+      tickets -= ticket
+      forEachChunk(ticket) { chunkLoc ->
+        if (counts.addTo(chunkLoc, -1) == 1) {
+          counts.remove(chunkLoc)
+          unloadWheel.schedule(chunkLoc, currentTick + unloadDelayTicks())
+        }
+      }
+    }
+  }
+
+  /**
+   * Schedule a newly loaded chunk to be unloaded if it has no tickets, so chunks loaded in passing (e.g., by a block looking at its neighbours) are unloaded again
+   */
+  fun onChunkLoaded(chunkLoc: ChunkCompactLoc) {
+    synchronized(this) {
+      if (!counts.containsKey(chunkLoc)) {
+        unloadWheel.schedule(chunkLoc, currentTick + unloadDelayTicks())
+      }
+    }
+  }
+
+  /**
+   * Try again later to unload a polled chunk which could not be unloaded, unless a ticket has been taken on it since it was polled
+   */
+  fun reschedule(chunkLoc: ChunkCompactLoc) {
+    onChunkLoaded(chunkLoc)
+  }
+
+  /**
+   * Release the tickets which expire at or before the given tick
+   */
+  fun tick(tickId: Long) {
+    currentTick = tickId
+    synchronized(this) {
+      while (true) {
+        val ticket = expiring.peek() ?: break
+        if (ticket.expiresAtTick > tickId) {
+          break
+        }
+        expiring.poll()
+        release(ticket)
+      }
+    }
+  }
+
+  /**
+   * Take up to [max] chunks which have been without tickets for [UNLOAD_DELAY_SECONDS], as of the last [tick]
+   */
+  fun pollUnloadable(max: Int): LongArrayList =
+    synchronized(this) {
+      val polled = LongArrayList()
+      unloadWheel.advance(currentTick, max, polled)
+      polled
+    }
+
+  private fun unloadDelayTicks(): Long = UNLOAD_DELAY_SECONDS * ticksPerSecond()
+
+  private inline fun forEachChunk(ticket: ChunkTicket, action: (ChunkCompactLoc) -> Unit) {
+    for (chunkY in ticket.startY until ticket.endY) {
+      for (chunkX in ticket.startX until ticket.endX) {
+        action(compactInt(chunkX, chunkY))
+      }
+    }
+  }
+
+  companion object {
+    /**
+     * How long a chunk without tickets stays loaded
+     */
+    const val UNLOAD_DELAY_SECONDS = 30L
+  }
+}
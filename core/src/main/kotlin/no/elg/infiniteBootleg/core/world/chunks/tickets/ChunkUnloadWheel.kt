@@ -0,0 +1,114 @@
+package no.elg.infiniteBootleg.core.world.chunks.tickets
+
+import it.unimi.dsi.fastutil.HashCommon
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap
+import it.unimi.dsi.fastutil.longs.LongArrayList
+import no.elg.infiniteBootleg.core.util.ChunkCompactLoc
+import kotlin.math.min
+
+/**
+ * A hashed timing wheel of when chunks are to be unloaded.
+ *
+ * A chunk is put in the slot of its deadline tick, so advancing the wheel by one tick only looks at the chunks in a single slot.
+ * Deadlines further away than the number of slots wait in their slot for the wheel to come around again.
+ * Rescheduled and cancelled chunks are left in their old slot and skipped when the slot is visited, as the deadline is looked up in [deadlines].
+ *
+ * Not thread safe
+ */
+internal class ChunkUnloadWheel(slots: Int = DEFAULT_SLOTS) {
+
+  private val wheel = Array(HashCommon.nextPowerOfTwo(slots)) { LongArrayList() }
+  private val mask = wheel.size - 1
+
+  private val deadlines = Long2LongOpenHashMap().apply { defaultReturnValue(NO_DEADLINE) }
+
+  /**
+   * The last tick all slots have been visited up to
+   */
+  private var visitedTick = NO_DEADLINE
+
+  /**
+   * Number of scheduled chunks
+   */
+  val size: Int get() = deadlines.size
+
+  fun isScheduled(chunkLoc: ChunkCompactLoc): Boolean = deadlines.containsKey(chunkLoc)
+
+  /**
+   * Unload the chunk at [deadlineTick], replacing any earlier deadline of the chunk
+   */
+  fun schedule(chunkLoc: ChunkCompactLoc, deadlineTick: Long) {
+    // A deadline in a slot already visited would not be seen until the wheel comes around again
+    val deadline = if (visitedTick != NO_DEADLINE) maxOf(deadlineTick, visitedTick + 1) else deadlineTick
+    deadlines.put(chunkLoc, deadline)
+    wheel[slotOf(deadline)].add(chunkLoc)
+  }
+
+  fun cancel(chunkLoc: ChunkCompactLoc) {
+    deadlines.remove(chunkLoc)
+  }
+
+  /**
+   * Advance the wheel to [tickId] and take up to [max] chunks whose deadline has passed.
+   * Chunks not taken because of [max] are taken by the next calls
+   */
+  fun advance(tickId: Long, max: Int, expired: LongArrayList) {
+    if (visitedTick == NO_DEADLINE) {
+      // Visit every slot the first time, as chunks might have been scheduled at any tick before the wheel started
+      visitedTick = tickId - wheel.size
+    }
+    // Visiting more than one round of the wheel would only visit the same slots again
+    val steps = min(tickId - visitedTick, wheel.size.toLong())
+    for (step in 1..steps) {
+      val tick = visitedTick + 1
+      if (!expireSlot(slotOf(tick), tickId, max, expired)) {
+        return
+      }
+      visitedTick = tick
+    }
+    visitedTick = tickId
+  }
+
+  /**
+   * @return If the whole slot was visited, `false` if [max] chunks were taken before reaching the end of the slot
+   */
+  private fun expireSlot(slotIndex: Int, tickId: Long, max: Int, expired: LongArrayList): Boolean {
+    val slot = wheel[slotIndex]
+    var kept = 0
+    var index = 0
+    var completed = true
+    while (index < slot.size) {
+      val chunkLoc = slot.getLong(index++)
+      val deadline = deadlines.get(chunkLoc)
+      if (deadline == NO_DEADLINE || slotOf(deadline) != slotIndex) {
+        // Cancelled, or rescheduled to another slot
+        continue
+      }
+      if (deadline > tickId) {
+        // Due in a later round of the wheel
+        slot.set(kept++, chunkLoc)
+        continue
+      }
+      if (expired.size >= max) {
+        slot.set(kept++, chunkLoc)
+        completed = false
+        break
+      }
+      deadlines.remove(chunkLoc)
+      expired.add(chunkLoc)
+    }
+    // Keep the chunks not yet looked at
+    while (index < slot.size) {
+      slot.set(kept++, slot.getLong(index++))
+    }
+    slot.size(kept)
+    return completed
+  }
+
+  private fun slotOf(tick: Long): Int = (tick and mask.toLong()).toInt()
+
+  companion object {
+    const val DEFAULT_SLOTS = 1024
+    private const val NO_DEADLINE = Long.MIN_VALUE
+  }
+}
@@ -0,0 +1,93 @@
+package no.elg.infiniteBootleg.core.world.ecs
+
+import com.badlogic.ashley.core.Engine
+import com.badlogic.ashley.core.Entity
+import com.badlogic.ashley.core.EntityListener
+import com.badlogic.ashley.core.Family
+import com.google.errorprone.annotations.concurrent.GuardedBy
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap
+import it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet
+import no.elg.infiniteBootleg.core.util.ChunkCompactLoc
+import no.elg.infiniteBootleg.core.world.ecs.components.required.PositionComponent.Companion.compactChunkLoc
+
+/**
+ * Keeps track of which chunk each entity of the [family] is in, based on the [no.elg.infiniteBootleg.core.world.ecs.components.required.PositionComponent] of the entity.
+ *
+ * Entities are indexed when added to the engine, and must be [update]d when they move (see [no.elg.infiniteBootleg.core.world.ecs.system.UpdateBox2DStateSystem]).
+ * Unlike querying Box2D, the index can be read from any thread and an entity is only ever in a single chunk.
+ */
+class ChunkEntityIndex(engine: Engine, family: Family) : EntityListener {
+
+  init {
+    engine.addEntityListener(family, this)
+  }
+
+  @GuardedBy("this")
+  private val chunkOfEntity = Object2LongOpenHashMap<Entity>()
+
+  @GuardedBy("this")
+  private val entitiesInChunk = Long2ObjectOpenHashMap<ObjectOpenHashSet<Entity>>()
+
+  /**
+   * Number of entities indexed
+   */
+  val size: Int get() = synchronized(this) { chunkOfEntity.size }
+
+  /**
+   * @return A copy of the entities in the given chunk
+   */
+  fun entitiesIn(chunkLoc: ChunkCompactLoc): List<Entity> = synchronized(this) { entitiesInChunk.get(chunkLoc)?.toList() ?: emptyList() }
+
+  /**
+   * @return The chunk the entity is indexed in, or `null` if the entity is not indexed
+   */
+  fun chunkOf(entity: Entity): ChunkCompactLoc? = synchronized(this) { if (chunkOfEntity.containsKey(entity)) chunkOfEntity.getLong(entity) else null }
+
+  /**
+   * Move the entity to the chunk of its current position
+   */
+  fun update(entity: Entity) {
+    update(entity, entity.compactChunkLoc)
+  }
+
+  fun update(entity: Entity, chunkLoc: ChunkCompactLoc) {
+    synchronized(this) {
+      if (chunkOfEntity.containsKey(entity)) {
+        val oldChunkLoc = chunkOfEntity.getLong(entity)
+        if (oldChunkLoc == chunkLoc) {
+          return
+        }
+        removeFromChunk(entity, oldChunkLoc)
+      }
+      chunkOfEntity.put(entity, chunkLoc)
+      val entities = entitiesInChunk.get(chunkLoc) ?: ObjectOpenHashSet<Entity>().also { entitiesInChunk.put(chunkLoc, it) }
+      entities += entity
+    }
+  }
+
+  fun remove(entity: Entity) {
+    synchronized(this) {
+      if (chunkOfEntity.containsKey(entity)) {
+        removeFromChunk(entity, chunkOfEntity.removeLong(entity))
+      }
+    }
+  }
+
+  @GuardedBy("this")
+  private fun removeFromChunk(entity: Entity, chunkLoc: ChunkCompactLoc) {
+    val entities = entitiesInChunk.get(chunkLoc) ?: return
+    entities -= entity
+    if (entities.isEmpty()) {
+      entitiesInChunk.remove(chunkLoc)
+    }
+  }
+
+  override fun entityAdded(entity: Entity) {
+    update(entity)
+  }
+
+  override fun entityRemoved(entity: Entity) {
+    remove(entity)
+  }
+}
@@ -3,6 +3,7 @@ package no.elg.infiniteBootleg.core.world.ecs.components.events
 import com.badlogic.ashley.core.Entity
 import com.badlogic.gdx.box2d.structs.b2ShapeId
 import no.elg.infiniteBootleg.core.world.blocks.Block
+import no.elg.infiniteBootleg.core.world.blocks.Block.Companion.compactWorldLoc
 import no.elg.infiniteBootleg.core.world.box2d.extensions.body
 import no.elg.infiniteBootleg.core.world.box2d.extensions.isValid
 import no.elg.infiniteBootleg.core.world.box2d.extensions.userData
@@ -22,10 +23,18 @@ sealed class PhysicsEvent(val shapeIdA: b2ShapeId?, val shapeIdB: b2ShapeId?) :
   val blockA: Block? get() = userdataShapeA as? Block ?: userdataBodyA as? Block
   val blockB: Block? get() = userdataShapeB as? Block ?: userdataBodyB as? Block
 
+  /**
+   * The world location of the block of shape A. Unlike [blockA] this is also known for blocks which are not kept by their chunk,
+   * as the shapes of such blocks only reference their location
+   */
+  val blockLocA: Long? get() = blockA?.compactWorldLoc ?: userdataShapeA as? Long
+  val blockLocB: Long? get() = blockB?.compactWorldLoc ?: userdataShapeB as? Long
+
   fun hasEntity(): Boolean = entityA != null || entityB != null
 
   fun getOtherEventEntity(eventEntity: Entity): Entity? = if (eventEntity === entityA) entityB else entityA
   fun getOtherEventBlock(eventEntity: Entity): Block? = if (eventEntity === entityA) blockB else blockA
+  fun getOtherEventBlockLoc(eventEntity: Entity): Long? = if (eventEntity === entityA) blockLocB else blockLocA
   fun getOtherUserDataForShape(eventEntity: Entity): Any? = if (eventEntity === entityA) userdataShapeB else userdataShapeA
   fun getOtherUserDataForBody(eventEntity: Entity): Any? = if (eventEntity === entityA) userdataBodyB else userdataBodyA
 
@@ -120,6 +120,7 @@ class PositionComponent(x: WorldCoordFloat, y: WorldCoordFloat) : EntitySavableC
       position.x = worldX.toFloat()
       position.y = worldY.toFloat()
       updateBox2DPosition = true
+      world.chunkEntityIndex.update(this)
       if (killVelocity) {
         setVelocity(0f, 0f)
       }
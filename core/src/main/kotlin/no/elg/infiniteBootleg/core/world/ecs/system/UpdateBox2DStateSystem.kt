@@ -18,6 +18,7 @@ import no.elg.infiniteBootleg.core.world.ecs.components.Box2DBodyComponent.Compa
 import no.elg.infiniteBootleg.core.world.ecs.components.LookDirectionComponent.Companion.lookDirectionComponentOrNull
 import no.elg.infiniteBootleg.core.world.ecs.components.VelocityComponent.Companion.velocityComponent
 import no.elg.infiniteBootleg.core.world.ecs.components.required.PositionComponent.Companion.positionComponent
+import no.elg.infiniteBootleg.core.world.ecs.components.required.WorldComponent.Companion.world
 import no.elg.infiniteBootleg.core.world.ecs.components.transients.tags.UpdateBox2DPositionTag.Companion.updateBox2DPosition
 import no.elg.infiniteBootleg.core.world.ecs.components.transients.tags.UpdateBox2DVelocityTag.Companion.updateBox2DVelocity
 import kotlin.math.abs
@@ -29,6 +30,8 @@ import kotlin.math.abs
  *
  * We do not read or update entities without the [no.elg.infiniteBootleg.core.world.ecs.components.VelocityComponent], as they should never be moved once placed.
  * They may also a difference in box2d and ashley position.
+ *
+ * Entities which moved to another chunk are moved in the [no.elg.infiniteBootleg.core.world.world.World.chunkEntityIndex].
  */
 object UpdateBox2DStateSystem : IteratingSystem(basicDynamicEntityFamily, BEFORE + UPDATE_PRIORITY_BEFORE_EVENTS) {
 
@@ -36,6 +39,7 @@ object UpdateBox2DStateSystem : IteratingSystem(basicDynamicEntityFamily, BEFORE
     val body = entity.box2dBody
     processPosition(entity, body)
     processVelocity(entity, body)
+    entity.world.chunkEntityIndex.update(entity)
   }
 
   private fun processPosition(entity: Entity, body: b2BodyId) {
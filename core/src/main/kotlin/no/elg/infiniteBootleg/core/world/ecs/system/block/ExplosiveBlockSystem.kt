@@ -9,11 +9,13 @@ import ktx.collections.gdxSetOf
 import no.elg.infiniteBootleg.core.util.WorldCoord
 import no.elg.infiniteBootleg.core.util.distCubed
 import no.elg.infiniteBootleg.core.util.launchOnAsyncSuspendable
+import no.elg.infiniteBootleg.core.util.worldToChunk
 import no.elg.infiniteBootleg.core.world.Material
 import no.elg.infiniteBootleg.core.world.blocks.Block
 import no.elg.infiniteBootleg.core.world.blocks.Block.Companion.materialOrAir
 import no.elg.infiniteBootleg.core.world.blocks.Block.Companion.worldX
 import no.elg.infiniteBootleg.core.world.blocks.Block.Companion.worldY
+import no.elg.infiniteBootleg.core.world.chunks.tickets.ChunkTicketType
 import no.elg.infiniteBootleg.core.world.ecs.UPDATE_PRIORITY_DEFAULT
 import no.elg.infiniteBootleg.core.world.ecs.api.restriction.system.AuthoritativeSystem
 import no.elg.infiniteBootleg.core.world.ecs.components.ExplosiveComponent
@@ -37,7 +39,22 @@ object ExplosiveBlockSystem : IteratingSystem(explosiveBlockFamily, UPDATE_PRIOR
       val worldX = positionComponent.blockX
       val worldY = positionComponent.blockY
       val world = entity.world
-      launchOnAsyncSuspendable { explosiveComponent.explode(world, worldX, worldY) }
+      val strength = explosiveComponent.strength
+      // Keep the chunks of the explosion loaded until the blocks are removed
+      val ticket = world.chunkTickets.add(
+        ChunkTicketType.SYSTEM,
+        MathUtils.floor(worldX - strength).worldToChunk(),
+        MathUtils.floor(worldY - strength).worldToChunk(),
+        MathUtils.ceil(worldX + strength).worldToChunk() + 1,
+        MathUtils.ceil(worldY + strength).worldToChunk() + 1
+      )
+      launchOnAsyncSuspendable {
+        try {
+          explosiveComponent.explode(world, worldX, worldY)
+        } finally {
+          world.chunkTickets.release(ticket)
+        }
+      }
     }
   }
 
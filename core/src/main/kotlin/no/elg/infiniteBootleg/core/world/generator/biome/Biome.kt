@@ -19,11 +19,16 @@ sealed class Biome(val topBlocks: Array<Material>, val filler: Material, val bio
     localY: LocalCoord,
     height: Int
   ) {
-    val blocks = chunk.blocks[localX]
+    val blocks = chunk.blocks
     for (dy in 0 until localY) {
       val mat = materialAt(seed, height, chunk.worldX + localX, chunk.worldY + dy)
-      // will be filled with air if creating block fails
-      blocks[dy] = mat.createBlock(chunk.world, chunk, localX, dy, tryRevalidateChunk = false)
+      if (mat.createNew == null) {
+        // No entity to create, only the material has to be stored
+        blocks.setMaterial(localX, dy, mat)
+      } else {
+        // will be filled with air if creating block fails
+        blocks[localX, dy] = mat.createBlock(chunk.world, chunk, localX, dy, tryRevalidateChunk = false)
+      }
     }
   }
 
@@ -2,7 +2,9 @@ package no.elg.infiniteBootleg.core.world.generator.chunk
 
 import no.elg.infiniteBootleg.core.util.ChunkCoord
 import no.elg.infiniteBootleg.core.util.WorldCoord
+import no.elg.infiniteBootleg.core.world.Material
 import no.elg.infiniteBootleg.core.world.chunks.Chunk
+import no.elg.infiniteBootleg.core.world.chunks.storage.ChunkBlockStorage
 import no.elg.infiniteBootleg.core.world.generator.biome.Biome
 import no.elg.infiniteBootleg.core.world.world.World
 import no.elg.infiniteBootleg.protobuf.ProtoWorld
@@ -36,6 +38,15 @@ interface ChunkGenerator {
    */
   fun generate(world: World, chunkX: ChunkCoord, chunkY: ChunkCoord): Chunk
 
+  /**
+   * The materials [generate] places in the chunk, before any features are added, indexed by [ChunkBlockStorage.cellIndex].
+   *
+   * Saved chunks only store how they differ from these materials, so the result must be the same every time for the same seed
+   *
+   * @return The generated materials, or `null` if this generator cannot regenerate them
+   */
+  fun generateMaterials(chunkX: ChunkCoord, chunkY: ChunkCoord): Array<Material>? = null
+
   fun generateFeatures(chunk: Chunk) {}
 
   companion object {
@@ -3,7 +3,9 @@ package no.elg.infiniteBootleg.core.world.generator.chunk
 import no.elg.infiniteBootleg.core.main.Main
 import no.elg.infiniteBootleg.core.util.ChunkCoord
 import no.elg.infiniteBootleg.core.util.WorldCoord
+import no.elg.infiniteBootleg.core.world.Material
 import no.elg.infiniteBootleg.core.world.chunks.Chunk
+import no.elg.infiniteBootleg.core.world.chunks.storage.ChunkBlockStorage
 import no.elg.infiniteBootleg.core.world.generator.biome.Biome
 import no.elg.infiniteBootleg.core.world.world.World
 
@@ -19,6 +21,8 @@ class EmptyChunkGenerator : ChunkGenerator {
       it.finishLoading()
     }
 
+  override fun generateMaterials(chunkX: ChunkCoord, chunkY: ChunkCoord): Array<Material> = Array(ChunkBlockStorage.CELLS) { Material.Air }
+
   override fun getBiome(worldX: WorldCoord): Biome = Biome.Plains
   override fun getHeight(worldX: WorldCoord): Int = 0
   override val seed: Long = 0
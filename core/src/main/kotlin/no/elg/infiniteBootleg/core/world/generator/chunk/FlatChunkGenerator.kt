@@ -5,6 +5,7 @@ import no.elg.infiniteBootleg.core.util.ChunkCoord
 import no.elg.infiniteBootleg.core.util.WorldCoord
 import no.elg.infiniteBootleg.core.world.Material
 import no.elg.infiniteBootleg.core.world.chunks.Chunk
+import no.elg.infiniteBootleg.core.world.chunks.storage.ChunkBlockStorage
 import no.elg.infiniteBootleg.core.world.generator.biome.Biome
 import no.elg.infiniteBootleg.core.world.world.World
 
@@ -26,6 +27,9 @@ class FlatChunkGenerator : ChunkGenerator {
       chunk.finishLoading()
     }
 
+  override fun generateMaterials(chunkX: ChunkCoord, chunkY: ChunkCoord): Array<Material> =
+    Array(ChunkBlockStorage.CELLS) { if (chunkY < 0) Material.Stone else Material.Air }
+
   override fun getBiome(worldX: WorldCoord): Biome = Biome.Plains
   override fun getHeight(worldX: WorldCoord): Int = 0
   override val seed: Long = 0
@@ -9,7 +9,9 @@ import no.elg.infiniteBootleg.core.util.chunkToWorld
 import no.elg.infiniteBootleg.core.util.getNoise
 import no.elg.infiniteBootleg.core.util.getNoisePositive
 import no.elg.infiniteBootleg.core.util.worldToChunk
+import no.elg.infiniteBootleg.core.world.Material
 import no.elg.infiniteBootleg.core.world.chunks.Chunk
+import no.elg.infiniteBootleg.core.world.chunks.storage.ChunkBlockStorage
 import no.elg.infiniteBootleg.core.world.generator.ChunkGeneratedListener
 import no.elg.infiniteBootleg.core.world.generator.biome.Biome
 import no.elg.infiniteBootleg.core.world.generator.features.ForestGenerator
@@ -103,6 +105,29 @@ class PerlinChunkGenerator(override val seed: Long) :
     return chunk
   }
 
+  override fun generateMaterials(chunkX: ChunkCoord, chunkY: ChunkCoord): Array<Material> {
+    val materials = Array<Material>(ChunkBlockStorage.CELLS) { Material.Air }
+    val seed = seed.toInt()
+    for (localX in 0 until Chunk.CHUNK_SIZE) {
+      val worldX = chunkX.chunkToWorld(localX)
+      val biome = getBiome(worldX)
+      val genHeight = heightAt(worldX)
+      val genChunkY = genHeight.worldToChunk()
+      val filledUpTo = when {
+        chunkY == genChunkY -> genHeight.chunkOffset() + 1
+        chunkY < genChunkY -> Chunk.CHUNK_SIZE
+        else -> 0
+      }
+      for (localY in 0 until filledUpTo) {
+        val worldY = chunkY.chunkToWorld(localY)
+        if (!isCave(worldX, worldY, genHeight, biome)) {
+          materials[ChunkBlockStorage.cellIndex(localX, localY)] = biome.materialAt(seed, genHeight, worldX, worldY)
+        }
+      }
+    }
+    return materials
+  }
+
   override fun generateFeatures(chunk: Chunk) {
     for (localX in 0 until Chunk.CHUNK_SIZE) {
       val worldX = chunk.chunkX.chunkToWorld(localX)
@@ -129,29 +154,31 @@ class PerlinChunkGenerator(override val seed: Long) :
   ) {
     val worldChunkY = chunkY.chunkToWorld()
     val localX = worldX.chunkOffset()
-    val worldXd = worldX.toDouble()
     for (localY in 0 until Chunk.CHUNK_SIZE) {
-      val worldY = worldChunkY + localY
-      val worldYd = worldY.toDouble()
-
-      // calculate the size of the worm
-      val caveAmplitude = 1 + noiseCaveAmplitue.getNoise(worldXd, worldYd, CAVE_SIZE_AMPLITUDE)
-
-      val worm = noiseWormCaves.getNoise(worldXd, worldYd, amplitude = caveAmplitude)
-      val cheese by lazy { noiseCheeseCave.getNoisePositive(worldXd, worldYd, amplitude = caveAmplitude) }
-      val greatHall by lazy { noiseGreatHall.getNoisePositive(worldXd, worldYd, amplitude = caveAmplitude) }
-
-      val diffToSurface = (genHeight - worldY).toDouble()
-      val depthModifier = (diffToSurface / biome.biomeMaxDepth).coerceAtMost(1.0)
-      if (worm > SNAKE_CAVE_CREATION_THRESHOLD / depthModifier ||
-        cheese > CHEESE_CAVE_CREATION_THRESHOLD / depthModifier ||
-        greatHall > SNAKE_CAVE_CREATION_THRESHOLD / depthModifier
-      ) {
+      if (isCave(worldX, worldChunkY + localY, genHeight, biome)) {
         chunk.removeBlock(localX, localY, updateTexture = false, sendUpdatePacket = false)
       }
     }
   }
 
+  private fun isCave(worldX: WorldCoord, worldY: WorldCoord, genHeight: Int, biome: Biome): Boolean {
+    val worldXd = worldX.toDouble()
+    val worldYd = worldY.toDouble()
+
+    // calculate the size of the worm
+    val caveAmplitude = 1 + noiseCaveAmplitue.getNoise(worldXd, worldYd, CAVE_SIZE_AMPLITUDE)
+
+    val worm = noiseWormCaves.getNoise(worldXd, worldYd, amplitude = caveAmplitude)
+    val cheese by lazy { noiseCheeseCave.getNoisePositive(worldXd, worldYd, amplitude = caveAmplitude) }
+    val greatHall by lazy { noiseGreatHall.getNoisePositive(worldXd, worldYd, amplitude = caveAmplitude) }
+
+    val diffToSurface = (genHeight - worldY).toDouble()
+    val depthModifier = (diffToSurface / biome.biomeMaxDepth).coerceAtMost(1.0)
+    return worm > SNAKE_CAVE_CREATION_THRESHOLD / depthModifier ||
+      cheese > CHEESE_CAVE_CREATION_THRESHOLD / depthModifier ||
+      greatHall > SNAKE_CAVE_CREATION_THRESHOLD / depthModifier
+  }
+
   fun heightAt(worldX: WorldCoord): WorldCoord {
     var y = 0
     val seed = seed.toInt()
@@ -0,0 +1,246 @@
+package no.elg.infiniteBootleg.core.world.loader.chunk
+
+import io.github.oshai.kotlinlogging.KotlinLogging
+import no.elg.infiniteBootleg.core.util.ChunkCompactLoc
+import no.elg.infiniteBootleg.core.util.stringifyCompactLoc
+import no.elg.infiniteBootleg.core.world.chunks.Chunk
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executor
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+
+private val logger = KotlinLogging.logger {}
+
+/**
+ * Loads chunks in the background, reading or generating them on [executor] and publishing the loaded chunk on [publisher].
+ *
+ * There is at most one load in flight for each chunk location, concurrent requests for the same location share the same future.
+ * A load can be cancelled until its chunk has been published, a chunk loaded for a cancelled request is disposed and never published.
+ *
+ * Chunks can also be [prefetch]ed, which are loaded after the chunks requested with [load] when [executor] is backed by a priority queue
+ * (the tasks given to [executor] are [Comparable]). A prefetch joined by a [load] before it has started is moved to the front of the queue.
+ *
+ * @param fetch Read or generate the chunk at the given location, called on [executor]
+ * @param publish Make the loaded chunk available in the world, called on [publisher]. Returns the chunk now loaded at the location
+ */
+class ChunkLoadRequests(
+  private val executor: ExecutorService,
+  private val publisher: Executor,
+  private val fetch: (ChunkCompactLoc) -> LoadedChunk,
+  private val publish: (ChunkCompactLoc, LoadedChunk) -> Chunk?
+) {
+
+  /**
+   * @property isPrefetch If the load was only requested by [prefetch], synchronized on the [future]
+   */
+  private class Load(var isPrefetch: Boolean) {
+    val future = CompletableFuture<Chunk?>()
+
+    /**
+     * Set by the first task to fetch the chunk, as a promoted prefetch has two tasks queued
+     */
+    val started = AtomicBoolean()
+  }
+
+  private inner class FetchTask(private val chunkLoc: ChunkCompactLoc, private val load: Load, private val priority: Int) : Runnable, Comparable<FetchTask> {
+    private val sequence = taskSequence.getAndIncrement()
+
+    override fun run() {
+      if (load.started.compareAndSet(false, true)) {
+        fetchChunk(chunkLoc, load.future)
+      }
+    }
+
+    override fun compareTo(other: FetchTask): Int = if (priority != other.priority) priority.compareTo(other.priority) else sequence.compareTo(other.sequence)
+  }
+
+  private val inFlight = ConcurrentHashMap<ChunkCompactLoc, Load>()
+
+  private val taskSequence = AtomicLong()
+  private val requestedCounter = AtomicLong()
+  private val deduplicatedCounter = AtomicLong()
+  private val cancelledCounter = AtomicLong()
+  private val prefetchedCounter = AtomicLong()
+  private val promotedCounter = AtomicLong()
+
+  /**
+   * Number of chunks currently being loaded
+   */
+  val loading: Int get() = inFlight.size
+
+  /**
+   * Number of loads started
+   */
+  val requested: Long get() = requestedCounter.get()
+
+  /**
+   * Number of requests which were given the future of a load already in flight
+   */
+  val deduplicated: Long get() = deduplicatedCounter.get()
+
+  /**
+   * Number of loads cancelled before their chunk was published
+   */
+  val cancelled: Long get() = cancelledCounter.get()
+
+  /**
+   * Number of loads started by [prefetch]
+   */
+  val prefetched: Long get() = prefetchedCounter.get()
+
+  /**
+   * Number of prefetches joined by a [load] before their chunk was published
+   */
+  val promoted: Long get() = promotedCounter.get()
+
+  /**
+   * Load the chunk at the given location, or join the load already in flight for it
+   *
+   * @return A future completed with the chunk loaded at the location, or `null` if the chunk could not be loaded.
+   * The future completes on the [publisher], after the chunk has been published
+   */
+  fun load(chunkLoc: ChunkCompactLoc): CompletableFuture<Chunk?> = load(chunkLoc, prefetch = false)
+
+  /**
+   * Load the chunk at the given location after the chunks requested with [load], or join the load already in flight for it
+   *
+   * @return A future completed as the future of [load]
+   */
+  fun prefetch(chunkLoc: ChunkCompactLoc): CompletableFuture<Chunk?> = load(chunkLoc, prefetch = true)
+
+  private fun load(chunkLoc: ChunkCompactLoc, prefetch: Boolean): CompletableFuture<Chunk?> {
+    while (true) {
+      val existing = inFlight[chunkLoc] ?: run {
+        val load = Load(prefetch)
+        inFlight.putIfAbsent(chunkLoc, load) ?: return start(chunkLoc, load, prefetch)
+      }
+      if (join(chunkLoc, existing, prefetch)) {
+        return existing.future
+      }
+      // Cancelled, but not yet removed
+      inFlight.remove(chunkLoc, existing)
+    }
+  }
+
+  private fun start(chunkLoc: ChunkCompactLoc, load: Load, prefetch: Boolean): CompletableFuture<Chunk?> {
+    requestedCounter.incrementAndGet()
+    if (prefetch) {
+      prefetchedCounter.incrementAndGet()
+    }
+    // Registered outside of putIfAbsent, as the future might complete on this thread
+    load.future.whenComplete { _, _ -> inFlight.remove(chunkLoc, load) }
+    submit(chunkLoc, load, if (prefetch) PREFETCH_PRIORITY else LOAD_PRIORITY)
+    return load.future
+  }
+
+  /**
+   * @return If the load was joined, `false` if it has been cancelled
+   */
+  private fun join(chunkLoc: ChunkCompactLoc, load: Load, prefetch: Boolean): Boolean {
+    synchronized(load.future) {
+      if (load.future.isCancelled) {
+        return false
+      }
+      if (!prefetch && load.isPrefetch) {
+        load.isPrefetch = false
+        promotedCounter.incrementAndGet()
+        if (!load.started.get()) {
+          submit(chunkLoc, load, LOAD_PRIORITY)
+        }
+      }
+    }
+    deduplicatedCounter.incrementAndGet()
+    return true
+  }
+
+  private fun submit(chunkLoc: ChunkCompactLoc, load: Load, priority: Int) {
+    try {
+      executor.execute(FetchTask(chunkLoc, load, priority))
+    } catch (e: RejectedExecutionException) {
+      load.future.completeExceptionally(e)
+    }
+  }
+
+  /**
+   * Cancel the load of the chunk at the given location, if its chunk has not yet been published
+   *
+   * @return If a load was cancelled
+   */
+  fun cancel(chunkLoc: ChunkCompactLoc): Boolean = cancel(chunkLoc, onlyPrefetch = false)
+
+  /**
+   * Cancel the load of the chunk at the given location, if it is only loaded by [prefetch] and its chunk has not yet been published
+   *
+   * @return If a prefetch was cancelled
+   */
+  fun cancelPrefetch(chunkLoc: ChunkCompactLoc): Boolean = cancel(chunkLoc, onlyPrefetch = true)
+
+  private fun cancel(chunkLoc: ChunkCompactLoc, onlyPrefetch: Boolean): Boolean {
+    val load = inFlight[chunkLoc] ?: return false
+    // Synchronized with publishing and joining, so a load is either cancelled or published, never both
+    val wasCancelled = synchronized(load.future) {
+      (!onlyPrefetch || load.isPrefetch) && load.future.cancel(false)
+    }
+    if (wasCancelled) {
+      cancelledCounter.incrementAndGet()
+      logger.trace { "Cancelled loading chunk ${stringifyCompactLoc(chunkLoc)}" }
+    }
+    return wasCancelled
+  }
+
+  /**
+   * Cancel all loads in flight and stop loading chunks
+   */
+  fun close() {
+    for (chunkLoc in inFlight.keys) {
+      cancel(chunkLoc)
+    }
+    executor.shutdown()
+  }
+
+  private fun fetchChunk(chunkLoc: ChunkCompactLoc, future: CompletableFuture<Chunk?>) {
+    if (future.isDone) {
+      // Cancelled before the load started
+      return
+    }
+    val loadedChunk = try {
+      fetch(chunkLoc)
+    } catch (e: Exception) {
+      logger.error(e) { "Failed to load chunk ${stringifyCompactLoc(chunkLoc)}" }
+      future.completeExceptionally(e)
+      return
+    }
+    try {
+      publisher.execute { publishChunk(chunkLoc, loadedChunk, future) }
+    } catch (e: RejectedExecutionException) {
+      loadedChunk.chunk?.dispose()
+      future.completeExceptionally(e)
+    }
+  }
+
+  private fun publishChunk(chunkLoc: ChunkCompactLoc, loadedChunk: LoadedChunk, future: CompletableFuture<Chunk?>) {
+    synchronized(future) {
+      if (future.isDone) {
+        loadedChunk.chunk?.dispose()
+        return
+      }
+      val published = try {
+        publish(chunkLoc, loadedChunk)
+      } catch (e: Exception) {
+        logger.error(e) { "Failed to publish chunk ${stringifyCompactLoc(chunkLoc)}" }
+        loadedChunk.chunk?.dispose()
+        future.completeExceptionally(e)
+        return
+      }
+      future.complete(published)
+    }
+  }
+
+  companion object {
+    private const val LOAD_PRIORITY = 0
+    private const val PREFETCH_PRIORITY = 1
+  }
+}
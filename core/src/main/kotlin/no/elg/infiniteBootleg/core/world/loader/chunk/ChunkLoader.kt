@@ -7,8 +7,10 @@ import no.elg.infiniteBootleg.core.exceptions.CorruptChunkException
 import no.elg.infiniteBootleg.core.main.Main
 import no.elg.infiniteBootleg.core.util.ChunkCompactLoc
 import no.elg.infiniteBootleg.core.util.ChunkCoord
+import no.elg.infiniteBootleg.core.util.LocalCoord
 import no.elg.infiniteBootleg.core.util.deleteOrLogFile
 import no.elg.infiniteBootleg.core.util.stringifyCompactLoc
+import no.elg.infiniteBootleg.core.world.blocks.Block
 import no.elg.infiniteBootleg.core.world.chunks.Chunk
 import no.elg.infiniteBootleg.core.world.chunks.ChunkImpl
 import no.elg.infiniteBootleg.core.world.generator.chunk.ChunkGenerator
@@ -35,6 +37,18 @@ abstract class ChunkLoader(val generator: ChunkGenerator) : Disposable {
    */
   open fun save(chunk: Chunk) = Unit
 
+  /**
+   * How many more chunks can be saved before saving falls behind, chunks should not be unloaded faster than this
+   */
+  open val remainingSaveCapacity: Int get() = Int.MAX_VALUE
+
+  /**
+   * Called when a block of an initialized chunk has changed
+   *
+   * @param block The new block, or `null` if it was removed
+   */
+  open fun onBlockChanged(chunk: Chunk, localX: LocalCoord, localY: LocalCoord, block: Block?) = Unit
+
   fun loadChunkFromProto(protoChunk: ProtoWorld.Chunk): Chunk? {
     val chunkPosition = protoChunk.position
     val chunk = Main.inst().chunkFactory.createChunk(world, chunkPosition.x, chunkPosition.y)
@@ -60,7 +74,7 @@ abstract class ChunkLoader(val generator: ChunkGenerator) : Disposable {
     return false
   }
 
-  protected fun deleteChunkFile(chunkX: ChunkCoord, chunkY: ChunkCoord) {
+  protected open fun deleteChunkFile(chunkX: ChunkCoord, chunkY: ChunkCoord) {
     getChunkFile(world, chunkX, chunkY)?.let(::deleteOrLogFile)
   }
 
@@ -72,11 +86,14 @@ abstract class ChunkLoader(val generator: ChunkGenerator) : Disposable {
 
   companion object {
 
+    /**
+     * @return The file of a chunk stored in the legacy one file per chunk layout
+     */
     fun getChunkFile(world: World, chunkX: ChunkCoord, chunkY: ChunkCoord): FileHandle? {
       val worldFile = world.worldFolder ?: return null
       return worldFile.child(CHUNK_FOLDER + File.separator + chunkX + File.separator + chunkY)
     }
 
-    private const val CHUNK_FOLDER = "chunks"
+    const val CHUNK_FOLDER = "chunks"
   }
 }
@@ -0,0 +1,52 @@
+package no.elg.infiniteBootleg.core.world.loader.chunk
+
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * How well the [ChunkPrefetcher]s of a world predict where entities are heading
+ */
+class ChunkPrefetchStats {
+
+  private val prefetchedCounter = AtomicLong()
+  private val hitsCounter = AtomicLong()
+  private val wastedCounter = AtomicLong()
+
+  /**
+   * Number of chunks prefetched
+   */
+  val prefetched: Long get() = prefetchedCounter.get()
+
+  /**
+   * Number of prefetched chunks which came into view
+   */
+  val hits: Long get() = hitsCounter.get()
+
+  /**
+   * Number of prefetched chunks which never came into view, because the entity changed direction or stopped
+   */
+  val wasted: Long get() = wastedCounter.get()
+
+  /**
+   * The fraction of the decided prefetches which came into view, or `0` if no prefetch has been decided yet
+   */
+  val hitRate: Double
+    get() {
+      val hits = hits
+      val decided = hits + wasted
+      return if (decided == 0L) 0.0 else hits.toDouble() / decided
+    }
+
+  internal fun onPrefetched() {
+    prefetchedCounter.incrementAndGet()
+  }
+
+  internal fun onHit() {
+    hitsCounter.incrementAndGet()
+  }
+
+  internal fun onWasted() {
+    wastedCounter.incrementAndGet()
+  }
+
+  override fun toString(): String = "$prefetched chunks prefetched, $hits came into view and $wasted were wasted (hit rate ${"%.1f".format(hitRate * 100)}%)"
+}
@@ -0,0 +1,146 @@
+package no.elg.infiniteBootleg.core.world.loader.chunk
+
+import it.unimi.dsi.fastutil.longs.LongLinkedOpenHashSet
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet
+import no.elg.infiniteBootleg.core.Settings
+import no.elg.infiniteBootleg.core.util.ChunkCompactLoc
+import no.elg.infiniteBootleg.core.util.WorldCoordFloat
+import no.elg.infiniteBootleg.core.util.compactInt
+import no.elg.infiniteBootleg.core.util.decompactLocX
+import no.elg.infiniteBootleg.core.util.decompactLocY
+import no.elg.infiniteBootleg.core.util.worldToChunk
+import no.elg.infiniteBootleg.core.world.chunks.Chunk
+import no.elg.infiniteBootleg.core.world.render.ChunksInView
+import java.util.concurrent.CompletableFuture
+import kotlin.math.abs
+import kotlin.math.ceil
+import kotlin.math.max
+
+/**
+ * Loads the chunks a moving entity is heading towards before they come into its view.
+ *
+ * The path of the entity is predicted from its velocity [lookaheadSeconds] ahead, and the chunks which would come into view along the path are prefetched, nearest first.
+ * When the entity changes direction or stops, the prefetches no longer on the path are cancelled.
+ *
+ * Not thread safe, [update] and the futures of [prefetch] must complete on the same thread (i.e., the [no.elg.infiniteBootleg.core.events.api.ThreadType.PHYSICS] thread)
+ *
+ * @param prefetch Load the chunk at a low priority, see [no.elg.infiniteBootleg.core.world.world.World.prefetchChunkAsync]
+ * @param cancel Stop prefetching the chunk, see [no.elg.infiniteBootleg.core.world.world.World.cancelChunkPrefetch]
+ * @param onPrefetched Called with the prefetched chunks which are still on the path when they are loaded
+ */
+class ChunkPrefetcher(
+  private val stats: ChunkPrefetchStats,
+  private val prefetch: (ChunkCompactLoc) -> CompletableFuture<Chunk?>,
+  private val cancel: (ChunkCompactLoc) -> Boolean,
+  private val lookaheadSeconds: Float = Settings.chunkPrefetchSeconds,
+  private val maxChunks: Int = Settings.chunkPrefetchMaxChunks,
+  private val onPrefetched: (Chunk) -> Unit = {}
+) {
+
+  /**
+   * Chunks prefetched which have not yet come into view
+   */
+  private val prefetched = LongOpenHashSet()
+
+  /**
+   * Chunks on the predicted path, nearest first
+   */
+  private val onPath = LongLinkedOpenHashSet()
+
+  /**
+   * Number of prefetched chunks which have not yet come into view
+   */
+  val pending: Int get() = prefetched.size
+
+  /**
+   * Prefetch the chunks along the predicted path of the entity
+   *
+   * @param view The chunks currently in view of the entity
+   * @param worldX The current x position of the entity
+   * @param worldY The current y position of the entity
+   * @param dx The horizontal velocity of the entity in blocks per second
+   * @param dy The vertical velocity of the entity in blocks per second
+   */
+  fun update(view: ChunksInView, worldX: WorldCoordFloat, worldY: WorldCoordFloat, dx: Float, dy: Float) {
+    predictPath(view, worldX, worldY, dx, dy)
+
+    val iterator = prefetched.iterator()
+    while (iterator.hasNext()) {
+      val chunkLoc = iterator.nextLong()
+      if (view.isInView(chunkLoc.decompactLocX(), chunkLoc.decompactLocY())) {
+        stats.onHit()
+        iterator.remove()
+      } else if (!onPath.contains(chunkLoc)) {
+        cancel(chunkLoc)
+        stats.onWasted()
+        iterator.remove()
+      }
+    }
+
+    val pathIterator = onPath.iterator()
+    while (pathIterator.hasNext()) {
+      val chunkLoc = pathIterator.nextLong()
+      if (prefetched.add(chunkLoc)) {
+        stats.onPrefetched()
+        prefetch(chunkLoc).thenAccept { chunk ->
+          if (chunk != null && prefetched.contains(chunkLoc)) {
+            onPrefetched(chunk)
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Cancel all prefetches, i.e., when the entity is removed
+   */
+  fun clear() {
+    val iterator = prefetched.iterator()
+    while (iterator.hasNext()) {
+      cancel(iterator.nextLong())
+      stats.onWasted()
+    }
+    prefetched.clear()
+    onPath.clear()
+  }
+
+  private fun predictPath(view: ChunksInView, worldX: WorldCoordFloat, worldY: WorldCoordFloat, dx: Float, dy: Float) {
+    onPath.clear()
+    val aheadX = dx * lookaheadSeconds
+    val aheadY = dy * lookaheadSeconds
+    // One step for each chunk travelled along the longest axis
+    val steps = ceil(max(abs(aheadX), abs(aheadY)) / Chunk.CHUNK_SIZE_F).toInt()
+    val centerX = worldX.worldToChunk()
+    val centerY = worldY.worldToChunk()
+    for (step in 1..steps) {
+      val fraction = step.toFloat() / steps
+      val offsetX = (worldX + aheadX * fraction).worldToChunk() - centerX
+      val offsetY = (worldY + aheadY * fraction).worldToChunk() - centerY
+      if (!addShiftedView(view, offsetX, offsetY)) {
+        return
+      }
+    }
+  }
+
+  /**
+   * Add the chunks of the view moved by the offset which are not in the current view
+   *
+   * @return If there is room for more chunks on the path
+   */
+  private fun addShiftedView(view: ChunksInView, offsetX: Int, offsetY: Int): Boolean {
+    if (offsetX == 0 && offsetY == 0) {
+      return true
+    }
+    for (chunkY in view.verticalStart + offsetY until view.verticalEnd + offsetY) {
+      for (chunkX in view.horizontalStart + offsetX until view.horizontalEnd + offsetX) {
+        if (view.isOutOfView(chunkX, chunkY)) {
+          onPath.add(compactInt(chunkX, chunkY))
+          if (onPath.size >= maxChunks) {
+            return false
+          }
+        }
+      }
+    }
+    return true
+  }
+}
@@ -0,0 +1,282 @@
+package no.elg.infiniteBootleg.core.world.loader.chunk
+
+import com.google.errorprone.annotations.concurrent.GuardedBy
+import io.github.oshai.kotlinlogging.KotlinLogging
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet
+import no.elg.infiniteBootleg.core.util.ChunkCompactLoc
+import no.elg.infiniteBootleg.core.util.decompactLocX
+import no.elg.infiniteBootleg.core.util.decompactLocY
+import no.elg.infiniteBootleg.core.util.stringifyCompactLoc
+import no.elg.infiniteBootleg.core.world.loader.region.RegionStorage
+import no.elg.infiniteBootleg.protobuf.ProtoWorld
+import java.io.IOException
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.math.max
+import kotlin.system.measureNanoTime
+
+private val logger = KotlinLogging.logger {}
+
+/**
+ * Writes saved chunks to [storage] in the background.
+ *
+ * Chunks are queued with [submit] and written in batches by a single virtual thread, after being converted by [prepare]. A chunk which is queued again before it has been
+ * written only has its newest snapshot written. Each batch is flushed to the disk once, instead of once per chunk.
+ * A chunk which fails to be written (or flushed) fails every [barrier] waiting for it.
+ *
+ * The queue holds at most [CAPACITY] chunks before [remainingCapacity] reports it as full. Submitting never blocks, as chunks are saved
+ * from the physics thread, so it is up to the callers (i.e., the unloading of chunks in the world ticker) to slow down when it is full.
+ */
+class ChunkSavePipeline(private val storage: RegionStorage, private val prepare: (ProtoWorld.Chunk) -> ProtoWorld.Chunk = { it }) {
+
+  @GuardedBy("pending")
+  private val pending = Long2ObjectLinkedOpenHashMap<ProtoWorld.Chunk>()
+
+  /**
+   * The batch currently being written, so reading a chunk while it is written does not return an outdated version from the disk
+   */
+  @GuardedBy("pending")
+  private val writing = Long2ObjectOpenHashMap<ProtoWorld.Chunk>()
+
+  /**
+   * Chunks each [barrier] is waiting for to be written
+   */
+  @GuardedBy("pending")
+  private val barriers = ArrayList<Barrier>()
+
+  /**
+   * Why the chunks of the batch being written failed to be written
+   */
+  @GuardedBy("pending")
+  private val failed = Long2ObjectOpenHashMap<IOException>()
+
+  @GuardedBy("pending")
+  private var draining = false
+
+  @GuardedBy("pending")
+  private var closed = false
+
+  private val executor: ExecutorService = Executors.newSingleThreadExecutor(Thread.ofVirtual().name("chunk-saver").factory())
+
+  private val writtenCounter = AtomicLong()
+
+  /**
+   * Number of chunks written to the disk
+   */
+  val written: Long get() = writtenCounter.get()
+
+  /**
+   * Number of times a queued chunk was replaced by a newer snapshot before it was written
+   */
+  @Volatile
+  var deduplicated: Long = 0
+    private set
+
+  /**
+   * Number of chunks in the last batch, and the time spent writing and flushing it
+   */
+  @Volatile
+  var lastBatchSize: Int = 0
+    private set
+
+  @Volatile
+  var lastBatchMs: Long = 0
+    private set
+
+  /**
+   * Number of chunks waiting to be written
+   */
+  val backlog: Int get() = synchronized(pending) { pending.size + writing.size }
+
+  /**
+   * How many more chunks can be queued before the queue is full, never negative
+   */
+  val remainingCapacity: Int get() = max(0, CAPACITY - backlog)
+
+  /**
+   * Queue a snapshot of a chunk to be written. Replaces any queued snapshot of the same chunk which has not yet been written.
+   *
+   * Chunks submitted after the pipeline is [close]d and has written its queue are not written, as they would be written and flushed on the submitting (physics) thread
+   */
+  fun submit(chunkLoc: ChunkCompactLoc, protoChunk: ProtoWorld.Chunk) {
+    synchronized(pending) {
+      if (!closed || draining) {
+        if (pending.put(chunkLoc, protoChunk) != null) {
+          deduplicated++
+        }
+        if (!draining) {
+          draining = true
+          executor.execute(::drain)
+        }
+        return
+      }
+    }
+    logger.warn { "Not saving chunk ${stringifyCompactLoc(chunkLoc)} as the chunk save pipeline is closed" }
+  }
+
+  /**
+   * @return The newest snapshot of the chunk which has not yet been written to the disk
+   */
+  fun unwritten(chunkLoc: ChunkCompactLoc): ProtoWorld.Chunk? =
+    synchronized(pending) {
+      pending.get(chunkLoc) ?: writing.get(chunkLoc)
+    }
+
+  /**
+   * Forget any unwritten snapshot of the chunk, barriers waiting for it no longer wait for it to be written
+   */
+  fun discard(chunkLoc: ChunkCompactLoc) {
+    synchronized(pending) {
+      if (pending.remove(chunkLoc) != null && !writing.containsKey(chunkLoc)) {
+        releaseBarriers(chunkLoc)
+      }
+    }
+  }
+
+  /**
+   * @return A future completed when every chunk queued before this call has been written to the disk
+   */
+  fun barrier(): CompletableFuture<Unit> =
+    synchronized(pending) {
+      if (pending.isEmpty() && writing.isEmpty()) {
+        CompletableFuture.completedFuture(Unit)
+      } else {
+        val waitingFor = LongOpenHashSet(pending.keys)
+        waitingFor.addAll(writing.keys)
+        CompletableFuture<Unit>().also { barriers += Barrier(waitingFor, it) }
+      }
+    }
+
+  /**
+   * Complete the barriers which no longer wait for any chunk after they stop waiting for the chunks being written, or just [chunkLoc] if given.
+   * Barriers which waited for a chunk in [failed] are completed exceptionally
+   */
+  @GuardedBy("pending")
+  private fun releaseBarriers(chunkLoc: ChunkCompactLoc? = null) {
+    val iterator = barriers.iterator()
+    while (iterator.hasNext()) {
+      val barrier = iterator.next()
+      val waitingFor = barrier.waitingFor
+      if (chunkLoc == null) {
+        for (entry in failed.long2ObjectEntrySet()) {
+          if (entry.longKey in waitingFor) {
+            barrier.failure = entry.value
+          }
+        }
+        waitingFor.removeAll(writing.keys)
+      } else {
+        waitingFor.remove(chunkLoc)
+      }
+      if (waitingFor.isEmpty()) {
+        iterator.remove()
+        val failure = barrier.failure
+        if (failure != null) {
+          barrier.future.completeExceptionally(failure)
+        } else {
+          barrier.future.complete(Unit)
+        }
+      }
+    }
+  }
+
+  private fun drain() {
+    while (true) {
+      synchronized(pending) {
+        if (writing.isNotEmpty()) {
+          releaseBarriers()
+          writing.clear()
+          failed.clear()
+        }
+        if (pending.isEmpty()) {
+          draining = false
+          return
+        }
+        while (writing.size < BATCH_SIZE && pending.isNotEmpty()) {
+          val chunkLoc = pending.firstLongKey()
+          writing.put(chunkLoc, pending.removeFirst())
+        }
+      }
+      val batchFailures = Long2ObjectOpenHashMap<IOException>()
+      val nanos = measureNanoTime {
+        for (entry in writing.long2ObjectEntrySet()) {
+          write(entry.longKey, entry.value)?.let { batchFailures.put(entry.longKey, it) }
+        }
+        flush()?.let { failure ->
+          // None of the batch is known to be on the disk
+          for (chunkLoc in writing.keys) {
+            batchFailures.putIfAbsent(chunkLoc, failure)
+          }
+        }
+      }
+      synchronized(pending) {
+        failed.putAll(batchFailures)
+      }
+      lastBatchSize = writing.size
+      lastBatchMs = TimeUnit.NANOSECONDS.toMillis(nanos)
+    }
+  }
+
+  /**
+   * @return Why the chunk could not be written, or `null` if it was written
+   */
+  private fun write(chunkLoc: ChunkCompactLoc, protoChunk: ProtoWorld.Chunk): IOException? =
+    try {
+      storage.write(chunkLoc.decompactLocX(), chunkLoc.decompactLocY(), prepare(protoChunk).toByteArray())
+      writtenCounter.incrementAndGet()
+      null
+    } catch (e: IOException) {
+      logger.error(e) { "Failed to save chunk ${stringifyCompactLoc(chunkLoc)}" }
+      e
+    }
+
+  /**
+   * @return Why the written chunks could not be flushed, or `null` if they were flushed
+   */
+  private fun flush(): IOException? =
+    try {
+      storage.flush()
+      null
+    } catch (e: IOException) {
+      logger.error(e) { "Failed to flush saved chunks" }
+      e
+    }
+
+  private class Barrier(val waitingFor: LongOpenHashSet, val future: CompletableFuture<Unit>) {
+    /**
+     * Why a chunk this barrier waits for could not be written
+     */
+    var failure: IOException? = null
+  }
+
+  /**
+   * Wait for all queued chunks to be written. Chunks submitted afterward are not written, see [submit]
+   */
+  fun close(timeoutMillis: Long = CLOSE_TIMEOUT_MILLIS) {
+    synchronized(pending) {
+      closed = true
+    }
+    executor.shutdown()
+    if (!executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)) {
+      logger.error { "Timed out waiting for $backlog chunks to be saved" }
+    }
+  }
+
+  companion object {
+    /**
+     * Number of chunks which can be queued before the queue is considered full
+     */
+    const val CAPACITY = 1024
+
+    /**
+     * Maximum number of chunks written between each flush to the disk
+     */
+    const val BATCH_SIZE = 64
+
+    private const val CLOSE_TIMEOUT_MILLIS = 30_000L
+  }
+}
@@ -0,0 +1,126 @@
+package no.elg.infiniteBootleg.core.world.loader.chunk
+
+import io.github.oshai.kotlinlogging.KotlinLogging
+import no.elg.infiniteBootleg.core.util.ChunkCompactLoc
+import no.elg.infiniteBootleg.core.util.decompactLocX
+import no.elg.infiniteBootleg.core.util.decompactLocY
+import no.elg.infiniteBootleg.core.util.stringifyCompactLoc
+import no.elg.infiniteBootleg.core.world.chunks.Chunk
+import no.elg.infiniteBootleg.core.world.loader.region.RegionStorage
+import no.elg.infiniteBootleg.protobuf.ProtoWorld
+import java.io.IOException
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CompletionException
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executor
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+import java.util.concurrent.atomic.AtomicInteger
+
+private val logger = KotlinLogging.logger {}
+
+/**
+ * Saves all loaded chunks when a world is closed, serializing and writing them on [workers] threads straight to [storage].
+ *
+ * The save is bounded by a timeout, chunks which have not been written by then are given up on so the world can close in time.
+ * A chunk which fails to save is recorded in the [Result] without stopping the other chunks.
+ */
+class ChunkShutdownSave(
+  private val storage: RegionStorage,
+  private val workers: Int,
+  private val prepare: (ProtoWorld.Chunk) -> ProtoWorld.Chunk = { it }
+) {
+
+  /**
+   * @property failed The chunks which failed to save, and why
+   * @property unsaved Number of chunks not saved before the timeout
+   */
+  data class Result(val total: Int, val saved: Int, val failed: Map<ChunkCompactLoc, Throwable>, val elapsedMillis: Long) {
+    val unsaved: Int get() = total - saved - failed.size
+    val isComplete: Boolean get() = saved == total
+  }
+
+  /**
+   * Save the chunks, must be called on the physics thread as the entities of the chunks are saved on the calling thread
+   */
+  fun save(chunks: Collection<Chunk>, timeoutMillis: Long): Result = saveAll(chunks.map { chunk -> chunk.compactLocation to chunk::save }, timeoutMillis)
+
+  /**
+   * @param saves The location of each chunk and how to save it, given the executor to serialize it on
+   */
+  internal fun saveAll(saves: List<Pair<ChunkCompactLoc, (Executor) -> CompletableFuture<ProtoWorld.Chunk>>>, timeoutMillis: Long): Result {
+    val start = System.nanoTime()
+    val deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis)
+    val total = saves.size
+    val saved = AtomicInteger()
+    val failed = ConcurrentHashMap<ChunkCompactLoc, Throwable>()
+    val remaining = CountDownLatch(total)
+    val threads = workers.coerceAtLeast(1)
+    val executor = ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, LinkedBlockingQueue(), Thread.ofPlatform().name("chunk-shutdown-saver-", 0).daemon().factory())
+    logger.info { "Saving $total chunks using $workers threads" }
+    try {
+      for ((chunkLoc, save) in saves) {
+        val future = try {
+          save(executor)
+        } catch (e: Exception) {
+          CompletableFuture.failedFuture(e)
+        }
+        future.thenAcceptAsync({ protoChunk -> write(chunkLoc, protoChunk, deadline) }, executor).whenComplete { _, e ->
+          val cause = if (e is CompletionException) e.cause ?: e else e
+          if (cause == null) {
+            saved.incrementAndGet()
+          } else if (cause !is TimeoutException) {
+            failed[chunkLoc] = cause
+            logger.error(cause) { "Failed to save chunk ${stringifyCompactLoc(chunkLoc)}" }
+          }
+          remaining.countDown()
+        }
+      }
+      while (true) {
+        val timeLeft = deadline - System.nanoTime()
+        if (timeLeft <= 0 || remaining.await(minOf(timeLeft, TimeUnit.MILLISECONDS.toNanos(PROGRESS_INTERVAL_MILLIS)), TimeUnit.NANOSECONDS)) {
+          break
+        }
+        logger.info { "Saved ${saved.get()}/$total chunks (${failed.size} failed)" }
+      }
+    } finally {
+      // Chunks which have not yet started serializing or writing are given up on. The ones in progress are allowed to finish rather than
+      // interrupted (as with shutdownNow), since interrupting a write closes the channel of its region file
+      executor.queue.clear()
+      executor.shutdown()
+      if (!executor.awaitTermination(SHUTDOWN_GRACE_MILLIS, TimeUnit.MILLISECONDS)) {
+        logger.warn { "Chunk writes did not finish within $SHUTDOWN_GRACE_MILLIS ms of the timeout" }
+      }
+      try {
+        storage.flush()
+      } catch (e: IOException) {
+        logger.error(e) { "Failed to flush saved chunks" }
+      }
+    }
+    val result = Result(total, saved.get(), HashMap(failed), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start))
+    if (result.unsaved > 0) {
+      logger.error { "Timed out after $timeoutMillis ms, ${result.unsaved} of $total chunks were not saved" }
+    }
+    logger.info { "Saved ${result.saved}/$total chunks in ${result.elapsedMillis} ms, ${result.failed.size} failed" }
+    return result
+  }
+
+  private fun write(chunkLoc: ChunkCompactLoc, protoChunk: ProtoWorld.Chunk, deadline: Long) {
+    if (System.nanoTime() > deadline) {
+      throw TimeoutException("Timed out before the chunk was written")
+    }
+    storage.write(chunkLoc.decompactLocX(), chunkLoc.decompactLocY(), prepare(protoChunk).toByteArray())
+  }
+
+  companion object {
+    /**
+     * How often progress is logged
+     */
+    const val PROGRESS_INTERVAL_MILLIS = 1000L
+
+    private const val SHUTDOWN_GRACE_MILLIS = 1000L
+  }
+}
@@ -2,15 +2,31 @@ package no.elg.infiniteBootleg.core.world.loader.chunk
 
 import com.google.protobuf.InvalidProtocolBufferException
 import io.github.oshai.kotlinlogging.KotlinLogging
+import no.elg.infiniteBootleg.core.Settings
+import no.elg.infiniteBootleg.core.events.api.EventManager
+import no.elg.infiniteBootleg.core.events.chunks.ChunkLoadedEvent
 import no.elg.infiniteBootleg.core.util.ChunkCompactLoc
 import no.elg.infiniteBootleg.core.util.ChunkCoord
+import no.elg.infiniteBootleg.core.util.LocalCoord
+import no.elg.infiniteBootleg.core.util.chunkOffset
+import no.elg.infiniteBootleg.core.util.chunkToWorld
+import no.elg.infiniteBootleg.core.util.compactInt
 import no.elg.infiniteBootleg.core.util.component1
 import no.elg.infiniteBootleg.core.util.component2
+import no.elg.infiniteBootleg.core.util.launchOnBox2d
 import no.elg.infiniteBootleg.core.util.stringifyCompactLoc
+import no.elg.infiniteBootleg.core.world.blocks.Block
 import no.elg.infiniteBootleg.core.world.chunks.Chunk
+import no.elg.infiniteBootleg.core.world.chunks.storage.PackedBlocksCodec
 import no.elg.infiniteBootleg.core.world.generator.chunk.ChunkGenerator
+import no.elg.infiniteBootleg.core.world.loader.journal.BlockJournal
+import no.elg.infiniteBootleg.core.world.loader.region.RegionStorage
 import no.elg.infiniteBootleg.core.world.world.World
 import no.elg.infiniteBootleg.protobuf.ProtoWorld
+import java.io.IOException
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
 
 private val logger = KotlinLogging.logger {}
 
@@ -20,10 +36,103 @@ private val logger = KotlinLogging.logger {}
  *
  * If a chunk is saved to disk then that chunk will be loaded (assuming [World.isTransient] is `false`) Otherwise it will be generated
  *
+ * Chunks are stored in region files (see [RegionStorage]), worlds saved with one file per chunk are converted the first time they are loaded
+ *
  * @author Elg
  */
 class FullChunkLoader(override val world: World, generator: ChunkGenerator) : ChunkLoader(generator) {
 
+  private val regionsDelegate = lazy {
+    val worldFolder = world.worldFolder ?: return@lazy null
+    RegionStorage(worldFolder.child(REGION_FOLDER).file()).also { storage ->
+      val legacyFolder = worldFolder.child(CHUNK_FOLDER).file()
+      if (legacyFolder.isDirectory) {
+        storage.convertLegacyChunks(legacyFolder)
+      }
+    }
+  }
+
+  /**
+   * Where the chunks of this world are stored, or `null` if the world has no folder
+   */
+  private val regions: RegionStorage? by regionsDelegate
+
+  private val savePipelineDelegate = lazy { regions?.let { ChunkSavePipeline(it, ::relativeToGenerator) } }
+
+  /**
+   * Writes the saved chunks to [regions] in the background
+   */
+  val savePipeline: ChunkSavePipeline? by savePipelineDelegate
+
+  private val journalDelegate = lazy {
+    if (world.isTransient) return@lazy null
+    val worldFolder = world.worldFolder ?: return@lazy null
+    try {
+      BlockJournal(worldFolder.child(JOURNAL_FOLDER).file())
+    } catch (e: IOException) {
+      logger.error(e) { "Failed to open the block journal, changes since the last save will be lost on a crash" }
+      null
+    }
+  }
+
+  /**
+   * Records the blocks changed since the last save, so they can be recovered after a crash
+   */
+  val journal: BlockJournal? by journalDelegate
+
+  /**
+   * Saves which have been started, but not yet submitted to [savePipeline]
+   */
+  private val inFlightSaves: MutableSet<CompletableFuture<*>> = ConcurrentHashMap.newKeySet()
+
+  /**
+   * Whether the current thread is replaying the journal, the replayed changes are already in the journal
+   */
+  private val replaying: ThreadLocal<Boolean> = ThreadLocal.withInitial { false }
+
+  private val replayJournalListener = EventManager.registerListener { (chunk, _): ChunkLoadedEvent ->
+    if (chunk.world === world) {
+      replayJournal(chunk)
+    }
+  }
+
+  override val remainingSaveCapacity: Int get() = savePipeline?.remainingCapacity ?: Int.MAX_VALUE
+
+  override fun onBlockChanged(chunk: Chunk, localX: LocalCoord, localY: LocalCoord, block: Block?) {
+    if (replaying.get()) return
+    journal?.append(chunk.chunkX.chunkToWorld(localX), chunk.chunkY.chunkToWorld(localY), block?.save())
+  }
+
+  /**
+   * Apply the changes recovered from the journal which are newer than the saved chunk.
+   *
+   * The changes are not journaled again, as the journal keeps them until the replayed chunk has been saved, and no update is sent as the chunk has just been loaded.
+   * They stay pending until they are replayed, so a [BlockJournal.checkpoint] taken in the meantime carries them over
+   */
+  private fun replayJournal(chunk: Chunk) {
+    val journal = journal ?: return
+    if (!journal.hasPending(chunk.compactLocation)) return
+    world.launchOnBox2d {
+      if (!chunk.isValid) {
+        logger.debug { "Chunk ${stringifyCompactLoc(chunk)} was unloaded before its journaled changes were replayed" }
+        return@launchOnBox2d
+      }
+      val entries = journal.takePending(chunk.compactLocation) ?: return@launchOnBox2d
+      replaying.set(true)
+      try {
+        for (entry in entries.values) {
+          val localX = entry.worldX.chunkOffset()
+          val localY = entry.worldY.chunkOffset()
+          val block = Block.fromProto(world, chunk, localX, localY, if (entry.hasBlock()) entry.block else null)
+          chunk.setBlock(localX, localY, block, updateTexture = true, prioritize = false, sendUpdatePacket = false)
+        }
+      } finally {
+        replaying.set(false)
+      }
+      logger.debug { "Replayed ${entries.size} journaled changes in chunk ${stringifyCompactLoc(chunk)}" }
+    }
+  }
+
   override fun fetchChunk(chunkLoc: ChunkCompactLoc): LoadedChunk {
     val (chunkX, chunkY) = chunkLoc
     val loadChunkFromFile = loadChunkFromFile(chunkX, chunkY)
@@ -44,18 +153,21 @@ class FullChunkLoader(override val world: World, generator: ChunkGenerator) : Ch
   }
 
   private fun readChunkFile(chunkX: ChunkCoord, chunkY: ChunkCoord): ProtoWorld.Chunk? {
-    val chunkFile = getChunkFile(world, chunkX, chunkY)?.file()
-    if (chunkFile != null && chunkFile.isFile && chunkFile.canRead()) {
-      val bytes = chunkFile.readBytes()
-      return try {
-        ProtoWorld.Chunk.parseFrom(bytes)
-      } catch (e: InvalidProtocolBufferException) {
-        logger.error(e) { "Invalid protobuf while reading chunk file" }
-        deleteChunkFile(chunkX, chunkY)
-        null
-      }
+    // A chunk which is reloaded before it has been written must not be read from the disk, as the disk then has an older version
+    savePipeline?.unwritten(compactInt(chunkX, chunkY))?.let { return it }
+    val bytes = try {
+      regions?.read(chunkX, chunkY)
+    } catch (e: IOException) {
+      logger.error(e) { "Failed to read chunk ${stringifyCompactLoc(chunkX, chunkY)}" }
+      null
+    } ?: return null
+    return try {
+      ProtoWorld.Chunk.parseFrom(bytes)
+    } catch (e: InvalidProtocolBufferException) {
+      logger.error(e) { "Invalid protobuf while reading chunk file" }
+      deleteChunkFile(chunkX, chunkY)
+      null
     }
-    return null
   }
 
   private fun generateChunk(chunkX: ChunkCoord, chunkY: ChunkCoord): Chunk? {
@@ -71,23 +183,121 @@ class FullChunkLoader(override val world: World, generator: ChunkGenerator) : Ch
   override fun save(chunk: Chunk) {
     if (!world.isTransient && chunk.shouldSave()) {
       // only save if valid and changed
-      val fh = getChunkFile(world, chunk.chunkX, chunk.chunkY) ?: return
-      chunk.save().thenApply {
-        fh.writeBytes(it.toByteArray(), false)
+      val savePipeline = savePipeline ?: return
+      val chunkLoc = chunk.compactLocation
+      val future = chunk.save().thenApply { savePipeline.submit(chunkLoc, it) }
+      inFlightSaves += future
+      future.whenComplete { _, _ -> inFlightSaves -= future }
+    }
+  }
+
+  /**
+   * Save all the given chunks, the journal is truncated once they have all been written to the disk
+   */
+  fun saveAll(chunks: Iterable<Chunk>) {
+    val journal = journal
+    val checkpoint = try {
+      journal?.checkpoint()
+    } catch (e: IOException) {
+      logger.error(e) { "Failed to checkpoint the block journal" }
+      null
+    }
+    for (chunk in chunks) {
+      save(chunk)
+    }
+    if (journal == null || checkpoint == null) return
+    val savePipeline = savePipeline ?: return
+    CompletableFuture.allOf(*inFlightSaves.toTypedArray())
+      .thenCompose { savePipeline.barrier() }
+      .whenComplete { _, e ->
+        if (e != null) {
+          logger.error(e) { "Failed to save chunks, keeping the block journal" }
+        } else {
+          journal.release(checkpoint)
+        }
       }
+  }
+
+  /**
+   * Only store the blocks which differ from the generated chunk, as most saved chunks are mostly unchanged from when they were generated
+   */
+  fun relativeToGenerator(protoChunk: ProtoWorld.Chunk): ProtoWorld.Chunk {
+    if (!protoChunk.hasPackedBlocks() || protoChunk.packedBlocks.relative) {
+      return protoChunk
     }
+    val position = protoChunk.position
+    val generated = generator.generateMaterials(position.x, position.y) ?: return protoChunk
+    return protoChunk.toBuilder().setPackedBlocks(PackedBlocksCodec.relativize(protoChunk.packedBlocks, generated)).build()
   }
 
   /**
-   * @param chunkX The y coordinate of the chunk (in chunk view)
-   * @param chunkY The x coordinate of the chunk (in chunk view)
-   * @return If a chunk at the given location exists
+   * Save all the given chunks in parallel when the world is closed, bounded by [Settings.shutdownSaveTimeoutMillis].
+   * Must be called on the physics thread, see [ChunkShutdownSave.save]
+   *
+   * @return The result of the save, or `null` if the chunks of this world are not saved
    */
-  private fun existsOnDisk(chunkX: ChunkCoord, chunkY: ChunkCoord): Boolean {
-    if (world.isTransient) {
-      return false
+  fun shutdownSave(chunks: Collection<Chunk>): ChunkShutdownSave.Result? {
+    if (world.isTransient) return null
+    val regions = regions ?: return null
+    val deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Settings.shutdownSaveTimeoutMillis)
+    fun millisLeft(): Long = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()).coerceAtLeast(0)
+
+    val toSave = chunks.filter { it.shouldSave() }
+    val journal = journal
+    val checkpoint = try {
+      journal?.checkpoint()
+    } catch (e: IOException) {
+      logger.error(e) { "Failed to checkpoint the block journal" }
+      null
+    }
+    // Older saves must be written before the shutdown save, otherwise they would overwrite it
+    try {
+      CompletableFuture.allOf(*inFlightSaves.toTypedArray()).get(millisLeft(), TimeUnit.MILLISECONDS)
+    } catch (e: Exception) {
+      logger.warn(e) { "Failed to wait for ${inFlightSaves.size} chunk saves" }
+    }
+    savePipeline?.let { pipeline ->
+      // These chunks are about to be saved again, no need to write the older snapshots
+      toSave.forEach { pipeline.discard(it.compactLocation) }
+      pipeline.close(millisLeft())
+    }
+
+    val result = ChunkShutdownSave(regions, Settings.shutdownSaveWorkers, ::relativeToGenerator).save(toSave, millisLeft())
+    if (journal != null && checkpoint != null && result.isComplete) {
+      journal.release(checkpoint)
+    }
+    return result
+  }
+
+  override fun deleteChunkFile(chunkX: ChunkCoord, chunkY: ChunkCoord) {
+    savePipeline?.discard(compactInt(chunkX, chunkY))
+    try {
+      regions?.delete(chunkX, chunkY)
+    } catch (e: IOException) {
+      logger.error(e) { "Failed to delete chunk ${stringifyCompactLoc(chunkX, chunkY)}" }
     }
-    val chunkFile = getChunkFile(world, chunkX, chunkY)
-    return chunkFile != null && chunkFile.exists() && !chunkFile.isDirectory
+  }
+
+  override fun dispose() {
+    super.dispose()
+    replayJournalListener.removeListener()
+    if (savePipelineDelegate.isInitialized()) {
+      savePipeline?.close()
+    }
+    if (journalDelegate.isInitialized()) {
+      try {
+        journal?.close()
+      } catch (e: IOException) {
+        logger.error(e) { "Failed to close the block journal" }
+      }
+    }
+    if (regionsDelegate.isInitialized()) {
+      regions?.dispose()
+    }
+  }
+
+  companion object {
+    const val REGION_FOLDER = "regions"
+    const val JOURNAL_FOLDER = "journal"
   }
 }
@@ -0,0 +1,277 @@
+package no.elg.infiniteBootleg.core.world.loader.journal
+
+import com.google.errorprone.annotations.concurrent.GuardedBy
+import io.github.oshai.kotlinlogging.KotlinLogging
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap
+import no.elg.infiniteBootleg.core.util.ChunkCompactLoc
+import no.elg.infiniteBootleg.core.util.WorldCompactLoc
+import no.elg.infiniteBootleg.core.util.WorldCoord
+import no.elg.infiniteBootleg.core.util.compactInt
+import no.elg.infiniteBootleg.core.util.worldToChunk
+import no.elg.infiniteBootleg.protobuf.ProtoWorld
+import java.io.ByteArrayOutputStream
+import java.io.Closeable
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.EOFException
+import java.io.File
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.StandardOpenOption
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+import java.util.zip.CRC32
+
+private val logger = KotlinLogging.logger {}
+
+/**
+ * An append-only log of the blocks changed since the chunks they are in were last saved, so the changes survive a crash.
+ *
+ * Only blocks are journaled. Entities move every tick, so journaling them would write more than saving their chunks does,
+ * and after a crash they are as they were when their chunk was last saved.
+ *
+ * ## Format
+ *
+ * The journal is split into segments, files named `<segment>.journal` in [folder]. Each segment is a sequence of records:
+ * the length of the payload (int), the CRC32 of the payload (int), and the payload which is a [ProtoWorld.JournalEntry].
+ * A segment is read until the first record which is incomplete or does not match its checksum, which is what a crash while
+ * writing leaves behind.
+ *
+ * ## Lifecycle
+ *
+ * 1. When opened, all segments are read and the newest change of each block is kept as pending, see [takePending]. The pending changes
+ *    are written to a new segment and the old segments are deleted.
+ * 2. Changes are [append]ed to the current segment. They are buffered and written to the disk every [SYNC_INTERVAL_MILLIS] milliseconds.
+ * 3. When the world is saved, a [checkpoint] starts a new segment. Once all chunks have been saved, the segments before the checkpoint
+ *    are no longer needed and are deleted with [release].
+ */
+class BlockJournal(val folder: File) : Closeable {
+
+  private val bufferLock = Any()
+  private val ioLock = Any()
+
+  @GuardedBy("bufferLock")
+  private val buffer = ByteArrayOutputStream()
+
+  @GuardedBy("bufferLock")
+  private val bufferData = DataOutputStream(buffer)
+
+  @GuardedBy("ioLock")
+  private var segment: Long
+
+  @GuardedBy("ioLock")
+  private var channel: FileChannel
+
+  @GuardedBy("pending")
+  private val pending = Long2ObjectOpenHashMap<Long2ObjectLinkedOpenHashMap<ProtoWorld.JournalEntry>>()
+
+  private val syncExecutor: ScheduledExecutorService = Executors.newSingleThreadScheduledExecutor(Thread.ofVirtual().name("block-journal").factory())
+
+  init {
+    folder.mkdirs()
+    val segments = segments()
+    for (oldSegment in segments) {
+      read(segmentFile(oldSegment)) { entry -> addPending(entry) }
+    }
+    segment = (segments.maxOrNull() ?: 0L) + 1
+    channel = open(segment)
+    val pendingEntries = synchronized(pending) { pending.values.flatMap { it.values } }
+    if (pendingEntries.isNotEmpty()) {
+      logger.info { "Recovered ${pendingEntries.size} block changes from the journal" }
+      synchronized(bufferLock) {
+        pendingEntries.forEach(::write)
+      }
+      sync()
+    }
+    // The pending changes are now in the new segment
+    segments.forEach(::delete)
+    syncExecutor.scheduleWithFixedDelay(::syncOrLog, SYNC_INTERVAL_MILLIS, SYNC_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)
+  }
+
+  /**
+   * Number of chunks with recovered changes which have not yet been replayed
+   */
+  val pendingChunks: Int get() = synchronized(pending) { pending.size }
+
+  /**
+   * Record that the block at the given location changed
+   *
+   * @param block The new block, or `null` if it was removed
+   */
+  fun append(worldX: WorldCoord, worldY: WorldCoord, block: ProtoWorld.Block?) {
+    val entry = ProtoWorld.JournalEntry.newBuilder().setWorldX(worldX).setWorldY(worldY)
+    if (block != null) {
+      entry.setBlock(block)
+    }
+    val built = entry.build()
+    synchronized(bufferLock) {
+      write(built)
+    }
+  }
+
+  /**
+   * @return Whether there are recovered changes of the given chunk which have not been taken
+   */
+  fun hasPending(chunkLoc: ChunkCompactLoc): Boolean = synchronized(pending) { pending.containsKey(chunkLoc) }
+
+  /**
+   * Remove and return the recovered changes of the given chunk, keyed by the location of the block
+   */
+  fun takePending(chunkLoc: ChunkCompactLoc): Map<WorldCompactLoc, ProtoWorld.JournalEntry>? = synchronized(pending) { pending.remove(chunkLoc) }
+
+  private fun addPending(entry: ProtoWorld.JournalEntry) {
+    val chunkLoc = compactInt(entry.worldX.worldToChunk(), entry.worldY.worldToChunk())
+    synchronized(pending) {
+      val entries = pending.get(chunkLoc) ?: Long2ObjectLinkedOpenHashMap<ProtoWorld.JournalEntry>().also { pending.put(chunkLoc, it) }
+      entries.put(compactInt(entry.worldX, entry.worldY), entry)
+    }
+  }
+
+  @GuardedBy("bufferLock")
+  private fun write(entry: ProtoWorld.JournalEntry) {
+    val payload = entry.toByteArray()
+    val crc = CRC32()
+    crc.update(payload)
+    bufferData.writeInt(payload.size)
+    bufferData.writeInt(crc.value.toInt())
+    bufferData.write(payload)
+  }
+
+  /**
+   * Write all appended changes to the disk
+   */
+  @Throws(IOException::class)
+  fun sync() {
+    synchronized(ioLock) {
+      val bytes = synchronized(bufferLock) {
+        if (buffer.size() == 0) return
+        buffer.toByteArray().also { buffer.reset() }
+      }
+      val byteBuffer = ByteBuffer.wrap(bytes)
+      while (byteBuffer.hasRemaining()) {
+        channel.write(byteBuffer)
+      }
+      channel.force(false)
+    }
+  }
+
+  private fun syncOrLog() {
+    try {
+      sync()
+    } catch (e: IOException) {
+      logger.error(e) { "Failed to write the block journal" }
+    }
+  }
+
+  /**
+   * Start a new segment, the changes appended before this are in the returned segment or older ones.
+   * Changes which have been recovered, but not yet replayed, are copied to the new segment.
+   *
+   * @return The last segment before the checkpoint, to be given to [release] when all chunks have been saved
+   */
+  @Throws(IOException::class)
+  fun checkpoint(): Long =
+    synchronized(ioLock) {
+      sync()
+      channel.close()
+      val previous = segment
+      segment++
+      channel = open(segment)
+      val pendingEntries = synchronized(pending) { pending.values.flatMap { it.values } }
+      synchronized(bufferLock) {
+        pendingEntries.forEach(::write)
+      }
+      previous
+    }
+
+  /**
+   * Delete all segments up to, and including, the given segment
+   */
+  fun release(checkpoint: Long) {
+    for (oldSegment in segments()) {
+      if (oldSegment <= checkpoint) {
+        delete(oldSegment)
+      }
+    }
+  }
+
+  override fun close() {
+    syncExecutor.shutdown()
+    synchronized(ioLock) {
+      try {
+        sync()
+      } finally {
+        channel.close()
+      }
+    }
+  }
+
+  private fun segments(): List<Long> =
+    folder.listFiles { file -> file.name.endsWith(SEGMENT_EXTENSION) }
+      ?.mapNotNull { it.name.removeSuffix(SEGMENT_EXTENSION).toLongOrNull() }
+      ?.sorted()
+      ?: emptyList()
+
+  private fun segmentFile(segment: Long): File = File(folder, "$segment$SEGMENT_EXTENSION")
+
+  private fun open(segment: Long): FileChannel =
+    FileChannel.open(segmentFile(segment).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)
+
+  private fun delete(segment: Long) {
+    val file = segmentFile(segment)
+    if (file.exists() && !file.delete()) {
+      logger.warn { "Failed to delete journal segment ${file.path}" }
+    }
+  }
+
+  companion object {
+    const val SEGMENT_EXTENSION = ".journal"
+    const val SYNC_INTERVAL_MILLIS = 200L
+
+    /**
+     * Records larger than this are assumed to be corrupt
+     */
+    private const val MAX_RECORD_SIZE = 1 shl 20
+
+    /**
+     * Read all valid records of a segment
+     *
+     * @return The number of records read
+     */
+    fun read(file: File, action: (ProtoWorld.JournalEntry) -> Unit): Int {
+      var records = 0
+      DataInputStream(file.inputStream().buffered()).use { input ->
+        val crc = CRC32()
+        while (true) {
+          val length: Int
+          val checksum: Int
+          val payload: ByteArray
+          try {
+            length = input.readInt()
+            checksum = input.readInt()
+            if (length !in 0..MAX_RECORD_SIZE) {
+              logger.warn { "Invalid record length $length in journal ${file.path}, ignoring the rest of the segment" }
+              return records
+            }
+            payload = ByteArray(length)
+            input.readFully(payload)
+          } catch (_: EOFException) {
+            // Either the end of the segment or a record which was not fully written
+            return records
+          }
+          crc.reset()
+          crc.update(payload)
+          if (crc.value.toInt() != checksum) {
+            logger.warn { "Checksum mismatch in journal ${file.path}, ignoring the rest of the segment" }
+            return records
+          }
+          action(ProtoWorld.JournalEntry.parseFrom(payload))
+          records++
+        }
+      }
+    }
+  }
+}
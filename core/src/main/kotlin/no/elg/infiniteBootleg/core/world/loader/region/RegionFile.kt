@@ -0,0 +1,224 @@
+package no.elg.infiniteBootleg.core.world.loader.region
+
+import io.github.oshai.kotlinlogging.KotlinLogging
+import no.elg.infiniteBootleg.core.util.ChunkCoord
+import java.io.Closeable
+import java.io.EOFException
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption
+import java.util.BitSet
+
+private val logger = KotlinLogging.logger {}
+
+/**
+ * A single file holding the chunks of a [REGION_SIZE] × [REGION_SIZE] area.
+ *
+ * ## Layout
+ *
+ * The file is split into sectors of [SECTOR_SIZE] bytes. The first [HEADER_SECTORS] sectors are the header, which has one entry per chunk:
+ * the first sector of the chunk and the length of the chunk in bytes, both as big-endian ints. A sector of `0` means the chunk is not stored.
+ *
+ * The chunks are stored in whole sectors. A chunk is always written to free sectors, and the header is only updated to point at it when the
+ * region is [flush]ed, after the chunk is on the disk. The sectors of the previous version are not reused until the updated header is on the disk,
+ * so a crash while writing never corrupts the previously saved version of the chunk.
+ *
+ * All access is synchronized on the region file.
+ */
+class RegionFile(val path: Path) : Closeable {
+
+  private val channel: FileChannel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)
+
+  private val sectors = IntArray(CHUNKS)
+  private val lengths = IntArray(CHUNKS)
+  private val usedSectors = BitSet()
+
+  /**
+   * Entries which have changed since the header was last written
+   */
+  private val dirtyEntries = BitSet()
+
+  /**
+   * Sectors which are no longer used, but which the header on the disk might still point at
+   */
+  private val releasedSectors = BitSet()
+
+  init {
+    val size = channel.size()
+    if (size < HEADER_BYTES) {
+      writeFully(ByteBuffer.allocate(HEADER_BYTES), 0)
+    } else {
+      val header = ByteBuffer.allocate(HEADER_BYTES)
+      readFully(header, 0)
+      header.flip()
+      val fileSectors = sectorsFor(size)
+      for (index in 0 until CHUNKS) {
+        val sector = header.getInt()
+        val length = header.getInt()
+        if (sector == 0) {
+          continue
+        }
+        if (sector < HEADER_SECTORS || length <= 0 || sector + sectorsFor(length.toLong()) > fileSectors) {
+          logger.warn { "Ignoring invalid entry of chunk $index in region $path (sector $sector, length $length)" }
+          continue
+        }
+        sectors[index] = sector
+        lengths[index] = length
+        usedSectors.set(sector, sector + sectorsFor(length.toLong()))
+      }
+    }
+    usedSectors.set(0, HEADER_SECTORS)
+  }
+
+  /**
+   * Number of chunks stored in this region
+   */
+  val chunks: Int @Synchronized get() = sectors.count { it != 0 }
+
+  @Synchronized
+  fun contains(localX: ChunkCoord, localY: ChunkCoord): Boolean = sectors[index(localX, localY)] != 0
+
+  /**
+   * @return The bytes of the chunk, or `null` if the chunk is not stored in this region
+   */
+  @Synchronized
+  fun read(localX: ChunkCoord, localY: ChunkCoord): ByteArray? {
+    val index = index(localX, localY)
+    val sector = sectors[index]
+    if (sector == 0) {
+      return null
+    }
+    val buffer = ByteBuffer.allocate(lengths[index])
+    readFully(buffer, sector.toLong() * SECTOR_SIZE)
+    return buffer.array()
+  }
+
+  @Synchronized
+  fun write(localX: ChunkCoord, localY: ChunkCoord, bytes: ByteArray) {
+    require(bytes.isNotEmpty()) { "Cannot write an empty chunk" }
+    val index = index(localX, localY)
+    val needed = sectorsFor(bytes.size.toLong())
+    val sector = allocate(needed)
+    writeFully(ByteBuffer.wrap(bytes), sector.toLong() * SECTOR_SIZE)
+    usedSectors.set(sector, sector + needed)
+    release(index)
+    setEntry(index, sector, bytes.size)
+  }
+
+  @Synchronized
+  fun delete(localX: ChunkCoord, localY: ChunkCoord) {
+    val index = index(localX, localY)
+    if (sectors[index] != 0) {
+      release(index)
+      setEntry(index, 0, 0)
+    }
+  }
+
+  /**
+   * Flush all written chunks and then the header pointing at them to the disk, including the size of the file as the chunks might have been appended
+   */
+  @Synchronized
+  fun flush() {
+    if (!dirtyEntries.isEmpty) {
+      channel.force(false)
+      var index = dirtyEntries.nextSetBit(0)
+      while (index >= 0) {
+        writeEntry(index)
+        index = dirtyEntries.nextSetBit(index + 1)
+      }
+      dirtyEntries.clear()
+    }
+    channel.force(true)
+    usedSectors.andNot(releasedSectors)
+    releasedSectors.clear()
+  }
+
+  @Synchronized
+  override fun close() {
+    if (channel.isOpen) {
+      flush()
+      channel.close()
+    }
+  }
+
+  /**
+   * @return The first sector of [count] free sectors in a row, the end of the file if there are none
+   */
+  private fun allocate(count: Int): Int {
+    var start = HEADER_SECTORS
+    while (true) {
+      val free = usedSectors.nextClearBit(start)
+      val nextUsed = usedSectors.nextSetBit(free)
+      if (nextUsed == -1 || nextUsed - free >= count) {
+        return free
+      }
+      start = nextUsed
+    }
+  }
+
+  /**
+   * Mark the sectors of the chunk as free once the header no longer pointing at them is on the disk
+   */
+  private fun release(index: Int) {
+    val sector = sectors[index]
+    if (sector != 0) {
+      releasedSectors.set(sector, sector + sectorsFor(lengths[index].toLong()))
+    }
+  }
+
+  private fun setEntry(index: Int, sector: Int, length: Int) {
+    sectors[index] = sector
+    lengths[index] = length
+    dirtyEntries.set(index)
+  }
+
+  private fun writeEntry(index: Int) {
+    val entry = ByteBuffer.allocate(ENTRY_BYTES).putInt(sectors[index]).putInt(lengths[index])
+    entry.flip()
+    writeFully(entry, index.toLong() * ENTRY_BYTES)
+  }
+
+  private fun readFully(buffer: ByteBuffer, position: Long) {
+    var offset = position
+    while (buffer.hasRemaining()) {
+      val read = channel.read(buffer, offset)
+      if (read < 0) {
+        throw EOFException("Unexpected end of region $path at $offset")
+      }
+      offset += read
+    }
+  }
+
+  private fun writeFully(buffer: ByteBuffer, position: Long) {
+    var offset = position
+    while (buffer.hasRemaining()) {
+      offset += channel.write(buffer, offset)
+    }
+  }
+
+  override fun toString(): String = "RegionFile(path=$path)"
+
+  companion object {
+    /**
+     * Number of chunks along each axis of a region, must be a power of two
+     */
+    const val REGION_SIZE = 32
+    const val REGION_SHIFT = 5
+    const val REGION_MASK = REGION_SIZE - 1
+
+    const val SECTOR_SIZE = 4096
+
+    private const val CHUNKS = REGION_SIZE * REGION_SIZE
+    private const val ENTRY_BYTES = Int.SIZE_BYTES * 2
+    private const val HEADER_BYTES = CHUNKS * ENTRY_BYTES
+    private const val HEADER_SECTORS = (HEADER_BYTES + SECTOR_SIZE - 1) / SECTOR_SIZE
+
+    private fun sectorsFor(bytes: Long): Int = ((bytes + SECTOR_SIZE - 1) / SECTOR_SIZE).toInt()
+
+    private fun index(localX: ChunkCoord, localY: ChunkCoord): Int {
+      require(localX in 0 until REGION_SIZE && localY in 0 until REGION_SIZE) { "Chunk ($localX, $localY) is outside the region" }
+      return localX * REGION_SIZE + localY
+    }
+  }
+}
@@ -0,0 +1,169 @@
+package no.elg.infiniteBootleg.core.world.loader.region
+
+import com.badlogic.gdx.utils.Disposable
+import com.google.errorprone.annotations.concurrent.GuardedBy
+import io.github.oshai.kotlinlogging.KotlinLogging
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap
+import no.elg.infiniteBootleg.core.util.ChunkCoord
+import no.elg.infiniteBootleg.core.util.compactInt
+import no.elg.infiniteBootleg.core.world.loader.region.RegionFile.Companion.REGION_MASK
+import no.elg.infiniteBootleg.core.world.loader.region.RegionFile.Companion.REGION_SHIFT
+import java.io.File
+import java.io.IOException
+import java.util.concurrent.locks.ReentrantReadWriteLock
+import kotlin.concurrent.read
+import kotlin.concurrent.write
+
+private val logger = KotlinLogging.logger {}
+
+/**
+ * Stores chunks in [RegionFile]s within [folder]. Region files are opened when first used and kept open until the storage is disposed.
+ *
+ * Chunks may still be written after the storage is disposed (e.g., by saves which were started before the world was closed), the region
+ * file is then opened and closed for each write. Disposing waits for reads and writes which are in progress, so an open region file is never
+ * closed while it is being used.
+ */
+class RegionStorage(val folder: File) : Disposable {
+
+  /**
+   * Held for reading while a region file is used, and for writing while the region files are closed
+   */
+  private val lifecycle = ReentrantReadWriteLock()
+
+  @GuardedBy("regions")
+  private val regions = Long2ObjectOpenHashMap<RegionFile>()
+
+  @GuardedBy("regions")
+  private var disposed = false
+
+  /**
+   * Number of region files currently open
+   */
+  val openRegions: Int get() = synchronized(regions) { regions.size }
+
+  /**
+   * @return The bytes of the chunk, or `null` if the chunk is not stored
+   */
+  @Throws(IOException::class)
+  fun read(chunkX: ChunkCoord, chunkY: ChunkCoord): ByteArray? =
+    withRegion(chunkX, chunkY, create = false) { region -> region.read(chunkX and REGION_MASK, chunkY and REGION_MASK) }
+
+  @Throws(IOException::class)
+  fun write(chunkX: ChunkCoord, chunkY: ChunkCoord, bytes: ByteArray) {
+    withRegion(chunkX, chunkY, create = true) { region -> region.write(chunkX and REGION_MASK, chunkY and REGION_MASK, bytes) }
+  }
+
+  @Throws(IOException::class)
+  fun delete(chunkX: ChunkCoord, chunkY: ChunkCoord) {
+    withRegion(chunkX, chunkY, create = false) { region -> region.delete(chunkX and REGION_MASK, chunkY and REGION_MASK) }
+  }
+
+  /**
+   * Flush the written chunks, and the headers pointing at them, of all open regions to the disk
+   */
+  @Throws(IOException::class)
+  fun flush() {
+    lifecycle.read {
+      val open = synchronized(regions) { regions.values.toList() }
+      open.forEach(RegionFile::flush)
+    }
+  }
+
+  private inline fun <R> withRegion(chunkX: ChunkCoord, chunkY: ChunkCoord, create: Boolean, action: (RegionFile) -> R): R? {
+    val regionX = chunkX shr REGION_SHIFT
+    val regionY = chunkY shr REGION_SHIFT
+    val file = regionFile(regionX, regionY)
+    lifecycle.read {
+      val region: RegionFile
+      synchronized(regions) {
+        if (disposed) {
+          if (!create && !file.isFile) return null
+          return RegionFile(file.toPath()).use(action)
+        }
+        val regionLoc = compactInt(regionX, regionY)
+        val open = regions.get(regionLoc)
+        if (open != null) {
+          region = open
+        } else {
+          if (!create && !file.isFile) return null
+          folder.mkdirs()
+          region = RegionFile(file.toPath())
+          regions.put(regionLoc, region)
+        }
+      }
+      // The region cannot be closed while the read lock is held
+      return action(region)
+    }
+  }
+
+  private fun regionFile(regionX: Int, regionY: Int): File = File(folder, "r.$regionX.$regionY$REGION_EXTENSION")
+
+  /**
+   * Move all chunks stored as one file per chunk (i.e., `<legacyFolder>/<chunkX>/<chunkY>`) into region files.
+   * The legacy files are only deleted once all chunks have been copied and flushed to the disk, so a crash while converting never loses a chunk.
+   *
+   * @return The number of chunks converted
+   */
+  fun convertLegacyChunks(legacyFolder: File): Int {
+    val columns = legacyFolder.listFiles() ?: return 0
+    var converted = 0
+    val copied = ArrayList<File>()
+    for (column in columns) {
+      val chunkX = column.name.toIntOrNull()
+      val files = column.listFiles()
+      if (chunkX == null || files == null) {
+        logger.warn { "Skipping unknown file ${column.path} while converting chunks to regions" }
+        continue
+      }
+      for (chunkFile in files) {
+        val chunkY = chunkFile.name.toIntOrNull()
+        if (chunkY == null || !chunkFile.isFile) {
+          logger.warn { "Skipping unknown file ${chunkFile.path} while converting chunks to regions" }
+          continue
+        }
+        try {
+          val bytes = chunkFile.readBytes()
+          if (bytes.isNotEmpty()) {
+            write(chunkX, chunkY, bytes)
+            converted++
+          }
+          copied += chunkFile
+        } catch (e: IOException) {
+          logger.error(e) { "Failed to convert chunk file ${chunkFile.path}" }
+        }
+      }
+    }
+    try {
+      flush()
+    } catch (e: IOException) {
+      logger.error(e) { "Failed to flush the converted chunks, keeping the chunk files in ${legacyFolder.path}" }
+      return 0
+    }
+    copied.forEach(File::delete)
+    // Only removes the folders which are now empty
+    columns.forEach(File::delete)
+    legacyFolder.delete()
+    logger.info { "Converted $converted chunks from ${legacyFolder.path} to region files" }
+    return converted
+  }
+
+  override fun dispose() {
+    lifecycle.write {
+      synchronized(regions) {
+        disposed = true
+        for (region in regions.values) {
+          try {
+            region.close()
+          } catch (e: IOException) {
+            logger.error(e) { "Failed to close $region" }
+          }
+        }
+        regions.clear()
+      }
+    }
+  }
+
+  companion object {
+    const val REGION_EXTENSION = ".region"
+  }
+}
@@ -1,7 +1,5 @@
 package no.elg.infiniteBootleg.core.world.ticker
 
-import com.badlogic.gdx.utils.LongMap
-import com.google.errorprone.annotations.concurrent.GuardedBy
 import io.github.oshai.kotlinlogging.KotlinLogging
 import no.elg.infiniteBootleg.core.api.Ticking
 import no.elg.infiniteBootleg.core.events.WorldRareTickedEvent
@@ -9,57 +7,41 @@ import no.elg.infiniteBootleg.core.events.WorldTickedEvent
 import no.elg.infiniteBootleg.core.events.api.EventManager
 import no.elg.infiniteBootleg.core.util.launchOnAsyncSuspendable
 import no.elg.infiniteBootleg.core.util.stringifyCompactLoc
-import no.elg.infiniteBootleg.core.world.chunks.Chunk
-import no.elg.infiniteBootleg.core.world.chunks.ViewableChunk
 import no.elg.infiniteBootleg.core.world.world.World
+import kotlin.math.min
 
 private val logger = KotlinLogging.logger {}
 
 internal class WorldTickee(private val world: World) : Ticking {
 
-  @GuardedBy("world.chunksLock")
-  private val chunkIterator: LongMap.Entries<Chunk> = world.createChunkIterator()
   private val worldTickedEvent = WorldTickedEvent(world)
   private val worldRareTickedEvent = WorldRareTickedEvent(world)
 
   override fun tick() {
-    val chunkUnloadTime = world.worldTicker.tps * CHUNK_UNLOAD_SECONDS
-
-    // tick all chunks and blocks in chunks
     val tick = world.worldTicker.tickId
-
-    var unloadQuota = ALLOWED_NORMAL_CHUNK_UNLOADS_PER_SECOND / world.worldTicker.tps
-
-    fun shouldUnloadChunk(chunk: Chunk): Boolean =
-      !chunk.isDisposed && chunk.allowedToUnload && world.render.isOutOfView(chunk) && (chunk is ViewableChunk && tick - chunk.lastViewedTick > chunkUnloadTime)
-
-    world.readChunks {
-      chunkIterator.reset()
-      while (chunkIterator.hasNext()) {
-        val chunk: Chunk? = chunkIterator.next().value
-
-        // clean up dead chunks
-        if (chunk == null) {
-          logger.warn { "Found null chunk when ticking world" }
-          chunkIterator.remove() // Assume this is how we handle it, not happened yet
-        } else if (chunk.isDisposed) {
-          logger.warn { "Found disposed chunk ${stringifyCompactLoc(chunk)} when ticking world" }
-          launchOnAsyncSuspendable {
-            world.unloadChunk(chunk, force = true)
-          }
-          unloadQuota-- // force unloads also count against quota, ok to be negative
-        } else if (unloadQuota > 0 && shouldUnloadChunk(chunk)) {
-          unloadQuota--
-          launchOnAsyncSuspendable {
-            // Make sure we don't double unload the chunk.
-            // If the async thread is slow we might have to wait and the ticker then might have scheduled it multiple times
-            if (shouldUnloadChunk(chunk)) {
-              world.unloadChunk(chunk)
-            }
+    val chunkTickets = world.chunkTickets
+    chunkTickets.tick(tick)
+
+    // Unloaded chunks are saved, so do not unload more chunks than the chunk loader is able to save
+    val unloadQuota = min(ALLOWED_NORMAL_CHUNK_UNLOADS_PER_SECOND / world.worldTicker.tps, world.chunkLoader.remainingSaveCapacity.toLong()).toInt()
+    val unloadable = chunkTickets.pollUnloadable(unloadQuota)
+    if (unloadable.isNotEmpty()) {
+      // Unload the whole batch in one go, the saved chunks are then written to disk together by the save pipeline
+      launchOnAsyncSuspendable {
+        for (i in 0 until unloadable.size) {
+          val chunkLoc = unloadable.getLong(i)
+          val chunk = world.getChunk(chunkLoc, load = false) ?: continue
+          if (!chunk.allowedToUnload) {
+            logger.trace { "Chunk ${stringifyCompactLoc(chunk)} has no tickets, but is not allowed to unload" }
+            chunkTickets.reschedule(chunkLoc)
+          } else if (chunkTickets.ticketCount(chunkLoc) == 0) {
+            // A ticket might have been taken on the chunk since it was polled
+            world.unloadChunk(chunk)
           }
         }
       }
     }
+    world.lightUpdateScheduler.tick()
     EventManager.dispatchEvent(worldTickedEvent)
   }
 
@@ -70,7 +52,6 @@ internal class WorldTickee(private val world: World) : Ticking {
   }
 
   companion object {
-    private const val CHUNK_UNLOAD_SECONDS = 30L
     private const val ALLOWED_NORMAL_CHUNK_UNLOADS_PER_SECOND = 500
   }
 }
@@ -8,7 +8,6 @@ import com.badlogic.gdx.math.MathUtils
 import com.badlogic.gdx.math.Vector2
 import com.badlogic.gdx.utils.LongMap
 import com.badlogic.gdx.utils.ObjectSet
-import com.google.errorprone.annotations.concurrent.GuardedBy
 import io.github.oshai.kotlinlogging.KotlinLogging
 import it.unimi.dsi.fastutil.Hash.FAST_LOAD_FACTOR
 import it.unimi.dsi.fastutil.longs.Long2ObjectArrayMap
@@ -36,6 +35,7 @@ import no.elg.infiniteBootleg.core.util.CheckableDisposable
 import no.elg.infiniteBootleg.core.util.ChunkColumnFeatureFlag
 import no.elg.infiniteBootleg.core.util.ChunkCompactLoc
 import no.elg.infiniteBootleg.core.util.ChunkCoord
+import no.elg.infiniteBootleg.core.util.ConcurrentLongMap
 import no.elg.infiniteBootleg.core.util.LocalCoord
 import no.elg.infiniteBootleg.core.util.WorldCompactLoc
 import no.elg.infiniteBootleg.core.util.WorldCompactLocArray
@@ -74,11 +74,12 @@ import no.elg.infiniteBootleg.core.world.Material
 import no.elg.infiniteBootleg.core.world.WorldMetadata
 import no.elg.infiniteBootleg.core.world.WorldTime
 import no.elg.infiniteBootleg.core.world.blocks.Block
-import no.elg.infiniteBootleg.core.world.blocks.Block.Companion.materialOrAir
 import no.elg.infiniteBootleg.core.world.blocks.Block.Companion.remove
 import no.elg.infiniteBootleg.core.world.blocks.Block.Companion.worldX
 import no.elg.infiniteBootleg.core.world.blocks.Block.Companion.worldY
+import no.elg.infiniteBootleg.core.world.blocks.AdditiveLightEngine
 import no.elg.infiniteBootleg.core.world.blocks.BlockLight
+import no.elg.infiniteBootleg.core.world.blocks.FloodFillLightEngine
 import no.elg.infiniteBootleg.core.world.box2d.VoidPointerManager
 import no.elg.infiniteBootleg.core.world.box2d.WorldBody
 import no.elg.infiniteBootleg.core.world.chunks.Chunk
@@ -86,6 +87,9 @@ import no.elg.infiniteBootleg.core.world.chunks.Chunk.Companion.invalid
 import no.elg.infiniteBootleg.core.world.chunks.Chunk.Companion.valid
 import no.elg.infiniteBootleg.core.world.chunks.ChunkColumn
 import no.elg.infiniteBootleg.core.world.chunks.ChunkColumnsManager
+import no.elg.infiniteBootleg.core.world.chunks.LightUpdateScheduler
+import no.elg.infiniteBootleg.core.world.chunks.tickets.ChunkTickets
+import no.elg.infiniteBootleg.core.world.ecs.ChunkEntityIndex
 import no.elg.infiniteBootleg.core.world.ecs.ThreadSafeEngine
 import no.elg.infiniteBootleg.core.world.ecs.ThreadSafeEntitySet
 import no.elg.infiniteBootleg.core.world.ecs.basicRequiredEntityFamily
@@ -114,8 +118,11 @@ import no.elg.infiniteBootleg.core.world.ecs.system.event.PhysicsEventSystem
 import no.elg.infiniteBootleg.core.world.ecs.system.magic.SpellRemovalSystem
 import no.elg.infiniteBootleg.core.world.generator.chunk.ChunkGenerator
 import no.elg.infiniteBootleg.core.world.loader.WorldLoader
+import no.elg.infiniteBootleg.core.world.loader.chunk.ChunkLoadRequests
 import no.elg.infiniteBootleg.core.world.loader.chunk.ChunkLoader
+import no.elg.infiniteBootleg.core.world.loader.chunk.ChunkPrefetchStats
 import no.elg.infiniteBootleg.core.world.loader.chunk.FullChunkLoader
+import no.elg.infiniteBootleg.core.world.loader.chunk.LoadedChunk
 import no.elg.infiniteBootleg.core.world.managers.container.AuthoritativeWorldContainerManager
 import no.elg.infiniteBootleg.core.world.managers.container.WorldContainerManager
 import no.elg.infiniteBootleg.core.world.render.WorldRender
@@ -129,10 +136,11 @@ import no.elg.infiniteBootleg.protobuf.Packets.DespawnEntity.DespawnReason
 import no.elg.infiniteBootleg.protobuf.ProtoWorld
 import no.elg.infiniteBootleg.protobuf.WorldKt
 import no.elg.infiniteBootleg.protobuf.world
-import java.lang.ref.WeakReference
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.Executor
+import java.util.concurrent.PriorityBlockingQueue
+import java.util.concurrent.ThreadPoolExecutor
 import java.util.concurrent.TimeUnit
-import java.util.concurrent.atomic.AtomicInteger
-import java.util.concurrent.locks.StampedLock
 import kotlin.contracts.InvocationKind
 import kotlin.contracts.contract
 import kotlin.coroutines.CoroutineContext
@@ -141,7 +149,6 @@ import kotlin.math.floor
 import kotlin.math.max
 import kotlin.math.min
 import kotlin.math.round
-import kotlin.system.measureTimeMillis
 
 private val logger = KotlinLogging.logger {}
 
@@ -204,13 +211,9 @@ abstract class World(
   abstract val render: WorldRender
 
   /**
-   * must be accessed under [chunksLock]
+   * The loaded chunks, can be read from any thread without locking. Synchronize on it when changing it, see [writeChunks]
    */
-  @get:GuardedBy("chunksLock")
-  @GuardedBy("chunksLock")
-  private val chunks = LongMap<Chunk>()
-
-  private val chunksLock: StampedLock = StampedLock()
+  private val chunks = ConcurrentLongMap<Chunk>()
 
   private lateinit var standaloneEntitySet: ThreadSafeEntitySet
   private lateinit var playersEntitiesSet: ThreadSafeEntitySet
@@ -220,6 +223,12 @@ abstract class World(
   val playersEntities: Set<Entity> get() = playersEntitiesSet.entities
   val validEntities: Set<Entity> get() = validEntitiesSet.entities
 
+  /**
+   * The chunk each standalone entity is in
+   */
+  lateinit var chunkEntityIndex: ChunkEntityIndex
+    private set
+
   /**
    * The entity engine of this world
    *
@@ -236,6 +245,44 @@ abstract class World(
 
   val chunkColumnsManager: ChunkColumnsManager = ChunkColumnsManager(this)
 
+  /**
+   * Decides which chunks are kept loaded, chunks without tickets are unloaded by the [WorldTicker]
+   */
+  val chunkTickets: ChunkTickets = ChunkTickets { worldTicker.tps }
+
+  /**
+   * How well the chunks prefetched with [prefetchChunkAsync] are predicted
+   */
+  val chunkPrefetchStats: ChunkPrefetchStats = ChunkPrefetchStats()
+
+  private val chunkLoadRequestsDelegate = lazy {
+    val workers = Settings.chunkLoadWorkers
+    ChunkLoadRequests(
+      // Prioritized so prefetched chunks are loaded after the chunks needed now
+      executor = ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS, PriorityBlockingQueue(), Thread.ofPlatform().name("chunk-loader-", 0).daemon().factory()),
+      publisher = Executor { command -> ThreadType.PHYSICS.launchOrRun(this) { command.run() } },
+      fetch = { chunkLoc -> chunkLoader.fetchChunk(chunkLoc) },
+      publish = ::publishLoadedChunk
+    )
+  }
+
+  /**
+   * Loads chunks in the background for [getChunkAsync]
+   */
+  val chunkLoadRequests: ChunkLoadRequests by chunkLoadRequestsDelegate
+
+  /**
+   * Used when [Settings.lightEngine] is [Settings.LightEngine.FLOOD_FILL]
+   */
+  val floodFillLightEngine: FloodFillLightEngine = FloodFillLightEngine(this)
+
+  /**
+   * Used when [Settings.lightEngine] is [Settings.LightEngine.ADDITIVE]
+   */
+  val additiveLightEngine: AdditiveLightEngine = AdditiveLightEngine(this)
+
+  val lightUpdateScheduler: LightUpdateScheduler = LightUpdateScheduler(this)
+
   /**
    * Spawn in world coordinates
    */
@@ -317,6 +364,7 @@ abstract class World(
     standaloneEntitySet = ThreadSafeEntitySet(engine, basicStandaloneEntityFamily)
     playersEntitiesSet = ThreadSafeEntitySet(engine, playerFamily)
     validEntitiesSet = ThreadSafeEntitySet(engine, basicRequiredEntityFamily)
+    chunkEntityIndex = ChunkEntityIndex(engine, basicStandaloneEntityFamily)
     addEntityListeners(engine)
     return engine
   }
@@ -388,70 +436,24 @@ abstract class World(
     updateSavePeriod()
   }
 
-  fun createChunkIterator(): LongMap.Entries<Chunk> = LongMap.Entries(chunks)
-
-  fun readChunks(onFailure: (() -> Unit)? = null, action: (readableChunks: LongMap<Chunk>) -> Unit): Unit = readChunks<Unit>(onFailure ?: { }, action)
-
-  fun <R> readChunks(onFailure: () -> R, action: (readableChunks: LongMap<Chunk>) -> R): R {
-    contract { callsInPlace(action, InvocationKind.AT_MOST_ONCE) }
+  /**
+   * Read the loaded chunks. Reading never blocks, but the chunks may be loaded or unloaded while reading
+   */
+  fun <R> readChunks(action: (readableChunks: ConcurrentLongMap<Chunk>) -> R): R {
+    contract { callsInPlace(action, InvocationKind.EXACTLY_ONCE) }
     assertNotDisposed()
     chunkReads.incrementAndGet()
-    val stamp = chunksLock.tryReadLock(LONG_WAIT_DURATION_CHUNK_LOCK_MS, TimeUnit.MILLISECONDS)
-    return if (stamp != 0L) {
-      try {
-        action(chunks)
-      } finally {
-        chunksLock.unlock(stamp)
-      }
-    } else {
-      logger.warn { "Failed to acquire chunks read lock" }
-      onFailure.invoke()
-    }
+    return action(chunks)
   }
 
-  private fun <R> writeChunks(onFailure: (() -> R?)? = null, action: (writableChunks: LongMap<Chunk>) -> R): R? {
-    contract { callsInPlace(action, InvocationKind.AT_MOST_ONCE) }
+  /**
+   * Change the loaded chunks, only one thread may change the chunks at a time
+   */
+  private fun <R> writeChunks(action: (writableChunks: ConcurrentLongMap<Chunk>) -> R): R {
+    contract { callsInPlace(action, InvocationKind.EXACTLY_ONCE) }
     assertNotDisposed()
     chunkWrites.incrementAndGet()
-    val stamp = chunksLock.tryWriteLock(1, TimeUnit.SECONDS)
-    return if (stamp != 0L) {
-      try {
-        action(chunks)
-      } finally {
-        chunksLock.unlock(stamp)
-      }
-    } else {
-      logger.warn { "Failed to acquire chunks write lock" }
-      onFailure?.invoke()
-    }
-  }
-
-  fun <R> readChunks(timeoutMillis: Long, onFailure: (() -> R?)? = null, onSuccess: (readableChunks: LongMap<Chunk>) -> R?): R? {
-    contract { callsInPlace(onSuccess, InvocationKind.AT_MOST_ONCE) }
-    assertNotDisposed()
-    chunkReads.incrementAndGet()
-    // This is a long lock, it must appear to be an atomic operation though
-    var result: R?
-    var acquiredLock = 0L
-    val acquireTime = measureTimeMillis {
-      acquiredLock = chunksLock.tryReadLock(timeoutMillis, TimeUnit.MILLISECONDS)
-    }
-    if (acquiredLock != 0L) {
-      try {
-        result = onSuccess(chunks)
-      } finally {
-        chunksLock.unlock(acquiredLock)
-      }
-      if (acquireTime >= timeoutMillis) {
-        logger.debug { "Acquired read lock in $acquireTime ms. Max lock time is $timeoutMillis ms" }
-      } else if (acquireTime > timeoutMillis / 2L) {
-        logger.trace { "Acquired chunk read lock in $acquireTime ms out of max $timeoutMillis ms" }
-      }
-    } else {
-      logger.warn { "Failed to acquire chunks read lock in $acquireTime ms" }
-      result = onFailure?.invoke()
-    }
-    return result
+    return synchronized(chunks) { action(chunks) }
   }
 
   fun updateSavePeriod() {
@@ -499,11 +501,12 @@ abstract class World(
     val worldFolder = worldFolder ?: return
     logger.debug { "Saving $this" }
 
-    readChunks { readableChunks ->
-      val chunkLoader = chunkLoader
-      if (chunkLoader is FullChunkLoader) {
-        for (chunk in readableChunks.values()) {
-          chunkLoader.save(chunk)
+    if (!hasDisposeBegun) {
+      // When disposing, the chunks are saved by the shutdown save in dispose
+      readChunks { readableChunks ->
+        val chunkLoader = chunkLoader
+        if (chunkLoader is FullChunkLoader) {
+          chunkLoader.saveAll(readableChunks.values())
         }
       }
     }
@@ -566,7 +569,7 @@ abstract class World(
     assertNotDisposed()
     require(chunk.isValid) { "Chunk must be valid to be updated" }
     var chunkToDispose: Chunk? = null
-    val toReturn: Chunk? = writeChunks { writableChunks ->
+    val toReturn: Chunk = writeChunks { writableChunks ->
       val current: Chunk? = writableChunks[chunk.compactLocation]
       return@writeChunks if (current != null && expectedChunk != null && current !== expectedChunk) {
         logger.warn { "Unexpected chunk when updating chunk, will not update chunk. Given chunk will be disposed" }
@@ -579,10 +582,6 @@ abstract class World(
       }
     }
 
-    if (toReturn == null) {
-      logger.warn { "Failed to write chunk" }
-      throw IllegalStateException("Failed to write chunk")
-    }
     chunkToDispose?.dispose()
 
     if (chunkToDispose === chunk) {
@@ -591,6 +590,7 @@ abstract class World(
       logger.trace { "Swapping chunk at ${toReturn.compactLocation}" }
     } else {
       // No old chunk to dispose, so this is a new chunk
+      chunkTickets.onChunkLoaded(toReturn.compactLocation)
       EventManager.dispatchEventAsync(ChunkLoadedEvent(toReturn, newlyGenerated))
     }
     return toReturn
@@ -598,17 +598,6 @@ abstract class World(
 
   fun getChunk(chunkX: ChunkCoord, chunkY: ChunkCoord, load: Boolean): Chunk? = getChunk(compactInt(chunkX, chunkY), load)
 
-  private class ThreadLocalChunkCache {
-    var lastLoc: Long = Long.MIN_VALUE
-    var lastChunk: Chunk? = null
-    val chunks = Long2ObjectOpenHashMap<WeakReference<Chunk>>(32)
-  }
-
-  private val threadLocalChunkCache = ThreadLocal.withInitial {
-    CHUNK_THREAD_LOCAL.incrementAndGet()
-    ThreadLocalChunkCache()
-  }
-
   /**
    * Find a valid chunk and optionally load it if it is not valid/not loaded
    *
@@ -618,34 +607,10 @@ abstract class World(
    */
   fun getChunk(chunkLoc: Long, load: Boolean = true): Chunk? {
     assertNotDisposed()
-    val cache = threadLocalChunkCache.get()
-
-    // Fast path: check last accessed chunk (same-chunk spatial locality)
-    if (cache.lastLoc == chunkLoc) {
-      val lastChunk = cache.lastChunk
-      if (lastChunk != null && lastChunk.isValid) {
-        return lastChunk
-      }
-    }
-
-    // Medium path: check thread-local map
-    val localChunks = cache.chunks
-    val localChunk: Chunk? = localChunks.get(chunkLoc)?.get()
-    if (localChunk != null) {
-      if (localChunk.isValid) {
-        cache.lastLoc = chunkLoc
-        cache.lastChunk = localChunk
-        return localChunk
-      } else {
-        localChunks.remove(chunkLoc)
-      }
+    val readChunk = chunks[chunkLoc]
+    if (readChunk != null && readChunk.isValid) {
+      return readChunk
     }
-
-    // Slow path: read from main store
-    // Give a larger timeout when disposing as it might take longer to acquire the lock as all chunks are being saved
-    val timeoutMillis = if (hasDisposeBegun) LONG_WAIT_DURATION_CHUNK_LOCK_MS else TRY_LOCK_CHUNKS_DURATION_MS
-    // This is a long lock, it must appear to be an atomic operation though
-    val readChunk = readChunks(timeoutMillis) { readableChunks -> readableChunks[chunkLoc] }
     val finalChunk = if (readChunk == null || readChunk.isDisposed) {
       if (!load) {
         null
@@ -655,15 +620,58 @@ abstract class World(
     } else {
       readChunk
     }
-    return if (finalChunk.valid()) {
-      CHUNK_ADDED_THREAD_LOCAL.incrementAndGet()
-      localChunks.put(chunkLoc, WeakReference(finalChunk))
-      cache.lastLoc = chunkLoc
-      cache.lastChunk = finalChunk
-      finalChunk
-    } else {
-      null
+    return if (finalChunk.valid()) finalChunk else null
+  }
+
+  /**
+   * Find a valid chunk, loading it in the background if it is not loaded.
+   *
+   * The chunk is read or generated off the calling thread and concurrent requests for the same chunk share one load.
+   * A loaded chunk is published to the loaded chunks on the [ThreadType.PHYSICS] thread, which is also where the returned future completes
+   *
+   * @return A future completed with the valid chunk, or `null` if the chunk could not be loaded
+   */
+  fun getChunkAsync(chunkLoc: ChunkCompactLoc): CompletableFuture<Chunk?> = loadChunkAsync(chunkLoc, prefetch = false)
+
+  /**
+   * Like [getChunkAsync], but the chunk is loaded after the chunks requested with [getChunkAsync].
+   * Used to load chunks before they are needed, the prefetch can be cancelled with [cancelChunkPrefetch]
+   */
+  fun prefetchChunkAsync(chunkLoc: ChunkCompactLoc): CompletableFuture<Chunk?> = loadChunkAsync(chunkLoc, prefetch = true)
+
+  /**
+   * Stop prefetching the chunk, unless it has since been requested with [getChunkAsync]
+   *
+   * @return If the prefetch was cancelled before the chunk was loaded
+   */
+  fun cancelChunkPrefetch(chunkLoc: ChunkCompactLoc): Boolean = chunkLoadRequestsDelegate.isInitialized() && chunkLoadRequests.cancelPrefetch(chunkLoc)
+
+  private fun loadChunkAsync(chunkLoc: ChunkCompactLoc, prefetch: Boolean): CompletableFuture<Chunk?> {
+    assertNotDisposed()
+    val current = chunks[chunkLoc]
+    if (current != null) {
+      if (current.isValid) {
+        return CompletableFuture.completedFuture(current)
+      } else if (current.isNotDisposed) {
+        // The current chunk is still loading
+        return CompletableFuture.completedFuture(null)
+      }
+    }
+    if (worldTicker.isPaused) {
+      return CompletableFuture.completedFuture(null)
+    }
+    return if (prefetch) chunkLoadRequests.prefetch(chunkLoc) else chunkLoadRequests.load(chunkLoc)
+  }
+
+  private fun publishLoadedChunk(chunkLoc: ChunkCompactLoc, loadedChunk: LoadedChunk): Chunk? {
+    val chunk = loadedChunk.chunk ?: return null
+    val current = chunks[chunkLoc]
+    if (current != null && current.isValid) {
+      // The chunk was loaded by someone else while this chunk was loading
+      chunk.dispose()
+      return current
     }
+    return updateChunk(chunk, current, loadedChunk.isNewlyGenerated)
   }
 
   /**
@@ -690,7 +698,7 @@ abstract class World(
     if (worldTicker.isPaused) {
       return null
     }
-    val current = readChunks<Chunk?>({ null }) { readableChunks -> readableChunks[chunkLoc] }
+    val current = chunks[chunkLoc]
     if (current != null) {
       if (current.isValid) {
         return current
@@ -964,10 +972,10 @@ abstract class World(
       entity != null && !seenEntity.add(entity.id)
     }
 
-    removeBlocks(toRemove, prioritize)
-
-    giveBlocks(toRemove, giveTo)
-    return toRemove
+    // Only give the blocks which were removed, a block might have been changed since it was looked up
+    val removed = removeBlocks(toRemove, prioritize)
+    giveBlocks(removed, giveTo)
+    return removed
   }
 
   private fun giveBlocks(blocks: Collection<Block>, giveTo: Entity?) {
@@ -989,8 +997,12 @@ abstract class World(
 
   fun mapEntitiesAt(worldX: WorldCoord, worldY: WorldCoord): Iterator<Entity> {
     assertNotDisposed()
+    // Entities are smaller than a chunk, so an entity overlapping the location must be in the same or a neighbouring chunk
+    val chunkX = worldX.worldToChunk()
+    val chunkY = worldY.worldToChunk()
+    val nearbyEntities = (-1..1).flatMap { dx -> (-1..1).flatMap { dy -> chunkEntityIndex.entitiesIn(compactInt(chunkX + dx, chunkY + dy)) } }
     return iterator {
-      for (entity in standaloneEntities) {
+      for (entity in nearbyEntities) {
         val box2d = entity.box2d
         // conflicting imports, must do the decomposition manually
         val compactLocWithOffset = entity.compactLocWithOffset
@@ -1071,10 +1083,10 @@ abstract class World(
    */
   val loadedChunks: GdxArray<Chunk>
     get() {
-      return readChunks<GdxArray<Chunk>>({ GdxArray<Chunk>(0) }) { readableChunks ->
+      return readChunks { readableChunks ->
         val loadedChunks = GdxArray<Chunk>(true, readableChunks.size)
-        for (chunk in readableChunks.values()) {
-          if (chunk != null && chunk.isNotDisposed) {
+        readableChunks.forEach { chunk ->
+          if (chunk.isNotDisposed) {
             loadedChunks.add(chunk)
           }
         }
@@ -1105,6 +1117,9 @@ abstract class World(
         return false
       }
 
+      if (chunkLoadRequestsDelegate.isInitialized()) {
+        chunkLoadRequests.cancel(chunk.compactLocation)
+      }
       val removedChunk: Chunk? = writeChunks { writableChunks ->
         writableChunks.remove(chunk.compactLocation)
       }
@@ -1303,8 +1318,12 @@ abstract class World(
    * @param worldY The y coordinate in world view
    * @return The material at the given location
    */
-  fun getMaterial(worldX: WorldCoord, worldY: WorldCoord, loadChunk: Boolean = true): Material = getRawBlock(worldX, worldY, loadChunk).materialOrAir()
-  fun getMaterial(compactLoc: Long, loadChunk: Boolean = true): Material = getRawBlock(compactLoc, loadChunk).materialOrAir()
+  fun getMaterial(worldX: WorldCoord, worldY: WorldCoord, loadChunk: Boolean = true): Material =
+    actionOnBlock(worldX, worldY, loadChunk) { localX, localY, nullableChunk ->
+      nullableChunk?.getRawMaterial(localX, localY) ?: Material.Air
+    }
+
+  fun getMaterial(compactLoc: Long, loadChunk: Boolean = true): Material = getMaterial(compactLoc.decompactLocX(), compactLoc.decompactLocY(), loadChunk)
 
   /**
    * Alias to `WorldBody#postBox2dRunnable`
@@ -1349,7 +1368,11 @@ abstract class World(
 
     logger.debug { "Switching thread for disposal of $this to physics thread" }
     val job = ThreadType.PHYSICS.launchOrRunSuspended(this) {
+      if (chunkLoadRequestsDelegate.isInitialized()) {
+        chunkLoadRequests.close()
+      }
       writeChunks { writableChunks ->
+        (chunkLoader as? FullChunkLoader)?.shutdownSave(writableChunks.values())
         writableChunks.values().forEach(Chunk::dispose)
         writableChunks.clear()
       }
@@ -1364,6 +1387,7 @@ abstract class World(
       engine.dispose()
       worldTicker.dispose()
       chunkColumnsManager.dispose()
+      lightUpdateScheduler.dispose()
       chunkLoader.dispose()
       worldBody.dispose()
       metadata.worldDisposeState++
@@ -1385,16 +1409,10 @@ abstract class World(
     const val LIGHT_SOURCE_LOOK_BLOCKS_WITH_EXTRA = LIGHT_SOURCE_LOOK_BLOCKS + 2
     const val LIGHT_SOURCE_LOOK_BLOCKS_WITH_EXTRA_F: Float = LIGHT_SOURCE_LOOK_BLOCKS + 2f
     const val LIGHT_SOURCE_LOOK_BLOCKS_WITH_EXTRA_POW = LIGHT_SOURCE_LOOK_BLOCKS_WITH_EXTRA * LIGHT_SOURCE_LOOK_BLOCKS_WITH_EXTRA
-    const val TRY_LOCK_CHUNKS_DURATION_MS = 20L
-    const val LONG_WAIT_DURATION_CHUNK_LOCK_MS = 1000L
 
     val NEVER_CANCEL: (GdxArray<Block>?) -> Boolean = { false }
     val ACCEPT_EVERY_BLOCK: (Block) -> Boolean = { true }
 
-    val CHUNK_THREAD_LOCAL = AtomicInteger(0)
-    val CHUNK_REMOVED_THREAD_LOCAL = AtomicInteger(0)
-    val CHUNK_ADDED_THREAD_LOCAL = AtomicInteger(0)
-
     val EMPTY_BLOCKS_ARRAY = GdxArray<Block>(false, 0)
       get() {
         require(field.items.isEmpty()) { "Expected EMPTY_BLOCKS_ARRAY to be an empty array, but got ${field.size} elements" }
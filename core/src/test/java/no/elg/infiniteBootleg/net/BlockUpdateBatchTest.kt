@@ -0,0 +1,70 @@
+package no.elg.infiniteBootleg.net
+
+import no.elg.infiniteBootleg.core.net.BlockUpdateBatch
+import no.elg.infiniteBootleg.core.util.compactInt
+import no.elg.infiniteBootleg.core.world.chunks.Chunk
+import no.elg.infiniteBootleg.protobuf.Packets.UpdateBlocks
+import no.elg.infiniteBootleg.protobuf.ProtoWorld
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
+
+class BlockUpdateBatchTest {
+
+  private fun block(material: String): ProtoWorld.Block = ProtoWorld.Block.newBuilder().setMaterial(ProtoWorld.Material.newBuilder().setName(material)).build()
+
+  private fun decode(update: UpdateBlocks): Map<Pair<Int, Int>, ProtoWorld.Block> {
+    val blocks = LinkedHashMap<Pair<Int, Int>, ProtoWorld.Block>()
+    BlockUpdateBatch.forEachBlock(update) { localX, localY, block -> blocks[localX to localY] = block }
+    return blocks
+  }
+
+  @Test
+  fun `changed blocks are encoded with a palette`() {
+    val batch = BlockUpdateBatch(compactInt(3, -2))
+    batch.add(0, 0, block("air"))
+    batch.add(Chunk.CHUNK_SIZE - 1, Chunk.CHUNK_SIZE - 1, block("stone"))
+    batch.add(5, 7, block("air"))
+
+    val proto = batch.toProto()
+    assertEquals(3, proto.chunk.x)
+    assertEquals(-2, proto.chunk.y)
+    assertEquals(listOf("air", "stone"), proto.paletteList)
+    assertEquals(
+      mapOf(
+        (0 to 0) to block("air"),
+        (5 to 7) to block("air"),
+        (Chunk.CHUNK_SIZE - 1 to Chunk.CHUNK_SIZE - 1) to block("stone")
+      ),
+      decode(proto)
+    )
+  }
+
+  @Test
+  fun `only the last change of a block is sent`() {
+    val batch = BlockUpdateBatch(compactInt(0, 0))
+    batch.add(1, 2, block("stone"))
+    batch.add(1, 2, block("air"))
+
+    assertEquals(1, batch.size)
+    assertEquals(mapOf((1 to 2) to block("air")), decode(batch.toProto()))
+  }
+
+  @Test
+  fun `blocks with an entity are sent whole`() {
+    val tnt = block("tnt").toBuilder().setEntity(ProtoWorld.Entity.getDefaultInstance()).build()
+    val batch = BlockUpdateBatch(compactInt(0, 0))
+    batch.add(4, 4, tnt)
+    batch.add(4, 5, block("air"))
+
+    val proto = batch.toProto()
+    assertEquals(1, proto.specialBlocksCount)
+    assertEquals(mapOf((4 to 5) to block("air"), (4 to 4) to tnt), decode(proto))
+  }
+
+  @Test
+  fun `palette index out of bounds is rejected`() {
+    val update = UpdateBlocks.newBuilder().addPalette("air").addBlocks(1 shl (Chunk.CHUNK_SIZE_SHIFT * 2)).build()
+    assertThrows<IllegalArgumentException> { decode(update) }
+  }
+}
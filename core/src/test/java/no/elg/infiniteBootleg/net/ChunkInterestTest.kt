@@ -0,0 +1,90 @@
+package no.elg.infiniteBootleg.net
+
+import no.elg.infiniteBootleg.core.net.ChunkInterest
+import no.elg.infiniteBootleg.core.net.ChunkSubscriptions
+import no.elg.infiniteBootleg.core.util.ChunkCoord
+import no.elg.infiniteBootleg.core.util.compactInt
+import no.elg.infiniteBootleg.core.world.render.ChunksInView
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+
+class ChunkInterestTest {
+
+  private val subscriptions = ChunkSubscriptions<String>()
+  private val alice = ChunkInterest("alice", subscriptions)
+  private val bob = ChunkInterest("bob", subscriptions)
+
+  @Test
+  fun `subscribers of a chunk are the clients with the chunk in view`() {
+    alice.moveView(View(0, 0, 2, 2), 0, RETAIN_TICKS)
+    bob.moveView(View(1, 1, 3, 3), 0, RETAIN_TICKS)
+
+    assertEquals(listOf("alice"), subscriptions.subscribers(compactInt(0, 0)))
+    assertEquals(listOf("alice", "bob"), subscriptions.subscribers(compactInt(1, 1)))
+    assertEquals(listOf("bob"), subscriptions.subscribers(compactInt(2, 2)))
+    assertTrue(subscriptions.subscribers(compactInt(3, 3)).isEmpty())
+    assertEquals(7, subscriptions.subscribedChunks)
+  }
+
+  @Test
+  fun `chunks which left the view are retained until the client unloaded them`() {
+    alice.moveView(View(0, 0, 2, 1), 0, RETAIN_TICKS)
+    alice.moveView(View(1, 0, 3, 1), 10, RETAIN_TICKS)
+    assertEquals(1, alice.retainedChunks)
+    assertEquals(listOf("alice"), subscriptions.subscribers(compactInt(0, 0)))
+
+    alice.expire(10 + RETAIN_TICKS)
+    assertEquals(listOf("alice"), subscriptions.subscribers(compactInt(0, 0)))
+    alice.expire(11 + RETAIN_TICKS)
+    assertTrue(subscriptions.subscribers(compactInt(0, 0)).isEmpty())
+    assertEquals(listOf("alice"), subscriptions.subscribers(compactInt(2, 0)))
+  }
+
+  @Test
+  fun `retained chunks coming back into view stay subscribed`() {
+    alice.moveView(View(0, 0, 1, 1), 0, RETAIN_TICKS)
+    alice.moveView(View(1, 0, 2, 1), 0, RETAIN_TICKS)
+    alice.moveView(View(0, 0, 1, 1), 0, RETAIN_TICKS)
+    assertEquals(1, alice.retainedChunks)
+
+    alice.expire(RETAIN_TICKS * 2)
+    assertEquals(listOf("alice"), subscriptions.subscribers(compactInt(0, 0)))
+    assertTrue(subscriptions.subscribers(compactInt(1, 0)).isEmpty())
+  }
+
+  @Test
+  fun `chunks sent early are subscribed until they expire`() {
+    alice.moveView(View(0, 0, 1, 1), 0, RETAIN_TICKS)
+    alice.retain(compactInt(5, 5), 20)
+    alice.retain(compactInt(0, 0), 20)
+    assertEquals(1, alice.retainedChunks)
+    assertEquals(listOf("alice"), subscriptions.subscribers(compactInt(5, 5)))
+
+    alice.expire(21)
+    assertTrue(subscriptions.subscribers(compactInt(5, 5)).isEmpty())
+    assertEquals(listOf("alice"), subscriptions.subscribers(compactInt(0, 0)))
+  }
+
+  @Test
+  fun `clearing unsubscribes from every chunk`() {
+    alice.moveView(View(0, 0, 2, 2), 0, RETAIN_TICKS)
+    bob.moveView(View(0, 0, 1, 1), 0, RETAIN_TICKS)
+    alice.retain(compactInt(5, 5), 20)
+    alice.clear()
+
+    assertEquals(listOf("bob"), subscriptions.subscribers(compactInt(0, 0)))
+    assertEquals(1, subscriptions.subscribedChunks)
+  }
+
+  private class View(
+    override var horizontalStart: ChunkCoord,
+    override var verticalStart: ChunkCoord,
+    override var horizontalEnd: ChunkCoord,
+    override var verticalEnd: ChunkCoord
+  ) : ChunksInView
+
+  companion object {
+    private const val RETAIN_TICKS = 100L
+  }
+}
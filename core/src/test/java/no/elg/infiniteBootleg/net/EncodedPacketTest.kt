@@ -0,0 +1,52 @@
+package no.elg.infiniteBootleg.net
+
+import io.netty.buffer.ByteBuf
+import io.netty.buffer.ByteBufUtil
+import io.netty.channel.embedded.EmbeddedChannel
+import io.netty.handler.codec.protobuf.ProtobufEncoder
+import io.netty.handler.codec.protobuf.ProtobufVarint32LengthFieldPrepender
+import no.elg.infiniteBootleg.core.net.EncodedPacket
+import no.elg.infiniteBootleg.core.net.EncodedPacketHandler
+import no.elg.infiniteBootleg.core.net.clientBoundPacketBuilder
+import no.elg.infiniteBootleg.protobuf.Packets
+import org.junit.jupiter.api.Assertions.assertArrayEquals
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Test
+
+class EncodedPacketTest {
+
+  private val packet = clientBoundPacketBuilder(Packets.Packet.Type.DX_HEARTBEAT)
+    .setHeartbeat(Packets.Heartbeat.newBuilder().setKeepAliveId("keep alive"))
+    .build()
+
+  private fun channel() = EmbeddedChannel(EncodedPacketHandler, ProtobufVarint32LengthFieldPrepender(), ProtobufEncoder())
+
+  private fun EmbeddedChannel.written(): ByteArray {
+    val buffer = readOutbound<ByteBuf>()
+    try {
+      return ByteBufUtil.getBytes(buffer)
+    } finally {
+      buffer.release()
+    }
+  }
+
+  @Test
+  fun `encoded packet is written with the same bytes as the packet`() {
+    val expected = channel().run {
+      writeAndFlush(packet)
+      written()
+    }
+    val channels = List(3) { channel() }
+    val encoded = EncodedPacket.encode(packet)
+    for (channel in channels) {
+      channel.writeAndFlush(encoded.retainedDuplicate())
+    }
+    for (channel in channels) {
+      assertArrayEquals(expected, channel.written())
+    }
+
+    assertEquals(1, encoded.refCnt())
+    encoded.release()
+    assertEquals(0, encoded.refCnt())
+  }
+}
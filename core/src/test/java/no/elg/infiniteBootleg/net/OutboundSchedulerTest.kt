@@ -0,0 +1,165 @@
+package no.elg.infiniteBootleg.net
+
+import io.netty.buffer.ByteBuf
+import io.netty.buffer.ByteBufInputStream
+import io.netty.channel.ChannelHandlerContext
+import io.netty.channel.ChannelOutboundHandlerAdapter
+import io.netty.channel.WriteBufferWaterMark
+import io.netty.channel.embedded.EmbeddedChannel
+import io.netty.handler.codec.protobuf.ProtobufEncoder
+import io.netty.handler.codec.protobuf.ProtobufVarint32LengthFieldPrepender
+import no.elg.infiniteBootleg.core.net.OutboundScheduler
+import no.elg.infiniteBootleg.core.net.OutboundStats
+import no.elg.infiniteBootleg.core.net.PacketPriority
+import no.elg.infiniteBootleg.core.net.clientBoundPacketBuilder
+import no.elg.infiniteBootleg.core.world.chunks.Chunk
+import no.elg.infiniteBootleg.protobuf.Packets
+import no.elg.infiniteBootleg.protobuf.Packets.Packet.Type
+import no.elg.infiniteBootleg.protobuf.ProtoWorld
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import java.util.concurrent.TimeUnit
+
+class OutboundSchedulerTest {
+
+  /**
+   * A client which does not read anything until it is opened
+   */
+  private class Throttle : ChannelOutboundHandlerAdapter() {
+    var open = false
+
+    override fun flush(ctx: ChannelHandlerContext) {
+      if (open) {
+        ctx.flush()
+      }
+    }
+  }
+
+  private val stats = OutboundStats()
+  private val throttle = Throttle()
+  private val scheduler = OutboundScheduler(stats, maxQueuedBytes = 10 * PACKET_SIZE, stallTimeoutNanos = STALL_TIMEOUT_NANOS)
+  private val channel = EmbeddedChannel(throttle, ProtobufVarint32LengthFieldPrepender(), ProtobufEncoder(), scheduler).apply {
+    config().writeBufferWaterMark = WriteBufferWaterMark(PACKET_SIZE, 2 * PACKET_SIZE)
+  }
+
+  @AfterEach
+  fun tearDown() {
+    channel.finishAndReleaseAll()
+  }
+
+  private fun packet(type: Type): Packets.Packet =
+    clientBoundPacketBuilder(type)
+      .setHeartbeat(Packets.Heartbeat.newBuilder().setKeepAliveId("x".repeat(PACKET_SIZE)))
+      .build()
+
+  private fun vector(x: Int, y: Int): ProtoWorld.Vector2i = ProtoWorld.Vector2i.newBuilder().setX(x).setY(y).build()
+
+  private fun entityRef(id: String): ProtoWorld.EntityRef = ProtoWorld.EntityRef.newBuilder().setId(id).build()
+
+  private fun chunkPacket(chunkX: Int, chunkY: Int): Packets.Packet =
+    clientBoundPacketBuilder(Type.CB_UPDATE_CHUNK)
+      .setUpdateChunk(Packets.UpdateChunk.newBuilder().setChunk(ProtoWorld.Chunk.newBuilder().setPosition(vector(chunkX, chunkY))))
+      .build()
+
+  private fun blockPacket(worldX: Int, worldY: Int): Packets.Packet =
+    clientBoundPacketBuilder(Type.DX_BLOCK_UPDATE).setUpdateBlock(Packets.UpdateBlock.newBuilder().setPos(vector(worldX, worldY))).build()
+
+  private fun spawnPacket(id: String): Packets.Packet =
+    clientBoundPacketBuilder(Type.CB_SPAWN_ENTITY).setSpawnEntity(Packets.SpawnEntity.newBuilder().setRef(entityRef(id))).build()
+
+  private fun movePacket(id: String): Packets.Packet =
+    clientBoundPacketBuilder(Type.DX_MOVE_ENTITY).setMoveEntity(Packets.MoveEntity.newBuilder().setRef(entityRef(id))).build()
+
+  private fun sent(): List<Packets.Packet> {
+    val packets = ArrayList<Packets.Packet>()
+    while (true) {
+      val buffer = channel.readOutbound<ByteBuf>() ?: return packets
+      packets += ByteBufInputStream(buffer, true).use { Packets.Packet.parseDelimitedFrom(it) }
+    }
+  }
+
+  private fun sentTypes(): List<Type> = sent().map { it.type }
+
+  @Test
+  fun `packets pass straight through while the client keeps up`() {
+    throttle.open = true
+    channel.writeAndFlush(packet(Type.CB_UPDATE_CHUNK))
+    channel.writeAndFlush(packet(Type.DX_MOVE_ENTITY))
+
+    assertEquals(0, scheduler.queuedPackets)
+    assertEquals(listOf(Type.CB_UPDATE_CHUNK, Type.DX_MOVE_ENTITY), sentTypes())
+  }
+
+  @Test
+  fun `movement overtakes chunks when the client falls behind`() {
+    repeat(3) { channel.writeAndFlush(packet(Type.CB_UPDATE_CHUNK)) }
+    channel.writeAndFlush(packet(Type.DX_MOVE_ENTITY))
+    assertFalse(channel.isWritable)
+    assertEquals(2, scheduler.queuedPackets)
+    assertTrue(OutboundScheduler.isCongested(channel))
+
+    throttle.open = true
+    channel.flush()
+    channel.runPendingTasks()
+    assertEquals(listOf(Type.CB_UPDATE_CHUNK, Type.CB_UPDATE_CHUNK, Type.DX_MOVE_ENTITY, Type.CB_UPDATE_CHUNK), sentTypes())
+    assertEquals(0, scheduler.queuedPackets)
+    assertEquals(0, stats.queueDepth)
+    assertEquals(2, stats.maxQueueDepth)
+  }
+
+  @Test
+  fun `packets about the same chunk or entity stay in order`() {
+    repeat(2) { channel.writeAndFlush(packet(Type.DX_WORLD_SETTINGS)) }
+    assertFalse(channel.isWritable)
+    val chunk = chunkPacket(1, 2)
+    val blockInChunk = blockPacket(Chunk.CHUNK_SIZE + 1, 2 * Chunk.CHUNK_SIZE + 3)
+    val blockElsewhere = blockPacket(-1, -1)
+    val spawn = spawnPacket("a")
+    val moveSpawned = movePacket("a")
+    val moveOther = movePacket("b")
+    for (packet in listOf(chunk, blockInChunk, blockElsewhere, spawn, moveSpawned, moveOther)) {
+      channel.writeAndFlush(packet)
+    }
+    assertEquals(6, scheduler.queuedPackets)
+    assertEquals(1, scheduler.queuedChunks)
+
+    throttle.open = true
+    channel.flush()
+    channel.runPendingTasks()
+    val expected = listOf(moveOther, blockElsewhere, chunk, blockInChunk, spawn, moveSpawned)
+    assertEquals(expected.map { it.type to PacketPriority.orderKeyOf(it) }, sent().drop(2).map { it.type to PacketPriority.orderKeyOf(it) })
+    assertEquals(0, scheduler.queuedChunks)
+  }
+
+  @Test
+  fun `stalled client is disconnected`() {
+    repeat(3) { channel.writeAndFlush(packet(Type.CB_UPDATE_CHUNK)) }
+    channel.advanceTimeBy(STALL_TIMEOUT_NANOS, TimeUnit.NANOSECONDS)
+    channel.runPendingTasks()
+    // Let the channel become inactive after being closed by the scheduled stall check
+    channel.runPendingTasks()
+
+    assertFalse(channel.isOpen)
+    assertEquals(1, stats.stalled)
+    assertEquals(1, stats.dropped)
+  }
+
+  @Test
+  fun `client with too much waiting is disconnected`() {
+    // Two packets fill the outbound buffer, the ten next are more than the scheduler may queue
+    repeat(12) { channel.writeAndFlush(packet(Type.CB_UPDATE_CHUNK)) }
+    channel.runPendingTasks()
+
+    assertFalse(channel.isOpen)
+    assertEquals(1, stats.overflowed)
+    assertEquals(10, stats.dropped)
+  }
+
+  companion object {
+    private const val PACKET_SIZE = 1000
+    private val STALL_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10)
+  }
+}
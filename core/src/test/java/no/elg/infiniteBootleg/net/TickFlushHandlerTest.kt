@@ -0,0 +1,73 @@
+package no.elg.infiniteBootleg.net
+
+import io.netty.buffer.ByteBuf
+import io.netty.buffer.Unpooled
+import io.netty.channel.embedded.EmbeddedChannel
+import no.elg.infiniteBootleg.core.net.TickFlushHandler
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Test
+import java.util.concurrent.TimeUnit
+
+class TickFlushHandlerTest {
+
+  private val handler = TickFlushHandler(MAX_DELAY_NANOS, maxPendingBytes = 100)
+  private val channel = EmbeddedChannel(handler)
+
+  @AfterEach
+  fun tearDown() {
+    channel.finishAndReleaseAll()
+  }
+
+  private fun write(bytes: Int) {
+    channel.writeAndFlush(Unpooled.wrappedBuffer(ByteArray(bytes)))
+  }
+
+  private fun sentBytes(): Int {
+    var bytes = 0
+    while (true) {
+      val buffer = channel.readOutbound<ByteBuf>() ?: return bytes
+      bytes += buffer.readableBytes()
+      buffer.release()
+    }
+  }
+
+  @Test
+  fun `writes are flushed when the tick ends`() {
+    write(10)
+    write(20)
+    assertNull(channel.readOutbound())
+
+    handler.tickEnded()
+    channel.runPendingTasks()
+    assertEquals(30, sentBytes())
+  }
+
+  @Test
+  fun `writes are flushed when many bytes are waiting`() {
+    write(60)
+    assertEquals(0, sentBytes())
+    write(60)
+    assertEquals(120, sentBytes())
+  }
+
+  @Test
+  fun `writes are flushed when the tick is late`() {
+    write(10)
+    channel.advanceTimeBy(MAX_DELAY_NANOS, TimeUnit.NANOSECONDS)
+    channel.runPendingTasks()
+    assertEquals(10, sentBytes())
+  }
+
+  @Test
+  fun `closing flushes the pending writes`() {
+    write(10)
+    channel.close()
+    assertEquals(10, sentBytes())
+  }
+
+  companion object {
+    private val MAX_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(30)
+  }
+}
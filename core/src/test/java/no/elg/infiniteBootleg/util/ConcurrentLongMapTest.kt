@@ -0,0 +1,116 @@
+package no.elg.infiniteBootleg.util
+
+import no.elg.infiniteBootleg.core.util.ConcurrentLongMap
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicReference
+
+class ConcurrentLongMapTest {
+
+  @Test
+  fun `put get and remove`() {
+    val map = ConcurrentLongMap<String>()
+    assertTrue(map.isEmpty())
+    assertNull(map.put(1L, "a"))
+    assertEquals("a", map.put(1L, "b"))
+    assertEquals("b", map[1L])
+    assertEquals(1, map.size)
+
+    assertEquals("b", map.remove(1L))
+    assertNull(map.remove(1L))
+    assertNull(map[1L])
+    assertFalse(map.containsKey(1L))
+    assertTrue(map.isEmpty())
+  }
+
+  @Test
+  fun `removed key can be added again`() {
+    val map = ConcurrentLongMap<String>()
+    map.put(-5L, "a")
+    map.remove(-5L)
+    assertNull(map.put(-5L, "b"))
+    assertEquals("b", map[-5L])
+    assertEquals(1, map.size)
+    assertEquals(listOf("b"), map.values())
+  }
+
+  @Test
+  fun `keeps all keys when growing`() {
+    val map = ConcurrentLongMap<Long>(initialCapacity = 2)
+    for (key in -5_000L until 5_000L) {
+      map.put(key * 31, key)
+    }
+    for (key in -5_000L until 5_000L step 2) {
+      map.remove(key * 31)
+    }
+    assertEquals(5_000, map.size)
+    for (key in -5_000L until 5_000L) {
+      if (key % 2 == 0L) {
+        assertNull(map[key * 31])
+      } else {
+        assertEquals(key, map[key * 31])
+      }
+    }
+    var entries = 0
+    map.forEachEntry { key, value ->
+      assertEquals(value * 31, key)
+      entries++
+    }
+    assertEquals(5_000, entries)
+  }
+
+  @Test
+  fun `clear removes everything`() {
+    val map = ConcurrentLongMap<String>()
+    map.put(1L, "a")
+    map.put(2L, "b")
+    map.clear()
+    assertTrue(map.isEmpty())
+    assertNull(map[1L])
+    assertEquals(emptyList<String>(), map.values())
+  }
+
+  @Test
+  fun `readers always see keys which are never removed while the map changes`() {
+    val map = ConcurrentLongMap<Long>()
+    val stable = LongArray(100) { it * 1_000L }
+    for (key in stable) {
+      map.put(key, key)
+    }
+    val running = AtomicBoolean(true)
+    val failure = AtomicReference<String>()
+    val start = CountDownLatch(1)
+    val readers = List(4) {
+      Thread.ofPlatform().start {
+        start.await()
+        while (running.get()) {
+          for (key in stable) {
+            if (map[key] != key) {
+              failure.compareAndSet(null, "Missing stable key $key")
+            }
+          }
+        }
+      }
+    }
+    start.countDown()
+    // Force many rebuilds by adding and removing keys which are not stable
+    for (round in 0 until 200) {
+      for (key in 1L..500L) {
+        map.put(round * 1_000_000L + key, key)
+      }
+      for (key in 1L..500L) {
+        map.remove(round * 1_000_000L + key)
+      }
+    }
+    running.set(false)
+    readers.forEach(Thread::join)
+
+    assertNull(failure.get())
+    assertEquals(stable.size, map.size)
+  }
+}
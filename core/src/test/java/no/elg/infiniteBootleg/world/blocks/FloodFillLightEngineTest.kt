@@ -0,0 +1,90 @@
+package no.elg.infiniteBootleg.world.blocks
+
+import io.mockk.every
+import io.mockk.mockk
+import no.elg.infiniteBootleg.core.util.compactInt
+import no.elg.infiniteBootleg.core.util.worldToChunk
+import no.elg.infiniteBootleg.core.world.Material
+import no.elg.infiniteBootleg.core.world.blocks.FloodFillLightEngine
+import no.elg.infiniteBootleg.core.world.chunks.Chunk
+import no.elg.infiniteBootleg.core.world.chunks.ChunkColumn
+import no.elg.infiniteBootleg.core.world.chunks.ChunkLightBuffer
+import no.elg.infiniteBootleg.core.world.world.World
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+
+class FloodFillLightEngineTest {
+
+  private val materials = HashMap<Long, Material>()
+  private val loaded = HashMap<Long, Chunk>()
+  private val world = mockk<World>(relaxed = true)
+  private val engine = FloodFillLightEngine(world)
+
+  init {
+    every { world.isDisposed } returns false
+    every { world.getChunk(any<Long>(), any()) } answers { loaded[firstArg()] }
+  }
+
+  private fun chunk(chunkX: Int, chunkY: Int): Chunk {
+    val column = mockk<ChunkColumn>()
+    every { column.isBlockAboveTopBlock(any(), any(), any()) } returns false
+    val lightBuffer = ChunkLightBuffer()
+    val chunk = mockk<Chunk>()
+    every { chunk.chunkX } returns chunkX
+    every { chunk.chunkY } returns chunkY
+    every { chunk.isValid } returns true
+    every { chunk.isNotDisposed } returns true
+    every { chunk.chunkColumn } returns column
+    every { chunk.lightBuffer } returns lightBuffer
+    every { chunk.getRawMaterial(any(), any()) } answers {
+      val worldX = chunkX * Chunk.CHUNK_SIZE + firstArg<Int>()
+      val worldY = chunkY * Chunk.CHUNK_SIZE + secondArg<Int>()
+      materials[compactInt(worldX, worldY)] ?: Material.Air
+    }
+    return chunk
+  }
+
+  private fun load(chunkX: Int, chunkY: Int): Chunk = chunk(chunkX, chunkY).also { loaded[compactInt(chunkX, chunkY)] = it }
+
+  private fun level(worldX: Int, worldY: Int): Int {
+    val chunk = loaded[compactInt(worldX.worldToChunk(), worldY.worldToChunk())] ?: return 0
+    return chunk.lightBuffer.level(ChunkLightBuffer.RED, Math.floorMod(worldX, Chunk.CHUNK_SIZE), Math.floorMod(worldY, Chunk.CHUNK_SIZE))
+  }
+
+  private fun set(worldX: Int, worldY: Int, material: Material) {
+    materials[compactInt(worldX, worldY)] = material
+    engine.recalculate(longArrayOf(compactInt(worldX, worldY)))
+  }
+
+  @Test
+  fun `light gets through a removed wall`() {
+    load(0, 0)
+    for (worldY in 0 until Chunk.CHUNK_SIZE) {
+      materials[compactInt(4, worldY)] = Material.Stone
+    }
+    set(2, 8, Material.Torch)
+    val behindWall = level(6, 8)
+
+    for (worldY in 0 until Chunk.CHUNK_SIZE) {
+      set(4, worldY, Material.Air)
+    }
+    assertTrue(level(6, 8) > behindWall, "Expected more light behind the removed wall than $behindWall, got ${level(6, 8)}")
+    assertEquals(FloodFillLightEngine.MAX_LEVEL - 4 * FloodFillLightEngine.ORTHOGONAL_COST, level(6, 8))
+  }
+
+  @Test
+  fun `light flows into a newly loaded chunk`() {
+    load(0, 0)
+    set(Chunk.CHUNK_SIZE - 2, 8, Material.Torch)
+    assertEquals(0, level(Chunk.CHUNK_SIZE, 8))
+
+    val chunk = load(1, 0)
+    val locations = LongArray(Chunk.CHUNK_SIZE * Chunk.CHUNK_SIZE) { i ->
+      compactInt(Chunk.CHUNK_SIZE + i / Chunk.CHUNK_SIZE, i % Chunk.CHUNK_SIZE)
+    }
+    engine.recalculate(locations)
+    assertEquals(FloodFillLightEngine.MAX_LEVEL - 2 * FloodFillLightEngine.ORTHOGONAL_COST, chunk.lightBuffer.level(ChunkLightBuffer.RED, 0, 8))
+    assertEquals(FloodFillLightEngine.MAX_LEVEL - 3 * FloodFillLightEngine.ORTHOGONAL_COST, level(Chunk.CHUNK_SIZE + 1, 8))
+  }
+}
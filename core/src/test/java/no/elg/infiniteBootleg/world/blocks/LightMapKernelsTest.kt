@@ -0,0 +1,98 @@
+package no.elg.infiniteBootleg.world.blocks
+
+import com.badlogic.gdx.graphics.Color
+import no.elg.infiniteBootleg.core.world.blocks.BlockLight.Companion.LIGHT_RESOLUTION_SQUARE
+import no.elg.infiniteBootleg.core.world.blocks.LightMap
+import no.elg.infiniteBootleg.core.world.blocks.LightMapKernels
+import no.elg.infiniteBootleg.core.world.blocks.ScalarLightMapKernels
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Assumptions.assumeTrue
+import org.junit.jupiter.api.Test
+import kotlin.random.Random
+
+class LightMapKernelsTest {
+
+  private val random = Random(42)
+
+  private fun randomLightMap(): LightMap =
+    LightMap().apply {
+      for (index in 0 until LIGHT_RESOLUTION_SQUARE) {
+        r[index] = random.nextFloat() * 3f
+        g[index] = random.nextFloat() * 3f
+        b[index] = random.nextFloat() * 3f
+        i[index] = random.nextFloat() * 3f
+      }
+    }
+
+  private fun vectorKernels(): LightMapKernels {
+    val vector = LightMapKernels.vector
+    assumeTrue(vector != null, "The Vector API is not supported by this hardware")
+    return vector!!
+  }
+
+  /**
+   * Run the kernel on a copy of the same light maps with both implementations, and check that they agree
+   */
+  private fun assertSameAsScalar(kernel: LightMapKernels.(LightMap) -> Unit) {
+    val vector = vectorKernels()
+    repeat(100) {
+      val expected = randomLightMap()
+      val actual = expected.copy(r = expected.r.copyOf(), g = expected.g.copyOf(), b = expected.b.copyOf(), i = expected.i.copyOf())
+      ScalarLightMapKernels.kernel(expected)
+      vector.kernel(actual)
+      assertChannelEquals(expected.r, actual.r)
+      assertChannelEquals(expected.g, actual.g)
+      assertChannelEquals(expected.b, actual.b)
+      assertChannelEquals(expected.i, actual.i)
+    }
+  }
+
+  private fun assertChannelEquals(expected: FloatArray, actual: FloatArray) {
+    for (index in expected.indices) {
+      assertEquals(expected[index], actual[index], EPSILON) { "Sub-cell $index differs" }
+    }
+  }
+
+  @Test
+  fun `tests are run with the vector module`() {
+    assertTrue(ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent)
+  }
+
+  @Test
+  fun `accumulate matches scalar`() {
+    val intensities = FloatArray(LIGHT_RESOLUTION_SQUARE) { random.nextFloat() }
+    val tint = Color(random.nextFloat(), random.nextFloat(), random.nextFloat(), 1f)
+    assertSameAsScalar { accumulate(it, intensities, tint) }
+  }
+
+  @Test
+  fun `average brightness matches scalar`() {
+    val vector = vectorKernels()
+    repeat(100) {
+      val lightMap = randomLightMap().apply {
+        r.forEachIndexed { index, value -> r[index] = value / 3f }
+      }
+      assertEquals(ScalarLightMapKernels.averageBrightness(lightMap), vector.averageBrightness(lightMap), EPSILON)
+    }
+  }
+
+  @Test
+  fun `reinhard matches scalar`() {
+    assertSameAsScalar { reinhard(it) }
+  }
+
+  @Test
+  fun `reinhard jodie matches scalar`() {
+    assertSameAsScalar { reinhardJodie(it) }
+  }
+
+  @Test
+  fun `reinhard jodie with luminance by color matches scalar`() {
+    assertSameAsScalar { reinhardJodieLuminanceByColor(it) }
+  }
+
+  companion object {
+    private const val EPSILON = 1e-5f
+  }
+}
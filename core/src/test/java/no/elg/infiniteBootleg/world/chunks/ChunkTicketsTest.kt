@@ -0,0 +1,167 @@
+package no.elg.infiniteBootleg.world.chunks
+
+import no.elg.infiniteBootleg.core.util.ChunkCoord
+import no.elg.infiniteBootleg.core.util.compactInt
+import no.elg.infiniteBootleg.core.world.chunks.tickets.ChunkTicketType
+import no.elg.infiniteBootleg.core.world.chunks.tickets.ChunkTickets
+import no.elg.infiniteBootleg.core.world.chunks.tickets.ChunkUnloadWheel
+import no.elg.infiniteBootleg.core.world.render.ChunksInView
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertSame
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+
+class ChunkTicketsTest {
+
+  private val tickets = ChunkTickets { TPS }
+
+  @Test
+  fun `overlapping tickets are counted per chunk`() {
+    val first = tickets.add(ChunkTicketType.PLAYER, 0, 0, radius = 1)
+    tickets.add(ChunkTicketType.SYSTEM, 1, 1, radius = 1)
+    assertEquals(1, tickets.ticketCount(compactInt(-1, -1)))
+    assertEquals(2, tickets.ticketCount(compactInt(0, 0)))
+    assertEquals(2, tickets.ticketCount(compactInt(1, 1)))
+    assertEquals(0, tickets.ticketCount(compactInt(3, 3)))
+    assertEquals(14, tickets.ticketedChunks)
+
+    tickets.release(first)
+    tickets.release(first)
+    assertEquals(1, tickets.ticketCount(compactInt(0, 0)))
+    assertEquals(0, tickets.ticketCount(compactInt(-1, -1)))
+  }
+
+  @Test
+  fun `chunks are unloaded a while after their last ticket is released`() {
+    val first = tickets.add(ChunkTicketType.PLAYER, 0, 0)
+    val second = tickets.add(ChunkTicketType.COMMAND, 0, 0)
+    tickets.release(first)
+    assertEquals(0, tickets.unloadableChunks)
+
+    tickets.release(second)
+    assertEquals(1, tickets.unloadableChunks)
+    tickets.tick(UNLOAD_DELAY_TICKS - 1)
+    assertTrue(tickets.pollUnloadable(10).isEmpty())
+    tickets.tick(UNLOAD_DELAY_TICKS)
+    assertEquals(listOf(compactInt(0, 0)), tickets.pollUnloadable(10).toList())
+    assertEquals(0, tickets.unloadableChunks)
+  }
+
+  @Test
+  fun `taking a ticket on an unloadable chunk keeps it loaded`() {
+    tickets.release(tickets.add(ChunkTicketType.PLAYER, 5, 5))
+    assertEquals(1, tickets.unloadableChunks)
+    tickets.add(ChunkTicketType.SYSTEM, 5, 5)
+    tickets.tick(UNLOAD_DELAY_TICKS * 2)
+    assertTrue(tickets.pollUnloadable(10).isEmpty())
+  }
+
+  @Test
+  fun `chunks loaded without a ticket are unloaded`() {
+    tickets.add(ChunkTicketType.PLAYER, 1, 0)
+    tickets.onChunkLoaded(compactInt(0, 0))
+    tickets.onChunkLoaded(compactInt(1, 0))
+    tickets.tick(UNLOAD_DELAY_TICKS)
+    assertEquals(listOf(compactInt(0, 0)), tickets.pollUnloadable(10).toList())
+  }
+
+  @Test
+  fun `rescheduled chunks are polled again later`() {
+    tickets.onChunkLoaded(compactInt(0, 0))
+    tickets.tick(UNLOAD_DELAY_TICKS)
+    assertEquals(listOf(compactInt(0, 0)), tickets.pollUnloadable(10).toList())
+
+    tickets.reschedule(compactInt(0, 0))
+    assertEquals(1, tickets.unloadableChunks)
+    tickets.tick(2 * UNLOAD_DELAY_TICKS - 1)
+    assertTrue(tickets.pollUnloadable(10).isEmpty())
+    tickets.tick(2 * UNLOAD_DELAY_TICKS)
+    assertEquals(listOf(compactInt(0, 0)), tickets.pollUnloadable(10).toList())
+  }
+
+  @Test
+  fun `rescheduling a chunk with a ticket does not unload it`() {
+    tickets.onChunkLoaded(compactInt(0, 0))
+    tickets.tick(UNLOAD_DELAY_TICKS)
+    assertEquals(listOf(compactInt(0, 0)), tickets.pollUnloadable(10).toList())
+
+    tickets.add(ChunkTicketType.PLAYER, 0, 0)
+    tickets.reschedule(compactInt(0, 0))
+    assertEquals(0, tickets.unloadableChunks)
+  }
+
+  @Test
+  fun `unloadable chunks are polled in the order of their deadline and at most max at a time`() {
+    tickets.onChunkLoaded(compactInt(2, 0))
+    tickets.tick(1)
+    tickets.onChunkLoaded(compactInt(1, 0))
+    tickets.tick(2)
+    tickets.onChunkLoaded(compactInt(3, 0))
+    tickets.tick(UNLOAD_DELAY_TICKS + 2)
+    assertEquals(listOf(compactInt(2, 0), compactInt(1, 0)), tickets.pollUnloadable(2).toList())
+    assertEquals(listOf(compactInt(3, 0)), tickets.pollUnloadable(2).toList())
+    assertTrue(tickets.pollUnloadable(2).isEmpty())
+  }
+
+  @Test
+  fun `deadlines further away than one round of the wheel are kept`() {
+    val tickets = ChunkTickets { ChunkUnloadWheel.DEFAULT_SLOTS.toLong() }
+    tickets.onChunkLoaded(compactInt(0, 0))
+    for (tick in 1 until UNLOAD_DELAY_SECONDS * ChunkUnloadWheel.DEFAULT_SLOTS) {
+      tickets.tick(tick)
+      assertTrue(tickets.pollUnloadable(10).isEmpty()) { "Unloaded at tick $tick" }
+    }
+    tickets.tick(UNLOAD_DELAY_SECONDS * ChunkUnloadWheel.DEFAULT_SLOTS)
+    assertEquals(listOf(compactInt(0, 0)), tickets.pollUnloadable(10).toList())
+  }
+
+  @Test
+  fun `tickets expire after their lifetime`() {
+    tickets.tick(100)
+    val system = tickets.add(ChunkTicketType.SYSTEM, 0, 0)
+    val player = tickets.add(ChunkTicketType.PLAYER, 1, 0)
+
+    tickets.tick(100 + SYSTEM_TICKS - 1)
+    assertEquals(1, tickets.ticketCount(compactInt(0, 0)))
+
+    tickets.tick(100 + SYSTEM_TICKS)
+    assertTrue(system.isReleased)
+    assertEquals(0, tickets.ticketCount(compactInt(0, 0)))
+    assertEquals(1, tickets.unloadableChunks)
+
+    tickets.tick(Long.MAX_VALUE / 2)
+    assertFalse(player.isReleased)
+  }
+
+  @Test
+  fun `moving a view keeps the overlapping chunks ticketed`() {
+    val view = View(horizontalStart = -2, horizontalEnd = 2, verticalStart = -2, verticalEnd = 2)
+    val ticket = tickets.update(null, ChunkTicketType.PLAYER, view)
+    assertSame(ticket, tickets.update(ticket, ChunkTicketType.PLAYER, view))
+
+    view.horizontalStart++
+    view.horizontalEnd++
+    val moved = tickets.update(ticket, ChunkTicketType.PLAYER, view)
+    assertTrue(ticket.isReleased)
+    assertEquals(1, tickets.ticketCount(compactInt(0, 0)))
+    assertEquals(1, tickets.tickets().size)
+    // Only the column left behind by the view is scheduled to be unloaded
+    assertEquals(view.verticalLength, tickets.unloadableChunks)
+    assertEquals(moved.chunks, tickets.ticketedChunks)
+  }
+
+  private class View(
+    override var horizontalStart: ChunkCoord,
+    override var horizontalEnd: ChunkCoord,
+    override var verticalStart: ChunkCoord,
+    override var verticalEnd: ChunkCoord
+  ) : ChunksInView
+
+  companion object {
+    private const val TPS = 20L
+    private const val UNLOAD_DELAY_SECONDS = ChunkTickets.UNLOAD_DELAY_SECONDS
+    private const val UNLOAD_DELAY_TICKS = UNLOAD_DELAY_SECONDS * TPS
+    private val SYSTEM_TICKS = ChunkTicketType.SYSTEM.lifetimeSeconds!! * TPS
+  }
+}
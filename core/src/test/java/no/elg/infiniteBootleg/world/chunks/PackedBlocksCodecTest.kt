@@ -0,0 +1,90 @@
+package no.elg.infiniteBootleg.world.chunks
+
+import io.mockk.mockk
+import no.elg.infiniteBootleg.core.world.Material
+import no.elg.infiniteBootleg.core.world.chunks.Chunk
+import no.elg.infiniteBootleg.core.world.chunks.Chunk.Companion.CHUNK_SIZE
+import no.elg.infiniteBootleg.core.world.chunks.storage.ChunkBlockStorage
+import no.elg.infiniteBootleg.core.world.chunks.storage.ChunkBlockStorage.Companion.CELLS
+import no.elg.infiniteBootleg.core.world.chunks.storage.PackedBlocksCodec
+import no.elg.infiniteBootleg.core.world.chunks.storage.PalettedBlockStorage
+import no.elg.infiniteBootleg.protobuf.ProtoWorld
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertSame
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
+
+class PackedBlocksCodecTest {
+
+  private val chunk = mockk<Chunk>(relaxed = true)
+
+  private fun decode(packed: ProtoWorld.PackedBlocks, base: Array<Material>? = null): Array<Material?> {
+    val decoded = arrayOfNulls<Material>(CELLS)
+    PackedBlocksCodec.decode(packed, base) { index, material -> decoded[index] = material }
+    return decoded
+  }
+
+  @Test
+  fun `materials survive encoding`() {
+    val storage = PalettedBlockStorage(chunk)
+    val materials = Material.materials
+    fun expected(localX: Int, localY: Int) = materials[(localX * 7 + localY / 3) % materials.size]
+
+    for (localX in 0 until CHUNK_SIZE) {
+      for (localY in 0 until CHUNK_SIZE) {
+        storage.setMaterial(localX, localY, expected(localX, localY))
+      }
+    }
+    val decoded = decode(PackedBlocksCodec.encode(storage))
+    for (index in 0 until CELLS) {
+      val localX = PackedBlocksCodec.localX(index)
+      val localY = PackedBlocksCodec.localY(index)
+      assertSame(expected(localX, localY), decoded[index])
+    }
+  }
+
+  @Test
+  fun `runs of the same material are stored once`() {
+    val storage = PalettedBlockStorage(chunk)
+    for (localX in 0 until CHUNK_SIZE) {
+      for (localY in 0 until CHUNK_SIZE / 2) {
+        storage.setMaterial(localX, localY, Material.Stone)
+      }
+    }
+    val packed = PackedBlocksCodec.encode(storage)
+    assertEquals(2, packed.paletteCount)
+    // One run of stone (the lower half) followed by one run of air
+    assertEquals(4, packed.runsCount)
+    val decoded = decode(packed)
+    assertSame(Material.Stone, decoded[0])
+    assertSame(Material.Air, decoded[CELLS - 1])
+  }
+
+  @Test
+  fun `relative blocks only store the changed blocks`() {
+    val base = Array<Material>(CELLS) { if (it % 3 == 0) Material.Stone else Material.Dirt }
+    val storage = PalettedBlockStorage(chunk)
+    for (localX in 0 until CHUNK_SIZE) {
+      for (localY in 0 until CHUNK_SIZE) {
+        storage.setMaterial(localX, localY, base[ChunkBlockStorage.cellIndex(localX, localY)])
+      }
+    }
+    storage.setMaterial(3, 4, Material.Air)
+
+    val relative = PackedBlocksCodec.relativize(PackedBlocksCodec.encode(storage), base)
+    assertEquals(listOf(""), relative.paletteList)
+    val decoded = decode(relative, base)
+    for (index in 0 until CELLS) {
+      val localX = PackedBlocksCodec.localX(index)
+      val localY = PackedBlocksCodec.localY(index)
+      assertSame(storage.getMaterial(localX, localY), decoded[index])
+    }
+    assertThrows<IllegalArgumentException> { decode(relative) }
+  }
+
+  @Test
+  fun `too few blocks is rejected`() {
+    val packed = ProtoWorld.PackedBlocks.newBuilder().addPalette("").addRuns(1).addRuns(CELLS - 1).build()
+    assertThrows<IllegalArgumentException> { decode(packed) }
+  }
+}
@@ -0,0 +1,110 @@
+package no.elg.infiniteBootleg.world.chunks
+
+import com.badlogic.ashley.core.Entity
+import io.mockk.every
+import io.mockk.mockk
+import no.elg.infiniteBootleg.core.world.Material
+import no.elg.infiniteBootleg.core.world.blocks.Block.Companion.remove
+import no.elg.infiniteBootleg.core.world.blocks.BlockImpl
+import no.elg.infiniteBootleg.core.world.chunks.Chunk
+import no.elg.infiniteBootleg.core.world.chunks.Chunk.Companion.CHUNK_SIZE
+import no.elg.infiniteBootleg.core.world.chunks.storage.PalettedBlockStorage
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertNotSame
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Assertions.assertSame
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+
+class PalettedBlockStorageTest {
+
+  private val chunk = mockk<Chunk>(relaxed = true)
+
+  @Test
+  fun `new storage is all air`() {
+    val storage = PalettedBlockStorage(chunk)
+    for (localX in 0 until CHUNK_SIZE) {
+      for (localY in 0 until CHUNK_SIZE) {
+        assertSame(Material.Air, storage.getMaterial(localX, localY))
+        assertNull(storage[localX, localY])
+        assertTrue(storage.isUnset(localX, localY))
+      }
+    }
+  }
+
+  @Test
+  fun `materials survive palette growth`() {
+    val storage = PalettedBlockStorage(chunk)
+    val materials = Material.materials
+    fun expected(localX: Int, localY: Int) = materials[(localX * CHUNK_SIZE + localY) % materials.size]
+
+    for (localX in 0 until CHUNK_SIZE) {
+      for (localY in 0 until CHUNK_SIZE) {
+        storage.setMaterial(localX, localY, expected(localX, localY))
+      }
+    }
+    assertEquals(materials.size, storage.paletteCount)
+    assertTrue(storage.bitsPerEntry > PalettedBlockStorage.MIN_BITS_PER_ENTRY)
+    for (localX in 0 until CHUNK_SIZE) {
+      for (localY in 0 until CHUNK_SIZE) {
+        assertSame(expected(localX, localY), storage.getMaterial(localX, localY))
+      }
+    }
+  }
+
+  @Test
+  fun `blocks without an entity are not kept`() {
+    val storage = PalettedBlockStorage(chunk)
+    storage.setMaterial(1, 2, Material.Stone)
+    val block = storage[1, 2]
+    assertSame(Material.Stone, block?.material)
+    assertEquals(block, storage[1, 2])
+    assertNotSame(block, storage[1, 2])
+    assertNull(storage.getInstance(1, 2))
+
+    storage[1, 2] = BlockImpl(chunk, 1, 2, Material.Dirt)
+    assertNull(storage.getInstance(1, 2))
+    assertSame(Material.Dirt, storage.getMaterial(1, 2))
+
+    storage[1, 2] = null
+    assertNull(storage[1, 2])
+    assertTrue(storage.isUnset(1, 2))
+  }
+
+  @Test
+  fun `blocks with an entity are kept until the cell is changed`() {
+    val storage = PalettedBlockStorage(chunk)
+    val block = BlockImpl(chunk, 1, 2, Material.Stone, entity = Entity())
+    storage[1, 2] = block
+    assertSame(block, storage[1, 2])
+    assertSame(block, storage.getInstance(1, 2))
+
+    storage.setMaterial(1, 2, Material.Dirt)
+    assertNull(storage.getInstance(1, 2))
+    assertSame(Material.Dirt, storage.getMaterial(1, 2))
+  }
+
+  @Test
+  fun `blocks which are not kept can be removed once`() {
+    val liveChunk = mockk<Chunk>(relaxed = true)
+    val storage = PalettedBlockStorage(liveChunk)
+    every { liveChunk.isValid } returns true
+    every { liveChunk.getRawBlock(any(), any()) } answers { storage[firstArg(), secondArg()] }
+    every { liveChunk.getBlockInstance(any(), any()) } answers { storage.getInstance(firstArg(), secondArg()) }
+    every { liveChunk.getRawMaterial(any(), any()) } answers { storage.getMaterial(firstArg(), secondArg()) }
+    every { liveChunk.removeBlock(any(), any(), any(), any(), any()) } answers { storage[firstArg(), secondArg()] = null }
+
+    storage.setMaterial(1, 2, Material.Stone)
+    val block = liveChunk.getRawBlock(1, 2)!!
+    assertFalse(block.isDisposed)
+    assertSame(liveChunk, block.remove())
+    assertSame(Material.Air, storage.getMaterial(1, 2))
+    assertTrue(block.isDisposed)
+    // Not removed again, so it is not given to the player twice
+    assertNull(block.remove())
+
+    storage.setMaterial(1, 2, Material.Dirt)
+    assertTrue(block.isDisposed)
+  }
+}
@@ -0,0 +1,68 @@
+package no.elg.infiniteBootleg.world.ecs
+
+import com.badlogic.ashley.core.Engine
+import com.badlogic.ashley.core.Entity
+import com.badlogic.gdx.math.Vector2
+import no.elg.infiniteBootleg.core.util.compactInt
+import no.elg.infiniteBootleg.core.world.ecs.ChunkEntityIndex
+import no.elg.infiniteBootleg.core.world.ecs.components.required.PositionComponent
+import no.elg.infiniteBootleg.core.world.ecs.components.required.PositionComponent.Companion.positionComponent
+import no.elg.infiniteBootleg.core.world.ecs.toFamily
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Test
+
+class ChunkEntityIndexTest {
+
+  private val index = ChunkEntityIndex(Engine(), PositionComponent::class.toFamily())
+
+  private fun entityAt(x: Float, y: Float): Entity = Entity().add(PositionComponent(x, y))
+
+  @Test
+  fun `added entity is in the chunk of its position`() {
+    val entity = entityAt(17.5f, -16.5f)
+    index.entityAdded(entity)
+    assertEquals(compactInt(1, -1), index.chunkOf(entity))
+    assertEquals(listOf(entity), index.entitiesIn(compactInt(1, -1)))
+  }
+
+  @Test
+  fun `entity crossing a chunk border is moved`() {
+    val entity = entityAt(15.9f, 3f)
+    val other = entityAt(2f, 2f)
+    index.entityAdded(entity)
+    index.entityAdded(other)
+    assertEquals(setOf(entity, other), index.entitiesIn(compactInt(0, 0)).toSet())
+
+    entity.positionComponent.setPosition(Vector2(16.1f, 3f))
+    index.update(entity)
+    assertEquals(listOf(other), index.entitiesIn(compactInt(0, 0)))
+    assertEquals(listOf(entity), index.entitiesIn(compactInt(1, 0)))
+
+    // Moving within the chunk changes nothing
+    entity.positionComponent.setPosition(Vector2(31.9f, 15.9f))
+    index.update(entity)
+    assertEquals(listOf(entity), index.entitiesIn(compactInt(1, 0)))
+    assertEquals(2, index.size)
+  }
+
+  @Test
+  fun `teleported entity is only in the new chunk`() {
+    val entity = entityAt(0f, 0f)
+    index.entityAdded(entity)
+    entity.positionComponent.setPosition(Vector2(1000f, -500f))
+    index.update(entity)
+    assertEquals(emptyList<Entity>(), index.entitiesIn(compactInt(0, 0)))
+    assertEquals(listOf(entity), index.entitiesIn(compactInt(62, -32)))
+  }
+
+  @Test
+  fun `removed entity is forgotten`() {
+    val entity = entityAt(5f, 5f)
+    index.entityAdded(entity)
+    index.entityRemoved(entity)
+    assertNull(index.chunkOf(entity))
+    assertEquals(emptyList<Entity>(), index.entitiesIn(compactInt(0, 0)))
+    assertEquals(0, index.size)
+  }
+}
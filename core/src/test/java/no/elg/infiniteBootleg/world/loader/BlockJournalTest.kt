@@ -0,0 +1,105 @@
+package no.elg.infiniteBootleg.world.loader
+
+import no.elg.infiniteBootleg.core.util.compactInt
+import no.elg.infiniteBootleg.core.world.loader.journal.BlockJournal
+import no.elg.infiniteBootleg.protobuf.ProtoWorld
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertNotNull
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.io.File
+
+class BlockJournalTest {
+
+  @TempDir
+  lateinit var folder: File
+
+  private fun block(material: String): ProtoWorld.Block =
+    ProtoWorld.Block.newBuilder().setMaterial(ProtoWorld.Material.newBuilder().setName(material)).build()
+
+  private fun segment(): File = folder.listFiles { file -> file.name.endsWith(BlockJournal.SEGMENT_EXTENSION) }!!.single()
+
+  private fun readAll(file: File): List<ProtoWorld.JournalEntry> {
+    val entries = ArrayList<ProtoWorld.JournalEntry>()
+    BlockJournal.read(file) { entries += it }
+    return entries
+  }
+
+  @Test
+  fun `newest change of each block is recovered`() {
+    BlockJournal(folder).use { journal ->
+      journal.append(1, 2, block("stone"))
+      journal.append(1, 2, block("dirt"))
+      journal.append(3, 4, null)
+      journal.append(100, 4, block("sand"))
+    }
+    BlockJournal(folder).use { journal ->
+      assertEquals(2, journal.pendingChunks)
+      val pending = journal.takePending(compactInt(0, 0))
+      assertNotNull(pending)
+      assertEquals(2, pending!!.size)
+      assertEquals("dirt", pending[compactInt(1, 2)]!!.block.material.name)
+      assertFalse(pending[compactInt(3, 4)]!!.hasBlock())
+      assertNull(journal.takePending(compactInt(0, 0)))
+      assertEquals(1, journal.pendingChunks)
+    }
+  }
+
+  @Test
+  fun `record cut short by a crash is ignored`() {
+    val intact: Long
+    BlockJournal(folder).use { journal ->
+      journal.append(1, 2, block("stone"))
+      journal.sync()
+      intact = segment().length()
+      journal.append(5, 6, block("dirt"))
+    }
+    val bytes = segment().readBytes()
+    assertEquals(2, readAll(segment()).size)
+
+    // Simulate the process being killed at every point while the last record was written
+    for (length in intact until bytes.size) {
+      segment().writeBytes(bytes.copyOf(length.toInt()))
+      val entries = readAll(segment())
+      assertEquals(1, entries.size, "Truncated to $length bytes")
+      assertEquals(1, entries[0].worldX)
+    }
+    BlockJournal(folder).use { journal ->
+      val pending = journal.takePending(compactInt(0, 0))!!
+      assertEquals(setOf(compactInt(1, 2)), pending.keys)
+    }
+  }
+
+  @Test
+  fun `corrupt record stops reading the segment`() {
+    BlockJournal(folder).use { journal ->
+      journal.append(1, 2, block("stone"))
+      journal.append(5, 6, block("dirt"))
+    }
+    val bytes = segment().readBytes()
+    bytes[bytes.size - 1] = (bytes[bytes.size - 1].toInt() xor 0xFF).toByte()
+    segment().writeBytes(bytes)
+    assertEquals(1, readAll(segment()).size)
+  }
+
+  @Test
+  fun `released segments are deleted but unreplayed changes are kept`() {
+    BlockJournal(folder).use { journal ->
+      journal.append(1, 2, block("stone"))
+    }
+    BlockJournal(folder).use { journal ->
+      // Saved before the chunk with the recovered change was loaded
+      journal.append(20, 2, block("dirt"))
+      val checkpoint = journal.checkpoint()
+      journal.append(40, 2, block("sand"))
+      journal.release(checkpoint)
+    }
+    BlockJournal(folder).use { journal ->
+      assertNotNull(journal.takePending(compactInt(0, 0)))
+      assertNull(journal.takePending(compactInt(1, 0)))
+      assertNotNull(journal.takePending(compactInt(2, 0)))
+    }
+  }
+}
@@ -0,0 +1,172 @@
+package no.elg.infiniteBootleg.world.loader
+
+import io.mockk.mockk
+import io.mockk.verify
+import no.elg.infiniteBootleg.core.util.compactInt
+import no.elg.infiniteBootleg.core.world.chunks.Chunk
+import no.elg.infiniteBootleg.core.world.loader.chunk.ChunkLoadRequests
+import no.elg.infiniteBootleg.core.world.loader.chunk.LoadedChunk
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertNotSame
+import org.junit.jupiter.api.Assertions.assertSame
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executor
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class ChunkLoadRequestsTest {
+
+  private val executor: ExecutorService = Executors.newFixedThreadPool(4)
+  private val fetches = AtomicInteger()
+  private val published = ConcurrentHashMap<Long, Chunk>()
+  private val fetched = ConcurrentHashMap<Long, Chunk>()
+
+  /**
+   * Counted down to let the fetches complete
+   */
+  private val release = CountDownLatch(1)
+
+  private val requests = ChunkLoadRequests(
+    executor = executor,
+    publisher = Executor { command -> command.run() },
+    fetch = { chunkLoc ->
+      fetches.incrementAndGet()
+      release.await()
+      val chunk = mockk<Chunk>(relaxed = true)
+      fetched[chunkLoc] = chunk
+      LoadedChunk(chunk, true)
+    },
+    publish = { chunkLoc, loadedChunk ->
+      published[chunkLoc] = loadedChunk.chunk!!
+      loadedChunk.chunk
+    }
+  )
+
+  @AfterEach
+  fun tearDown() {
+    release.countDown()
+    executor.shutdownNow()
+  }
+
+  private fun awaitFetches() {
+    executor.shutdown()
+    assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS))
+  }
+
+  @Test
+  fun `racing requests for the same chunk share one load`() {
+    val chunkLoc = compactInt(3, -7)
+    val threads = 16
+    val start = CountDownLatch(1)
+    val futures = ConcurrentHashMap.newKeySet<CompletableFuture<Chunk?>>()
+    val requesters = List(threads) {
+      Thread.ofPlatform().start {
+        start.await()
+        futures += requests.load(chunkLoc)
+      }
+    }
+    start.countDown()
+    requesters.forEach(Thread::join)
+    release.countDown()
+
+    assertEquals(1, futures.size)
+    val chunk = futures.single().get(10, TimeUnit.SECONDS)
+    awaitFetches()
+    assertEquals(1, fetches.get())
+    assertSame(published[chunkLoc], chunk)
+    assertEquals(1L, requests.requested)
+    assertEquals(threads - 1L, requests.deduplicated)
+    assertEquals(0, requests.loading)
+  }
+
+  @Test
+  fun `different chunks are loaded separately`() {
+    val first = requests.load(compactInt(0, 0))
+    val second = requests.load(compactInt(0, 1))
+    assertNotSame(first, second)
+    release.countDown()
+
+    assertNotSame(first.get(10, TimeUnit.SECONDS), second.get(10, TimeUnit.SECONDS))
+    assertEquals(2, fetches.get())
+  }
+
+  @Test
+  fun `a new load is started once the previous load completed`() {
+    val chunkLoc = compactInt(1, 1)
+    release.countDown()
+    requests.load(chunkLoc).get(10, TimeUnit.SECONDS)
+    requests.load(chunkLoc).get(10, TimeUnit.SECONDS)
+    assertEquals(2, fetches.get())
+  }
+
+  @Test
+  fun `cancelled load is never published`() {
+    val chunkLoc = compactInt(5, 5)
+    val future = requests.load(chunkLoc)
+    assertTrue(requests.cancel(chunkLoc))
+    assertTrue(future.isCancelled)
+    assertEquals(0, requests.loading)
+    release.countDown()
+    awaitFetches()
+
+    assertFalse(published.containsKey(chunkLoc))
+    fetched[chunkLoc]?.let { chunk -> verify { chunk.dispose() } }
+    assertEquals(1L, requests.cancelled)
+  }
+
+  @Test
+  fun `load after cancelling starts a new load`() {
+    val chunkLoc = compactInt(-2, 4)
+    val cancelled = requests.load(chunkLoc)
+    requests.cancel(chunkLoc)
+    val future = requests.load(chunkLoc)
+    assertNotSame(cancelled, future)
+    release.countDown()
+
+    assertSame(published[chunkLoc], future.get(10, TimeUnit.SECONDS))
+  }
+
+  @Test
+  fun `published load cannot be cancelled`() {
+    val chunkLoc = compactInt(9, 9)
+    release.countDown()
+    val chunk = requests.load(chunkLoc).get(10, TimeUnit.SECONDS)
+    assertFalse(requests.cancel(chunkLoc))
+    verify(exactly = 0) { chunk!!.dispose() }
+  }
+
+  @Test
+  fun `prefetch joined by a load is not cancelled as a prefetch`() {
+    val chunkLoc = compactInt(2, 2)
+    val prefetch = requests.prefetch(chunkLoc)
+    val load = requests.load(chunkLoc)
+    assertSame(prefetch, load)
+    assertFalse(requests.cancelPrefetch(chunkLoc))
+    release.countDown()
+
+    assertSame(published[chunkLoc], load.get(10, TimeUnit.SECONDS))
+    awaitFetches()
+    assertEquals(1, fetches.get())
+    assertEquals(1L, requests.prefetched)
+    assertEquals(1L, requests.promoted)
+  }
+
+  @Test
+  fun `only prefetches are cancelled as prefetches`() {
+    val prefetched = compactInt(3, 3)
+    val loaded = compactInt(4, 4)
+    requests.prefetch(prefetched)
+    requests.load(loaded)
+    assertTrue(requests.cancelPrefetch(prefetched))
+    assertFalse(requests.cancelPrefetch(loaded))
+    assertEquals(1, requests.loading)
+  }
+}
@@ -0,0 +1,116 @@
+package no.elg.infiniteBootleg.world.loader
+
+import io.mockk.mockk
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet
+import no.elg.infiniteBootleg.core.util.ChunkCoord
+import no.elg.infiniteBootleg.core.util.compactInt
+import no.elg.infiniteBootleg.core.world.chunks.Chunk
+import no.elg.infiniteBootleg.core.world.loader.chunk.ChunkPrefetchStats
+import no.elg.infiniteBootleg.core.world.loader.chunk.ChunkPrefetcher
+import no.elg.infiniteBootleg.core.world.render.ChunksInView
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import java.util.concurrent.CompletableFuture
+
+class ChunkPrefetcherTest {
+
+  private val stats = ChunkPrefetchStats()
+  private val futures = HashMap<Long, CompletableFuture<Chunk?>>()
+  private val cancelled = LongOpenHashSet()
+  private val streamed = ArrayList<Chunk>()
+
+  private val prefetcher = ChunkPrefetcher(
+    stats = stats,
+    prefetch = { chunkLoc -> CompletableFuture<Chunk?>().also { futures[chunkLoc] = it } },
+    cancel = { chunkLoc -> cancelled.add(chunkLoc) },
+    lookaheadSeconds = 2f,
+    maxChunks = 64,
+    onPrefetched = { streamed += it }
+  )
+
+  /**
+   * A view of 4x4 chunks around chunk (0, 0)
+   */
+  private val view = View(horizontalStart = -2, horizontalEnd = 2, verticalStart = -2, verticalEnd = 2)
+
+  private fun columns(vararg chunkXs: ChunkCoord): Set<Long> = chunkXs.flatMap { chunkX -> (-2 until 2).map { chunkY -> compactInt(chunkX, chunkY) } }.toSet()
+
+  @Test
+  fun `nothing is prefetched for a still entity`() {
+    prefetcher.update(view, 8f, 8f, 0f, 0f)
+    assertTrue(futures.isEmpty())
+    assertEquals(0L, stats.prefetched)
+  }
+
+  @Test
+  fun `chunks along the path are prefetched`() {
+    // Two chunks east within the lookahead
+    prefetcher.update(view, 8f, 8f, SPEED, 0f)
+    assertEquals(columns(2, 3), futures.keys)
+    assertEquals(8, prefetcher.pending)
+
+    // Prefetching again does not load the chunks again
+    prefetcher.update(view, 8f, 8f, SPEED, 0f)
+    assertEquals(8L, stats.prefetched)
+  }
+
+  @Test
+  fun `changing direction cancels the prefetches no longer on the path`() {
+    prefetcher.update(view, 8f, 8f, SPEED, 0f)
+    val east = futures.keys.toSet()
+    prefetcher.update(view, 8f, 8f, -SPEED, 0f)
+
+    assertEquals(east, cancelled.toSet())
+    assertEquals(8L, stats.wasted)
+    assertEquals(columns(-3, -4), futures.keys - east)
+
+    // A chunk loaded after it left the path is not streamed
+    futures.getValue(compactInt(2, 0)).complete(mockk())
+    assertTrue(streamed.isEmpty())
+    futures.getValue(compactInt(-3, 0)).complete(mockk())
+    assertEquals(1, streamed.size)
+  }
+
+  @Test
+  fun `prefetched chunks coming into view are hits`() {
+    prefetcher.update(view, 8f, 8f, SPEED, 0f)
+    view.horizontalStart++
+    view.horizontalEnd++
+    prefetcher.update(view, 24f, 8f, SPEED, 0f)
+
+    assertEquals(4L, stats.hits)
+    assertEquals(0L, stats.wasted)
+    assertEquals(columns(3, 4), futures.keys - columns(2))
+    assertEquals(1.0, stats.hitRate)
+  }
+
+  @Test
+  fun `at most max chunks are prefetched`() {
+    val prefetcher = ChunkPrefetcher(stats, { CompletableFuture<Chunk?>() }, { true }, lookaheadSeconds = 10f, maxChunks = 5)
+    prefetcher.update(view, 8f, 8f, SPEED, SPEED)
+    assertEquals(5, prefetcher.pending)
+  }
+
+  @Test
+  fun `clearing cancels all prefetches`() {
+    prefetcher.update(view, 8f, 8f, 0f, SPEED)
+    prefetcher.clear()
+    assertEquals(futures.keys, cancelled.toSet())
+    assertEquals(0, prefetcher.pending)
+  }
+
+  private class View(
+    override var horizontalStart: ChunkCoord,
+    override var horizontalEnd: ChunkCoord,
+    override var verticalStart: ChunkCoord,
+    override var verticalEnd: ChunkCoord
+  ) : ChunksInView
+
+  companion object {
+    /**
+     * One chunk per second
+     */
+    private const val SPEED = 16f
+  }
+}
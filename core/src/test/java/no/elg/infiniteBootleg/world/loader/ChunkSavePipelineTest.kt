@@ -0,0 +1,153 @@
+package no.elg.infiniteBootleg.world.loader
+
+import io.mockk.every
+import io.mockk.mockk
+import no.elg.infiniteBootleg.core.util.compactInt
+import no.elg.infiniteBootleg.core.world.loader.chunk.ChunkSavePipeline
+import no.elg.infiniteBootleg.core.world.loader.region.RegionStorage
+import no.elg.infiniteBootleg.protobuf.ProtoWorld
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertInstanceOf
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Assertions.assertThrows
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.io.File
+import java.io.IOException
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
+
+class ChunkSavePipelineTest {
+
+  @TempDir
+  lateinit var folder: File
+
+  private val storage by lazy { RegionStorage(folder) }
+
+  /**
+   * Counted down when the first chunk is being written, which is then held until [release] is counted down
+   */
+  private val writingFirst = CountDownLatch(1)
+  private val release = CountDownLatch(1)
+
+  private val pipeline by lazy {
+    ChunkSavePipeline(storage) {
+      writingFirst.countDown()
+      release.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+      it
+    }
+  }
+
+  @AfterEach
+  fun tearDown() {
+    release.countDown()
+    pipeline.close()
+    storage.dispose()
+  }
+
+  private fun protoChunk(chunkX: Int, chunkY: Int, entities: Int = 0): ProtoWorld.Chunk {
+    val builder = ProtoWorld.Chunk.newBuilder().setPosition(ProtoWorld.Vector2i.newBuilder().setX(chunkX).setY(chunkY))
+    repeat(entities) { builder.addEntities(ProtoWorld.Entity.getDefaultInstance()) }
+    return builder.build()
+  }
+
+  private fun read(chunkX: Int, chunkY: Int): ProtoWorld.Chunk? = storage.read(chunkX, chunkY)?.let(ProtoWorld.Chunk::parseFrom)
+
+  /**
+   * Submit a chunk and wait until it is being written, so the chunks submitted afterwards are queued behind it
+   */
+  private fun holdWriter() {
+    pipeline.submit(compactInt(0, 0), protoChunk(0, 0))
+    assertTrue(writingFirst.await(TIMEOUT_SECONDS, TimeUnit.SECONDS))
+  }
+
+  @Test
+  fun `only the newest snapshot of a queued chunk is written`() {
+    holdWriter()
+    pipeline.submit(compactInt(1, 0), protoChunk(1, 0, entities = 1))
+    pipeline.submit(compactInt(1, 0), protoChunk(1, 0, entities = 2))
+    assertEquals(1, pipeline.deduplicated)
+    assertEquals(2, pipeline.unwritten(compactInt(1, 0))?.entitiesCount)
+
+    release.countDown()
+    pipeline.barrier().get(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+    assertEquals(2, pipeline.written)
+    assertEquals(2, read(1, 0)?.entitiesCount)
+    assertNull(pipeline.unwritten(compactInt(1, 0)))
+  }
+
+  @Test
+  fun `barrier waits for the chunks queued before it`() {
+    holdWriter()
+    pipeline.submit(compactInt(1, 0), protoChunk(1, 0))
+    val barrier = pipeline.barrier()
+    pipeline.submit(compactInt(2, 0), protoChunk(2, 0))
+    assertFalse(barrier.isDone)
+
+    release.countDown()
+    barrier.get(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+    assertEquals(1, read(1, 0)?.position?.x)
+  }
+
+  @Test
+  fun `barrier does not wait for discarded chunks`() {
+    holdWriter()
+    pipeline.submit(compactInt(1, 0), protoChunk(1, 0))
+    val barrier = pipeline.barrier()
+    pipeline.discard(compactInt(1, 0))
+    // Still waiting for the chunk being written
+    assertFalse(barrier.isDone)
+
+    release.countDown()
+    barrier.get(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+    assertNull(read(1, 0))
+  }
+
+  @Test
+  fun `close writes the queued chunks and later chunks are not written`() {
+    holdWriter()
+    for (chunkX in 1..10) {
+      pipeline.submit(compactInt(chunkX, 0), protoChunk(chunkX, 0))
+    }
+    release.countDown()
+    pipeline.close()
+    assertEquals(0, pipeline.backlog)
+    for (chunkX in 0..10) {
+      assertEquals(chunkX, read(chunkX, 0)?.position?.x)
+    }
+
+    pipeline.submit(compactInt(11, 0), protoChunk(11, 0))
+    assertEquals(0, pipeline.backlog)
+    assertEquals(11, pipeline.written)
+    assertNull(read(11, 0))
+  }
+
+  @Test
+  fun `barrier fails when a chunk it waits for could not be written`() {
+    val failingStorage = mockk<RegionStorage>(relaxed = true)
+    every { failingStorage.write(1, 0, any()) } throws IOException("No space left on device")
+    val failingPipeline = ChunkSavePipeline(failingStorage) {
+      writingFirst.countDown()
+      release.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+      it
+    }
+    failingPipeline.submit(compactInt(0, 0), protoChunk(0, 0))
+    assertTrue(writingFirst.await(TIMEOUT_SECONDS, TimeUnit.SECONDS))
+    failingPipeline.submit(compactInt(1, 0), protoChunk(1, 0))
+    val barrier = failingPipeline.barrier()
+
+    release.countDown()
+    val thrown = assertThrows(ExecutionException::class.java) { barrier.get(TIMEOUT_SECONDS, TimeUnit.SECONDS) }
+    assertInstanceOf(IOException::class.java, thrown.cause)
+    failingPipeline.close()
+    assertEquals(1, failingPipeline.written)
+  }
+
+  companion object {
+    private const val TIMEOUT_SECONDS = 10L
+  }
+}
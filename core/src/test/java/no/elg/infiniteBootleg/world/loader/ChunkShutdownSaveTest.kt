@@ -0,0 +1,112 @@
+package no.elg.infiniteBootleg.world.loader
+
+import io.mockk.mockk
+import no.elg.infiniteBootleg.core.util.compactInt
+import no.elg.infiniteBootleg.core.util.decompactLocX
+import no.elg.infiniteBootleg.core.util.decompactLocY
+import no.elg.infiniteBootleg.core.world.Material
+import no.elg.infiniteBootleg.core.world.chunks.Chunk
+import no.elg.infiniteBootleg.core.world.chunks.Chunk.Companion.CHUNK_SIZE
+import no.elg.infiniteBootleg.core.world.chunks.storage.PackedBlocksCodec
+import no.elg.infiniteBootleg.core.world.chunks.storage.PalettedBlockStorage
+import no.elg.infiniteBootleg.core.world.loader.chunk.ChunkShutdownSave
+import no.elg.infiniteBootleg.core.world.loader.region.RegionStorage
+import no.elg.infiniteBootleg.protobuf.ProtoWorld
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNotNull
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.io.File
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.Executor
+
+class ChunkShutdownSaveTest {
+
+  @TempDir
+  lateinit var folder: File
+
+  private val packedBlocks: ProtoWorld.PackedBlocks = run {
+    val storage = PalettedBlockStorage(mockk<Chunk>(relaxed = true))
+    for (localX in 0 until CHUNK_SIZE) {
+      for (localY in 0 until CHUNK_SIZE) {
+        storage.setMaterial(localX, localY, if ((localX + localY) % 3 == 0) Material.Stone else Material.Dirt)
+      }
+    }
+    PackedBlocksCodec.encode(storage)
+  }
+
+  private fun protoChunk(chunkX: Int, chunkY: Int): ProtoWorld.Chunk =
+    ProtoWorld.Chunk.newBuilder()
+      .setPosition(ProtoWorld.Vector2i.newBuilder().setX(chunkX).setY(chunkY))
+      .setPackedBlocks(packedBlocks)
+      .build()
+
+  private fun saves(size: Int, save: (chunkX: Int, chunkY: Int, Executor) -> CompletableFuture<ProtoWorld.Chunk>) =
+    (0 until size * size).map { i ->
+      val chunkX = i % size - size / 2
+      val chunkY = i / size - size / 2
+      compactInt(chunkX, chunkY) to { executor: Executor -> save(chunkX, chunkY, executor) }
+    }
+
+  @Test
+  fun `saves ten thousand chunks within the timeout`() {
+    val storage = RegionStorage(folder)
+    val saves = saves(100) { chunkX, chunkY, executor -> CompletableFuture.supplyAsync({ protoChunk(chunkX, chunkY) }, executor) }
+    val result = ChunkShutdownSave(storage, Runtime.getRuntime().availableProcessors()).saveAll(saves, TIMEOUT_MILLIS)
+    storage.dispose()
+
+    assertTrue(result.isComplete, "Only ${result.saved}/${result.total} saved, ${result.failed.size} failed")
+    assertTrue(result.elapsedMillis < TIMEOUT_MILLIS)
+    val reopened = RegionStorage(folder)
+    for ((chunkLoc, _) in saves) {
+      val bytes = reopened.read(chunkLoc.decompactLocX(), chunkLoc.decompactLocY())
+      assertNotNull(bytes)
+      assertEquals(protoChunk(chunkLoc.decompactLocX(), chunkLoc.decompactLocY()), ProtoWorld.Chunk.parseFrom(bytes))
+    }
+    reopened.dispose()
+  }
+
+  @Test
+  fun `failed chunks do not stop the others`() {
+    val storage = RegionStorage(folder)
+    val saves = saves(10) { chunkX, chunkY, executor ->
+      if (chunkX == 0) {
+        CompletableFuture.failedFuture(IllegalStateException("Broken chunk"))
+      } else {
+        CompletableFuture.supplyAsync({ protoChunk(chunkX, chunkY) }, executor)
+      }
+    }
+    val result = ChunkShutdownSave(storage, 2).saveAll(saves, TIMEOUT_MILLIS)
+    storage.dispose()
+
+    assertEquals(100, result.total)
+    assertEquals(90, result.saved)
+    assertEquals(10, result.failed.size)
+    assertEquals(0, result.unsaved)
+    assertTrue(result.failed.values.all { it is IllegalStateException })
+  }
+
+  @Test
+  fun `gives up at the timeout`() {
+    val storage = RegionStorage(folder)
+    val saves = saves(4) { chunkX, chunkY, executor ->
+      // One chunk never finishes serializing
+      if (chunkX == 0 && chunkY == 0) CompletableFuture() else CompletableFuture.supplyAsync({ protoChunk(chunkX, chunkY) }, executor)
+    }
+    val result = ChunkShutdownSave(storage, 2).saveAll(saves, 200)
+    storage.dispose()
+
+    assertEquals(15, result.saved)
+    assertEquals(1, result.unsaved)
+    assertTrue(result.elapsedMillis < TIMEOUT_MILLIS)
+    val reopened = RegionStorage(folder)
+    assertNull(reopened.read(0, 0))
+    reopened.dispose()
+  }
+
+  companion object {
+    private const val TIMEOUT_MILLIS = 60_000L
+  }
+}
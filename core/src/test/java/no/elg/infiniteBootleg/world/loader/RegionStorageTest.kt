@@ -0,0 +1,123 @@
+package no.elg.infiniteBootleg.world.loader
+
+import no.elg.infiniteBootleg.core.world.loader.region.RegionFile
+import no.elg.infiniteBootleg.core.world.loader.region.RegionStorage
+import org.junit.jupiter.api.Assertions.assertArrayEquals
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.io.File
+
+class RegionStorageTest {
+
+  @TempDir
+  lateinit var folder: File
+
+  private fun bytes(size: Int, seed: Int): ByteArray = ByteArray(size) { (it * 31 + seed).toByte() }
+
+  @Test
+  fun `chunks survive reopening the storage`() {
+    val storage = RegionStorage(folder)
+    storage.write(0, 0, bytes(10, 1))
+    storage.write(-1, -1, bytes(RegionFile.SECTOR_SIZE * 2 + 1, 2))
+    storage.write(RegionFile.REGION_SIZE, 5, bytes(100, 3))
+    assertEquals(3, storage.openRegions)
+    storage.dispose()
+
+    val reopened = RegionStorage(folder)
+    assertArrayEquals(bytes(10, 1), reopened.read(0, 0))
+    assertArrayEquals(bytes(RegionFile.SECTOR_SIZE * 2 + 1, 2), reopened.read(-1, -1))
+    assertArrayEquals(bytes(100, 3), reopened.read(RegionFile.REGION_SIZE, 5))
+    assertNull(reopened.read(1, 0))
+    assertNull(reopened.read(1000, 1000))
+    reopened.dispose()
+  }
+
+  @Test
+  fun `rewritten chunk replaces the old one`() {
+    val storage = RegionStorage(folder)
+    storage.write(3, 4, bytes(RegionFile.SECTOR_SIZE, 1))
+    storage.write(3, 5, bytes(10, 2))
+    // Does not fit in the sectors of the old version
+    storage.write(3, 4, bytes(RegionFile.SECTOR_SIZE * 3, 3))
+    storage.write(3, 5, bytes(20, 4))
+    storage.delete(3, 5)
+    storage.dispose()
+
+    val region = RegionFile(File(folder, "r.0.0${RegionStorage.REGION_EXTENSION}").toPath())
+    assertEquals(1, region.chunks)
+    assertArrayEquals(bytes(RegionFile.SECTOR_SIZE * 3, 3), region.read(3, 4))
+    assertNull(region.read(3, 5))
+    region.close()
+  }
+
+  @Test
+  fun `rewritten chunk is only pointed at once it is flushed`() {
+    val path = File(folder, "r.0.0${RegionStorage.REGION_EXTENSION}").toPath()
+    val region = RegionFile(path)
+    region.write(0, 0, bytes(10, 1))
+    region.flush()
+    region.write(0, 0, bytes(10, 2))
+    // Must not be written to the sector of the flushed version
+    region.write(1, 0, bytes(10, 3))
+
+    // As if the game crashed before flushing
+    val crashed = RegionFile(path)
+    assertArrayEquals(bytes(10, 1), crashed.read(0, 0))
+    assertNull(crashed.read(1, 0))
+    crashed.close()
+
+    region.flush()
+    val flushed = RegionFile(path)
+    assertArrayEquals(bytes(10, 2), flushed.read(0, 0))
+    assertArrayEquals(bytes(10, 3), flushed.read(1, 0))
+    flushed.close()
+    region.close()
+  }
+
+  @Test
+  fun `chunks can be written after the storage is disposed`() {
+    val storage = RegionStorage(folder)
+    storage.write(1, 1, bytes(10, 1))
+    storage.dispose()
+    storage.write(1, 2, bytes(10, 2))
+
+    assertEquals(0, storage.openRegions)
+    assertArrayEquals(bytes(10, 1), storage.read(1, 1))
+    assertArrayEquals(bytes(10, 2), storage.read(1, 2))
+  }
+
+  @Test
+  fun `legacy chunk files are converted and then deleted`() {
+    val legacy = File(folder, "chunks")
+    val chunks = listOf(0 to 0, 0 to -1, -40 to 7, 33 to 100)
+    for ((chunkX, chunkY) in chunks) {
+      File(legacy, "$chunkX").mkdirs()
+      File(legacy, "$chunkX/$chunkY").writeBytes(bytes(50, chunkX * 1000 + chunkY))
+    }
+    val storage = RegionStorage(File(folder, "regions"))
+
+    assertEquals(chunks.size, storage.convertLegacyChunks(legacy))
+    assertFalse(legacy.exists())
+    for ((chunkX, chunkY) in chunks) {
+      assertArrayEquals(bytes(50, chunkX * 1000 + chunkY), storage.read(chunkX, chunkY))
+    }
+    storage.dispose()
+  }
+
+  @Test
+  fun `unknown legacy files are kept`() {
+    val legacy = File(folder, "chunks")
+    File(legacy, "1").mkdirs()
+    File(legacy, "1/2").writeBytes(bytes(50, 1))
+    File(legacy, "1/notes.txt").writeText("not a chunk")
+    val storage = RegionStorage(File(folder, "regions"))
+
+    assertEquals(1, storage.convertLegacyChunks(legacy))
+    assertFalse(File(legacy, "1/2").exists())
+    assertEquals("not a chunk", File(legacy, "1/notes.txt").readText())
+    storage.dispose()
+  }
+}
@@ -5,6 +5,7 @@ import io.netty.bootstrap.ServerBootstrap
 import io.netty.channel.ChannelInitializer
 import io.netty.channel.ChannelOption
 import io.netty.channel.EventLoopGroup
+import io.netty.channel.WriteBufferWaterMark
 import io.netty.channel.socket.SocketChannel
 import io.netty.channel.socket.nio.NioServerSocketChannel
 import io.netty.handler.codec.protobuf.ProtobufDecoder
@@ -13,9 +14,13 @@ import io.netty.handler.codec.protobuf.ProtobufVarint32FrameDecoder
 import io.netty.handler.codec.protobuf.ProtobufVarint32LengthFieldPrepender
 import no.elg.infiniteBootleg.core.Settings
 import no.elg.infiniteBootleg.core.main.Main
+import no.elg.infiniteBootleg.core.net.EncodedPacketHandler
+import no.elg.infiniteBootleg.core.net.OutboundScheduler
+import no.elg.infiniteBootleg.core.net.TickFlushHandler
 import no.elg.infiniteBootleg.core.util.createEventLoopGroup
 import no.elg.infiniteBootleg.core.util.diffTimePretty
 import no.elg.infiniteBootleg.protobuf.Packets
+import java.util.concurrent.TimeUnit
 
 private val logger = KotlinLogging.logger {}
 
@@ -34,10 +39,14 @@ class NettyServer {
           object : ChannelInitializer<SocketChannel>() {
             public override fun initChannel(ch: SocketChannel) {
               val pipeline = ch.pipeline()
+              // Flush at most once per tick, or when a tick runs late
+              pipeline.addLast(TickFlushHandler.NAME, TickFlushHandler(TimeUnit.SECONDS.toNanos(1) / Settings.tps))
               pipeline.addLast("frameDecoder", ProtobufVarint32FrameDecoder())
               pipeline.addLast("protobufDecoder", ProtobufDecoder(Packets.Packet.getDefaultInstance()))
+              pipeline.addLast(EncodedPacketHandler.NAME, EncodedPacketHandler)
               pipeline.addLast("frameEncoder", ProtobufVarint32LengthFieldPrepender())
               pipeline.addLast("protobufEncoder", ProtobufEncoder())
+              pipeline.addLast(OutboundScheduler.NAME, OutboundScheduler())
               pipeline.addLast("ServerHandler", ServerBoundHandler())
             }
           }
@@ -45,6 +54,8 @@ class NettyServer {
         .option(ChannelOption.SO_BACKLOG, 128)
         .childOption(ChannelOption.SO_KEEPALIVE, true)
         .childOption(ChannelOption.TCP_NODELAY, true)
+        // Above the high water mark packets are prioritized by the OutboundScheduler
+        .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, WriteBufferWaterMark(WRITE_BUFFER_LOW_WATER_MARK, WRITE_BUFFER_HIGH_WATER_MARK))
 
       logger.info {
         "Binding server to port @|bold,green ${Settings.port}|@@|white . Server was ready in |@@|bold ${
@@ -65,4 +76,12 @@ class NettyServer {
       bossGroup.shutdownGracefully()
     }
   }
+
+  companion object {
+    /**
+     * Larger than [no.elg.infiniteBootleg.core.net.TickFlushHandler.MAX_PENDING_BYTES], so the writes of a tick do not make the channel unwritable before they are flushed
+     */
+    const val WRITE_BUFFER_LOW_WATER_MARK = 256 * 1024
+    const val WRITE_BUFFER_HIGH_WATER_MARK = 1024 * 1024
+  }
 }
@@ -4,30 +4,78 @@ import com.badlogic.ashley.core.Entity
 import io.netty.channel.Channel
 import io.netty.channel.group.ChannelMatcher
 import io.netty.channel.group.ChannelMatchers
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap
+import no.elg.infiniteBootleg.core.events.WorldTickedEvent
+import no.elg.infiniteBootleg.core.events.api.EventManager
+import no.elg.infiniteBootleg.core.net.BlockUpdateBatch
+import no.elg.infiniteBootleg.core.net.ChunkSubscriptions
+import no.elg.infiniteBootleg.core.net.EncodedPacket
 import no.elg.infiniteBootleg.core.net.PacketSender
 import no.elg.infiniteBootleg.core.net.ServerClient
+import no.elg.infiniteBootleg.core.net.TickFlushHandler
+import no.elg.infiniteBootleg.core.net.clientBoundBlocksUpdate
 import no.elg.infiniteBootleg.core.util.ChunkCompactLoc
 import no.elg.infiniteBootleg.core.util.ChunkCoord
+import no.elg.infiniteBootleg.core.util.LocalCoord
 import no.elg.infiniteBootleg.core.util.WorldCoord
+import no.elg.infiniteBootleg.core.util.compactInt
 import no.elg.infiniteBootleg.core.util.decompactLocX
 import no.elg.infiniteBootleg.core.util.decompactLocY
 import no.elg.infiniteBootleg.core.util.worldToChunk
+import no.elg.infiniteBootleg.core.world.blocks.Block
+import no.elg.infiniteBootleg.core.world.chunks.Chunk
+import no.elg.infiniteBootleg.core.world.chunks.ChunkImpl.Companion.AIR_BLOCK_PROTO
 import no.elg.infiniteBootleg.core.world.ecs.components.required.IdComponent.Companion.id
 import no.elg.infiniteBootleg.core.world.ecs.components.required.PositionComponent.Companion.positionComponent
 import no.elg.infiniteBootleg.protobuf.Packets.Packet
 import no.elg.infiniteBootleg.server.world.ServerWorld
-import no.elg.infiniteBootleg.server.world.ecs.components.transients.ServerClientChunksInViewComponent.Companion.chunksInView
 
 class ServerPacketSender(private val world: ServerWorld) : PacketSender {
 
   /**
-   * Broadcast a packet to players which have the given [worldPosition] location loaded.
+   * The channels of the players which have each chunk loaded, kept up to date by [no.elg.infiniteBootleg.server.world.ecs.system.CenterViewOnEntity]
+   */
+  val chunkSubscriptions = ChunkSubscriptions<Channel>()
+
+  /**
+   * The blocks changed in each chunk during the current tick, sent to the subscribers of the chunk when the tick ends
+   */
+  private val pendingBlockUpdates = Long2ObjectOpenHashMap<BlockUpdateBatch>()
+
+  private val onWorldTicked = EventManager.registerListener { event: WorldTickedEvent ->
+    if (event.world === world) {
+      flushBlockUpdates()
+      // Send everything written during the tick
+      for (channel in ServerBoundHandler.channels) {
+        TickFlushHandler.tickEnded(channel)
+      }
+    }
+  }
+
+  /**
+   * Broadcast a packet to players which have the given chunk loaded, either because it is in view or because it was sent to them before it left their view.
 
    */
   fun broadcastToInViewChunk(packet: Packet, chunkX: ChunkCoord, chunkY: ChunkCoord, filter: ChannelMatcher = ChannelMatchers.all()) {
-    broadcast(packet) { channel ->
-      val player = world.getPlayer(channel) ?: return@broadcast false
-      return@broadcast player.chunksInView.isInView(chunkX, chunkY) && filter.matches(channel)
+    writeToAll(packet, chunkSubscriptions.subscribers(compactInt(chunkX, chunkY)), filter)
+  }
+
+  /**
+   * Write the packet to the channels matching the filter. The packet is only serialized once, no matter how many channels it is written to
+   */
+  private fun writeToAll(packet: Packet, channels: List<Channel>, filter: ChannelMatcher = ChannelMatchers.all()) {
+    if (channels.isEmpty()) {
+      return
+    }
+    val encoded = EncodedPacket.encode(packet)
+    try {
+      for (channel in channels) {
+        if (filter.matches(channel)) {
+          channel.writeAndFlush(encoded.retainedDuplicate())
+        }
+      }
+    } finally {
+      encoded.release()
     }
   }
 
@@ -55,7 +103,8 @@ class ServerPacketSender(private val world: ServerWorld) : PacketSender {
   }
 
   fun broadcast(packet: Packet, filter: ChannelMatcher = ChannelMatchers.all()) {
-    ServerBoundHandler.channels.writeAndFlush(packet, filter)
+    // The channel group writes a retained duplicate to each channel and releases the encoded packet when done
+    ServerBoundHandler.channels.writeAndFlush(EncodedPacket.encode(packet), filter)
   }
 
   @Deprecated("Use sendDuplexPacketInView instead when on the server")
@@ -69,4 +118,34 @@ class ServerPacketSender(private val world: ServerWorld) : PacketSender {
     val packet = maybePacket ?: return
     broadcastToInViewChunk(packet, chunkLoc.decompactLocX(), chunkLoc.decompactLocY())
   }
+
+  override fun sendBlockUpdate(chunk: Chunk, localX: LocalCoord, localY: LocalCoord, block: Block?) {
+    val chunkLoc = chunk.compactLocation
+    if (chunkSubscriptions.subscribers(chunkLoc).isEmpty()) {
+      return
+    }
+    // Save the block now, it might be changed or disposed before the end of the tick
+    val protoBlock = block?.save() ?: AIR_BLOCK_PROTO
+    synchronized(pendingBlockUpdates) {
+      pendingBlockUpdates.getOrPut(chunkLoc) { BlockUpdateBatch(chunkLoc) }.add(localX, localY, protoBlock)
+    }
+  }
+
+  /**
+   * Send one packet per chunk with all the blocks changed in the chunk since the last flush
+   */
+  private fun flushBlockUpdates() {
+    val batches = synchronized(pendingBlockUpdates) {
+      if (pendingBlockUpdates.isEmpty()) {
+        return
+      }
+      ArrayList(pendingBlockUpdates.values).also { pendingBlockUpdates.clear() }
+    }
+    for (batch in batches) {
+      val subscribers = chunkSubscriptions.subscribers(batch.chunkLoc)
+      if (subscribers.isNotEmpty()) {
+        writeToAll(clientBoundBlocksUpdate(batch), subscribers)
+      }
+    }
+  }
 }
@@ -12,6 +12,8 @@ import no.elg.infiniteBootleg.core.inventory.container.ContainerOwner.Companion.
 import no.elg.infiniteBootleg.core.inventory.container.OwnedContainer.Companion.fromProto
 import no.elg.infiniteBootleg.core.main.Main
 import no.elg.infiniteBootleg.core.net.ChannelHandlerContextWrapper
+import no.elg.infiniteBootleg.core.net.ChunkInterest
+import no.elg.infiniteBootleg.core.net.OutboundScheduler
 import no.elg.infiniteBootleg.core.net.SharedInformation
 import no.elg.infiniteBootleg.core.net.clientBoundContainerUpdate
 import no.elg.infiniteBootleg.core.net.clientBoundDespawnEntity
@@ -28,6 +30,7 @@ import no.elg.infiniteBootleg.core.net.clientBoundWorldSettings
 import no.elg.infiniteBootleg.core.util.ChunkCoord
 import no.elg.infiniteBootleg.core.util.Util
 import no.elg.infiniteBootleg.core.util.WorldCoord
+import no.elg.infiniteBootleg.core.util.compactInt
 import no.elg.infiniteBootleg.core.util.generateUUIDFromString
 import no.elg.infiniteBootleg.core.util.launchOnAsyncSuspendable
 import no.elg.infiniteBootleg.core.util.launchOnBox2d
@@ -325,8 +328,9 @@ private fun physicsHandleLoginPacket(ctx: ChannelHandlerContextWrapper, login: P
   }
   val sharedInformation = SharedInformation(entityId, secret)
   ServerBoundHandler.clients[ctx.channel()] = sharedInformation
+  val chunkInterest = ChunkInterest(ctx.channel(), ServerMain.inst().packetSender.chunkSubscriptions)
 
-  ServerWorldLoader.spawnServerPlayer(world, entityId, username, sharedInformation).orTimeout(10, TimeUnit.SECONDS).whenComplete { _, ex ->
+  ServerWorldLoader.spawnServerPlayer(world, entityId, username, sharedInformation, chunkInterest).orTimeout(10, TimeUnit.SECONDS).whenComplete { _, ex ->
     if (ex == null) {
       // Exchange the UUID and secret, which will be used to verify the sender, kinda like a bearer bond.
       ctx.writeAndFlushPacket(clientBoundSecretExchange(sharedInformation))
@@ -350,8 +354,16 @@ private fun physicsHandleChunkRequest(ctx: ChannelHandlerContextWrapper, chunkX:
 
   // Only send chunks which the player is allowed to see
   if (isChunkInView(ctx, chunkX, chunkY)) {
-    val chunk = serverWorld.getChunk(chunkX, chunkY, true) ?: return // if no chunk, don't send a chunk update
-    ctx.writeAndFlushPacket(clientBoundUpdateChunkPacket(chunk))
+    if (OutboundScheduler.shouldThrottleChunks(ctx.channel())) {
+      // The client requests the chunk again if it still needs it
+      OutboundScheduler.stats.onThrottledChunk()
+      return
+    }
+    serverWorld.getChunkAsync(compactInt(chunkX, chunkY)).thenAccept { chunk ->
+      if (chunk != null) { // if no chunk, don't send a chunk update
+        ctx.writeAndFlushPacket(clientBoundUpdateChunkPacket(chunk))
+      }
+    }
   } else {
     logger.debug { "Client request chunk out side of its view ${stringifyCompactLoc(chunkX, chunkY)}" }
   }
@@ -1,17 +1,37 @@
 package no.elg.infiniteBootleg.server.world.ecs.components.transients
 
 import com.badlogic.ashley.core.Entity
+import io.netty.channel.Channel
 import ktx.ashley.Mapper
+import ktx.ashley.optionalPropertyFor
 import ktx.ashley.propertyFor
+import no.elg.infiniteBootleg.core.net.ChunkInterest
+import no.elg.infiniteBootleg.core.world.chunks.tickets.ChunkTicket
 import no.elg.infiniteBootleg.core.world.ecs.api.restriction.component.DebuggableComponent
+import no.elg.infiniteBootleg.core.world.loader.chunk.ChunkPrefetcher
 import no.elg.infiniteBootleg.core.world.render.ServerClientChunksInView
 
-data class ServerClientChunksInViewComponent(val serverClientChunksInView: ServerClientChunksInView) : DebuggableComponent {
+/**
+ * @property chunkInterest The chunks the client has loaded, which changes are broadcast to
+ */
+data class ServerClientChunksInViewComponent(val serverClientChunksInView: ServerClientChunksInView, val chunkInterest: ChunkInterest<Channel>) : DebuggableComponent {
 
-  override fun hudDebug(): String = "Chunks in view: $serverClientChunksInView"
+  /**
+   * Keeps the chunks in view loaded
+   */
+  var chunkTicket: ChunkTicket? = null
+
+  /**
+   * Loads the chunks the player is heading towards, created when the player first moves
+   */
+  var chunkPrefetcher: ChunkPrefetcher? = null
+
+  override fun hudDebug(): String =
+    "Chunks in view: $serverClientChunksInView, prefetching ${chunkPrefetcher?.pending ?: 0} chunks, ${chunkInterest.retainedChunks} chunks out of view loaded by the client"
 
   companion object : Mapper<ServerClientChunksInViewComponent>() {
     var Entity.serverClientChunksInViewComponent: ServerClientChunksInViewComponent by propertyFor(mapper)
+    val Entity.serverClientChunksInViewComponentOrNull: ServerClientChunksInViewComponent? by optionalPropertyFor(mapper)
     val Entity.chunksInView: ServerClientChunksInView get() = serverClientChunksInViewComponent.serverClientChunksInView
   }
 }
@@ -1,21 +1,115 @@
 package no.elg.infiniteBootleg.server.world.ecs.system
 
+import com.badlogic.ashley.core.Engine
 import com.badlogic.ashley.core.Entity
+import com.badlogic.ashley.core.EntityListener
 import com.badlogic.ashley.systems.IteratingSystem
+import io.netty.channel.Channel
 import ktx.ashley.allOf
+import no.elg.infiniteBootleg.core.Settings
+import no.elg.infiniteBootleg.core.net.ChunkInterest
+import no.elg.infiniteBootleg.core.net.OutboundScheduler
+import no.elg.infiniteBootleg.core.net.clientBoundUpdateChunkPacket
+import no.elg.infiniteBootleg.core.util.WorldCoordFloat
 import no.elg.infiniteBootleg.core.util.worldToChunk
+import no.elg.infiniteBootleg.core.world.chunks.tickets.ChunkTicketType
+import no.elg.infiniteBootleg.core.world.chunks.tickets.ChunkTickets
 import no.elg.infiniteBootleg.core.world.ecs.UPDATE_PRIORITY_DEFAULT
+import no.elg.infiniteBootleg.core.world.ecs.components.VelocityComponent.Companion.velocityComponentOrNull
 import no.elg.infiniteBootleg.core.world.ecs.components.required.PositionComponent
 import no.elg.infiniteBootleg.core.world.ecs.components.required.PositionComponent.Companion.positionComponent
+import no.elg.infiniteBootleg.core.world.ecs.components.required.WorldComponent.Companion.world
+import no.elg.infiniteBootleg.core.world.loader.chunk.ChunkPrefetcher
 import no.elg.infiniteBootleg.server.world.ecs.components.transients.ServerClientChunksInViewComponent
-import no.elg.infiniteBootleg.server.world.ecs.components.transients.ServerClientChunksInViewComponent.Companion.chunksInView
+import no.elg.infiniteBootleg.server.world.ecs.components.transients.ServerClientChunksInViewComponent.Companion.serverClientChunksInViewComponent
+import no.elg.infiniteBootleg.server.world.ecs.components.transients.ServerClientChunksInViewComponent.Companion.serverClientChunksInViewComponentOrNull
 
 val InViewFamily = allOf(ServerClientChunksInViewComponent::class, PositionComponent::class).get()
 
 object CenterViewOnEntity : IteratingSystem(InViewFamily, UPDATE_PRIORITY_DEFAULT) {
 
+  /**
+   * Release the chunks in view, stop broadcasting to the client and stop prefetching when the entity leaves the world
+   */
+  private val releaseTicketListener = object : EntityListener {
+    override fun entityAdded(entity: Entity) = Unit
+
+    override fun entityRemoved(entity: Entity) {
+      val component = entity.serverClientChunksInViewComponentOrNull ?: return
+      component.chunkTicket?.let(entity.world.chunkTickets::release)
+      component.chunkTicket = null
+      component.chunkInterest.clear()
+      component.chunkPrefetcher?.clear()
+      component.chunkPrefetcher = null
+    }
+  }
+
+  override fun addedToEngine(engine: Engine) {
+    super.addedToEngine(engine)
+    engine.addEntityListener(InViewFamily, releaseTicketListener)
+  }
+
+  override fun removedFromEngine(engine: Engine) {
+    super.removedFromEngine(engine)
+    engine.removeEntityListener(releaseTicketListener)
+  }
+
   override fun processEntity(entity: Entity, deltaTime: Float) {
     val (x, y) = entity.positionComponent
-    entity.chunksInView.setCenter(x.worldToChunk(), y.worldToChunk())
+    val component = entity.serverClientChunksInViewComponent
+    val chunksInView = component.serverClientChunksInView
+    chunksInView.setCenter(x.worldToChunk(), y.worldToChunk())
+    component.chunkTicket = entity.world.chunkTickets.update(component.chunkTicket, ChunkTicketType.PLAYER, chunksInView)
+
+    val chunkInterest = component.chunkInterest
+    val worldTicker = entity.world.worldTicker
+    chunkInterest.moveView(chunksInView, worldTicker.tickId, retainTicks(entity))
+    prefetchChunks(entity, component, chunkInterest, x, y)
+    chunkInterest.expire(worldTicker.tickId)
+  }
+
+  /**
+   * @return How long the client keeps a chunk out of view loaded
+   */
+  private fun retainTicks(entity: Entity): Long = ChunkTickets.UNLOAD_DELAY_SECONDS * entity.world.worldTicker.tps
+
+  private fun prefetchChunks(
+    entity: Entity,
+    component: ServerClientChunksInViewComponent,
+    chunkInterest: ChunkInterest<Channel>,
+    x: WorldCoordFloat,
+    y: WorldCoordFloat
+  ) {
+    if (!Settings.chunkPrefetch) {
+      component.chunkPrefetcher?.clear()
+      component.chunkPrefetcher = null
+      return
+    }
+    val velocity = entity.velocityComponentOrNull ?: return
+    val prefetcher = component.chunkPrefetcher ?: createPrefetcher(entity, chunkInterest).also { component.chunkPrefetcher = it }
+    prefetcher.update(component.serverClientChunksInView, x, y, velocity.dx, velocity.dy)
+  }
+
+  /**
+   * @return A prefetcher sending the prefetched chunks to the client of the entity
+   */
+  private fun createPrefetcher(entity: Entity, chunkInterest: ChunkInterest<Channel>): ChunkPrefetcher {
+    val world = entity.world
+    val channel = chunkInterest.subscriber
+    return ChunkPrefetcher(
+      stats = world.chunkPrefetchStats,
+      prefetch = world::prefetchChunkAsync,
+      cancel = world::cancelChunkPrefetch,
+      onPrefetched = { chunk ->
+        if (OutboundScheduler.isCongested(channel)) {
+          // The client will request the chunk when it comes into view
+          OutboundScheduler.stats.onThrottledChunk()
+        } else {
+          // Subscribed before the chunk is serialized, so the client is sent every change made after the chunk was serialized
+          chunkInterest.retain(chunk.compactLocation, world.worldTicker.tickId + retainTicks(entity))
+          channel.writeAndFlush(clientBoundUpdateChunkPacket(chunk))
+        }
+      }
+    )
   }
 }
@@ -3,6 +3,8 @@ package no.elg.infiniteBootleg.server.world.loader
 import com.badlogic.ashley.core.Entity
 import com.badlogic.gdx.files.FileHandle
 import io.github.oshai.kotlinlogging.KotlinLogging
+import io.netty.channel.Channel
+import no.elg.infiniteBootleg.core.net.ChunkInterest
 import no.elg.infiniteBootleg.core.net.SharedInformation
 import no.elg.infiniteBootleg.core.util.safeWith
 import no.elg.infiniteBootleg.core.util.toProtoEntityRef
@@ -31,7 +33,16 @@ object ServerWorldLoader {
 
   private fun getServerPlayerFile(world: World, playerId: String): FileHandle? = world.worldFolder?.child(PLAYERS_PATH)?.child(playerId)
 
-  fun spawnServerPlayer(world: ServerWorld, entityId: String, username: String, sharedInformation: SharedInformation): CompletableFuture<Entity> {
+  /**
+   * @param chunkInterest The chunks loaded by the client of the player
+   */
+  fun spawnServerPlayer(
+    world: ServerWorld,
+    entityId: String,
+    username: String,
+    sharedInformation: SharedInformation,
+    chunkInterest: ChunkInterest<Channel>
+  ): CompletableFuture<Entity> {
     val fileHandle = getServerPlayerFile(world, entityId)
     logger.debug { "Persisted player profile file ${fileHandle?.path()}" }
 
@@ -41,7 +52,7 @@ object ServerWorldLoader {
       safeWith {
         val positionComponent = positionComponent
         val serverClientChunksInView = ServerClientChunksInView(positionComponent.chunkX, positionComponent.chunkY)
-        ServerClientChunksInViewComponent(serverClientChunksInView)
+        ServerClientChunksInViewComponent(serverClientChunksInView, chunkInterest)
       }
       isTransientEntity = true
     }
@@ -10,6 +10,8 @@ import no.elg.infiniteBootleg.core.util.stringifyCompactLoc
 import no.elg.infiniteBootleg.core.util.worldToChunk
 import no.elg.infiniteBootleg.core.util.worldToChunkX
 import no.elg.infiniteBootleg.core.util.worldToChunkY
+import no.elg.infiniteBootleg.core.world.chunks.tickets.ChunkTicket
+import no.elg.infiniteBootleg.core.world.chunks.tickets.ChunkTicketType
 import no.elg.infiniteBootleg.core.world.render.ChunksInView.Companion.chunkColumnsInView
 import no.elg.infiniteBootleg.core.world.render.ChunksInView.Companion.sequence
 import no.elg.infiniteBootleg.core.world.render.ServerClientChunksInView
@@ -28,11 +30,17 @@ class HeadlessWorldRenderer(override val world: ServerWorld) : WorldRender {
     ServerClientChunksInView(chunkX, chunkY)
   }
 
+  /**
+   * Keeps the chunks around the spawn loaded
+   */
+  private var spawnTicket: ChunkTicket = world.chunkTickets.update(null, ChunkTicketType.SPAWN, spawnChunksInView)
+
   private val onSpawnChanged = EventManager.registerListener { event: WorldSpawnUpdatedEvent ->
     val newChunkX = event.newSpawn.worldToChunkX()
     val newChunkY = event.newSpawn.worldToChunkY()
     if (spawnChunksInView.centerX != newChunkX || spawnChunksInView.centerY != newChunkY) {
       spawnChunksInView.setCenter(newChunkX, newChunkY)
+      spawnTicket = world.chunkTickets.update(spawnTicket, ChunkTicketType.SPAWN, spawnChunksInView)
       logger.debug {
         "Updating spawn chunks in view, new center and world chunk spawn at ${stringifyCompactLoc(newChunkX, newChunkY)}"
       }
@@ -42,7 +50,7 @@ class HeadlessWorldRenderer(override val world: ServerWorld) : WorldRender {
   }
 
   override fun render() {
-    // Note to self: do not call chunkBody#update while under the chunksLock.readLock() or chunksLock.writeLock()
+    // Note to self: do not call chunkBody#update while writing to the chunks of the world
     val filter = world.loadedChunks.filter { chunk -> chunk.isValid && chunk.isDirty }
     if (filter.isNotEmpty()) {
       logger.debug { "Updating ${filter.size} dirty chunks" }
@@ -55,6 +63,7 @@ class HeadlessWorldRenderer(override val world: ServerWorld) : WorldRender {
 
   override fun dispose() {
     onSpawnChanged.removeListener()
+    world.chunkTickets.release(spawnTicket)
   }
 
   override fun resize(width: Int, height: Int) = Unit